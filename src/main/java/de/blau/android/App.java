@@ -47,6 +47,7 @@ import de.blau.android.nsi.Names;
 import de.blau.android.nsi.Names.NameAndTags;
 import de.blau.android.osm.DiscardedTags;
 import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.UndoStorage;
 import de.blau.android.photos.Photo;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.presets.MRUTags;
@@ -60,6 +61,7 @@ import de.blau.android.util.FileUtil;
 import de.blau.android.util.GeoContext;
 import de.blau.android.util.NotificationCache;
 import de.blau.android.util.SavingHelper;
+import de.blau.android.util.SearchIndexUtils;
 import de.blau.android.util.TagClipboard;
 import de.blau.android.util.Util;
 import de.blau.android.util.collections.MultiHashMap;
@@ -204,6 +206,7 @@ public class App extends Application implements android.app.Application.Activity
         String appVersion = getString(R.string.app_version);
         userAgent = appName + "/" + appVersion;
         currentInstance = this;
+        UndoStorage.setSpillDirectory(new File(getFilesDir(), UndoStorage.SPILL_DIRECTORY));
         setConfiguration(getResources().getConfiguration());
         // register a broadcast receiver for DeX mode
         // this will remain registered as long as the
@@ -370,6 +373,8 @@ public class App extends Application implements android.app.Application.Activity
             presetSearchIndex = null;
             translatedPresetSearchIndex = null;
         }
+        Preset.invalidateMatchCache();
+        SearchIndexUtils.clearFuzzyIndices();
     }
 
     /**
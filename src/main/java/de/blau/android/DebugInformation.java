@@ -129,6 +129,7 @@ public class DebugInformation extends ConfigurationChangeAwareActivity {
         MapTileFilesystemProvider fsProvider = App.getMapTileFilesystemProvider(this);
         if (fsProvider != null) {
             builder.append("Current used file system net tile cache size: " + fsProvider.getCurrentCacheByteSize() + "B" + eol);
+            builder.append("Tile request queue: " + fsProvider.getQueueStatistics() + eol);
         } else {
             builder.append("No file system tile cache!" + eol);
         }
@@ -139,6 +140,10 @@ public class DebugInformation extends ConfigurationChangeAwareActivity {
         } else {
             builder.append("No state file found" + eol);
         }
+        File journalFile = new File(getFilesDir(), StorageDelegator.JOURNAL_FILENAME);
+        if (journalFile.exists()) {
+            builder.append("State journal size " + journalFile.length() + eol);
+        }
         File bugStateFile = new File(getFilesDir(), TaskStorage.FILENAME);
         if (bugStateFile.exists()) {
             builder.append("Bug state file size " + bugStateFile.length() + " last changed "
@@ -35,8 +35,6 @@ import java.util.regex.Matcher;
 import javax.net.ssl.SSLProtocolException;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
-import org.openstreetmap.osmosis.osmbinary.file.BlockReaderAdapter;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -89,6 +87,7 @@ import de.blau.android.osm.OsmGpxApi;
 import de.blau.android.osm.OsmGpxApi.Visibility;
 import de.blau.android.osm.OsmParser;
 import de.blau.android.osm.OsmPbfParser;
+import de.blau.android.osm.OsmStreamParser;
 import de.blau.android.osm.OsmXml;
 import de.blau.android.osm.PostMergeHandler;
 import de.blau.android.osm.Relation;
@@ -114,6 +113,7 @@ import de.blau.android.util.ACRAHelper;
 import de.blau.android.util.Coordinates;
 import de.blau.android.util.EditState;
 import de.blau.android.util.ExecutorTask;
+import de.blau.android.util.ExecutorTask.OnProgressListener;
 import de.blau.android.util.FileUtil;
 import de.blau.android.util.GeoMath;
 import de.blau.android.util.Geometry;
@@ -367,6 +367,7 @@ public class Logic {
     public void setPrefs(@NonNull final Preferences prefs) {
         this.prefs = prefs;
         DataStyle.switchTo(prefs.getDataStyle());
+        UndoStorage.setMemoryBudget(prefs.getUndoMemoryBudget() * 1024L * 1024L);
     }
 
     /**
@@ -377,13 +378,8 @@ public class Logic {
         DataStyle.switchTo(prefs.getDataStyle());
         DataStyle.updateStrokes(strokeWidth(viewBox.getWidth()));
         DataStyle.setAntiAliasing(prefs.isAntiAliasingEnabled());
-        // zap the cached style for all ways
-        for (Way w : getWays()) {
-            w.setStyle(null);
-        }
-        for (Relation r : getDelegator().getCurrentStorage().getRelations()) {
-            r.setStyle(null);
-        }
+        // zap the cached style for all ways and relations
+        DataStyle.invalidateStyles();
         map.updateStyle();
     }
 
@@ -2798,7 +2794,7 @@ public class Logic {
 
         final PostMergeHandler postMerge = (OsmElement e) -> e.hasProblem(context, validator);
 
-        new ExecutorTask<Boolean, Void, AsyncResult>(executorService, uiHandler) {
+        new ExecutorTask<Boolean, Integer, AsyncResult>(executorService, uiHandler) {
 
             boolean hasActivity = context instanceof FragmentActivity;
 
@@ -2814,7 +2810,14 @@ public class Logic {
                 boolean merge = arg != null && arg.booleanValue();
                 Server server = prefs.getServer();
                 mapBox.makeValidForApi(server.getCachedCapabilities().getMaxArea());
-                return download(context, server, mapBox, postMerge, null, merge, false);
+                return download(context, server, mapBox, postMerge, null, merge, false, this::publishProgress);
+            }
+
+            @Override
+            protected void onProgress(Integer progress) {
+                if (hasActivity) {
+                    Progress.setProgress((FragmentActivity) context, Progress.PROGRESS_DOWNLOAD, progress);
+                }
             }
 
             @Override
@@ -2924,6 +2927,25 @@ public class Logic {
      */
     public AsyncResult download(@NonNull final Context ctx, @NonNull Server server, @NonNull final BoundingBox mapBox,
             @Nullable final PostMergeHandler postMerge, @Nullable final PostAsyncActionHandler handler, boolean merge, boolean background) {
+        return download(ctx, server, mapBox, postMerge, handler, merge, background, null);
+    }
+
+    /**
+     * Download/Load a bounding box full of OSM data
+     * 
+     * @param ctx an Android Context
+     * @param server the API Server configuration
+     * @param mapBox the BoundingBox
+     * @param postMerge handler to call after merging
+     * @param handler handler to call when everything is finished
+     * @param merge if true merge the data with existing data, if false replace
+     * @param background this is being called in the background and shouldn't do any thing that effects the UI
+     * @param listener if not null called with the percentage of the data loaded, currently only for MapSplit sources
+     * @return a ReadAsyncResult with detailed result information
+     */
+    public AsyncResult download(@NonNull final Context ctx, @NonNull Server server, @NonNull final BoundingBox mapBox,
+            @Nullable final PostMergeHandler postMerge, @Nullable final PostAsyncActionHandler handler, boolean merge, boolean background,
+            @Nullable OnProgressListener<Integer> listener) {
         AsyncResult result = new AsyncResult(ErrorCodes.OK);
         try {
             if (!background) {
@@ -2951,10 +2973,10 @@ public class Logic {
 
             Storage input = null;
             if (server.hasMapSplitSource()) {
-                input = MapSplitSource.readBox(ctx, server.getMapSplitSource(), mapBox);
+                input = MapSplitSource.readBox(ctx, server.getMapSplitSource(), mapBox, listener);
             } else {
                 try (InputStream in = server.getStreamForBox(ctx, mapBox)) {
-                    final OsmParser osmParser = new OsmParser();
+                    final OsmParser osmParser = new OsmStreamParser();
                     osmParser.start(in);
                     input = osmParser.getStorage();
                 }
@@ -3649,7 +3671,7 @@ public class Logic {
             protected AsyncResult doInBackground(Boolean arg) {
                 synchronized (Logic.this) {
                     try {
-                        final OsmParser osmParser = new OsmParser();
+                        final OsmParser osmParser = new OsmStreamParser();
                         osmParser.clearBoundingBoxes(); // this removes the default bounding box
                         try (final InputStream in = new BufferedInputStream(is)) {
                             osmParser.start(in);
@@ -3824,8 +3846,7 @@ public class Logic {
                     try {
                         Storage storage = new Storage();
                         try {
-                            BlockReaderAdapter opp = new OsmPbfParser(storage);
-                            new BlockInputStream(is, opp).process();
+                            new OsmPbfParser(storage).process(is);
                             StorageDelegator sd = getDelegator();
                             sd.reset(false);
                             sd.setCurrentStorage(storage); // this sets dirty flag
@@ -213,8 +213,7 @@ public class Splash extends AppCompatActivity {
                     reallyBuilder.setTitle(R.string.safe_delete_state_title);
                     reallyBuilder.setPositiveButton(R.string.safe_delete_state_text, (DialogInterface dialog2, int which2) -> {
                         Log.e(DEBUG_TAG, "Removing state files");
-                        this.deleteFile(StorageDelegator.FILENAME);
-                        this.deleteFile(StorageDelegator.BACKUP_FILENAME);
+                        StorageDelegator.deleteState(this);
                         dialog.dismiss();
                         startupTask.execute();
                     });
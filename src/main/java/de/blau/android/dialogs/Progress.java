@@ -3,10 +3,13 @@ package de.blau.android.dialogs;
 import android.app.Dialog;
 import android.os.Bundle;
 import android.util.Log;
+import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.fragment.app.FragmentManager;
+import de.blau.android.R;
 import de.blau.android.util.ImmersiveDialogFragment;
 
 /**
@@ -71,6 +74,20 @@ public class Progress extends ImmersiveDialogFragment {
         }
     }
 
+    /**
+     * Show the percentage of the work done in a progress spinner
+     * 
+     * @param activity the calling FragmentActivity
+     * @param dialogType an int indicating which heading to show
+     * @param percent the percentage of the work done
+     */
+    public static void setProgress(@NonNull FragmentActivity activity, int dialogType, int percent) {
+        Fragment fragment = activity.getSupportFragmentManager().findFragmentByTag(getTag(dialogType));
+        if (fragment instanceof Progress) {
+            ((Progress) fragment).setProgress(percent);
+        }
+    }
+
     /**
      * Dismiss the progress spinner
      * 
@@ -195,4 +212,20 @@ public class Progress extends ImmersiveDialogFragment {
     public Dialog onCreateDialog(Bundle savedInstanceState) {
         return ProgressDialog.get(getActivity(), dialogType);
     }
+
+    /**
+     * Add the percentage of the work done to the message
+     * 
+     * @param percent the percentage of the work done
+     */
+    private void setProgress(int percent) {
+        Dialog dialog = getDialog();
+        TextView message = dialog != null ? (TextView) dialog.findViewById(R.id.progressMessage) : null;
+        if (message != null) {
+            if (message.getTag() == null) {
+                message.setTag(message.getText()); // original message
+            }
+            message.setText(getString(R.string.progress_percent, message.getTag(), percent));
+        }
+    }
 }
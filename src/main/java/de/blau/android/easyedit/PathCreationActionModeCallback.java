@@ -301,7 +301,7 @@ public class PathCreationActionModeCallback extends BuilderActionModeCallback {
         existingNodes.addAll(nodesToAdd);
         addedNodes.addAll(nodesToAdd);
         createdWay.getNodes().addAll(nodesToAdd); // nodes already all exist in storage
-        createdWay.invalidateBoundingBox();
+        App.getDelegator().invalidateWayGeometry(createdWay);
         logic.setClickableElements(null);
         if (createdWay.isClosed()) {
             finishPath(createdWay, null);
@@ -3,10 +3,7 @@ package de.blau.android.filter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import android.content.Context;
 import android.view.ViewGroup;
@@ -17,7 +14,9 @@ import de.blau.android.Logic;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.Relation;
+import de.blau.android.osm.RelationMember;
 import de.blau.android.osm.Way;
+import de.blau.android.util.collections.OsmElementValueMap;
 
 public abstract class Filter implements Serializable {
     /**
@@ -32,12 +31,18 @@ public abstract class Filter implements Serializable {
         DONT, INCLUDE, INCLUDE_WITH_WAYNODES
     }
 
+    /**
+     * Max number of changed elements that are invalidated individually, for larger changes the caches are simply
+     * cleared
+     */
+    private static final int MAX_INCREMENTAL_CHANGES = 1000;
+
     /**
      * cache for element filter actions
      */
-    transient Map<Node, Include>     cachedNodes     = new HashMap<>(100);
-    transient Map<Way, Include>      cachedWays      = new HashMap<>(100);
-    transient Map<Relation, Include> cachedRelations = new HashMap<>(100);
+    transient OsmElementValueMap<Node, Include>     cachedNodes     = new OsmElementValueMap<>(100);
+    transient OsmElementValueMap<Way, Include>      cachedWays      = new OsmElementValueMap<>(100);
+    transient OsmElementValueMap<Relation, Include> cachedRelations = new OsmElementValueMap<>(100);
 
     private transient Logic logic = App.getLogic();
 
@@ -172,13 +177,7 @@ public abstract class Filter implements Serializable {
      */
     @NonNull
     public List<Node> getVisibleNodes() {
-        List<Node> result = new ArrayList<>();
-        for (Entry<Node, Include> e : cachedNodes.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
-            }
-        }
-        return result;
+        return cachedNodes.keys(new ArrayList<>(), Filter::visible);
     }
 
     /**
@@ -188,13 +187,17 @@ public abstract class Filter implements Serializable {
      */
     @NonNull
     public List<Way> getVisibleWays() {
-        List<Way> result = new ArrayList<>();
-        for (Entry<Way, Include> e : cachedWays.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
-            }
-        }
-        return result;
+        return cachedWays.keys(new ArrayList<>(), Filter::visible);
+    }
+
+    /**
+     * Check if a cached filter action results in the element being shown
+     * 
+     * @param include the cached action, null if the element is still being processed
+     * @return true if the element is visible
+     */
+    private static boolean visible(@Nullable Include include) {
+        return include != null && include != Include.DONT;
     }
 
     /**
@@ -206,14 +209,90 @@ public abstract class Filter implements Serializable {
     /**
      * Call this on element(s) changing to update/invalidate the cache.
      * 
-     * The default implementation simply calls {@link #clear()}
+     * The default implementation removes the cached actions for the changed elements and for the elements their
+     * actions can have been propagated to or from: way nodes, ways a node is a member of, parent relations and
+     * relation members. If nothing is known about the change, or it is large, {@link #clear()} is called.
      * 
      * @param <T> OsmElement type
      * @param pre the element(s) before the change or null
      * @param post the element(s) after the change or null
      */
     public <T extends OsmElement> void onElementChanged(@Nullable List<T> pre, @Nullable List<T> post) {
-        clear();
+        int count = (pre != null ? pre.size() : 0) + (post != null ? post.size() : 0);
+        if (count == 0 || count > MAX_INCREMENTAL_CHANGES) {
+            clear();
+            return;
+        }
+        invalidate(pre);
+        invalidate(post);
+    }
+
+    /**
+     * Remove the cached actions for a list of changed elements and the elements they depend on
+     * 
+     * @param <T> OsmElement type
+     * @param elements the changed elements or null
+     */
+    private <T extends OsmElement> void invalidate(@Nullable List<T> elements) {
+        if (elements == null) {
+            return;
+        }
+        for (OsmElement e : elements) {
+            invalidate(e);
+            if (e instanceof Way) {
+                invalidateWayNodes((Way) e);
+            } else if (e instanceof Node) {
+                for (Way w : App.getLogic().getWaysForNode((Node) e)) {
+                    cachedWays.remove(w.getOsmId());
+                }
+            } else if (e instanceof Relation) {
+                List<RelationMember> members = ((Relation) e).getMembers();
+                if (members != null) {
+                    for (RelationMember rm : members) {
+                        OsmElement member = rm.getElement();
+                        if (member != null) {
+                            invalidate(member);
+                            if (member instanceof Way) {
+                                // the relation action may have been propagated to the way nodes
+                                invalidateWayNodes((Way) member);
+                            }
+                        }
+                    }
+                }
+            }
+            List<Relation> parents = e.getParentRelations();
+            if (parents != null) {
+                for (Relation r : parents) {
+                    cachedRelations.remove(r.getOsmId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the cached actions for the nodes of a way
+     * 
+     * @param way the Way
+     */
+    private void invalidateWayNodes(@NonNull Way way) {
+        for (Node n : way.getNodes()) {
+            cachedNodes.remove(n.getOsmId());
+        }
+    }
+
+    /**
+     * Remove the cached action for a single element
+     * 
+     * @param e the OsmElement
+     */
+    private void invalidate(@NonNull OsmElement e) {
+        if (e instanceof Node) {
+            cachedNodes.remove(e.getOsmId());
+        } else if (e instanceof Way) {
+            cachedWays.remove(e.getOsmId());
+        } else if (e instanceof Relation) {
+            cachedRelations.remove(e.getOsmId());
+        }
     }
 
     /**
@@ -226,8 +305,8 @@ public abstract class Filter implements Serializable {
     private void readObject(@NonNull java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         // Normal deserialization will not initialize transient objects, need to do it here
-        cachedNodes = new HashMap<>(100);
-        cachedWays = new HashMap<>(100);
-        cachedRelations = new HashMap<>(100);
+        cachedNodes = new OsmElementValueMap<>(100);
+        cachedWays = new OsmElementValueMap<>(100);
+        cachedRelations = new OsmElementValueMap<>(100);
     }
 }
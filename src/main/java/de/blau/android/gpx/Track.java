@@ -57,7 +57,11 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private static final String TRK_ELEMENT    = "trk";
     private static final String GPX_ELEMENT    = "gpx";
 
-    private final List<TrackPoint> currentTrack;
+    private static final long   COMPRESSION_MAX_INTERVAL       = 60000; // ms
+    private static final double COMPRESSION_MAX_HEADING_CHANGE = 45;    // degrees
+    private static final int    COMPRESSION_BUFFER_SIZE        = 64;
+
+    private final TrackPoints currentTrack;
 
     private final List<WayPoint> currentWayPoints;
 
@@ -112,6 +116,9 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     /** set by {@link #markNewSegment()} - indicates that the next track point will have the isNewSegment flag set */
     private boolean nextIsNewSegment = false;
 
+    /** if not null recorded points are compressed, the last point of the track may then be replaced by the next one */
+    private TrackCompressor compressor = null;
+
     /**
      * Basic constructor
      * 
@@ -123,7 +130,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         iso8601Format = new SimpleDateFormat(DATE_PATTERN_ISO8601_UTC, Locale.US);
         iso8601Format.setTimeZone(TimeZone.getTimeZone("UTC"));
 
-        currentTrack = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
+        currentTrack = new TrackPoints(); // always synchronized
         currentWayPoints = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
         ctx = context;
         synchronized (savingLock) {
@@ -145,6 +152,9 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     public void reset() {
         deleteSaveFile();
         currentTrack.clear();
+        if (compressor != null) {
+            compressor.reset();
+        }
         currentWayPoints.clear();
     }
 
@@ -164,18 +174,40 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
      */
     public void addTrackPoint(final Location location) {
         if (location != null) {
-            currentTrack.add(new TrackPoint(location, nextIsNewSegment));
+            TrackPoint tp = new TrackPoint(location, nextIsNewSegment);
+            // never replace a point that has already been saved
+            if (compressor != null && compressor.add(tp) && currentTrack.size() - 1 >= savedTrackPoints) {
+                currentTrack.replaceLast(tp.flags, tp.latitude, tp.longitude, tp.altitude, tp.time);
+            } else {
+                currentTrack.add(tp);
+            }
             nextIsNewSegment = false;
         }
     }
 
+    /**
+     * Set the tolerance for compressing recorded points
+     * 
+     * Points that are within the tolerance of the straight line between their neighbours are dropped while recording,
+     * see {@link TrackCompressor}.
+     * 
+     * @param tolerance the maximum distance of a dropped point from the track in meters, 0 turns compression off
+     */
+    public void setCompressionTolerance(double tolerance) {
+        if (tolerance <= 0) {
+            compressor = null;
+        } else if (compressor == null || compressor.getTolerance() != tolerance) { // NOSONAR
+            compressor = new TrackCompressor(tolerance, COMPRESSION_MAX_INTERVAL, COMPRESSION_MAX_HEADING_CHANGE, COMPRESSION_BUFFER_SIZE);
+        }
+    }
+
     /**
      * Get the TrackPoints for this track
      * 
-     * @return an array of TrackPoint
+     * @return a List of TrackPoint
      */
     @NonNull
-    public List<TrackPoint> getTrackPoints() {
+    public TrackPoints getTrackPoints() {
         return currentTrack;
     }
 
@@ -205,6 +237,15 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
      * Note: currently the track saving is still using the original implementation and not simply serializing to disk
      */
     public void save() {
+        save(false);
+    }
+
+    /**
+     * Save current state to files
+     * 
+     * @param all if false a last point that may still be replaced by compression is not saved
+     */
+    private void save(boolean all) {
         if (savingDisabled) {
             Log.e(DEBUG_TAG, "Saving disabled but tried to save");
             return;
@@ -217,13 +258,14 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             wayPointsSaver.save(ctx, WAYPOINT_SAVEFILE, new ArrayList<>(currentWayPoints), true);
         }
 
-        if (savedTrackPoints == currentTrack.size()) {
+        final int toSave = all || compressor == null || !compressor.hasTentativePoint() ? currentTrack.size() : currentTrack.size() - 1;
+        if (savedTrackPoints >= toSave) {
             return;
         }
 
         // There are records to be saved
         ensureFileOpen();
-        while (savedTrackPoints < currentTrack.size()) {
+        while (savedTrackPoints < toSave) {
             try {
                 currentTrack.get(savedTrackPoints).toStream(saveFileStream);
             } catch (IOException e) {
@@ -308,7 +350,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private void asyncLoad() {
         // Logic instance might not be available here
         new ExecutorTask<Void, Void, Void>() {
-            private ArrayList<TrackPoint> loaded = new ArrayList<>();
+            private TrackPoints loaded = new TrackPoints();
 
             @Override
             protected Void doInBackground(Void param) {
@@ -363,7 +405,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             }
 
             /**
-             * Loads a track from the file to the "loaded" ArrayList.
+             * Loads a track from the file to the "loaded" TrackPoints.
              * 
              * @return true if the file was loaded without problems, false if some problem occurred and the file needs
              *         to be rewritten
@@ -383,7 +425,8 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                     }
 
                     for (int i = 0; i < records; i++) {
-                        loaded.add(TrackPoint.fromStream(in));
+                        // see TrackPoint.fromStream, arguments are evaluated left to right
+                        loaded.add(in.readByte(), in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
                     }
 
                     if ((size - 4) % TrackPoint.RECORD_SIZE != 0) {
@@ -431,7 +474,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         Log.d(DEBUG_TAG, "Trying to close track");
         loadingLock.lock();
         try {
-            save();
+            save(true);
             if (saveFileStream != null) {
                 SavingHelper.close(saveFileStream);
                 saveFileStream = null;
@@ -648,7 +691,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         case TRKSEG_ELEMENT:
             break;
         case TrackPoint.TRKPT_ELEMENT:
-            currentTrack.add(new TrackPoint(newSegment ? TrackPoint.FLAG_NEWSEGMENT : 0, parsedLat, parsedLon, parsedEle, parsedTime));
+            currentTrack.add(newSegment ? TrackPoint.FLAG_NEWSEGMENT : 0, parsedLat, parsedLon, parsedEle, parsedTime);
             newSegment = false;
             parsedEle = Double.NaN;
             parsedTime = 0L;
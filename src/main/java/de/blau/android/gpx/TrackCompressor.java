@@ -0,0 +1,245 @@
+package de.blau.android.gpx;
+
+import androidx.annotation.NonNull;
+import de.blau.android.util.GeoMath;
+
+/**
+ * Streaming, error bounded track compression
+ * 
+ * The last point of the track is treated as tentative: if the following point can be reached from the last retained
+ * point (the anchor) by a straight line that passes within the tolerance of the tentative point and of all raw points
+ * that were previously dropped in favour of it, the tentative point is replaced by the new one. Otherwise it is
+ * retained and becomes the new anchor. Every dropped raw point is thus within the tolerance of the compressed track.
+ * 
+ * In addition a point is retained if dropping it would leave a gap longer than the maximum interval between retained
+ * points, if the heading changes by more than the maximum angle at it, or if the buffer of dropped points is full.
+ * Segment starts and ends are always retained.
+ * 
+ * Distances are calculated in a local equirectangular projection around the anchor, which is more than good enough
+ * for the short distances involved.
+ * 
+ * This code is not thread safe and requires external synchronization.
+ */
+public class TrackCompressor {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoMath.EARTH_RADIUS;
+
+    private final double tolerance;
+    private final long   maxInterval;
+    private final double maxHeadingChange;
+
+    /** the dropped raw points between the anchor and the tail, in meters relative to the anchor */
+    private final double[] bufferX;
+    private final double[] bufferY;
+    private int            buffered = 0;
+
+    private boolean hasAnchor = false;
+    private double  anchorLat;
+    private double  anchorLon;
+    private long    anchorTime;
+    private double  scaleX;
+
+    private boolean hasTail = false;
+    private double  tailX;
+    private double  tailY;
+    private double  tailLat;
+    private double  tailLon;
+    private long    tailTime;
+
+    /**
+     * Create a new compressor
+     * 
+     * @param tolerance the maximum distance of a dropped point from the compressed track in meters
+     * @param maxInterval the maximum time between retained points in ms, 0 for no limit
+     * @param maxHeadingChange the maximum change of heading at a dropped point in degrees
+     * @param bufferSize the maximum number of consecutive points that will be dropped
+     */
+    public TrackCompressor(double tolerance, long maxInterval, double maxHeadingChange, int bufferSize) {
+        if (tolerance <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("tolerance and buffer size must be positive");
+        }
+        this.tolerance = tolerance;
+        this.maxInterval = maxInterval;
+        this.maxHeadingChange = Math.toRadians(maxHeadingChange);
+        bufferX = new double[bufferSize];
+        bufferY = new double[bufferSize];
+    }
+
+    /**
+     * Get the distance tolerance
+     * 
+     * @return the tolerance in meters
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Process the next point of the track
+     * 
+     * @param p the new point
+     * @return true if p should replace the current last point of the track, false if it should be appended
+     */
+    public boolean add(@NonNull TrackPoint p) {
+        if (!hasTail || p.isNewSegment()) {
+            // the tail, if any, ends a segment and is retained
+            hasAnchor = false;
+            setTail(p);
+            return false;
+        }
+        if (!hasAnchor) {
+            setAnchor();
+            setTail(p);
+            return false;
+        }
+        final double x = toX(p.getLongitude());
+        final double y = toY(p.getLatitude());
+        if (buffered == bufferX.length || (maxInterval > 0 && p.getTime() - anchorTime > maxInterval) || turns(x, y)
+                || exceedsTolerance(x, y)) {
+            setAnchor();
+            setTail(p);
+            return false;
+        }
+        bufferX[buffered] = tailX;
+        bufferY[buffered] = tailY;
+        buffered++;
+        setTail(p);
+        return true;
+    }
+
+    /**
+     * Forget all state, the next point will be retained
+     */
+    public void reset() {
+        hasAnchor = false;
+        hasTail = false;
+        buffered = 0;
+    }
+
+    /**
+     * Check if the track has a tentative last point that may still be replaced
+     * 
+     * @return true if the last point is tentative
+     */
+    public boolean hasTentativePoint() {
+        return hasAnchor;
+    }
+
+    /**
+     * Make the tail the new anchor
+     */
+    private void setAnchor() {
+        hasAnchor = true;
+        anchorLat = tailLat;
+        anchorLon = tailLon;
+        anchorTime = tailTime;
+        scaleX = METERS_PER_DEGREE * Math.cos(Math.toRadians(anchorLat));
+        buffered = 0;
+    }
+
+    /**
+     * Set the tail
+     * 
+     * @param p the new tail
+     */
+    private void setTail(@NonNull TrackPoint p) {
+        hasTail = true;
+        tailLat = p.getLatitude();
+        tailLon = p.getLongitude();
+        tailTime = p.getTime();
+        if (hasAnchor) {
+            tailX = toX(tailLon);
+            tailY = toY(tailLat);
+        }
+    }
+
+    /**
+     * Project a longitude relative to the anchor
+     * 
+     * @param lon the longitude in degrees
+     * @return the x coordinate in meters
+     */
+    private double toX(double lon) {
+        double delta = lon - anchorLon;
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        return delta * scaleX;
+    }
+
+    /**
+     * Project a latitude relative to the anchor
+     * 
+     * @param lat the latitude in degrees
+     * @return the y coordinate in meters
+     */
+    private double toY(double lat) {
+        return (lat - anchorLat) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * Check if the heading changes by more than the maximum at the tail
+     * 
+     * Short legs are ignored as their heading is dominated by noise.
+     * 
+     * @param x x coordinate of the new point
+     * @param y y coordinate of the new point
+     * @return true if the heading changes too much
+     */
+    private boolean turns(double x, double y) {
+        final double inX = tailX;
+        final double inY = tailY;
+        final double outX = x - tailX;
+        final double outY = y - tailY;
+        final double minLength = tolerance * tolerance;
+        if (inX * inX + inY * inY < minLength || outX * outX + outY * outY < minLength) {
+            return false;
+        }
+        double change = Math.abs(Math.atan2(outY, outX) - Math.atan2(inY, inX));
+        if (change > Math.PI) {
+            change = 2 * Math.PI - change;
+        }
+        return change > maxHeadingChange;
+    }
+
+    /**
+     * Check if the tail or any of the buffered points is farther than the tolerance from the line from the anchor to
+     * the new point
+     * 
+     * @param x x coordinate of the new point
+     * @param y y coordinate of the new point
+     * @return true if a point would be too far away
+     */
+    private boolean exceedsTolerance(double x, double y) {
+        final double toleranceSquared = tolerance * tolerance;
+        if (distanceSquared(tailX, tailY, x, y) > toleranceSquared) {
+            return true;
+        }
+        for (int i = 0; i < buffered; i++) {
+            if (distanceSquared(bufferX[i], bufferY[i], x, y) > toleranceSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculate the squared distance of a point from the segment between the origin and another point
+     * 
+     * @param px x coordinate of the point
+     * @param py y coordinate of the point
+     * @param x x coordinate of the segment end
+     * @param y y coordinate of the segment end
+     * @return the squared distance in square meters
+     */
+    static double distanceSquared(double px, double py, double x, double y) {
+        final double lengthSquared = x * x + y * y;
+        double t = lengthSquared == 0 ? 0 : (px * x + py * y) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        final double dx = px - t * x;
+        final double dy = py - t * y;
+        return dx * dx + dy * dy;
+    }
+}
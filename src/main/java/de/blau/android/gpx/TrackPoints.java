@@ -0,0 +1,608 @@
+package de.blau.android.gpx;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.util.GeoMath;
+import de.blau.android.util.collections.FloatPrimitiveList;
+
+/**
+ * Column oriented storage for track points
+ * 
+ * Coordinates are stored as 1E7 scaled ints, elevation as float and time as long in separate arrays, TrackPoint
+ * objects are only created when accessed via the List interface. For drawing the points are grouped in chunks of
+ * CHUNK_SIZE with a bounding box each so that only chunks that are visible need to be looked at, and decimated
+ * versions of the track are maintained per resolution so that only as many points are projected as can actually be
+ * seen.
+ * 
+ * All methods are synchronized so that points can be added while the track is being drawn.
+ */
+public class TrackPoints extends AbstractList<TrackPoint> implements RandomAccess {
+
+    static final int         CHUNK_SIZE           = 256;
+    private static final int INITIAL_CAPACITY     = 64;
+    private static final int MIN_DECIMATION_LEVEL = 7;  // 128 * 1E-7 degrees, roughly a metre
+    private static final int MAX_LEVEL            = 31;
+
+    private byte[]  flags      = new byte[INITIAL_CAPACITY];
+    private int[]   lats       = new int[INITIAL_CAPACITY];
+    private int[]   lons       = new int[INITIAL_CAPACITY];
+    private float[] elevations = new float[INITIAL_CAPACITY];
+    private long[]  times      = new long[INITIAL_CAPACITY];
+    private int     size       = 0;
+
+    /**
+     * left, bottom, right, top for each chunk, chunk c contains the points c * CHUNK_SIZE up to and including (c + 1) *
+     * CHUNK_SIZE so that every line segment is completely inside one chunk
+     */
+    private int[] chunkBoxes = new int[4 * 16];
+
+    private final Decimation[] decimations = new Decimation[MAX_LEVEL];
+
+    /**
+     * The indices of the points that remain after removing points that are closer than 2^level * 1E-7 degrees to the
+     * previous remaining point
+     */
+    private final class Decimation {
+        final int   level;
+        int[]       indices   = new int[INITIAL_CAPACITY];
+        int         count     = 0;
+        int         processed = 0;
+        private int lastLat;
+        private int lastLon;
+        private int latTolerance;
+
+        /**
+         * Create a new instance
+         * 
+         * @param level the decimation level
+         */
+        Decimation(int level) {
+            this.level = level;
+        }
+
+        /**
+         * Process any points that have been added since the last call
+         */
+        void update() {
+            final int tolerance = 1 << level;
+            for (int i = processed; i < size; i++) {
+                if (i == 0) {
+                    keep(i);
+                    continue;
+                }
+                final int lat = lats[i];
+                final int lon = lons[i];
+                if (isNewSegment(i)) {
+                    if (indices[count - 1] != i - 1) {
+                        keep(i - 1); // keep the end of the previous segment
+                    }
+                    keep(i);
+                } else if (Math.abs(lon - lastLon) >= tolerance || Math.abs(lat - lastLat) >= latTolerance) {
+                    keep(i);
+                }
+            }
+            processed = size;
+        }
+
+        /**
+         * Add a point to the decimated track
+         * 
+         * @param i the index of the point
+         */
+        private void keep(int i) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * count);
+            }
+            indices[count++] = i;
+            setLast(i);
+        }
+
+        /**
+         * Set the point that the distance of following points is checked against
+         * 
+         * @param i the index of the point
+         */
+        private void setLast(int i) {
+            lastLat = lats[i];
+            lastLon = lons[i];
+            // in Mercator a degree of latitude is longer by 1/cos(lat) than a degree of longitude
+            latTolerance = Math.max(1, (int) ((1 << level) * Math.cos(Math.toRadians(lastLat / 1E7D))));
+        }
+
+        /**
+         * Forget a point and all following ones so that they will be processed again
+         * 
+         * @param i the index of the point
+         */
+        void retract(int i) {
+            if (processed <= i) {
+                return;
+            }
+            processed = i;
+            while (count > 0 && indices[count - 1] >= i) {
+                count--;
+            }
+            if (count > 0) {
+                setLast(indices[count - 1]);
+            }
+        }
+    }
+
+    @Override
+    public synchronized TrackPoint get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " size " + size);
+        }
+        return new TrackPoint(flags[index], lats[index] / 1E7D, lons[index] / 1E7D, elevations[index], times[index]);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean add(TrackPoint tp) {
+        add(tp.flags, tp.latitude, tp.longitude, tp.altitude, tp.time);
+        return true;
+    }
+
+    /**
+     * Append a point without creating a TrackPoint object
+     * 
+     * @param flag flags (new segment)
+     * @param latitude the latitude (WGS84)
+     * @param longitude the longitude (WSG84)
+     * @param altitude altitude in meters or NaN
+     * @param time time (ms since the epoch)
+     */
+    public synchronized void add(byte flag, double latitude, double longitude, double altitude, long time) {
+        ensureCapacity(size + 1);
+        set(size, flag, latitude, longitude, altitude, time);
+        size++;
+        modCount++;
+        updateChunk(size - 1);
+    }
+
+    /**
+     * Replace the last point without creating a TrackPoint object
+     * 
+     * @param flag flags (new segment)
+     * @param latitude the latitude (WGS84)
+     * @param longitude the longitude (WSG84)
+     * @param altitude altitude in meters or NaN
+     * @param time time (ms since the epoch)
+     */
+    public synchronized void replaceLast(byte flag, double latitude, double longitude, double altitude, long time) {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Track is empty");
+        }
+        final int last = size - 1;
+        set(last, flag, latitude, longitude, altitude, time);
+        modCount++;
+        // the chunk bounding box may now be larger than necessary, but that doesn't matter
+        updateChunk(last);
+        for (Decimation decimation : decimations) {
+            if (decimation != null) {
+                decimation.retract(last);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void add(int index, TrackPoint tp) {
+        if (index == size) {
+            add(tp);
+            return;
+        }
+        addAll(index, Arrays.asList(tp));
+    }
+
+    @Override
+    public synchronized boolean addAll(int index, Collection<? extends TrackPoint> c) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + " size " + size);
+        }
+        final int count = c.size();
+        if (count == 0) {
+            return false;
+        }
+        if (index == size) {
+            for (TrackPoint tp : c) {
+                add(tp);
+            }
+            return true;
+        }
+        // allocate new arrays so that a concurrent reader with the old arrays doesn't see a partial state
+        final int newSize = size + count;
+        final int capacity = Math.max(newSize, INITIAL_CAPACITY);
+        byte[] newFlags = new byte[capacity];
+        int[] newLats = new int[capacity];
+        int[] newLons = new int[capacity];
+        float[] newElevations = new float[capacity];
+        long[] newTimes = new long[capacity];
+        System.arraycopy(flags, 0, newFlags, 0, index);
+        System.arraycopy(lats, 0, newLats, 0, index);
+        System.arraycopy(lons, 0, newLons, 0, index);
+        System.arraycopy(elevations, 0, newElevations, 0, index);
+        System.arraycopy(times, 0, newTimes, 0, index);
+        final int tail = size - index;
+        System.arraycopy(flags, index, newFlags, index + count, tail);
+        System.arraycopy(lats, index, newLats, index + count, tail);
+        System.arraycopy(lons, index, newLons, index + count, tail);
+        System.arraycopy(elevations, index, newElevations, index + count, tail);
+        System.arraycopy(times, index, newTimes, index + count, tail);
+        flags = newFlags;
+        lats = newLats;
+        lons = newLons;
+        elevations = newElevations;
+        times = newTimes;
+        int i = index;
+        for (TrackPoint tp : c) {
+            set(i++, tp.flags, tp.latitude, tp.longitude, tp.altitude, tp.time);
+        }
+        size = newSize;
+        modCount++;
+        rebuildIndex();
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        size = 0;
+        modCount++;
+        rebuildIndex();
+    }
+
+    @Override
+    public synchronized int indexOf(Object o) {
+        if (o instanceof TrackPoint) {
+            TrackPoint tp = (TrackPoint) o;
+            int lat = toE7(tp.latitude);
+            int lon = toE7(tp.longitude);
+            for (int i = 0; i < size; i++) {
+                if (lats[i] == lat && lons[i] == lon && times[i] == tp.time && flags[i] == tp.flags) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ensure that the arrays can hold a number of points
+     * 
+     * @param capacity the required capacity
+     */
+    public synchronized void ensureCapacity(int capacity) {
+        if (capacity > lats.length) {
+            int newCapacity = Math.max(capacity, lats.length + (lats.length >> 1));
+            flags = Arrays.copyOf(flags, newCapacity);
+            lats = Arrays.copyOf(lats, newCapacity);
+            lons = Arrays.copyOf(lons, newCapacity);
+            elevations = Arrays.copyOf(elevations, newCapacity);
+            times = Arrays.copyOf(times, newCapacity);
+        }
+    }
+
+    /**
+     * Set the values for a point
+     * 
+     * @param index the index of the point
+     * @param flag flags (new segment)
+     * @param latitude the latitude (WGS84)
+     * @param longitude the longitude (WSG84)
+     * @param altitude altitude in meters or NaN
+     * @param time time (ms since the epoch)
+     */
+    private void set(int index, byte flag, double latitude, double longitude, double altitude, long time) {
+        flags[index] = flag;
+        lats[index] = toE7(latitude);
+        lons[index] = toE7(longitude);
+        elevations[index] = (float) altitude;
+        times[index] = time;
+    }
+
+    /**
+     * Convert a coordinate to a 1E7 scaled int
+     * 
+     * @param coordinate the coordinate in degrees
+     * @return the scaled value
+     */
+    private static int toE7(double coordinate) {
+        return (int) Math.round(coordinate * 1E7D);
+    }
+
+    /**
+     * Check if a point starts a new segment
+     * 
+     * @param i the index of the point
+     * @return true if a new segment starts at the point
+     */
+    private boolean isNewSegment(int i) {
+        return (flags[i] & TrackPoint.FLAG_NEWSEGMENT) != 0;
+    }
+
+    /**
+     * Rebuild the chunk bounding boxes and discard the decimated tracks
+     */
+    private void rebuildIndex() {
+        Arrays.fill(decimations, null);
+        for (int i = 0; i < size; i++) {
+            updateChunk(i);
+        }
+    }
+
+    /**
+     * Add a point to the bounding boxes of the chunks it is in
+     * 
+     * @param i the index of the point
+     */
+    private void updateChunk(int i) {
+        int chunk = i / CHUNK_SIZE;
+        if (i % CHUNK_SIZE == 0) {
+            int offset = 4 * chunk;
+            if (offset >= chunkBoxes.length) {
+                chunkBoxes = Arrays.copyOf(chunkBoxes, 2 * chunkBoxes.length);
+            }
+            chunkBoxes[offset] = lons[i];
+            chunkBoxes[offset + 1] = lats[i];
+            chunkBoxes[offset + 2] = lons[i];
+            chunkBoxes[offset + 3] = lats[i];
+            if (chunk > 0) {
+                union(chunk - 1, i); // last point of the previous chunk
+            }
+        } else {
+            union(chunk, i);
+        }
+    }
+
+    /**
+     * Extend the bounding box of a chunk to include a point
+     * 
+     * @param chunk the chunk
+     * @param i the index of the point
+     */
+    private void union(int chunk, int i) {
+        int offset = 4 * chunk;
+        chunkBoxes[offset] = Math.min(chunkBoxes[offset], lons[i]);
+        chunkBoxes[offset + 1] = Math.min(chunkBoxes[offset + 1], lats[i]);
+        chunkBoxes[offset + 2] = Math.max(chunkBoxes[offset + 2], lons[i]);
+        chunkBoxes[offset + 3] = Math.max(chunkBoxes[offset + 3], lats[i]);
+    }
+
+    /**
+     * Check if a chunk intersects a BoundingBox
+     * 
+     * @param boxes the chunk bounding boxes
+     * @param chunk the chunk
+     * @param box the BoundingBox
+     * @return true if the bounding box of the chunk intersects box
+     */
+    private static boolean intersects(@NonNull int[] boxes, int chunk, @NonNull BoundingBox box) {
+        int offset = 4 * chunk;
+        return boxes[offset] <= box.getRight() && boxes[offset + 2] >= box.getLeft() && boxes[offset + 1] <= box.getTop()
+                && boxes[offset + 3] >= box.getBottom();
+    }
+
+    /**
+     * Get the bounding box of all points
+     * 
+     * @return a BoundingBox or null if there are no points
+     */
+    @Nullable
+    public synchronized BoundingBox getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        BoundingBox result = new BoundingBox(chunkBoxes[0], chunkBoxes[1], chunkBoxes[2], chunkBoxes[3]);
+        final int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int c = 1; c < chunks; c++) {
+            int offset = 4 * c;
+            result.union(chunkBoxes[offset], chunkBoxes[offset + 1]);
+            result.union(chunkBoxes[offset + 2], chunkBoxes[offset + 3]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the decimation level for a resolution
+     * 
+     * @param e7PerPixel the longitude difference of one pixel in 1E-7 degrees
+     * @return the largest level at which the tolerance is still at most a pixel
+     */
+    static int level(double e7PerPixel) {
+        if (e7PerPixel < 2) {
+            return 0;
+        }
+        return Math.min(MAX_LEVEL - 1, 63 - Long.numberOfLeadingZeros((long) e7PerPixel));
+    }
+
+    /**
+     * Convert the visible part of the track to screen coordinates for drawing with
+     * {@link android.graphics.Canvas#drawLines(float[], android.graphics.Paint)}
+     * 
+     * Only chunks that intersect the ViewBox are looked at and depending on the resolution a decimated version of the
+     * track is used.
+     * 
+     * @param points list to (re-)use for projected points
+     * @param box the current ViewBox
+     * @param width the screen width in pixels
+     * @param height the screen height in pixels
+     */
+    public void toLinePoints(@NonNull FloatPrimitiveList points, @NonNull ViewBox box, int width, int height) {
+        points.clear();
+        final int n;
+        final byte[] f;
+        final int[] latArray;
+        final int[] lonArray;
+        final int[] boxes;
+        int[] kept = null;
+        int keptCount = 0;
+        final int level = level(box.getWidth() / (double) Math.max(1, width));
+        synchronized (this) {
+            n = size;
+            f = flags;
+            latArray = lats;
+            lonArray = lons;
+            boxes = chunkBoxes;
+            if (level >= MIN_DECIMATION_LEVEL && n > 0) {
+                Decimation decimation = decimations[level];
+                if (decimation == null) {
+                    decimation = new Decimation(level);
+                    decimations[level] = decimation;
+                }
+                decimation.update();
+                kept = decimation.indices;
+                keptCount = decimation.count;
+            }
+        }
+        if (n < 2) {
+            return;
+        }
+        final LineBuilder builder = new LineBuilder(points, f, latArray, lonArray, box, width, height);
+        // if the last point hasn't been kept, add it virtually
+        final int total = kept == null ? n : keptCount + (kept[keptCount - 1] != n - 1 ? 1 : 0);
+        final int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int lastDrawn = 0;
+        for (int c = 0; c < chunks; c++) {
+            if (!intersects(boxes, c, box)) {
+                continue;
+            }
+            final int start = c * CHUNK_SIZE;
+            while (c + 1 < chunks && intersects(boxes, c + 1, box)) {
+                c++;
+            }
+            final int end = Math.min((c + 1) * CHUNK_SIZE, n - 1);
+            int from;
+            int to;
+            if (kept == null) {
+                from = start;
+                to = end;
+            } else {
+                from = floor(kept, keptCount, start);
+                to = ceiling(kept, keptCount, end);
+            }
+            from = Math.max(from, lastDrawn);
+            for (int j = from; j < to; j++) {
+                builder.add(index(kept, keptCount, n, j), index(kept, keptCount, n, j + 1));
+            }
+            lastDrawn = Math.max(lastDrawn, to);
+            if (lastDrawn >= total - 1) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the index of a point in the possibly decimated track
+     * 
+     * @param kept the indices of the kept points or null if not decimated
+     * @param keptCount the number of kept points
+     * @param n the number of points
+     * @param j the position in the decimated track
+     * @return the index of the point
+     */
+    private static int index(@Nullable int[] kept, int keptCount, int n, int j) {
+        if (kept == null) {
+            return j;
+        }
+        return j < keptCount ? kept[j] : n - 1;
+    }
+
+    /**
+     * Find the last kept point at or before a point
+     * 
+     * @param kept the indices of the kept points
+     * @param keptCount the number of kept points
+     * @param i the index of the point
+     * @return the position in kept
+     */
+    private static int floor(@NonNull int[] kept, int keptCount, int i) {
+        int pos = Arrays.binarySearch(kept, 0, keptCount, i);
+        return pos >= 0 ? pos : Math.max(0, -pos - 2);
+    }
+
+    /**
+     * Find the first kept point at or after a point, the virtual last point is at position keptCount
+     * 
+     * @param kept the indices of the kept points
+     * @param keptCount the number of kept points
+     * @param i the index of the point
+     * @return the position in kept
+     */
+    private static int ceiling(@NonNull int[] kept, int keptCount, int i) {
+        int pos = Arrays.binarySearch(kept, 0, keptCount, i);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * Projects line segments and adds them to a FloatPrimitiveList
+     */
+    private static final class LineBuilder {
+        private final FloatPrimitiveList points;
+        private final byte[]             flags;
+        private final int[]              lats;
+        private final int[]              lons;
+        private final ViewBox            box;
+        private final int                width;
+        private final int                height;
+        private int                      last = -1;
+        private float                    lastX;
+        private float                    lastY;
+
+        /**
+         * Create a new instance
+         * 
+         * @param points the target list
+         * @param flags point flags
+         * @param lats point latitudes
+         * @param lons point longitudes
+         * @param box the current ViewBox
+         * @param width the screen width in pixels
+         * @param height the screen height in pixels
+         */
+        LineBuilder(@NonNull FloatPrimitiveList points, @NonNull byte[] flags, @NonNull int[] lats, @NonNull int[] lons, @NonNull ViewBox box, int width,
+                int height) {
+            this.points = points;
+            this.flags = flags;
+            this.lats = lats;
+            this.lons = lons;
+            this.box = box;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Add the line segment between two points if it isn't interrupted
+         * 
+         * @param from index of the first point
+         * @param to index of the second point
+         */
+        void add(int from, int to) {
+            if ((flags[to] & TrackPoint.FLAG_NEWSEGMENT) != 0) {
+                return;
+            }
+            if (from != last) {
+                lastX = GeoMath.lonE7ToX(width, box, lons[from]);
+                lastY = GeoMath.latE7ToY(height, width, box, lats[from]);
+            }
+            float x = GeoMath.lonE7ToX(width, box, lons[to]);
+            float y = GeoMath.latE7ToY(height, width, box, lats[to]);
+            points.add(lastX);
+            points.add(lastY);
+            points.add(x);
+            points.add(y);
+            last = to;
+            lastX = x;
+            lastY = y;
+        }
+    }
+}
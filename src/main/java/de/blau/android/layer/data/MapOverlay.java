@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -77,6 +78,7 @@ import de.blau.android.presets.PresetIconManager;
 import de.blau.android.presets.PresetItem;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.DataStyle.FeatureStyle;
+import de.blau.android.resources.TileLayerSource;
 import de.blau.android.util.Coordinates;
 import de.blau.android.util.Density;
 import de.blau.android.util.GeoMath;
@@ -118,6 +120,15 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     private static final int  MP_SIZE_LIMIT                = 1000;  // max size of MP to render as
                                                                     // MP
 
+    private static final double RENDER_LIST_SCALE = 2; // side length of prepared render lists relative to the screen
+
+    private static final int   LOD_MAX_ZOOM  = 20;   // don't simplify way geometries from this zoom on
+    private static final int   LOD_MIN_NODES = 8;    // don't simplify ways with fewer nodes
+    private static final float LOD_TOLERANCE = 0.5f; // max deviation of simplified geometries in pixels
+
+    /** marker for ways that can't be simplified at a zoom level */
+    private static final int[] NOT_SIMPLIFIED = new int[0];
+
     /** half the width/height of a node icon in px */
     private final int iconRadius;
     private final int iconSelectedBorder;
@@ -295,6 +306,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     private float[]                  offsettedCasing = new float[100];
     private final List<Node>         nodesResult     = new LowAllocArrayList<>(1000);
     private final List<Way>          waysResult      = new LowAllocArrayList<>(1000);
+    private final List<FeatureStyle> stylesResult    = new LowAllocArrayList<>(1000);
     private final List<BoundingBox>  downloadedBoxes = new LowAllocArrayList<>();
     private final ViewBox            viewBox         = new ViewBox();
 
@@ -310,6 +322,8 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     private final List<Node>                 areaNodes            = new LowAllocArrayList<>();   // reversing winding
                                                                                                  // and
     // assembling
+    private final List<Node>                 simplifiedNodes      = new LowAllocArrayList<>();
+    private final FloatPrimitiveList         lodPoints            = new FloatPrimitiveList();
     private final Set<Relation> paintRelations = new HashSet<>();
 
     private OnUpdateListener<O> onUpdateListener;
@@ -321,6 +335,13 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
 
     private final ThreadPoolExecutor dataThreadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_POOL_SIZE);
     private final ThreadPoolExecutor iconThreadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+    private final ThreadPoolExecutor renderThreadPoolExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+
+    /**
+     * The elements to draw prepared in the background, and if a new list is being prepared
+     */
+    private volatile RenderList renderList;
+    private volatile boolean    renderListPending = false;
 
     /**
      * Construct a new OSM data layer
@@ -350,6 +371,8 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
     public void onDestroy() {
         Util.shutDownThreadPool(dataThreadPoolExecutor);
         Util.shutDownThreadPool(iconThreadPoolExecutor);
+        Util.shutDownThreadPool(renderThreadPoolExecutor);
+        renderList = null;
         clearIconCaches();
         tmpPresets = null;
     }
@@ -474,15 +497,28 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         int screenWidth = map.getWidth();
         int screenHeight = map.getHeight();
 
+        boolean filterMode = tmpFilter != null; // we have an active filter
+
         // first find all nodes and ways that we need to display
         nodesResult.clear();
         waysResult.clear();
+        stylesResult.clear();
         List<Node> paintNodes;
         List<Way> ways;
-        synchronized (delegator) {
-            final Storage currentStorage = delegator.getCurrentStorage();
-            paintNodes = currentStorage.getNodes(viewBox, nodesResult);
-            ways = currentStorage.getWays(viewBox, waysResult);
+        // the filter isn't thread safe so we can't use a prepared list with it
+        RenderList list = filterMode ? null : getRenderList();
+        if (list != null) {
+            // the list covers a larger area, only replay what is on screen
+            list.getNodes(viewBox, nodesResult);
+            paintNodes = nodesResult;
+            list.getWays(viewBox, waysResult, stylesResult);
+            ways = waysResult;
+        } else {
+            synchronized (delegator) {
+                final Storage currentStorage = delegator.getCurrentStorage();
+                paintNodes = currentStorage.getNodes(viewBox, nodesResult);
+                ways = currentStorage.getWays(viewBox, waysResult);
+            }
         }
 
         // the following should guarantee that if the selected node is off screen but the handle not, the handle gets
@@ -495,8 +531,6 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
             }
         }
 
-        boolean filterMode = tmpFilter != null; // we have an active filter
-
         //
         tmpDrawingInEditRange = App.getLogic().isInEditZoomRange();
 
@@ -552,11 +586,13 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         boolean displayHandles = tmpDrawingSelectedRelationWays == null && tmpDrawingSelectedRelationNodes == null
                 && tmpDrawingEditMode.elementsGeomEditiable();
         handles.clear();
-        Collections.sort(waysToDraw, layerComparator);
+        if (list == null) { // prepared lists are already sorted
+            Collections.sort(waysToDraw, layerComparator);
+        }
 
-        // ways now
-        for (Way w : waysToDraw) {
-            paintWay(canvas, w, displayHandles, drawTolerance);
+        // ways now, prepared lists have the styles resolved in the same order
+        for (int i = 0; i < waysToDraw.size(); i++) {
+            paintWay(canvas, waysToDraw.get(i), list != null ? stylesResult.get(i) : null, displayHandles, drawTolerance);
         }
 
         // Paint nodes
@@ -611,6 +647,57 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         }
     }
 
+    /**
+     * Get the prepared list of elements to draw if possible
+     * 
+     * If the data has changed since the list was prepared, null is returned as we need to display the changes
+     * immediately. If only the ViewBox has changed the list is used and a new one prepared in the background.
+     * 
+     * @return a RenderList or null if the data needs to be retrieved directly
+     */
+    @Nullable
+    private RenderList getRenderList() {
+        RenderList list = renderList;
+        if (list == null || !list.isCurrent(delegator.getCurrentStorage())) {
+            prepareRenderList();
+            return null;
+        }
+        if (!list.covers(viewBox)) {
+            prepareRenderList();
+        }
+        return list;
+    }
+
+    /**
+     * Prepare a new RenderList for an area somewhat larger than the current ViewBox in the background
+     */
+    private void prepareRenderList() {
+        if (renderListPending) {
+            return;
+        }
+        renderListPending = true;
+        final ViewBox box = new ViewBox(viewBox);
+        box.scale(RENDER_LIST_SCALE);
+        try {
+            renderThreadPoolExecutor.execute(() -> {
+                try {
+                    renderList = RenderList.build(delegator, box);
+                    map.postInvalidate();
+                } catch (ConcurrentModificationException cmex) {
+                    // data was changed while building, we'll retry on the next draw
+                    Log.d(DEBUG_TAG, "Data changed while preparing render list");
+                } catch (Exception e) { // NOSONAR crashing is not an option
+                    Log.e(DEBUG_TAG, "Preparing render list failed " + e.getMessage());
+                } finally {
+                    renderListPending = false;
+                }
+            });
+        } catch (RejectedExecutionException rjee) {
+            renderListPending = false;
+            Log.e(DEBUG_TAG, "Render list execution rejected " + rjee.getMessage());
+        }
+    }
+
     /**
      * Replacement for the method in StorageDelegator for performance reasons
      * 
@@ -1337,16 +1424,18 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
      * 
      * @param canvas Canvas, where the node shall be painted on.
      * @param way way which shall be painted.
+     * @param resolvedStyle the already resolved style of the way or null
      * @param displayHandles draw geometry improvement handles
      * @param drawTolerance if true draw the halo
      */
-    private void paintWay(@NonNull final Canvas canvas, @NonNull final Way way, final boolean displayHandles, boolean drawTolerance) {
+    private void paintWay(@NonNull final Canvas canvas, @NonNull final Way way, @Nullable FeatureStyle resolvedStyle, final boolean displayHandles,
+            boolean drawTolerance) {
 
         FeatureStyle style;
         if (way.hasProblem(context, validator) != Validator.OK) {
             style = DataStyle.getValidationStyle(way.getCachedProblems());
         } else {
-            style = DataStyle.matchStyle(way);
+            style = resolvedStyle != null ? resolvedStyle : DataStyle.matchStyle(way);
         }
 
         boolean isSelected = tmpDrawingInEditRange // if we are not in editing range don't show selected way ... may be
@@ -1360,15 +1449,17 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
 
         final boolean closed = way.isClosed();
         List<Node> nodes = way.getNodes();
+        // selected ways are drawn with all nodes as they can be dragged
+        List<Node> drawNodes = isSelected || isMemberOfSelectedRelation ? nodes : simplify(way, nodes);
         boolean reversed = false; // way arrows need to be drawn reversed if we reverse the direction of the way
         if (style.isArea() && winding(nodes) == COUNTERCLOCKWISE) {
             areaNodes.clear();
-            areaNodes.addAll(nodes);
+            areaNodes.addAll(drawNodes);
             Collections.reverse(areaNodes);
             map.pointListToLinePointsArray(points, areaNodes);
             reversed = true;
         } else {
-            map.pointListToLinePointsArray(points, nodes);
+            map.pointListToLinePointsArray(points, drawNodes);
         }
 
         float[] linePoints = points.getArray();
@@ -1449,7 +1540,7 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
             // display icons on closed ways
             if (showIcons && showWayIcons && zoomLevel > showIconsLimit) {
                 int vs = pointsSize;
-                if (vs < nodes.size() * 2) {
+                if (vs < drawNodes.size() * 2) {
                     return;
                 }
                 // calc centroid
@@ -1521,6 +1612,52 @@ public class MapOverlay<O extends OsmElement> extends MapViewLayer
         }
     }
 
+    /**
+     * Get the nodes of a way simplified for the current zoom level
+     * 
+     * The simplified geometry deviates less than LOD_TOLERANCE pixels from the original one, the indices of the
+     * retained nodes are cached in the Way per zoom level and discarded when its geometry is invalidated
+     * 
+     * @param way the Way
+     * @param nodes the nodes of the Way
+     * @return either nodes or a List containing the retained nodes, only valid till the next call
+     */
+    @NonNull
+    private List<Node> simplify(@NonNull final Way way, @NonNull final List<Node> nodes) {
+        final int size = nodes.size();
+        if (size < LOD_MIN_NODES || zoomLevel >= LOD_MAX_ZOOM) {
+            return nodes;
+        }
+        int[] indices = way.getSimplifiedNodes(zoomLevel);
+        if (indices == null) {
+            // project relative to the first node to keep the float values small
+            lodPoints.clear();
+            Node first = nodes.get(0);
+            final long lon0 = first.getLon();
+            final long y0 = GeoMath.latE7ToMercatorE7(first.getLat());
+            for (int i = 0; i < size; i++) {
+                Node n = nodes.get(i);
+                lodPoints.add(n.getLon() - lon0);
+                lodPoints.add(GeoMath.latE7ToMercatorE7(n.getLat()) - y0);
+            }
+            // size of a pixel in 1E7 degrees at the largest scale the zoom level is used for
+            final double pixel = 360E7D / (TileLayerSource.DEFAULT_TILE_SIZE * Math.pow(2D, zoomLevel + 1D));
+            indices = GeoMath.simplify(lodPoints, (float) (LOD_TOLERANCE * pixel));
+            if (indices.length == size) {
+                indices = NOT_SIMPLIFIED;
+            }
+            way.setSimplifiedNodes(zoomLevel, indices);
+        }
+        if (indices == NOT_SIMPLIFIED) { // NOSONAR marker instance
+            return nodes;
+        }
+        simplifiedNodes.clear();
+        for (int i : indices) {
+            simplifiedNodes.add(nodes.get(i));
+        }
+        return simplifiedNodes;
+    }
+
     /**
      * Setup a Path from a float array in drawLine format
      * 
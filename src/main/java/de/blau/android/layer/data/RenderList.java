@@ -0,0 +1,142 @@
+package de.blau.android.layer.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.osm.Way;
+import de.blau.android.resources.DataStyle;
+import de.blau.android.resources.DataStyle.FeatureStyle;
+
+/**
+ * Immutable list of the elements that need to be drawn for an area
+ * 
+ * This is built off the UI thread and contains the query results for the area and the Ways sorted in drawing order with
+ * their styles resolved. The styles are kept in the list and not cached in the elements themselves. The area is larger
+ * than the screen, so only the elements in the current ViewBox are replayed when drawing. The list is only valid as
+ * long as the Storage it was built from hasn't been modified.
+ */
+final class RenderList {
+
+    private static final int MAX_SCALE = 3; // maximum side length of the list area relative to the area drawn
+
+    final Storage        storage;
+    final int            modificationCount;
+    final int            styleEpoch;
+    final ViewBox        box;
+    final List<Node>     nodes;
+    final List<Way>      ways;
+    final FeatureStyle[] wayStyles;
+
+    /**
+     * Construct a new instance
+     * 
+     * @param storage the Storage the elements were retrieved from
+     * @param modificationCount the modification count of storage before the query
+     * @param styleEpoch the style epoch the styles were resolved in
+     * @param box the area the list was built for
+     * @param nodes the Nodes in the area
+     * @param ways the Ways in the area sorted in drawing order
+     * @param wayStyles the styles of the Ways in the same order
+     */
+    private RenderList(@NonNull Storage storage, int modificationCount, int styleEpoch, @NonNull ViewBox box, @NonNull List<Node> nodes,
+            @NonNull List<Way> ways, @NonNull FeatureStyle[] wayStyles) {
+        this.storage = storage;
+        this.modificationCount = modificationCount;
+        this.styleEpoch = styleEpoch;
+        this.box = box;
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.ways = Collections.unmodifiableList(ways);
+        this.wayStyles = wayStyles;
+    }
+
+    /**
+     * Query the current data and build a RenderList for an area
+     * 
+     * The list is built while holding the delegator lock as the query, sorting and styling all read the elements, the
+     * UI thread only has to wait for this if it needs to access the data directly.
+     * 
+     * @param delegator the current StorageDelegator
+     * @param box the area, this will be owned by the RenderList
+     * @return a RenderList
+     */
+    @NonNull
+    static RenderList build(@NonNull StorageDelegator delegator, @NonNull ViewBox box) {
+        final int styleEpoch = DataStyle.getStyleEpoch();
+        Storage storage;
+        int modificationCount;
+        List<Node> nodes = new ArrayList<>();
+        List<Way> ways = new ArrayList<>();
+        FeatureStyle[] wayStyles;
+        synchronized (delegator) {
+            storage = delegator.getCurrentStorage();
+            modificationCount = storage.getModificationCount();
+            storage.getNodes(box, nodes);
+            storage.getWays(box, ways);
+            Collections.sort(ways, new MapOverlay.LayerComparator());
+            wayStyles = new FeatureStyle[ways.size()];
+            for (int i = 0; i < wayStyles.length; i++) {
+                wayStyles[i] = DataStyle.resolveStyle(ways.get(i)); // a style change will make the list not current
+            }
+        }
+        return new RenderList(storage, modificationCount, styleEpoch, box, nodes, ways, wayStyles);
+    }
+
+    /**
+     * Add the Nodes that are in an area to a List
+     * 
+     * @param area the area, this should be covered by the list
+     * @param result the List to add the Nodes to
+     */
+    void getNodes(@NonNull BoundingBox area, @NonNull List<Node> result) {
+        for (Node n : nodes) {
+            if (area.isIn(n.getLon(), n.getLat())) {
+                result.add(n);
+            }
+        }
+    }
+
+    /**
+     * Add the Ways that intersect an area and their styles to Lists, retaining the drawing order
+     * 
+     * @param area the area, this should be covered by the list
+     * @param result the List to add the Ways to
+     * @param styles the List to add the styles to
+     */
+    void getWays(@NonNull BoundingBox area, @NonNull List<Way> result, @NonNull List<FeatureStyle> styles) {
+        BoundingBox wayBox = new BoundingBox();
+        for (int i = 0; i < wayStyles.length; i++) {
+            Way w = ways.get(i);
+            if (w.getBounds(wayBox).intersects(area)) {
+                result.add(w);
+                styles.add(wayStyles[i]);
+            }
+        }
+    }
+
+    /**
+     * Check if the list still reflects the contents of storage
+     * 
+     * @param current the current Storage
+     * @return true if nothing has been changed since the list was built
+     */
+    boolean isCurrent(@NonNull Storage current) {
+        return storage == current && modificationCount == current.getModificationCount() && styleEpoch == DataStyle.getStyleEpoch();
+    }
+
+    /**
+     * Check if the list is suitable for drawing an area without being rebuilt
+     * 
+     * @param viewBox the area to draw
+     * @return true if the list covers the area and isn't much larger
+     */
+    boolean covers(@NonNull ViewBox viewBox) {
+        return box.contains(viewBox) && box.getWidth() <= (long) MAX_SCALE * viewBox.getWidth();
+    }
+}
@@ -0,0 +1,458 @@
+package de.blau.android.layer.geojson;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Geometry;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.OsmXml;
+import de.blau.android.util.GeoJSONConstants;
+import de.blau.android.util.GeoJson;
+import de.blau.android.util.collections.LongPrimitiveList;
+import de.blau.android.util.rtree.PackedRTree;
+
+/**
+ * Disk backed store for GeoJSON Features
+ * 
+ * The input is read as a stream, each Feature is written as JSON to a data file and only its bounding box, offset and
+ * geometry type are kept in memory in a packed R-Tree. Features are decoded when they are actually needed, typically
+ * because they are in the current ViewBox, and a limited number of decoded Features is cached.
+ * 
+ * Serializing this only writes the name of the data file and the index.
+ */
+class FeatureStore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String DEBUG_TAG = FeatureStore.class.getSimpleName().substring(0, Math.min(23, FeatureStore.class.getSimpleName().length()));
+
+    static final String EXTENSION = "features";
+
+    private static final int MAX_CACHED_BYTES = 8 * 1024 * 1024;
+
+    private static final String[] GEOMETRY_TYPES = { GeoJSONConstants.POINT, GeoJSONConstants.MULTIPOINT, GeoJSONConstants.LINESTRING,
+            GeoJSONConstants.MULTILINESTRING, GeoJSONConstants.POLYGON, GeoJSONConstants.MULTIPOLYGON, GeoJSONConstants.GEOMETRYCOLLECTION };
+
+    private static final String TYPE_KEY = "type";
+
+    private final String            path;
+    /** start of each feature in the data file plus the end of the last one */
+    private final long[]            offsets;
+    private final byte[]            types;
+    private final PackedRTree       index;
+    private final ArrayList<String> labelKeys;
+    private long                    sourceSize = -1;
+    private String                  sourceHash;
+
+    private transient RandomAccessFile                file;
+    private transient LinkedHashMap<Integer, Feature> cache;
+    private transient long                            cachedBytes;
+    private transient int[]                           queryResult;
+    private transient int                             queryCount;
+
+    /**
+     * Construct a new store
+     * 
+     * @param path the path of the data file
+     * @param offsets start of each feature in the data file plus the end of the last one
+     * @param types geometry type of each feature
+     * @param index the spatial index
+     * @param labelKeys the property keys with primitive values
+     */
+    private FeatureStore(@NonNull String path, @NonNull long[] offsets, @NonNull byte[] types, @NonNull PackedRTree index,
+            @NonNull ArrayList<String> labelKeys) {
+        this.path = path;
+        this.offsets = offsets;
+        this.types = types;
+        this.index = index;
+        this.labelKeys = labelKeys;
+    }
+
+    /**
+     * Collects the features while the input is being read
+     */
+    private static class Builder {
+        final OutputStream      out;
+        final LongPrimitiveList offsets   = new LongPrimitiveList();
+        final Set<String>       labelKeys = new TreeSet<>();
+        int[]                   boxes     = new int[4 * 64];
+        byte[]                  types     = new byte[64];
+        int                     count     = 0;
+        long                    written   = 0;
+
+        /**
+         * Construct a new builder
+         * 
+         * @param out the stream to write the features to
+         */
+        Builder(@NonNull OutputStream out) {
+            this.out = out;
+            offsets.add(0);
+        }
+
+        /**
+         * Add a feature from its JSON representation
+         * 
+         * @param json the JSON
+         * @throws IOException if writing fails
+         */
+        void add(@NonNull String json) throws IOException {
+            Feature f = Feature.fromJson(json);
+            Geometry g = f.geometry();
+            if (!GeoJSONConstants.FEATURE.equals(f.type()) || g == null) {
+                Log.e(DEBUG_TAG, "Type of object " + f.type() + " geometry " + g);
+                return;
+            }
+            JsonObject properties = f.properties();
+            BoundingBox box = getBounds(g, properties);
+            if (box == null) {
+                Log.e(DEBUG_TAG, "Feature without bounding box " + json);
+                return;
+            }
+            if (count == types.length) {
+                types = Arrays.copyOf(types, 2 * count);
+                boxes = Arrays.copyOf(boxes, 8 * count);
+            }
+            int offset = 4 * count;
+            boxes[offset] = box.getLeft();
+            boxes[offset + 1] = box.getBottom();
+            boxes[offset + 2] = box.getRight();
+            boxes[offset + 3] = box.getTop();
+            types[count] = typeIndex(g.type());
+            if (properties != null) {
+                for (Entry<String, JsonElement> entry : properties.entrySet()) {
+                    JsonElement e = entry.getValue();
+                    if (e != null && e.isJsonPrimitive()) {
+                        labelKeys.add(entry.getKey());
+                    }
+                }
+            }
+            byte[] bytes = json.getBytes(OsmXml.UTF_8);
+            out.write(bytes);
+            written += bytes.length;
+            offsets.add(written);
+            count++;
+        }
+    }
+
+    /**
+     * Read GeoJSON and write the features to a data file
+     * 
+     * The input can be a FeatureCollection, a single Feature or a single Geometry.
+     * 
+     * @param is the InputStream to read from
+     * @param target the data file, will be overwritten
+     * @return a new FeatureStore
+     * @throws IOException if reading or writing fails
+     */
+    @NonNull
+    static FeatureStore read(@NonNull InputStream is, @NonNull File target) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        Builder builder;
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(is, Charset.forName(OsmXml.UTF_8))));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            reader.setLenient(true);
+            builder = new Builder(out);
+            JsonObject rest = new JsonObject();
+            boolean isCollection = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (GeoJSONConstants.FEATURES.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    isCollection = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        builder.add(JsonParser.parseReader(reader).toString());
+                    }
+                    reader.endArray();
+                } else {
+                    rest.add(name, JsonParser.parseReader(reader));
+                }
+            }
+            reader.endObject();
+            if (!isCollection) {
+                Log.d(DEBUG_TAG, "Retrying as Feature");
+                if (GeoJSONConstants.FEATURE.equals(getString(rest, TYPE_KEY))) {
+                    builder.add(rest.toString());
+                } else {
+                    Geometry g = GeoJson.geometryFromJson(rest.toString());
+                    if (g.type() != null) {
+                        builder.add(Feature.fromGeometry(g).toJson());
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!temp.delete()) { // NOSONAR
+                Log.e(DEBUG_TAG, "Failed to delete " + temp);
+            }
+            throw e;
+        }
+        if (!temp.renameTo(target)) { // NOSONAR
+            throw new IOException("Renaming " + temp + " failed");
+        }
+        return new FeatureStore(target.getAbsolutePath(), builder.offsets.values(), Arrays.copyOf(builder.types, builder.count),
+                new PackedRTree(builder.boxes, builder.count), new ArrayList<>(builder.labelKeys));
+    }
+
+    /**
+     * Get the index of a geometry type
+     * 
+     * @param type the geometry type
+     * @return the index in GEOMETRY_TYPES or -1 if unknown
+     */
+    private static byte typeIndex(@NonNull String type) {
+        for (byte i = 0; i < GEOMETRY_TYPES.length; i++) {
+            if (GEOMETRY_TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a string member of a JsonObject
+     * 
+     * @param object the JsonObject
+     * @param key the member name
+     * @return the value or null if not present or not a string
+     */
+    @Nullable
+    private static String getString(@NonNull JsonObject object, @NonNull String key) {
+        JsonElement e = object.get(key);
+        return e != null && e.isJsonPrimitive() ? e.getAsString() : null;
+    }
+
+    /**
+     * Determine the bounding box of a Feature
+     * 
+     * @param g the Geometry of the Feature
+     * @param properties the properties of the Feature
+     * @return the BoundingBox or null
+     */
+    @Nullable
+    private static BoundingBox getBounds(@NonNull Geometry g, @Nullable JsonObject properties) {
+        JsonElement bbox = properties != null ? properties.get(GeoJSONConstants.BBOX) : null;
+        if (bbox instanceof JsonArray && ((JsonArray) bbox).size() == 4) { // the geojson contains a bbox, use that
+            JsonArray a = (JsonArray) bbox;
+            return new BoundingBox(a.get(0).getAsDouble(), a.get(1).getAsDouble(), a.get(2).getAsDouble(), a.get(3).getAsDouble());
+        }
+        return GeoJson.getBounds(g);
+    }
+
+    /**
+     * Check if the data file is still present
+     * 
+     * @return true if the data file exists
+     */
+    boolean isValid() {
+        return new File(path).exists();
+    }
+
+    /**
+     * Set the size and content hash of the source this was read from
+     * 
+     * @param sourceSize the size in bytes or -1 if unknown
+     * @param sourceHash a hash of the source contents, or a signature derived from the last modified time, or null if
+     *            unknown
+     */
+    void setSource(long sourceSize, @Nullable String sourceHash) {
+        this.sourceSize = sourceSize;
+        this.sourceHash = sourceHash;
+    }
+
+    /**
+     * Check if this was read from a source with the same size and contents
+     * 
+     * A source with an unknown size or hash is never considered to be the same.
+     * 
+     * @param size the size of the source in bytes or -1 if unknown
+     * @param hash a hash or signature of the source contents as used in setSource or null if unknown
+     * @return true if size and hash are known and match
+     */
+    boolean isSameSource(long size, @Nullable String hash) {
+        return size >= 0 && sourceSize == size && hash != null && hash.equals(sourceHash);
+    }
+
+    /**
+     * Get the number of features
+     * 
+     * @return the feature count
+     */
+    int size() {
+        return types.length;
+    }
+
+    /**
+     * Get the bounding box of all features
+     * 
+     * @return a BoundingBox or null if there are no features
+     */
+    @Nullable
+    BoundingBox getBounds() {
+        return index.getBounds();
+    }
+
+    /**
+     * Get the geometry type of a feature without decoding it
+     * 
+     * @param i the index of the feature
+     * @return the geometry type or null if unknown
+     */
+    @Nullable
+    String getGeometryType(int i) {
+        byte type = types[i];
+        return type >= 0 ? GEOMETRY_TYPES[type] : null;
+    }
+
+    /**
+     * Get the keys of all properties with primitive values
+     * 
+     * @return a sorted List of the keys
+     */
+    @NonNull
+    List<String> getLabelKeys() {
+        return labelKeys;
+    }
+
+    /**
+     * Get the features intersecting a BoundingBox
+     * 
+     * @param box the BoundingBox
+     * @param result a List the features will be added to
+     */
+    synchronized void query(@NonNull BoundingBox box, @NonNull List<Feature> result) {
+        if (queryResult == null) {
+            queryResult = new int[64];
+        }
+        queryCount = 0;
+        index.query(box, item -> {
+            if (queryCount == queryResult.length) {
+                queryResult = Arrays.copyOf(queryResult, 2 * queryCount);
+            }
+            queryResult[queryCount++] = item;
+        });
+        // read the data file sequentially
+        Arrays.sort(queryResult, 0, queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            Feature f = get(queryResult[i]);
+            if (f != null) {
+                result.add(f);
+            }
+        }
+    }
+
+    /**
+     * Get all features
+     * 
+     * This decodes every feature and should only be used for small data sets
+     * 
+     * @return a List of Feature
+     */
+    @NonNull
+    synchronized List<Feature> getAll() {
+        List<Feature> result = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            Feature f = get(i);
+            if (f != null) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a feature, decoding it if it isn't cached
+     * 
+     * @param i the index of the feature
+     * @return the Feature or null if it couldn't be read
+     */
+    @Nullable
+    synchronized Feature get(int i) {
+        if (cache == null) {
+            cache = new LinkedHashMap<>(16, 0.75f, true);
+        }
+        Feature f = cache.get(i);
+        if (f != null) {
+            return f;
+        }
+        int length = (int) (offsets[i + 1] - offsets[i]);
+        byte[] bytes = new byte[length];
+        try {
+            if (file == null) {
+                file = new RandomAccessFile(path, "r");
+            }
+            file.seek(offsets[i]);
+            file.readFully(bytes);
+            f = Feature.fromJson(new String(bytes, OsmXml.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "Reading feature " + i + " failed " + e.getMessage());
+            return null;
+        }
+        cache.put(i, f);
+        cachedBytes += length;
+        Iterator<Integer> it = cache.keySet().iterator();
+        while (cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+            int eldest = it.next();
+            if (eldest == i) {
+                break;
+            }
+            cachedBytes -= offsets[eldest + 1] - offsets[eldest];
+            it.remove();
+        }
+        return f;
+    }
+
+    /**
+     * Close the data file and drop all cached features
+     */
+    synchronized void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(DEBUG_TAG, "Closing " + path + " failed " + e.getMessage());
+            }
+            file = null;
+        }
+        cache = null;
+        cachedBytes = 0;
+    }
+
+    /**
+     * Close and delete the data file
+     */
+    synchronized void delete() {
+        close();
+        if (!new File(path).delete()) { // NOSONAR
+            Log.e(DEBUG_TAG, "Failed to delete " + path);
+        }
+    }
+}
@@ -1,27 +1,20 @@
 package de.blau.android.layer.geojson;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Serializable;
-import java.nio.charset.Charset;
+import java.security.DigestInputStream;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.mapbox.geojson.CoordinateContainer;
 import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.GeometryCollection;
 import com.mapbox.geojson.MultiPolygon;
@@ -58,7 +51,6 @@ import de.blau.android.layer.LayerType;
 import de.blau.android.layer.StyleableFileLayer;
 import de.blau.android.layer.StyleableLayer;
 import de.blau.android.osm.BoundingBox;
-import de.blau.android.osm.OsmXml;
 import de.blau.android.osm.Server;
 import de.blau.android.osm.ViewBox;
 import de.blau.android.prefs.Preferences;
@@ -68,22 +60,20 @@ import de.blau.android.resources.symbols.TriangleDown;
 import de.blau.android.util.ColorUtil;
 import de.blau.android.util.ContentResolverUtil;
 import de.blau.android.util.ExecutorTask;
-import de.blau.android.util.FileUtil;
 import de.blau.android.util.GeoJSONConstants;
 import de.blau.android.util.GeoJson;
 import de.blau.android.util.GeoMath;
+import de.blau.android.util.Hash;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.ScreenMessage;
 import de.blau.android.util.SerializableTextPaint;
 import de.blau.android.util.collections.FloatPrimitiveList;
-import de.blau.android.util.rtree.BoundedObject;
-import de.blau.android.util.rtree.RTree;
 import de.blau.android.views.IMapView;
 
 public class MapOverlay extends StyleableFileLayer
         implements Serializable, ExtentInterface, DiscardInterface, ClickableInterface<Feature>, LayerInfoInterface, LabelMinZoomInterface {
 
-    private static final long serialVersionUID = 5L;
+    private static final long serialVersionUID = 6L;
 
     private static final String DEBUG_TAG = MapOverlay.class.getSimpleName().substring(0, Math.min(23, MapOverlay.class.getSimpleName().length()));
 
@@ -91,81 +81,13 @@ public class MapOverlay extends StyleableFileLayer
 
     private transient SavingHelper<MapOverlay> savingHelper = new SavingHelper<>();
 
-    /**
-     * Wrapper around mapboxes Feature class makes the object serializable and usable in an RTree
-     * 
-     * @author Simon Poole
-     *
-     */
-    class BoundedFeature implements BoundedObject, Serializable {
-        private static final long serialVersionUID = 1;
-
-        Feature     feature = null;
-        BoundingBox box     = null;
-
-        /**
-         * Constructor
-         * 
-         * @param f the Feature to wrap
-         */
-        public BoundedFeature(@Nullable Feature f) {
-            this.feature = f;
-        }
-
-        @Override
-        public BoundingBox getBounds() {
-            if (box == null) {
-                JsonArray bbox = (JsonArray) feature.properties().get(GeoJSONConstants.BBOX);
-                if (bbox == null || bbox.size() != 4) {
-                    box = GeoJson.getBounds(feature.geometry());
-                } else { // the geojson contains a bbox, use that
-                    box = new BoundingBox(bbox.get(0).getAsDouble(), bbox.get(1).getAsDouble(), bbox.get(2).getAsDouble(), bbox.get(3).getAsDouble());
-                }
-            }
-            return box;
-        }
-
-        /**
-         * Get the wrapped Feature object
-         * 
-         * @return the Feature
-         */
-        @Nullable
-        public Feature getFeature() {
-            return feature;
-        }
-
-        /**
-         * Serialize this object
-         * 
-         * @param out ObjectOutputStream to write to
-         * @throws IOException if writing failes
-         */
-        private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-            out.writeUTF(feature.toJson());
-            out.writeObject(box);
-        }
-
-        /**
-         * Recreate the object for serialized state
-         * 
-         * @param in ObjectInputStream to write from
-         * @throws IOException if reading failes
-         * @throws ClassNotFoundException the target Class isn't defined
-         */
-        private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
-            String jsonString = in.readUTF();
-            feature = Feature.fromJson(jsonString);
-            box = (BoundingBox) in.readObject();
-        }
-    }
-
-    private RTree<BoundedFeature>                data;
-    private final transient Path                 path                  = new Path();
-    private transient FloatPrimitiveList         points                = new FloatPrimitiveList();
-    private transient Collection<BoundedFeature> queryForDisplayResult = new ArrayList<>();
+    private FeatureStore                 data;
+    private final transient Path         path                  = new Path();
+    private transient FloatPrimitiveList points                = new FloatPrimitiveList();
+    private transient List<Feature>      queryForDisplayResult = new ArrayList<>();
+    private transient boolean            dataRestored          = false;
     /** Map this is an overlay of. */
-    private final transient Map                  map;
+    private final transient Map          map;
 
     /**
      * Styling parameters
@@ -219,10 +141,10 @@ public class MapOverlay extends StyleableFileLayer
         labelStrokeWidth = labelPaint.getStrokeWidth();
 
         queryForDisplayResult.clear();
-        data.query(queryForDisplayResult, bb);
+        data.query(bb, queryForDisplayResult);
         Log.d(DEBUG_TAG, "features result count " + queryForDisplayResult.size());
-        for (BoundedFeature bf : queryForDisplayResult) {
-            drawGeometry(canvas, bb, width, height, zoomLevel, bf.getFeature());
+        for (Feature f : queryForDisplayResult) {
+            drawGeometry(canvas, bb, width, height, zoomLevel, f);
         }
     }
 
@@ -392,6 +314,9 @@ public class MapOverlay extends StyleableFileLayer
 
     @Override
     public void onDestroy() {
+        if (data != null) {
+            data.close();
+        }
         data = null;
     }
 
@@ -422,7 +347,26 @@ public class MapOverlay extends StyleableFileLayer
                         }
                         setStateFileName(uri.getEncodedPath());
                         MapOverlay.this.uri = uri.toString();
-                        return loadGeoJsonFile(ctx, is, fromState);
+                        final long size = ContentResolverUtil.getSizeColumn(ctx, uri);
+                        final long lastModified = ContentResolverUtil.getLastModifiedColumn(ctx, uri);
+                        if (fromState && restoreData(ctx, uri, size, lastModified)) {
+                            return true;
+                        }
+                        if (lastModified >= 0) {
+                            boolean loaded = loadGeoJsonFile(ctx, is, fromState);
+                            if (loaded && data != null) {
+                                data.setSource(size, modifiedSignature(lastModified));
+                            }
+                            return loaded;
+                        }
+                        // no cheap way to detect changes, hash the contents while reading
+                        DigestInputStream hashStream = new DigestInputStream(is, Hash.sha256Digest());
+                        boolean loaded = loadGeoJsonFile(ctx, hashStream, fromState);
+                        if (loaded && data != null) {
+                            // if the parser stopped before the end of the file the hash will not match and the file is simply re-read
+                            data.setSource(size, Hash.toHex(hashStream.getMessageDigest().digest()));
+                        }
+                        return loaded;
                     } catch (SecurityException sex) {
                         Log.e(DEBUG_TAG, sex.getMessage());
                         // note need a context here that is on the ui thread
@@ -444,9 +388,71 @@ public class MapOverlay extends StyleableFileLayer
         }
     }
 
+    /**
+     * Use the index and data file from the saved state if they are still valid
+     * 
+     * The saved data is only used if the source size is known and unchanged, and the source has the same last modified
+     * time or, if that isn't available, the contents still have the same hash.
+     * 
+     * @param ctx Android Context
+     * @param uri the URI of the source
+     * @param sourceSize the current size of the source or -1 if unknown
+     * @param lastModified the last modified time of the source or -1 if unknown
+     * @return true if the saved data could be used
+     * @throws IOException if reading the source fails
+     */
+    private boolean restoreData(@NonNull Context ctx, @NonNull Uri uri, long sourceSize, long lastModified) throws IOException {
+        if (sourceSize < 0 || !hasStateFile(ctx)) {
+            return false;
+        }
+        MapOverlay restoredOverlay = savingHelper.load(ctx, stateFileName, true);
+        if (restoredOverlay == null || restoredOverlay.data == null || !this.uri.equals(restoredOverlay.uri) || !restoredOverlay.data.isValid()
+                || !restoredOverlay.data.isSameSource(sourceSize, lastModified >= 0 ? modifiedSignature(lastModified) : sourceHash(ctx, uri))) {
+            Log.i(DEBUG_TAG, "Saved index for " + this.uri + " missing or stale");
+            return false;
+        }
+        if (data != null) {
+            data.close();
+        }
+        data = restoredOverlay.data;
+        dataRestored = true;
+        Log.i(DEBUG_TAG, "Using saved index for " + this.uri + " with " + data.size() + " features");
+        return true;
+    }
+
+    /**
+     * Get a signature for a source from its last modified time
+     * 
+     * @param lastModified the last modified time
+     * @return a String that can't be confused with a content hash
+     */
+    @NonNull
+    private static String modifiedSignature(long lastModified) {
+        return "modified:" + lastModified;
+    }
+
+    /**
+     * Get a hash of the contents of a source
+     * 
+     * This reads the whole source and is only used if no last modified time is available.
+     * 
+     * @param ctx Android Context
+     * @param uri the URI of the source
+     * @return a hash of the contents or null if the source couldn't be opened
+     * @throws IOException if reading the source fails
+     */
+    @Nullable
+    private static String sourceHash(@NonNull Context ctx, @NonNull Uri uri) throws IOException {
+        try (InputStream is = ctx.getContentResolver().openInputStream(uri)) {
+            return is != null ? Hash.sha256(is) : null;
+        }
+    }
+
     /**
      * Read an InputStream containing GeoJSON data in to the layer, replacing any existing data
      * 
+     * The features are written to a data file next to the state file and only an index is kept in memory.
+     * 
      * @param ctx Android Context
      * @param is the InputStream to read from
      * @param fromState reading from saved state
@@ -457,28 +463,13 @@ public class MapOverlay extends StyleableFileLayer
         boolean successful = false;
         // don't draw while we are loading
         setVisible(false);
-        BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName(OsmXml.UTF_8))); // NOSONAR
         try {
-            String json = FileUtil.readToString(rd);
-            data = new RTree<>(2, 12);
-            FeatureCollection fc = FeatureCollection.fromJson(json);
-            List<Feature> features = fc.features();
-            if (features != null) {
-                loadFeatures(features);
-            } else {
-                Log.d(DEBUG_TAG, "Retrying as Feature");
-                Feature f = Feature.fromJson(json);
-                Geometry g = f.geometry();
-                if (g != null) {
-                    data.insert(new BoundedFeature(f));
-                } else {
-                    g = GeoJson.geometryFromJson(json);
-                    Log.d(DEBUG_TAG, "Geometry " + g.type());
-                    if (g.type() != null) {
-                        data.insert(new BoundedFeature(Feature.fromGeometry(g)));
-                    }
-                }
+            if (data != null) {
+                data.close();
+                data = null;
             }
+            data = FeatureStore.read(is, getDataFile(ctx));
+            dataRestored = false;
             setVisible(true); // enable too
             successful = true;
             if (!fromState) {
@@ -503,16 +494,14 @@ public class MapOverlay extends StyleableFileLayer
     }
 
     /**
-     * @param features a List of Feature
+     * Get the file the features are stored in
+     * 
+     * @param ctx Android Context
+     * @return the data file
      */
-    private void loadFeatures(List<Feature> features) {
-        for (Feature f : features) {
-            if (GeoJSONConstants.FEATURE.equals(f.type()) && f.geometry() != null) {
-                data.insert(new BoundedFeature(f));
-            } else {
-                Log.e(DEBUG_TAG, "Type of object " + f.type() + " geometry " + f.geometry());
-            }
-        }
+    @NonNull
+    private File getDataFile(@NonNull Context ctx) {
+        return new File(ctx.getFilesDir(), stateFileName + "." + FeatureStore.EXTENSION);
     }
 
     @Override
@@ -528,6 +517,9 @@ public class MapOverlay extends StyleableFileLayer
         if (restoredOverlay != null) {
             labelKey = restoredOverlay.labelKey;
             labelMinZoom = restoredOverlay.labelMinZoom;
+            if (!dataRestored && data != null) {
+                dirty(); // the saved index is stale
+            }
             stateFileName = restoredOverlay.stateFileName;
         }
         return restoredOverlay;
@@ -547,11 +539,10 @@ public class MapOverlay extends StyleableFileLayer
         Log.d(DEBUG_TAG, "getClicked");
         if (data != null) {
             final float tolerance = DataStyle.getCurrent().getNodeToleranceValue();
-            Collection<BoundedFeature> queryResult = new ArrayList<>();
-            data.query(queryResult, viewBox);
+            List<Feature> queryResult = new ArrayList<>();
+            data.query(viewBox, queryResult);
             Log.d(DEBUG_TAG, "features result count " + queryResult.size());
-            for (BoundedFeature bf : queryResult) {
-                Feature f = bf.getFeature();
+            for (Feature f : queryResult) {
                 Geometry g = f.geometry();
                 if (g == null) {
                     continue;
@@ -687,13 +678,7 @@ public class MapOverlay extends StyleableFileLayer
      * @return a List of Feature objects
      */
     public List<Feature> getFeatures() {
-        Collection<BoundedFeature> queryResult = new ArrayList<>();
-        data.query(queryResult);
-        List<Feature> result = new ArrayList<>();
-        for (BoundedFeature bf : queryResult) {
-            result.add(bf.getFeature());
-        }
-        return result;
+        return data.getAll();
     }
 
     @Override
@@ -726,24 +711,7 @@ public class MapOverlay extends StyleableFileLayer
         if (data == null) {
             return super.getLabelList();
         }
-        Collection<BoundedFeature> queryResult = new ArrayList<>();
-        data.query(queryResult);
-        Set<String> result = new TreeSet<>();
-        for (BoundedFeature bf : queryResult) {
-            Feature feature = bf.getFeature();
-            JsonObject properties = feature != null ? feature.properties() : null;
-            if (properties == null) {
-                continue;
-            }
-            for (String key : properties.keySet()) {
-                JsonElement e = properties.get(key);
-                if (e != null && e.isJsonPrimitive()) {
-                    result.add(key);
-                }
-            }
-
-        }
-        return new ArrayList<>(result);
+        return new ArrayList<>(data.getLabelKeys());
     }
 
     @Override
@@ -817,23 +785,16 @@ public class MapOverlay extends StyleableFileLayer
     @Override
     public BoundingBox getExtent() {
         if (data != null) {
-            Collection<BoundedFeature> queryResult = new ArrayList<>();
-            data.query(queryResult);
-            BoundingBox extent = null;
-            for (BoundedFeature bf : queryResult) {
-                if (extent == null) {
-                    extent = bf.getBounds();
-                } else {
-                    extent.union(bf.getBounds());
-                }
-            }
-            return extent;
+            return data.getBounds();
         }
         return null;
     }
 
     @Override
     public void discardLayer(Context context) {
+        if (data != null) {
+            data.delete();
+        }
         data = null;
         File originalFile = context.getFileStreamPath(stateFileName);
         if (!originalFile.delete()) { // NOSONAR requires API 26
@@ -901,10 +862,12 @@ public class MapOverlay extends StyleableFileLayer
         Info info = new Info();
         info.name = getName();
         info.path = uri;
-        Collection<BoundedFeature> queryResult = new ArrayList<>();
-        data.query(queryResult);
-        for (BoundedFeature bf : queryResult) {
-            switch (bf.getFeature().geometry().type()) {
+        for (int i = 0; i < data.size(); i++) {
+            String type = data.getGeometryType(i);
+            if (type == null) {
+                continue;
+            }
+            switch (type) {
             case GeoJSONConstants.POINT:
                 info.pointCount++;
                 break;
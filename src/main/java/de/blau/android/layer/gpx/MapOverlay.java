@@ -8,11 +8,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -63,7 +59,6 @@ import de.blau.android.util.PlaybackTask;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.ScreenMessage;
 import de.blau.android.util.SerializableTextPaint;
-import de.blau.android.util.Util;
 import de.blau.android.util.collections.FloatPrimitiveList;
 import de.blau.android.views.IMapView;
 
@@ -77,13 +72,10 @@ public class MapOverlay extends StyleableFileLayer
 
     private static final String FILENAME = "gpxlayer" + "." + FileExtensions.RES;
 
-    private static final int TRACKPOINT_PARALLELIZATION_THRESHOLD = 10000; // multithreaded if more trackpoints
-
     /** Map this is an overlay of. */
     private final transient Map map;
 
-    private final transient ExecutorService          executorService;
-    private final transient List<FloatPrimitiveList> linePointsList;
+    private final transient FloatPrimitiveList       linePoints   = new FloatPrimitiveList();
     private final transient SavingHelper<MapOverlay> savingHelper = new SavingHelper<>();
 
     private transient Track       track;
@@ -125,14 +117,6 @@ public class MapOverlay extends StyleableFileLayer
 
         labelList = Arrays.asList(context.getString(R.string.gpx_automatic), context.getString(R.string.gpx_name), context.getString(R.string.gpx_description),
                 context.getString(R.string.gpx_type));
-
-        int threadPoolSize = Util.usableProcessors();
-        Log.d(DEBUG_TAG, "using " + threadPoolSize + " threads");
-        executorService = Executors.newFixedThreadPool(threadPoolSize);
-        linePointsList = new ArrayList<>(threadPoolSize);
-        for (int i = 0; i < threadPoolSize; i++) {
-            linePointsList.add(new FloatPrimitiveList());
-        }
     }
 
     /**
@@ -171,41 +155,15 @@ public class MapOverlay extends StyleableFileLayer
     /**
      * Draw the trackpoints
      * 
+     * Only the visible parts of the track are projected, at a resolution that matches the screen
+     * 
      * @param canvas the Canvas to draw on
      */
     private void drawTrackPoints(@NonNull Canvas canvas) {
-        List<TrackPoint> trackPoints = track.getTrackPoints();
-        int size = trackPoints.size();
-        if (size > 0) {
-            final float maxLen = getStrokeWidth() * 2;
-            if (size < TRACKPOINT_PARALLELIZATION_THRESHOLD || linePointsList.size() == 1) {
-                final FloatPrimitiveList linePoints = linePointsList.get(0);
-                map.pointListToLinePointsArray(linePoints, trackPoints);
-                GeoMath.squashPointsArray(linePoints, getStrokeWidth() * 2);
-                canvas.drawLines(linePoints.getArray(), 0, linePoints.size(), paint);
-            } else {
-                int offset = 0;
-                int length = size / linePointsList.size();
-                List<Callable<Void>> callableTasks = new ArrayList<>();
-                for (int i = linePointsList.size() - 1; i >= 0; i--) {
-                    final FloatPrimitiveList finalLinePoints = linePointsList.get(i);
-                    final int finalOffset = offset;
-                    // + 1 to join with next chunk, last chunk slightly different due to division remainder
-                    final int finalLength = i != 0 ? length + 1 : size - offset;
-                    callableTasks.add(() -> {
-                        map.pointListToLinePointsArray(finalLinePoints, trackPoints, finalOffset, finalLength);
-                        GeoMath.squashPointsArray(finalLinePoints, maxLen);
-                        canvas.drawLines(finalLinePoints.getArray(), 0, finalLinePoints.size(), paint);
-                        return null;
-                    });
-                    offset += length;
-                }
-                try {
-                    executorService.invokeAll(callableTasks);
-                } catch (InterruptedException | RejectedExecutionException ex) { // NOSONAR not much we can do here
-                    Log.e(DEBUG_TAG, ex.getMessage());
-                }
-            }
+        track.getTrackPoints().toLinePoints(linePoints, map.getViewBox(), map.getWidth(), map.getHeight());
+        if (linePoints.size() > 0) {
+            GeoMath.squashPointsArray(linePoints, getStrokeWidth() * 2);
+            canvas.drawLines(linePoints.getArray(), 0, linePoints.size(), paint);
         }
     }
 
@@ -336,14 +294,12 @@ public class MapOverlay extends StyleableFileLayer
     @Override
     public BoundingBox getExtent() {
         if (track != null) {
-            List<TrackPoint> trackPoints = track.getTrackPoints();
-            trackPoints.addAll(track.getWayPoints());
-            BoundingBox result = null;
-            for (TrackPoint tp : trackPoints) {
+            BoundingBox result = track.getTrackPoints().getBounds();
+            for (WayPoint wp : track.getWayPoints()) {
                 if (result == null) {
-                    result = new BoundingBox(tp.getLongitude(), tp.getLatitude());
+                    result = new BoundingBox(wp.getLongitude(), wp.getLatitude());
                 } else {
-                    result.union(tp.getLongitude(), tp.getLatitude());
+                    result.union(wp.getLongitude(), wp.getLatitude());
                 }
             }
             return result;
@@ -549,9 +505,6 @@ public class MapOverlay extends StyleableFileLayer
             Log.e(DEBUG_TAG, "Failed to delete state file " + stateFileName);
         }
         map.invalidate();
-        if (executorService != null) {
-            executorService.shutdown();
-        }
     }
 
     /**
@@ -359,12 +359,10 @@ public class MapillaryOverlay extends de.blau.android.layer.mvt.MapOverlay imple
      * @param id the image id
      */
     void setSelected(long id) {
-        if (selectedFilter == null) {
-            Style style = ((VectorTileRenderer) tileRenderer).getStyle();
-            Layer layer = style.getLayer(SELECTED_IMAGE_LAYER);
-            if (layer instanceof Symbol) {
-                selectedFilter = layer.getFilter();
-            }
+        Style style = ((VectorTileRenderer) tileRenderer).getStyle();
+        Layer layer = style.getLayer(SELECTED_IMAGE_LAYER);
+        if (selectedFilter == null && layer instanceof Symbol) {
+            selectedFilter = layer.getFilter();
         }
         if (selectedFilter != null && selectedFilter.size() == 3) {
             if (state == null) {
@@ -372,6 +370,9 @@ public class MapillaryOverlay extends de.blau.android.layer.mvt.MapOverlay imple
             }
             state.imageId = id;
             selectedFilter.set(2, new JsonPrimitive(id));
+            if (layer != null) {
+                layer.setFilter(selectedFilter); // recompile
+            }
             map.invalidate();
             dirty();
         }
@@ -437,6 +438,7 @@ public class MapillaryOverlay extends de.blau.android.layer.mvt.MapOverlay imple
         if (filter != null && filter.size() == 3) {
             setFilterValue(filter.get(1), start);
             setFilterValue(filter.get(2), end);
+            layer.setFilter(filter); // recompile
         }
     }
 
@@ -495,6 +497,7 @@ public class MapillaryOverlay extends de.blau.android.layer.mvt.MapOverlay imple
                 selectedFilter = layer.getFilter();
             }
             dirty();
+            flushTileCache();
             Log.d(DEBUG_TAG, "Loaded  successfully");
         } catch (IOException ioex) {
             Log.d(DEBUG_TAG, "Reading default mapillary style failed");
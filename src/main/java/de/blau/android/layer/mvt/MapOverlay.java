@@ -36,6 +36,7 @@ import de.blau.android.layer.LayerType;
 import de.blau.android.layer.StyleableInterface;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.ViewBox;
+import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.TileLayerSource;
 import de.blau.android.services.util.MapTile;
@@ -46,6 +47,7 @@ import de.blau.android.util.ReadFile;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.ScreenMessage;
 import de.blau.android.util.SelectFile;
+import de.blau.android.util.mvt.RasterTileCache;
 import de.blau.android.util.mvt.VectorTileDecoder;
 import de.blau.android.util.mvt.VectorTileRenderer;
 import de.blau.android.util.mvt.style.Background;
@@ -55,6 +57,7 @@ import de.blau.android.util.mvt.style.Style;
 import de.blau.android.util.mvt.style.Symbol;
 import de.blau.android.views.layers.MapTilesOverlayLayer;
 import de.blau.android.views.util.MapTileProvider;
+import de.blau.android.views.util.TileKey;
 
 public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<VectorTileDecoder.Feature>>>
         implements ClickableInterface<VectorTileDecoder.Feature>, StyleableInterface {
@@ -84,6 +87,11 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
         this.map = map;
         this.tileRenderer = aTileRenderer;
         this.overlay = overlay;
+        Preferences prefs = map.getPrefs();
+        if (prefs != null && prefs.getMvtRasterCacheSize() > 0 && aTileRenderer instanceof VectorTileRenderer) {
+            final long rasterCacheSize = prefs.getMvtRasterCacheSize() * 1024L * 1024L;
+            ((VectorTileRenderer) aTileRenderer).setRasterCache(new RasterTileCache(rasterCacheSize), map::postInvalidate);
+        }
     }
 
     @Override
@@ -103,7 +111,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
 
         Set<VectorTileDecoder.Feature> result = new LinkedHashSet<>();
         if (layerSource != null) {
-            int z = map.getZoomLevel();
+            int z = Math.min(map.getZoomLevel(), TileKey.MAX_ZOOM);
 
             MapTile mapTile = getTile(z, x, y);
             java.util.Map<String, List<VectorTileDecoder.Feature>> tile = mTileProvider.getMapTileFromCache(mapTile);
@@ -125,8 +133,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                     }
                     for (List<VectorTileDecoder.Feature> list : tile.values()) {
                         for (VectorTileDecoder.Feature f : list) {
-                            if (f.getLayerName().equals(layer.getSourceLayer()) && (layer.getFilter() == null || layer.evaluateFilter(layer.getFilter(), f))
-                                    && layer.isInteractive()) {
+                            if (f.getLayerName().equals(layer.getSourceLayer()) && layer.evaluateFilter(f) && layer.isInteractive()) {
                                 Geometry g = f.getGeometry();
                                 if (geometryClicked(scaledX, scaledY, tolerance, g)) {
                                     result.add(f);
@@ -321,6 +328,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                 style.setColor(color);
             }
         }
+        styleChanged();
     }
 
     @Override
@@ -350,6 +358,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                 style.setStrokeWidth(width);
             }
         }
+        styleChanged();
     }
 
     @Override
@@ -372,6 +381,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
         Symbol style = (Symbol) ((VectorTileRenderer) tileRenderer).getLayer(layerName, Type.SYMBOL);
         if (style != null) {
             style.setSymbol(symbol);
+            styleChanged();
             flushTileCache();
         }
     }
@@ -379,6 +389,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
     @Override
     public void resetStyling() {
         ((VectorTileRenderer) tileRenderer).resetStyle();
+        flushTileCache();
     }
 
     @Override
@@ -412,6 +423,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
         if (style != null) {
             style.setLabelKey(key);
             style.setTextJustify(Style.TEXT_JUSTIFY_CENTER);
+            styleChanged();
             flushTileCache();
         }
     }
@@ -433,6 +445,8 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                 style.setMinZoom(zoom);
             }
         }
+        styleChanged();
+        flushTileCache(); // source layers may have been pruned when decoding
     }
 
     @Override
@@ -452,6 +466,8 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                 style.setMaxZoom(zoom);
             }
         }
+        styleChanged();
+        flushTileCache(); // source layers may have been pruned when decoding
     }
 
     @Override
@@ -511,6 +527,7 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
      */
     public void setStyle(@NonNull Style style) {
         ((VectorTileRenderer) tileRenderer).setStyle(style);
+        flushTileCache();
     }
 
     /**
@@ -553,6 +570,14 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
      */
     protected void dirty() {
         dirty = true;
+        styleChanged();
+    }
+
+    /**
+     * Invalidate tiles that have been rendered with the previous version of the Style
+     */
+    protected void styleChanged() {
+        ((VectorTileRenderer) tileRenderer).getStyle().changed();
     }
 
     /**
@@ -560,6 +585,38 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
      */
     protected void flushTileCache() {
         MapTileProvider<java.util.Map<String, List<VectorTileDecoder.Feature>>> provider = getTileProvider();
-        provider.flushCache(layerSource.getId(), false);
+        provider.flushCache(layerSource != null ? layerSource.getId() : null, false);
+        clearRasterCache();
+    }
+
+    /**
+     * Remove all rasterized tiles
+     */
+    private void clearRasterCache() {
+        RasterTileCache rasterCache = ((VectorTileRenderer) tileRenderer).getRasterCache();
+        if (rasterCache != null) {
+            rasterCache.clear();
+        }
+    }
+
+    @Override
+    public void setRendererInfo(@Nullable final TileLayerSource tileLayer) {
+        super.setRendererInfo(tileLayer);
+        // this is called from the super class constructor before tileRenderer has been set
+        if (tileLayer != null && tileRenderer instanceof VectorTileRenderer) {
+            ((VectorTileRenderer) tileRenderer).setMaxTileZoom(tileLayer.getMaxZoomLevel());
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        clearRasterCache();
+    }
+
+    @Override
+    public void onDestroy() {
+        ((VectorTileRenderer) tileRenderer).setRasterCache(null, null);
+        super.onDestroy();
     }
 }
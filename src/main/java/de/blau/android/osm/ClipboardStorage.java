@@ -30,6 +30,8 @@ public class ClipboardStorage implements Serializable {
     private int selectionLat;
     private int selectionLon;
 
+    private transient int modificationCount;
+
     /**
      * Default constructor
      */
@@ -42,6 +44,18 @@ public class ClipboardStorage implements Serializable {
      */
     void reset() {
         storage = new Storage();
+        modificationCount++; // NOSONAR only needs to be different from previous values, not exact
+    }
+
+    /**
+     * Get the modification count
+     * 
+     * This changes every time the contents are replaced
+     * 
+     * @return the modification count
+     */
+    int getModificationCount() {
+        return modificationCount;
     }
 
     /**
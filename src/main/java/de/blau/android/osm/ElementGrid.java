@@ -0,0 +1,265 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import de.blau.android.util.collections.LongOsmElementMap.SelectElement;
+import de.blau.android.util.rtree.BoundedObject;
+
+/**
+ * Hierarchical ("loose") uniform grid spatial index for OsmElements
+ *
+ * Every element is stored in exactly one cell, on the finest level on which the extent of its bounding box is smaller
+ * than the cell size, in the cell that contains the left/bottom corner of the bounding box. This avoids having to
+ * de-duplicate results and makes insertion and removal O(1) as long as the bounding box of the element hasn't changed
+ * since it was inserted.
+ *
+ * Coordinates are shifted to unsigned values so that any int value, including the coordinates used for deleted Nodes,
+ * can be handled without special casing.
+ *
+ * This is not thread safe and requires external synchronization.
+ *
+ * @param <T> the element type
+ */
+class ElementGrid<T extends OsmElement & BoundedObject> {
+
+    private static final String DEBUG_TAG = ElementGrid.class.getSimpleName().substring(0, Math.min(23, ElementGrid.class.getSimpleName().length()));
+
+    /**
+     * Finest level cell size is 2^16 E7 degrees, roughly 700m at the equator
+     */
+    static final int BASE_SHIFT  = 16;
+    static final int LEVEL_SHIFT = 2;
+    static final int LEVELS      = (32 - BASE_SHIFT) / LEVEL_SHIFT + 1;
+
+    private static final int DEFAULT_CELL_CAPACITY = 16;
+
+    private final List<Map<Long, List<T>>> levels    = new ArrayList<>(LEVELS);
+    private final long[]                   maxWidth  = new long[LEVELS];
+    private final long[]                   maxHeight = new long[LEVELS];
+    private int                            size      = 0;
+
+    private final BoundingBox tempBox = new BoundingBox();
+
+    /**
+     * Construct a new, empty, grid
+     */
+    ElementGrid() {
+        for (int i = 0; i < LEVELS; i++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Convert a longitude to an unsigned x value
+     *
+     * @param lonE7 WGS84*1E7 longitude
+     * @return the x value
+     */
+    private static long toX(int lonE7) {
+        return (long) lonE7 - Integer.MIN_VALUE;
+    }
+
+    /**
+     * Convert a latitude to an unsigned y value
+     *
+     * @param latE7 WGS84*1E7 latitude
+     * @return the y value
+     */
+    private static long toY(int latE7) {
+        return (long) latE7 - Integer.MIN_VALUE;
+    }
+
+    /**
+     * Get the shift for a level
+     *
+     * @param level the level
+     * @return the number of bits to shift the coordinates to get the cell coordinates
+     */
+    private static int shift(int level) {
+        return BASE_SHIFT + level * LEVEL_SHIFT;
+    }
+
+    /**
+     * Get the key for a cell
+     *
+     * @param cellX cell x coordinate
+     * @param cellY cell y coordinate
+     * @return the key
+     */
+    private static long key(long cellX, long cellY) {
+        return (cellX << 32) | cellY;
+    }
+
+    /**
+     * Determine the level a BoundingBox should be stored on
+     *
+     * @param box the BoundingBox
+     * @return the level
+     */
+    private static int level(@NonNull BoundingBox box) {
+        long extent = Math.max(toX(box.getRight()) - toX(box.getLeft()), toY(box.getTop()) - toY(box.getBottom()));
+        int level = 0;
+        while (level < LEVELS - 1 && extent >= (1L << shift(level))) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Add an element to the grid
+     *
+     * @param e the element
+     */
+    void insert(@NonNull T e) {
+        BoundingBox box = e.getBounds(tempBox);
+        int level = level(box);
+        int shift = shift(level);
+        long x = toX(box.getLeft());
+        long y = toY(box.getBottom());
+        Long key = key(x >> shift, y >> shift);
+        Map<Long, List<T>> cells = levels.get(level);
+        List<T> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>(DEFAULT_CELL_CAPACITY);
+            cells.put(key, cell);
+        }
+        cell.add(e);
+        maxWidth[level] = Math.max(maxWidth[level], toX(box.getRight()) - x);
+        maxHeight[level] = Math.max(maxHeight[level], toY(box.getTop()) - y);
+        size++;
+    }
+
+    /**
+     * Remove an element from the grid
+     *
+     * If the element can't be found in the cell that its current bounding box indicates, all cells will be searched.
+     *
+     * @param e the element
+     * @return true if the element was found
+     */
+    boolean remove(@NonNull T e) {
+        BoundingBox box = e.getBounds(tempBox);
+        int level = level(box);
+        int shift = shift(level);
+        Long key = key(toX(box.getLeft()) >> shift, toY(box.getBottom()) >> shift);
+        Map<Long, List<T>> cells = levels.get(level);
+        List<T> cell = cells.get(key);
+        if (cell != null && removeFromCell(cells, key, cell, e)) {
+            return true;
+        }
+        // bounding box has changed without being re-indexed
+        for (Map<Long, List<T>> l : levels) {
+            for (Entry<Long, List<T>> entry : l.entrySet()) {
+                if (removeFromCell(l, entry.getKey(), entry.getValue(), e)) {
+                    Log.w(DEBUG_TAG, "Element " + e.getDescription() + " was not in expected grid cell");
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove an element from a specific cell
+     *
+     * @param cells the level the cell is on
+     * @param key the key for the cell
+     * @param cell the cell
+     * @param e the element
+     * @return true if the element was found
+     */
+    private boolean removeFromCell(@NonNull Map<Long, List<T>> cells, @NonNull Long key, @NonNull List<T> cell, @NonNull T e) {
+        final int cellSize = cell.size();
+        for (int i = 0; i < cellSize; i++) {
+            if (cell.get(i) == e) {
+                // order is irrelevant, move the last element to the free slot
+                T last = cell.remove(cellSize - 1);
+                if (i < cellSize - 1) {
+                    cell.set(i, last);
+                }
+                if (cell.isEmpty()) {
+                    cells.remove(key);
+                }
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add all selected elements that are stored in cells that potentially intersect with box to result
+     *
+     * @param box the BoundingBox to query
+     * @param result a List that will hold the elements
+     * @param s function for selecting the element, needs to check if the element actually intersects with box
+     * @return result
+     */
+    @NonNull
+    List<T> query(@NonNull BoundingBox box, @NonNull List<T> result, @NonNull SelectElement<T> s) {
+        for (int level = 0; level < LEVELS; level++) {
+            Map<Long, List<T>> cells = levels.get(level);
+            if (cells.isEmpty()) {
+                continue;
+            }
+            int shift = shift(level);
+            long minX = Math.max(0, toX(box.getLeft()) - maxWidth[level]) >> shift;
+            long minY = Math.max(0, toY(box.getBottom()) - maxHeight[level]) >> shift;
+            long maxX = toX(box.getRight()) >> shift;
+            long maxY = toY(box.getTop()) >> shift;
+            if ((maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+                // fewer occupied cells than cells covered by the box
+                for (Entry<Long, List<T>> entry : cells.entrySet()) {
+                    long k = entry.getKey();
+                    long cellX = k >>> 32;
+                    long cellY = k & 0xFFFFFFFFL;
+                    if (cellX >= minX && cellX <= maxX && cellY >= minY && cellY <= maxY) {
+                        select(entry.getValue(), result, s);
+                    }
+                }
+            } else {
+                for (long cellX = minX; cellX <= maxX; cellX++) {
+                    for (long cellY = minY; cellY <= maxY; cellY++) {
+                        List<T> cell = cells.get(key(cellX, cellY));
+                        if (cell != null) {
+                            select(cell, result, s);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the selected elements of a cell to result
+     *
+     * @param cell the cell
+     * @param result the List holding the result
+     * @param s function for selecting the element
+     */
+    private void select(@NonNull List<T> cell, @NonNull List<T> result, @NonNull SelectElement<T> s) {
+        final int cellSize = cell.size();
+        for (int i = 0; i < cellSize; i++) {
+            T e = cell.get(i);
+            if (s.select(e)) {
+                result.add(e);
+            }
+        }
+    }
+
+    /**
+     * Get the number of elements in the grid
+     *
+     * @return the element count
+     */
+    int size() {
+        return size;
+    }
+}
@@ -1,23 +1,54 @@
 package de.blau.android.osm;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-
-import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import android.content.Context;
+import android.util.Log;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import de.blau.android.R;
 import de.blau.android.exception.UnsupportedFormatException;
 import de.blau.android.services.util.MBTileProviderDataBase;
 import de.blau.android.services.util.MapTile;
+import de.blau.android.util.ExecutorTask.OnProgressListener;
 import de.blau.android.util.collections.UnsignedSparseBitSet;
 
 public final class MapSplitSource {
 
+    private static final String DEBUG_TAG = MapSplitSource.class.getSimpleName().substring(0, Math.min(23, MapSplitSource.class.getSimpleName().length()));
+
     public static final String LATEST_DATE = "latest_date";
     public static final String ATTRIBUTION = "attribution";
 
+    private static final int MAX_PENDING = 8; // limits memory use for decoded tiles
+
+    /**
+     * A tile to decode
+     */
+    static final class TileData {
+        final MapTile tile;
+        final byte[]  data;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param tile the tile coordinates
+         * @param data the contents or null if they still need to be retrieved
+         */
+        TileData(@NonNull MapTile tile, @Nullable byte[] data) {
+            this.tile = tile;
+            this.data = data;
+        }
+    }
+
     /**
      * Private constructor
      */
@@ -35,6 +66,24 @@ public final class MapSplitSource {
      * @throws IOException if reading the data caused issues
      */
     public static Storage readBox(@NonNull Context context, @NonNull MBTileProviderDataBase mbTiles, @NonNull BoundingBox box) throws IOException {
+        return readBox(context, mbTiles, box, null);
+    }
+
+    /**
+     * Read data for the specified BoundingBox from a tiled OSM datasource
+     * 
+     * The tiles at the maximum zoom level are retrieved with one query, decoded in parallel in to separate Storage
+     * objects and then merged removing the elements that MapSplit duplicates in neighbouring tiles.
+     * 
+     * @param context an Android Context
+     * @param mbTiles a MBTileProviderDataBase instance
+     * @param box the BoundingBox
+     * @param listener if not null called with the percentage of tiles processed
+     * @return a Storage instance containing the OSM objects
+     * @throws IOException if reading the data caused issues
+     */
+    public static Storage readBox(@NonNull Context context, @NonNull MBTileProviderDataBase mbTiles, @NonNull BoundingBox box,
+            @Nullable OnProgressListener<Integer> listener) throws IOException {
 
         final double lonLeft = box.getLeft() / 1E7d;
         final double lonRight = box.getRight() / 1E7d;
@@ -58,50 +107,142 @@ public final class MapSplitSource {
         final int tileNeededRight = Math.max(xTileLeft, xTileRight);
         final int tileNeededTop = Math.min(yTileTop, yTileBottom);
         final int tileNeededBottom = Math.max(yTileTop, yTileBottom);
+
+        final LongSparseArray<byte[]> found = new LongSparseArray<>();
+        mbTiles.getTiles(maxZoom, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom,
+                (int x, int y, byte[] data) -> found.put(tileKey(x, y), data));
+
         UnsignedSparseBitSet seen = new UnsignedSparseBitSet(); // track tiles that we have seen
-        Storage storage = new Storage();
-        MapTile mapTile = new MapTile(null, maxZoom, 0, 0);
+        List<TileData> tiles = new ArrayList<>();
         for (int x = tileNeededLeft; x <= tileNeededRight; x++) {
             for (int y = tileNeededBottom; y >= tileNeededTop; y--) {
                 if (seen.get(x << maxZoom | y)) {
                     continue;
                 }
-                mapTile.zoomLevel = maxZoom;
-                mapTile.x = x;
-                mapTile.y = y;
-                InputStream is = mbTiles.getTileStream(mapTile);
-                if (is != null) {
-                    OsmPbfParser parser = new OsmPbfParser(context, storage, box);
-                    new BlockInputStream(is, parser).process();
-                } else {
-                    // tile doesn't exist try ones further out
-                    // assumption there will only always be one tile that
-                    // covers an area
-                    int skipped = 2;
-                    while (mapTile.zoomLevel > minZoom) {
-                        mapTile.x >>= 1;
-                        mapTile.y >>= 1;
-                        --mapTile.zoomLevel;
-                        is = mbTiles.getTileStream(mapTile);
-                        if (is != null) {
-                            OsmPbfParser parser = new OsmPbfParser(context, storage, box);
-                            new BlockInputStream(is, parser).process();
-                            // mark smaller tiles as seen
-                            int zoomDiff = maxZoom - mapTile.zoomLevel;
-                            int originX = mapTile.x << zoomDiff;
-                            int originY = mapTile.y << zoomDiff;
-                            for (int xSeen = 0; xSeen < skipped; xSeen++) {
-                                for (int ySeen = 0; ySeen < skipped; ySeen++) {
-                                    seen.set((originX + xSeen) << maxZoom | (originY + ySeen));
-                                }
+                int index = found.indexOfKey(tileKey(x, y));
+                if (index >= 0) {
+                    tiles.add(new TileData(new MapTile(null, maxZoom, x, y), found.valueAt(index)));
+                    continue;
+                }
+                // tile doesn't exist try ones further out
+                // assumption there will only always be one tile that
+                // covers an area
+                MapTile mapTile = new MapTile(null, maxZoom, x, y);
+                int skipped = 2;
+                while (mapTile.zoomLevel > minZoom) {
+                    mapTile.x >>= 1;
+                    mapTile.y >>= 1;
+                    --mapTile.zoomLevel;
+                    byte[] data = mbTiles.getTile(mapTile);
+                    if (data != null) {
+                        tiles.add(new TileData(mapTile, data));
+                        // mark smaller tiles as seen
+                        int zoomDiff = maxZoom - mapTile.zoomLevel;
+                        int originX = mapTile.x << zoomDiff;
+                        int originY = mapTile.y << zoomDiff;
+                        for (int xSeen = 0; xSeen < skipped; xSeen++) {
+                            for (int ySeen = 0; ySeen < skipped; ySeen++) {
+                                seen.set((originX + xSeen) << maxZoom | (originY + ySeen));
                             }
-                            break;
                         }
-                        skipped = skipped << 1;
+                        break;
                     }
+                    skipped = skipped << 1;
+                }
+            }
+        }
+        return decode(context, mbTiles, tiles, box, listener);
+    }
+
+    /**
+     * Get a key for a tile at the maximum zoom level
+     * 
+     * @param x tile x
+     * @param y tile y
+     * @return a long key
+     */
+    private static long tileKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decode tiles in parallel if possible and merge the results in to one Storage object
+     * 
+     * The tiles are merged in the order they are in the List, if an element is contained in more than one tile the
+     * first copy is used.
+     * 
+     * @param context an Android Context (or null if not available)
+     * @param mbTiles a MBTileProviderDataBase instance to retrieve tiles that didn't have their contents set or null
+     * @param tiles the tiles to decode
+     * @param box if not null trim the contents to this BoundingBox
+     * @param listener if not null called with the percentage of tiles processed
+     * @return a Storage instance containing the OSM objects
+     * @throws IOException if reading the data caused issues
+     */
+    @NonNull
+    static Storage decode(@Nullable Context context, @Nullable MBTileProviderDataBase mbTiles, @NonNull List<TileData> tiles,
+            @Nullable BoundingBox box, @Nullable OnProgressListener<Integer> listener) throws IOException {
+        final long start = System.currentTimeMillis();
+        final boolean parallel = tiles.size() > 1 && OsmPbfParser.hasDecodeThreads();
+        final ArrayDeque<Future<Storage>> pending = new ArrayDeque<>();
+        Storage storage = null;
+        int done = 0;
+        int missing = 0; // counted so that progress reaches 100%
+        try {
+            for (TileData tile : tiles) {
+                // large tiles are retrieved here so that only the calling thread accesses the database
+                final byte[] data = tile.data != null || mbTiles == null ? tile.data : mbTiles.getTile(tile.tile);
+                if (data == null) {
+                    Log.e(DEBUG_TAG, "Tile " + tile.tile + " not found");
+                    progress(listener, ++missing + done, tiles.size());
+                    continue;
+                }
+                if (!parallel) {
+                    storage = merge(storage, decodeTile(context, data, box));
+                    progress(listener, ++done + missing, tiles.size());
+                    continue;
+                }
+                pending.add(OsmPbfParser.getDecodePool().submit(() -> decodeTile(context, data, box)));
+                while (pending.size() > MAX_PENDING || (!pending.isEmpty() && pending.peek().isDone())) {
+                    storage = merge(storage, next(pending));
+                    progress(listener, ++done + missing, tiles.size());
                 }
             }
+            while (!pending.isEmpty()) {
+                storage = merge(storage, next(pending));
+                progress(listener, ++done + missing, tiles.size());
+            }
+        } finally {
+            for (Future<Storage> future : pending) {
+                future.cancel(true);
+            }
+        }
+        if (storage == null) {
+            return new Storage();
         }
+        if (done > 1) {
+            resolveReferences(storage);
+        }
+        Log.d(DEBUG_TAG, "Read " + done + " tiles in " + (System.currentTimeMillis() - start) + " ms");
+        return storage;
+    }
+
+    /**
+     * Decode a single tile in to a new Storage object
+     * 
+     * This doesn't access any shared state and can run on any thread. MapSplit adds all nodes of a way to every tile the
+     * way is in, so unreferenced nodes can be removed per tile.
+     * 
+     * @param context an Android Context (or null if not available)
+     * @param data the tile contents
+     * @param box if not null trim the contents to this BoundingBox
+     * @return a Storage instance containing the OSM objects
+     * @throws IOException if reading the data caused issues
+     */
+    @NonNull
+    private static Storage decodeTile(@Nullable Context context, @NonNull byte[] data, @Nullable BoundingBox box) throws IOException {
+        Storage storage = new Storage();
+        new OsmPbfParser(context, storage, box, false).process(new ByteArrayInputStream(data));
         if (box != null) {
             // remove all unreferenced nodes that are not in the bounding box
             storage.removeUnreferencedNodes(box);
@@ -109,6 +250,137 @@ public final class MapSplitSource {
         return storage;
     }
 
+    /**
+     * Wait for the oldest pending tile to be decoded
+     * 
+     * @param pending the queue of tiles being decoded
+     * @return the decoded tile
+     * @throws IOException if decoding failed
+     */
+    @NonNull
+    private static Storage next(@NonNull ArrayDeque<Future<Storage>> pending) throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) { // NOSONAR
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Report progress if we have a listener
+     * 
+     * @param listener the listener or null
+     * @param done the number of tiles processed, including missing ones
+     * @param total the total number of tiles
+     */
+    private static void progress(@Nullable OnProgressListener<Integer> listener, int done, int total) {
+        if (listener != null) {
+            listener.onProgress(done * 100 / total);
+        }
+    }
+
+    /**
+     * Add the elements of a tile to a Storage object, skipping elements that are already present
+     * 
+     * References between elements are not fixed up, that needs to be done with {@link #resolveReferences(Storage)}
+     * after all tiles have been merged
+     * 
+     * @param storage the target Storage or null if this is the first tile
+     * @param tile the decoded tile
+     * @return the target Storage
+     */
+    @NonNull
+    static Storage merge(@Nullable Storage storage, @NonNull Storage tile) {
+        if (storage == null) {
+            return tile;
+        }
+        storage.ensureCapacity(tile.getNodeCount(), tile.getWayCount(), tile.getRelationCount());
+        for (Node node : tile.getNodeIndex()) {
+            storage.insertElementSafe(node);
+        }
+        for (Way way : tile.getWayIndex()) {
+            storage.insertElementSafe(way);
+        }
+        for (Relation relation : tile.getRelationIndex()) {
+            storage.insertElementSafe(relation);
+        }
+        for (BoundingBox box : tile.getBoundingBoxes()) {
+            storage.addBoundingBox(box);
+        }
+        return storage;
+    }
+
+    /**
+     * Replace references to duplicate copies of elements with the copies that are actually in storage
+     * 
+     * @param storage the Storage containing the merged tiles
+     */
+    static void resolveReferences(@NonNull Storage storage) {
+        for (Way way : storage.getWayIndex()) {
+            List<Node> nodes = way.getNodes();
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = storage.getNode(nodes.get(i).getOsmId());
+                if (node != null && node != nodes.get(i)) {
+                    nodes.set(i, node);
+                }
+            }
+        }
+        for (Node node : storage.getNodeIndex()) {
+            resolveParents(storage, node);
+        }
+        for (Way way : storage.getWayIndex()) {
+            resolveParents(storage, way);
+        }
+        for (Relation relation : storage.getRelationIndex()) {
+            resolveParents(storage, relation);
+        }
+        // relations can have members that were only present in a different tile
+        for (Relation relation : storage.getRelationIndex()) {
+            for (RelationMember member : relation.getMembers()) {
+                OsmElement element = storage.getOsmElement(member.getType(), member.getRef());
+                if (element != null) {
+                    if (element != member.getElement()) {
+                        member.setElement(element);
+                    }
+                    if (!element.hasParentRelation(relation)) {
+                        element.addParentRelation(relation);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace any parent relations that are not in storage with the copies that are
+     * 
+     * @param storage the Storage containing the merged tiles
+     * @param element the element to check
+     */
+    private static void resolveParents(@NonNull Storage storage, @NonNull OsmElement element) {
+        List<Relation> parents = element.getParentRelations();
+        if (parents != null) {
+            for (int i = 0; i < parents.size(); i++) {
+                Relation parent = storage.getRelation(parents.get(i).getOsmId());
+                if (parent != null && parent != parents.get(i)) {
+                    parents.set(i, parent);
+                }
+            }
+        }
+    }
+
     /**
      * Check if a BoundingBox overlaps with the tiles in the source
      * 
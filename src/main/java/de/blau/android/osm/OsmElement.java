@@ -67,7 +67,11 @@ public abstract class OsmElement implements OsmElementInterface, Serializable, X
 
     protected long osmVersion;
 
-    protected TreeMap<String, String> tags;
+    /**
+     * Immutable and potentially shared with other elements, null if there are no tags. Note that this can be a TreeMap
+     * if the element was deserialized from older saved state.
+     */
+    protected SortedMap<String, String> tags;
 
     protected byte state;
 
@@ -138,9 +142,9 @@ public abstract class OsmElement implements OsmElementInterface, Serializable, X
     @NonNull
     public SortedMap<String, String> getTags() {
         if (tags == null) {
-            return Collections.unmodifiableSortedMap(new TreeMap<String, String>()); // for backwards compatibility
+            return TagMap.EMPTY; // for backwards compatibility
         }
-        return Collections.unmodifiableSortedMap(tags);
+        return tags instanceof TagMap ? tags : Collections.unmodifiableSortedMap(tags);
     }
 
     /**
@@ -223,11 +227,14 @@ public abstract class OsmElement implements OsmElementInterface, Serializable, X
      * @param tags New tags to add or to replace existing tags.
      */
     void addTags(final Map<String, String> tags) {
-        if (tags != null) {
+        if (tags != null && !tags.isEmpty()) {
             if (this.tags == null) {
-                this.tags = new TreeMap<>();
+                this.tags = TagDictionary.tags(tags);
+            } else {
+                Map<String, String> temp = new TreeMap<>(this.tags);
+                temp.putAll(tags);
+                this.tags = TagDictionary.tags(temp);
             }
-            this.tags.putAll(tags);
         }
     }
 
@@ -242,8 +249,7 @@ public abstract class OsmElement implements OsmElementInterface, Serializable, X
             addTags(tags);
             return true;
         } else if (!this.tags.equals(tags)) {
-            this.tags.clear();
-            addTags(tags);
+            this.tags = TagDictionary.tags(tags);
             return true;
         }
         return false;
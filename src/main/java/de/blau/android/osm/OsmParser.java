@@ -18,6 +18,7 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import de.blau.android.exception.OsmParseException;
 import de.blau.android.util.DateFormatter;
 import de.blau.android.util.collections.LongOsmElementMap;
@@ -46,19 +47,20 @@ public class OsmParser extends DefaultHandler {
      * Current node (node of OsmElement), where the parser is actually in. Will be used when children of this element
      * have to been assigned to their parent.
      */
-    private Node currentNode = null;
+    protected Node currentNode = null;
 
     /** Same as {@link currentNode}. */
     protected Way currentWay = null;
 
     /** Same as {@link currentNode}. */
-    private Relation currentRelation = null;
+    protected Relation currentRelation = null;
 
-    private TreeMap<String, String> currentTags;
+    /** Tags for the current element, reused as the element creates its own immutable copy */
+    private final TreeMap<String, String> currentTags = new TreeMap<>();
 
     private final List<Exception> exceptions = new ArrayList<>();
 
-    private final boolean allowEmptyWays;
+    protected final boolean allowEmptyWays;
 
     /**
      * Helper class to store missing relation information for post processing
@@ -269,9 +271,9 @@ public class OsmParser extends DefaultHandler {
      * @param e element to add the tags to
      */
     void addTags(OsmElement e) {
-        if (currentTags != null) {
+        if (!currentTags.isEmpty()) {
             e.setTags(currentTags);
-            currentTags = null;
+            currentTags.clear();
         }
     }
 
@@ -292,56 +294,86 @@ public class OsmParser extends DefaultHandler {
             long timestamp = parseTimestamp(atts);
 
             final boolean deleted = OsmElement.FALSE_VALUE.equals(atts.getValue(OsmElement.VISIBLE_ATTR));
-            if (deleted) {
-                status = OsmElement.STATE_DELETED;
-            }
+            status = elementStatus(status, deleted, atts.getValue(OsmElement.JOSM_ACTION), osmId);
 
-            String action = atts.getValue(OsmElement.JOSM_ACTION);
-            if (action != null) {
-                if (action.equalsIgnoreCase(OsmElement.JOSM_MODIFY)) {
-                    status = OsmElement.STATE_MODIFIED;
-                    if (osmId < 0) {
-                        status = OsmElement.STATE_CREATED;
-                    }
-                } else if (action.equalsIgnoreCase(OsmElement.JOSM_DELETE)) {
-                    status = OsmElement.STATE_DELETED;
-                } else {
-                    throw new OsmParseException("Unknown action " + action);
-                }
+            int lat = Integer.MAX_VALUE;
+            int lon = Integer.MAX_VALUE;
+            if (Node.NAME.equals(name) && !deleted) {
+                lat = (new BigDecimal(atts.getValue(Node.LAT_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
+                lon = (new BigDecimal(atts.getValue(Node.LON_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
             }
+            createElement(name, osmId, osmVersion, timestamp, status, lat, lon);
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new OsmParseException("Element unparsable");
+        }
 
-            switch (name) {
-            case Node.NAME:
-                if (deleted) {
-                    currentNode = OsmElementFactory.createNode(osmId, osmVersion, timestamp, status, Integer.MAX_VALUE, Integer.MAX_VALUE);
-                    break;
-                }
-                int lat = (new BigDecimal(atts.getValue(Node.LAT_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
-                int lon = (new BigDecimal(atts.getValue(Node.LON_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
-                currentNode = OsmElementFactory.createNode(osmId, osmVersion, timestamp, status, lat, lon);
-                break;
-            case Way.NAME:
-                currentWay = OsmElementFactory.createWay(osmId, osmVersion, timestamp, status);
-                if (nodeIndex == null) {
-                    nodeIndex = storage.getNodeIndex();
-                }
-                break;
-            case Relation.NAME:
-                currentRelation = OsmElementFactory.createRelation(osmId, osmVersion, timestamp, status);
-                if (nodeIndex == null) {
-                    nodeIndex = storage.getNodeIndex();
-                }
-                if (wayIndex == null) {
-                    wayIndex = storage.getWayIndex();
+    }
+
+    /**
+     * Determine the state of an element from its attributes
+     * 
+     * @param status the default state
+     * @param deleted true if the element is not visible
+     * @param action the JOSM action attribute or null
+     * @param osmId the id of the element
+     * @return the state the element should be set to
+     * @throws OsmParseException if the action is unknown
+     */
+    static byte elementStatus(byte status, boolean deleted, @Nullable String action, long osmId) throws OsmParseException {
+        if (deleted) {
+            status = OsmElement.STATE_DELETED;
+        }
+        if (action != null) {
+            if (action.equalsIgnoreCase(OsmElement.JOSM_MODIFY)) {
+                status = OsmElement.STATE_MODIFIED;
+                if (osmId < 0) {
+                    status = OsmElement.STATE_CREATED;
                 }
-                break;
-            default:
-                throw new OsmParseException("Unknown element " + name);
+            } else if (action.equalsIgnoreCase(OsmElement.JOSM_DELETE)) {
+                status = OsmElement.STATE_DELETED;
+            } else {
+                throw new OsmParseException("Unknown action " + action);
             }
-        } catch (NumberFormatException | NullPointerException e) {
-            throw new OsmParseException("Element unparsable");
         }
+        return status;
+    }
 
+    /**
+     * Create a new current element
+     * 
+     * @param name the OsmElement type ("node", "way", "relation")
+     * @param osmId the element id
+     * @param osmVersion the element version
+     * @param timestamp seconds since the unix epoch or -1
+     * @param status the state of the element
+     * @param lat WGS84 latitude times 1E7, only used for Nodes
+     * @param lon WGS84 longitude times 1E7, only used for Nodes
+     * @throws OsmParseException if the element type is unknown
+     */
+    protected void createElement(@NonNull final String name, long osmId, long osmVersion, long timestamp, byte status, int lat, int lon)
+            throws OsmParseException {
+        switch (name) {
+        case Node.NAME:
+            currentNode = OsmElementFactory.createNode(osmId, osmVersion, timestamp, status, lat, lon);
+            break;
+        case Way.NAME:
+            currentWay = OsmElementFactory.createWay(osmId, osmVersion, timestamp, status);
+            if (nodeIndex == null) {
+                nodeIndex = storage.getNodeIndex();
+            }
+            break;
+        case Relation.NAME:
+            currentRelation = OsmElementFactory.createRelation(osmId, osmVersion, timestamp, status);
+            if (nodeIndex == null) {
+                nodeIndex = storage.getNodeIndex();
+            }
+            if (wayIndex == null) {
+                wayIndex = storage.getWayIndex();
+            }
+            break;
+        default:
+            throw new OsmParseException("Unknown element " + name);
+        }
     }
 
     /**
@@ -369,12 +401,9 @@ public class OsmParser extends DefaultHandler {
      * @param atts current set of xml attribute
      */
     private void parseTag(final Attributes atts) {
-        if (currentTags == null) {
-            currentTags = new TreeMap<>();
-        }
         String k = atts.getValue(OsmElement.TAG_KEY_ATTR);
         String v = atts.getValue(OsmElement.TAG_VALUE_ATTR);
-        currentTags.put(k, v);
+        currentTags.put(TagDictionary.intern(k), TagDictionary.intern(v));
     }
 
     /**
@@ -408,24 +437,33 @@ public class OsmParser extends DefaultHandler {
             if (currentWay == null) {
                 Log.e(DEBUG_TAG, "No currentWay set!");
             } else {
-                long nodeOsmId = Long.parseLong(atts.getValue(Way.REF));
-                Node node = nodeIndex.get(nodeOsmId);
-                if (node == null) {
-                    if (allowEmptyWays) {
-                        Node temp = OsmElementFactory.createNode(nodeOsmId, 0, -1, OsmElement.STATE_DELETED, 0, 0);
-                        currentWay.addNode(temp); // NOTE not added to storage!
-                    } else {
-                        throw new OsmParseException("parseWayNode node " + nodeOsmId + " not in storage");
-                    }
-                } else {
-                    currentWay.addNode(node);
-                }
+                addWayNode(Long.parseLong(atts.getValue(Way.REF)));
             }
         } catch (NumberFormatException e) {
             throw new OsmParseException("WayNode unparsable");
         }
     }
 
+    /**
+     * Add a node to the current Way
+     * 
+     * @param nodeOsmId the id of the Node
+     * @throws OsmParseException if the Node is missing and empty ways are not allowed
+     */
+    protected void addWayNode(long nodeOsmId) throws OsmParseException {
+        Node node = nodeIndex.get(nodeOsmId);
+        if (node == null) {
+            if (allowEmptyWays) {
+                Node temp = OsmElementFactory.createNode(nodeOsmId, 0, -1, OsmElement.STATE_DELETED, 0, 0);
+                currentWay.addNode(temp); // NOTE not added to storage!
+            } else {
+                throw new OsmParseException("parseWayNode node " + nodeOsmId + " not in storage");
+            }
+        } else {
+            currentWay.addNode(node);
+        }
+    }
+
     /**
      * Parse relation members, storing information on relations that we haven't seen yet for post processing
      * 
@@ -439,49 +477,63 @@ public class OsmParser extends DefaultHandler {
                 return;
             }
             long ref = Long.parseLong(atts.getValue(Relation.MEMBER_REF_ATTR));
-            String type = atts.getValue(Relation.MEMBER_TYPE_ATTR);
-            String role = atts.getValue(Relation.MEMBER_ROLE_ATTR);
-            RelationMember member = null;
-            switch (type) {
-            case Node.NAME:
-                Node n = nodeIndex.get(ref);
-                if (n != null) {
-                    n.addParentRelation(currentRelation);
-                    member = new RelationMember(role, n);
-                } else {
-                    member = new RelationMember(type, ref, role);
-                }
-                break;
-            case Way.NAME:
-                Way w = wayIndex.get(ref);
-                if (w != null) {
-                    w.addParentRelation(currentRelation);
-                    member = new RelationMember(role, w);
-                } else {
-                    member = new RelationMember(type, ref, role);
-                }
-                break;
-            case Relation.NAME:
-                Relation r = storage.getRelation(ref);
-                if (r != null) {
-                    r.addParentRelation(currentRelation);
-                    member = new RelationMember(role, r);
-                } else {
-                    // these need to be saved and reprocessed
-                    member = new RelationMember(type, ref, role);
-                    MissingRelation mr = new MissingRelation(member, currentRelation);
-                    missingRelations.add(mr);
-                }
-                break;
-            default:
-                throw new OsmParseException("Unknown OSM object type " + type);
-            }
-            currentRelation.addMember(member);
+            addRelationMember(atts.getValue(Relation.MEMBER_TYPE_ATTR), ref, atts.getValue(Relation.MEMBER_ROLE_ATTR));
         } catch (NumberFormatException e) {
             throw new OsmParseException("RelationMember unparsable");
         }
     }
 
+    /**
+     * Add a member to the current Relation, storing information on relations that we haven't seen yet for post
+     * processing
+     * 
+     * @param type the member type
+     * @param ref the member id
+     * @param role the role or null
+     * @throws OsmParseException if the type is unknown
+     */
+    protected void addRelationMember(@Nullable String type, long ref, @Nullable String role) throws OsmParseException {
+        if (type == null) {
+            throw new OsmParseException("RelationMember unparsable");
+        }
+        RelationMember member = null;
+        switch (type) {
+        case Node.NAME:
+            Node n = nodeIndex.get(ref);
+            if (n != null) {
+                n.addParentRelation(currentRelation);
+                member = new RelationMember(role, n);
+            } else {
+                member = new RelationMember(type, ref, role);
+            }
+            break;
+        case Way.NAME:
+            Way w = wayIndex.get(ref);
+            if (w != null) {
+                w.addParentRelation(currentRelation);
+                member = new RelationMember(role, w);
+            } else {
+                member = new RelationMember(type, ref, role);
+            }
+            break;
+        case Relation.NAME:
+            Relation r = storage.getRelation(ref);
+            if (r != null) {
+                r.addParentRelation(currentRelation);
+                member = new RelationMember(role, r);
+            } else {
+                // these need to be saved and reprocessed
+                member = new RelationMember(type, ref, role);
+                MissingRelation mr = new MissingRelation(member, currentRelation);
+                missingRelations.add(mr);
+            }
+            break;
+        default:
+            throw new OsmParseException("Unknown OSM object type " + type);
+        }
+        currentRelation.addMember(member);
+    }
+
     /**
      * Clear the list of bounding boxes
      */
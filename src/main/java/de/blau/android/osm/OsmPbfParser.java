@@ -1,14 +1,29 @@
 package de.blau.android.osm;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat.DenseInfo;
 import org.openstreetmap.osmosis.osmbinary.Osmformat.DenseNodes;
+import org.openstreetmap.osmosis.osmbinary.file.FileBlock;
 
 import android.content.Context;
 import android.util.Log;
@@ -19,14 +34,44 @@ import de.blau.android.exception.UnsupportedFormatException;
 
 /**
  * Parse OSM data in PBF format
+ * 
+ * Blocks are independent of each other, so inflating and decoding them is done on a small pool of worker threads, the
+ * decoded blocks are then merged in to Storage in file order on the calling thread. Use {@link #process(InputStream)}
+ * to profit from this fully, when used as a BlockReaderAdapter inflating is done by the reading thread.
  */
 public class OsmPbfParser extends BinaryParser {
     private static final String DEBUG_TAG = OsmPbfParser.class.getSimpleName().substring(0, Math.min(23, OsmPbfParser.class.getSimpleName().length()));
 
+    private static final String OSM_HEADER = "OSMHeader";
+    private static final String OSM_DATA   = "OSMData";
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;        // limits from the PBF specification
+    private static final int MAX_BLOB_SIZE   = 32 * 1024 * 1024;
+
+    private static final int DECODE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int MAX_PENDING    = 2 * DECODE_THREADS;     // limits memory use for decoded blocks
+
+    private static ThreadPoolExecutor decodePool;
+
     final Context     context;
     final Storage     storage;
     final BoundingBox box;
 
+    private final boolean parallel;
+
+    /** Blocks that are being decoded in the order they were read */
+    private final ArrayDeque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+
+    /**
+     * The contents of one PrimitiveBlock, without any references to elements outside of the block
+     */
+    private static final class DecodedBlock {
+        final List<Node>     nodes     = new ArrayList<>();
+        final List<Way>      ways      = new ArrayList<>();
+        final List<long[]>   wayNodes  = new ArrayList<>();
+        final List<Relation> relations = new ArrayList<>();
+    }
+
     /**
      * Construct a new parser
      * 
@@ -35,13 +80,11 @@ public class OsmPbfParser extends BinaryParser {
      * @param storage the Storage object to hold the OsmElements
      */
     public OsmPbfParser(@NonNull Storage storage) {
-        context = null;
-        this.storage = storage;
-        box = null;
+        this(null, storage, null);
     }
 
     /**
-     * /** Construct a new parser
+     * Construct a new parser
      * 
      * If storage already has elements with the same id they will not be overwritten
      * 
@@ -50,183 +93,466 @@ public class OsmPbfParser extends BinaryParser {
      * @param box if not null trim contents as far as possible to this bounding box (Relations are never trimmed)
      */
     public OsmPbfParser(@Nullable Context context, @NonNull Storage storage, @Nullable BoundingBox box) {
+        this(context, storage, box, DECODE_THREADS > 0);
+    }
+
+    /**
+     * Construct a new parser
+     * 
+     * If storage already has elements with the same id they will not be overwritten
+     * 
+     * @param context an Android Context (or null if not available)
+     * @param storage the Storage object to hold the OsmElements
+     * @param box if not null trim contents as far as possible to this bounding box (Relations are never trimmed)
+     * @param parallel if true decode blocks on worker threads, otherwise on the calling thread
+     */
+    OsmPbfParser(@Nullable Context context, @NonNull Storage storage, @Nullable BoundingBox box, boolean parallel) {
         this.context = context;
         this.storage = storage;
         this.box = box;
+        this.parallel = parallel && DECODE_THREADS > 0;
     }
 
-    @Override
-    protected void parseRelations(List<Osmformat.Relation> relations) {
+    /**
+     * Check if there are worker threads available for decoding
+     * 
+     * @return true if {@link #getDecodePool()} can be used
+     */
+    static boolean hasDecodeThreads() {
+        return DECODE_THREADS > 0;
+    }
 
-        class UnprocessedRelationMember {
-            Relation       parent;
-            RelationMember member;
-
-            /**
-             * Construct a container for unprocessed RelationMembers
-             * 
-             * @param parent the parent Relation
-             * @param member the member
-             */
-            UnprocessedRelationMember(@NonNull Relation parent, @NonNull RelationMember member) {
-                this.parent = parent;
-                this.member = member;
-            }
+    /**
+     * Get the shared pool of threads for decoding, the threads will terminate when not used
+     * 
+     * Tasks running on the pool must not wait for other tasks on the pool
+     * 
+     * @return a ThreadPoolExecutor
+     */
+    @NonNull
+    static synchronized ThreadPoolExecutor getDecodePool() {
+        if (decodePool == null) {
+            decodePool = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
+                Thread thread = new Thread(r, DEBUG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+            decodePool.allowCoreThreadTimeOut(true);
         }
+        return decodePool;
+    }
 
-        int timeStampToSeconds = date_granularity / 1000; // mostly one
-        List<UnprocessedRelationMember> relFor2ndPass = new ArrayList<>();
-        for (Osmformat.Relation r : relations) {
-            if (!r.hasInfo()) {
-                versionMissing();
-            }
-            Relation relation = OsmElementFactory.createRelation(r.getId(), r.getInfo().getVersion(), r.getInfo().getTimestamp() / timeStampToSeconds,
-                    OsmElement.STATE_UNCHANGED);
-            long ref = 0; // Delta coded!
-            int mcount = r.getMemidsCount();
-            for (int i = 0; i < mcount; i++) {
-                ref += r.getMemids(i);
-                String role = getStringById(r.getRolesSid(i));
-                String type = null;
-                switch (r.getTypes(i)) {
-                case NODE:
-                    type = Node.NAME;
-                    break;
-                case WAY:
-                    type = Way.NAME;
-                    break;
-                case RELATION:
-                    type = Relation.NAME;
+    /**
+     * Read all blocks from an InputStream and add the contents to Storage
+     * 
+     * This is an alternative to using BlockInputStream that defers inflating the blocks to the worker threads
+     * 
+     * @param input the InputStream, not closed by this method
+     * @throws IOException if reading or decoding fails
+     */
+    public void process(@NonNull InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        try {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException eof) {
                     break;
-                default:
-                    throw new UnsupportedFormatException(
-                            context != null ? context.getString(R.string.error_pbf_unknown_relation_member_type, r.getTypes(i)) : "");
                 }
-                RelationMember rm = new RelationMember(type, ref, role);
-                OsmElement element = storage.getOsmElement(type, ref);
-                if (element != null) {
-                    rm.setElement(element);
-                    element.addParentRelation(relation);
-                } else if (Relation.NAME.equals(type)) {
-                    relFor2ndPass.add(new UnprocessedRelationMember(relation, rm));
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid PBF block header size " + headerSize);
                 }
-                relation.addMember(rm);
-            }
-
-            int tagCount = r.getKeysCount();
-            if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
-                for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(r.getKeys(i)), (getStringById(r.getVals(i))));
+                byte[] header = new byte[headerSize];
+                in.readFully(header);
+                Fileformat.BlobHeader blobHeader = Fileformat.BlobHeader.parseFrom(header);
+                final int blobSize = blobHeader.getDatasize();
+                if (blobSize < 0 || blobSize > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid PBF block size " + blobSize);
                 }
-                if (tags != null && !tags.isEmpty()) {
-                    relation.setTags(tags);
+                final byte[] blob = new byte[blobSize];
+                in.readFully(blob);
+                final String type = blobHeader.getType();
+                if (OSM_HEADER.equals(type)) {
+                    parse(Osmformat.HeaderBlock.parseFrom(inflate(blob)));
+                } else if (OSM_DATA.equals(type)) {
+                    submit(() -> decode(Osmformat.PrimitiveBlock.parseFrom(inflate(blob))));
+                } else {
+                    Log.w(DEBUG_TAG, "Skipping block of type " + type);
                 }
             }
-            storage.insertElementSafe(relation);
-        }
-        // 2nd pass for Relations that hadn't been parsed yet
-        for (UnprocessedRelationMember urm : relFor2ndPass) {
-            OsmElement element = storage.getOsmElement(urm.member.getType(), urm.member.getRef());
-            if (element != null) {
-                urm.member.setElement(element);
-                element.addParentRelation(urm.parent);
+            while (!pending.isEmpty()) {
+                mergeNext();
             }
+        } finally {
+            cancelPending();
         }
     }
 
     /**
-     * Throw a message pointing out that we require version attributes
+     * Get the uncompressed contents of a Blob
+     * 
+     * @param blob the serialized Blob
+     * @return the uncompressed contents
+     * @throws IOException if the Blob can't be decoded
      */
-    private void versionMissing() {
-        // we require version so we fail here
-        throw new UnsupportedFormatException(context != null ? context.getString(R.string.error_pbf_no_version) : "");
+    @NonNull
+    private static byte[] inflate(@NonNull byte[] blob) throws IOException {
+        Fileformat.Blob b = Fileformat.Blob.parseFrom(blob);
+        if (b.hasRaw()) {
+            return b.getRaw().toByteArray();
+        }
+        if (!b.hasZlibData()) {
+            throw new IOException("Unsupported PBF block compression");
+        }
+        byte[] result = new byte[b.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(b.getZlibData().toByteArray());
+            int length = inflater.inflate(result);
+            if (length != result.length || !inflater.finished()) {
+                throw new IOException("Truncated PBF block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return result;
     }
 
     @Override
-    protected void parseDense(DenseNodes nodes) {
-        DenseInfo denseInfo = nodes.getDenseinfo();
-        if (denseInfo == null || denseInfo.getVersionCount() == 0 || denseInfo.getTimestampCount() == 0) {
-            versionMissing();
+    public void handleBlock(FileBlock message) {
+        if (!OSM_DATA.equals(message.getType())) {
+            super.handleBlock(message);
+            return;
         }
-        int timeStampToSeconds = date_granularity / 1000; // mostly one
-        long lastId = 0;
-        long lastLat = 0;
-        long lastLon = 0;
-        int lastVersion = 0;
-        long lastTimestamp = 0;
-        int tagPointer = 0;
-        for (int i = 0; i < nodes.getIdCount(); i++) {
-            // delta encoded
-            lastId += nodes.getId(i);
-            lastLat += nodes.getLat(i);
-            lastLon += nodes.getLon(i);
-            lastTimestamp += denseInfo.getTimestamp(i);
-            // not delta encoded
-            lastVersion = denseInfo.getVersion(i);
-            Node node = OsmElementFactory.createNode(lastId, lastVersion, lastTimestamp / timeStampToSeconds, OsmElement.STATE_UNCHANGED, parseToLatE7(lastLat),
-                    parseToLonE7(lastLon));
-            Map<String, String> tags = null;
-            if (nodes.getKeysValsCount() > 0) {
-                while (nodes.getKeysVals(tagPointer) != 0) {
-                    String key = getStringById(nodes.getKeysVals(tagPointer++));
-                    String value = getStringById(nodes.getKeysVals(tagPointer++));
-                    if (key != null) {
-                        if (tags == null) {
-                            tags = new HashMap<>();
-                        }
-                        tags.put(key, value);
-                    }
-                }
-                tagPointer++;
+        try {
+            submit(() -> decode(Osmformat.PrimitiveBlock.parseFrom(message.getData())));
+        } catch (IOException e) {
+            cancelPending();
+            throw new UnsupportedFormatException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void parse(Osmformat.PrimitiveBlock block) {
+        merge(decode(block));
+    }
+
+    /**
+     * Decode a block, in parallel if possible, and merge any decoded blocks that are due
+     * 
+     * @param decoder the Callable that decodes the block
+     * @throws IOException if decoding failed
+     */
+    private void submit(@NonNull Callable<DecodedBlock> decoder) throws IOException {
+        if (!parallel) {
+            try {
+                merge(decoder.call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) { // NOSONAR can't happen
+                throw new IOException(e.getMessage());
+            }
+            return;
+        }
+        pending.add(getDecodePool().submit(decoder));
+        while (pending.size() > MAX_PENDING || (!pending.isEmpty() && pending.peek().isDone())) {
+            mergeNext();
+        }
+    }
+
+    /**
+     * Wait for the oldest pending block to be decoded and merge it
+     * 
+     * @throws IOException if decoding failed
+     */
+    private void mergeNext() throws IOException {
+        Future<DecodedBlock> future = pending.poll();
+        try {
+            merge(future.get());
+        } catch (InterruptedException e) { // NOSONAR
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-            if (tags != null && !tags.isEmpty()) {
-                node.setTags(tags);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            storage.insertElementSafe(node);
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(e.getMessage());
         }
     }
 
-    @Override
-    protected void parseNodes(List<Osmformat.Node> nodes) {
-        int timeStampToSeconds = date_granularity / 1000; // mostly one
-        for (Osmformat.Node n : nodes) {
-            if (!n.hasInfo()) {
+    /**
+     * Cancel any blocks that are still queued for decoding
+     */
+    private void cancelPending() {
+        for (Future<DecodedBlock> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Decode a PrimitiveBlock to OsmElements
+     * 
+     * This does not access Storage and can run on any thread
+     * 
+     * @param block the PrimitiveBlock
+     * @return a DecodedBlock
+     */
+    @NonNull
+    private DecodedBlock decode(@NonNull Osmformat.PrimitiveBlock block) {
+        Osmformat.StringTable stringTable = block.getStringtable();
+        String[] strings = new String[stringTable.getSCount()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = stringTable.getS(i).toStringUtf8();
+        }
+        BlockDecoder decoder = new BlockDecoder(strings, block);
+        for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+            decoder.decodeNodes(group.getNodesList());
+            if (group.hasDense()) {
+                decoder.decodeDense(group.getDense());
+            }
+            decoder.decodeWays(group.getWaysList());
+            decoder.decodeRelations(group.getRelationsList());
+        }
+        return decoder.result;
+    }
+
+    /**
+     * Decoding state for one PrimitiveBlock
+     */
+    private final class BlockDecoder {
+        final String[]     strings;
+        final int          granularity;
+        final long         latOffset;
+        final long         lonOffset;
+        final int          timeStampToSeconds;
+        final DecodedBlock result = new DecodedBlock();
+
+        /** Tags for the current element, reused as the element creates its own immutable copy */
+        private final TreeMap<String, String> tags = new TreeMap<>();
+
+        /**
+         * Construct a new decoder
+         * 
+         * @param strings the string table of the block
+         * @param block the PrimitiveBlock
+         */
+        BlockDecoder(@NonNull String[] strings, @NonNull Osmformat.PrimitiveBlock block) {
+            this.strings = strings;
+            granularity = block.getGranularity();
+            latOffset = block.getLatOffset();
+            lonOffset = block.getLonOffset();
+            timeStampToSeconds = block.getDateGranularity() / 1000; // mostly one
+        }
+
+        /**
+         * Decode dense nodes
+         * 
+         * @param nodes the DenseNodes
+         */
+        void decodeDense(@NonNull DenseNodes nodes) {
+            DenseInfo denseInfo = nodes.getDenseinfo();
+            if (denseInfo == null || denseInfo.getVersionCount() == 0 || denseInfo.getTimestampCount() == 0) {
                 versionMissing();
             }
-            Node node = OsmElementFactory.createNode(n.getId(), n.getInfo().getVersion(), n.getInfo().getTimestamp() / timeStampToSeconds,
-                    OsmElement.STATE_UNCHANGED, parseToLatE7(n.getLat()), parseToLonE7(n.getLon()));
-            int tagCount = n.getKeysCount();
-            if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+            long lastId = 0;
+            long lastLat = 0;
+            long lastLon = 0;
+            int lastVersion = 0;
+            long lastTimestamp = 0;
+            int tagPointer = 0;
+            for (int i = 0; i < nodes.getIdCount(); i++) {
+                // delta encoded
+                lastId += nodes.getId(i);
+                lastLat += nodes.getLat(i);
+                lastLon += nodes.getLon(i);
+                lastTimestamp += denseInfo.getTimestamp(i);
+                // not delta encoded
+                lastVersion = denseInfo.getVersion(i);
+                Node node = OsmElementFactory.createNode(lastId, lastVersion, lastTimestamp / timeStampToSeconds, OsmElement.STATE_UNCHANGED,
+                        toE7(lastLat, latOffset), toE7(lastLon, lonOffset));
+                if (nodes.getKeysValsCount() > 0) {
+                    while (nodes.getKeysVals(tagPointer) != 0) {
+                        int key = nodes.getKeysVals(tagPointer++);
+                        addTag(key, nodes.getKeysVals(tagPointer++));
+                    }
+                    tagPointer++;
+                }
+                setTags(node);
+                result.nodes.add(node);
+            }
+        }
+
+        /**
+         * Decode non-dense nodes
+         * 
+         * @param nodes a List of Osmformat.Node
+         */
+        void decodeNodes(@NonNull List<Osmformat.Node> nodes) {
+            for (Osmformat.Node n : nodes) {
+                if (!n.hasInfo()) {
+                    versionMissing();
+                }
+                Node node = OsmElementFactory.createNode(n.getId(), n.getInfo().getVersion(), n.getInfo().getTimestamp() / timeStampToSeconds,
+                        OsmElement.STATE_UNCHANGED, toE7(n.getLat(), latOffset), toE7(n.getLon(), lonOffset));
+                int tagCount = n.getKeysCount();
+                for (int i = 0; i < tagCount; i++) {
+                    addTag(n.getKeys(i), n.getVals(i));
+                }
+                setTags(node);
+                result.nodes.add(node);
+            }
+        }
+
+        /**
+         * Decode ways, the way nodes are resolved when merging
+         * 
+         * @param ways a List of Osmformat.Way
+         */
+        void decodeWays(@NonNull List<Osmformat.Way> ways) {
+            for (Osmformat.Way w : ways) {
+                if (!w.hasInfo()) {
+                    versionMissing();
+                }
+                Way way = OsmElementFactory.createWay(w.getId(), w.getInfo().getVersion(), w.getInfo().getTimestamp() / timeStampToSeconds,
+                        OsmElement.STATE_UNCHANGED);
+                int refCount = w.getRefsCount();
+                long[] refs = new long[refCount];
+                long lastRef = 0; // Delta coded!
+                for (int i = 0; i < refCount; i++) {
+                    lastRef += w.getRefs(i);
+                    refs[i] = lastRef;
+                }
+                int tagCount = w.getKeysCount();
                 for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(n.getKeys(i)), (getStringById(n.getVals(i))));
+                    addTag(w.getKeys(i), w.getVals(i));
                 }
-                if (!tags.isEmpty()) {
-                    node.setTags(tags);
+                setTags(way);
+                result.ways.add(way);
+                result.wayNodes.add(refs);
+            }
+        }
+
+        /**
+         * Decode relations, the member elements are resolved when merging
+         * 
+         * @param relations a List of Osmformat.Relation
+         */
+        void decodeRelations(@NonNull List<Osmformat.Relation> relations) {
+            for (Osmformat.Relation r : relations) {
+                if (!r.hasInfo()) {
+                    versionMissing();
                 }
+                Relation relation = OsmElementFactory.createRelation(r.getId(), r.getInfo().getVersion(), r.getInfo().getTimestamp() / timeStampToSeconds,
+                        OsmElement.STATE_UNCHANGED);
+                long ref = 0; // Delta coded!
+                int mcount = r.getMemidsCount();
+                for (int i = 0; i < mcount; i++) {
+                    ref += r.getMemids(i);
+                    String role = strings[r.getRolesSid(i)];
+                    String type = null;
+                    switch (r.getTypes(i)) {
+                    case NODE:
+                        type = Node.NAME;
+                        break;
+                    case WAY:
+                        type = Way.NAME;
+                        break;
+                    case RELATION:
+                        type = Relation.NAME;
+                        break;
+                    default:
+                        throw new UnsupportedFormatException(
+                                context != null ? context.getString(R.string.error_pbf_unknown_relation_member_type, r.getTypes(i)) : "");
+                    }
+                    relation.addMember(new RelationMember(type, ref, role));
+                }
+                int tagCount = r.getKeysCount();
+                for (int i = 0; i < tagCount; i++) {
+                    addTag(r.getKeys(i), r.getVals(i));
+                }
+                setTags(relation);
+                result.relations.add(relation);
             }
+        }
+
+        /**
+         * Add a tag to the tags for the current element
+         * 
+         * @param keyId the string table index of the key
+         * @param valueId the string table index of the value
+         */
+        private void addTag(int keyId, int valueId) {
+            String key = strings[keyId];
+            if (key != null) {
+                tags.put(TagDictionary.intern(key), TagDictionary.intern(strings[valueId]));
+            }
+        }
+
+        /**
+         * Set the accumulated tags on an element and reset them
+         * 
+         * @param e the OsmElement
+         */
+        private void setTags(@NonNull OsmElement e) {
+            if (!tags.isEmpty()) {
+                e.setTags(tags);
+                tags.clear();
+            }
+        }
+
+        /**
+         * Convert a coordinate to our scaled format
+         * 
+         * Very silly as we essentially undo scaling in the other direction, this does the same calculation as
+         * BinaryParser.parseLat/Lon so that the results are identical
+         * 
+         * @param degree degree value from pbf
+         * @param offset the lat or lon offset of the block
+         * @return the coordinate in WGS84*1E7
+         */
+        private int toE7(long degree, long offset) {
+            return (int) ((granularity * degree + offset) * .000000001 * 1E7D);
+        }
+    }
+
+    /**
+     * Add the contents of a decoded block to Storage
+     * 
+     * @param block the DecodedBlock
+     */
+    private void merge(@NonNull DecodedBlock block) {
+        for (Node node : block.nodes) {
             storage.insertElementSafe(node);
         }
+        mergeWays(block);
+        mergeRelations(block);
     }
 
-    @Override
-    protected void parseWays(List<Osmformat.Way> ways) {
-        int timeStampToSeconds = date_granularity / 1000; // mostly one
-        for (Osmformat.Way w : ways) {
-            if (!w.hasInfo()) {
-                versionMissing();
-            }
-            Way way = OsmElementFactory.createWay(w.getId(), w.getInfo().getVersion(), w.getInfo().getTimestamp() / timeStampToSeconds,
-                    OsmElement.STATE_UNCHANGED);
-            long lastRef = 0;
-            for (long ref : w.getRefsList()) {
-                lastRef += ref;
-                Node nd = storage.getNode(lastRef);
+    /**
+     * Resolve way nodes and add the ways to Storage, trimming them to the bounding box if one is set
+     * 
+     * @param block the DecodedBlock
+     */
+    private void mergeWays(@NonNull DecodedBlock block) {
+        for (int i = 0; i < block.ways.size(); i++) {
+            Way way = block.ways.get(i);
+            for (long ref : block.wayNodes.get(i)) {
+                Node nd = storage.getNode(ref);
                 if (nd == null) {
                     // input is referentially broken, complain rather than fixing it up
-                    Log.e(DEBUG_TAG, "Way node " + lastRef + " missing, not adding way " + w.getId());
-                    throw new UnsupportedFormatException("Way node " + lastRef + " missing, not adding way " + w.getId());
+                    Log.e(DEBUG_TAG, "Way node " + ref + " missing, not adding way " + way.getOsmId());
+                    throw new UnsupportedFormatException("Way node " + ref + " missing, not adding way " + way.getOsmId());
                 }
                 way.addNode(nd);
             }
@@ -235,7 +561,7 @@ public class OsmPbfParser extends BinaryParser {
                     continue; // no point in doing anything
                 }
                 if (!way.getBounds().intersects(box)) {
-                    continue; // trim before we add tags
+                    continue; // trim
                 }
                 // flag the Node as referenced for the ways we keep
                 // unreferenced nodes will be removed in a later step
@@ -244,20 +570,75 @@ public class OsmPbfParser extends BinaryParser {
                     storage.addNodeRef(nd.getOsmId());
                 }
             }
-            int tagCount = w.getKeysCount();
-            if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
-                for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(w.getKeys(i)), (getStringById(w.getVals(i))));
+            storage.insertElementSafe(way);
+        }
+    }
+
+    /**
+     * Resolve relation members and add the relations to Storage
+     * 
+     * @param block the DecodedBlock
+     */
+    private void mergeRelations(@NonNull DecodedBlock block) {
+        List<Relation> relFor2ndPass = new ArrayList<>();
+        for (Relation relation : block.relations) {
+            boolean unresolved = false;
+            for (RelationMember rm : relation.getMembers()) {
+                OsmElement element = storage.getOsmElement(rm.getType(), rm.getRef());
+                if (element != null) {
+                    rm.setElement(element);
+                    element.addParentRelation(relation);
+                } else if (Relation.NAME.equals(rm.getType())) {
+                    unresolved = true;
                 }
-                if (tags != null && !tags.isEmpty()) {
-                    way.setTags(tags);
+            }
+            if (unresolved) {
+                relFor2ndPass.add(relation);
+            }
+            storage.insertElementSafe(relation);
+        }
+        // 2nd pass for Relations that hadn't been parsed yet
+        for (Relation relation : relFor2ndPass) {
+            for (RelationMember rm : relation.getMembers()) {
+                if (rm.getElement() == null && Relation.NAME.equals(rm.getType())) {
+                    OsmElement element = storage.getOsmElement(rm.getType(), rm.getRef());
+                    if (element != null) {
+                        rm.setElement(element);
+                        element.addParentRelation(relation);
+                    }
                 }
             }
-            storage.insertElementSafe(way);
         }
     }
 
+    /**
+     * Throw a message pointing out that we require version attributes
+     */
+    private void versionMissing() {
+        // we require version so we fail here
+        throw new UnsupportedFormatException(context != null ? context.getString(R.string.error_pbf_no_version) : "");
+    }
+
+    @Override
+    protected void parseRelations(List<Osmformat.Relation> relations) {
+        // not used, blocks are decoded as a whole in decode
+    }
+
+    @Override
+    protected void parseDense(DenseNodes nodes) {
+        // not used, blocks are decoded as a whole in decode
+    }
+
+    @Override
+    protected void parseNodes(List<Osmformat.Node> nodes) {
+        // not used, blocks are decoded as a whole in decode
+    }
+
+    @Override
+    protected void parseWays(List<Osmformat.Way> ways) {
+        // not used, blocks are decoded as a whole in decode
+    }
+
     @Override
     protected void parse(Osmformat.HeaderBlock block) {
         if (block.hasBbox()) {
@@ -278,30 +659,14 @@ public class OsmPbfParser extends BinaryParser {
 
     @Override
     public void complete() {
-        // do nothing
-    }
-
-    /**
-     * Convert latitude to our scaled format
-     * 
-     * Very silly as we essentially undo scaling in the other direction
-     * 
-     * @param degree degree value from pbf
-     * @return latitude in WGS84*1E7
-     */
-    private int parseToLatE7(long degree) {
-        return (int) (parseLat(degree) * 1E7D);
-    }
-
-    /**
-     * Convert longitude to our scaled format
-     * 
-     * Very silly as we essentially undo scaling in the other direction
-     * 
-     * @param degree degree value from pbf
-     * @return longitude in WGS84*1E7
-     */
-    private int parseToLonE7(long degree) {
-        return (int) (parseLon(degree) * 1E7D);
+        try {
+            while (!pending.isEmpty()) {
+                mergeNext();
+            }
+        } catch (IOException e) {
+            throw new UnsupportedFormatException(e.getMessage());
+        } finally {
+            cancelPending();
+        }
     }
 }
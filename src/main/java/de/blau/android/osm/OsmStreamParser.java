@@ -0,0 +1,1227 @@
+package de.blau.android.osm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.exception.OsmParseException;
+import de.blau.android.util.DateFormatter;
+
+/**
+ * Streaming parser for OSM XML that doesn't use SAX
+ *
+ * The input is scanned directly as UTF-8 bytes. Attribute values are decoded in to a reusable buffer, ids, coordinates
+ * and timestamps are parsed from the bytes without creating intermediate Strings or BigDecimals, and tag keys, values
+ * and roles are taken from a small cache so that in most cases no new Strings are allocated for them. Nodes and Ways
+ * are collected and added to Storage in bulk so that the indices only need to be grown once.
+ *
+ * The handling of the OSM elements is shared with {@link OsmParser}, XML elements other than node, way, relation, nd,
+ * member and tag are passed on to the SAX callbacks of the superclass. Input in an encoding other than UTF-8 is parsed
+ * with the superclass.
+ */
+public class OsmStreamParser extends OsmParser {
+    private static final String DEBUG_TAG = OsmStreamParser.class.getSimpleName().substring(0, Math.min(23, OsmStreamParser.class.getSimpleName().length()));
+
+    private static final Charset UTF_8      = Charset.forName(OsmXml.UTF_8);
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int PROLOG_SIZE = 512;
+    private static final int CACHE_SIZE  = 4096; // needs to be a power of 2
+
+    private static final int COORDINATE_DIGITS = Node.COORDINATE_SCALE;
+    private static final int MAX_LONG_DIGITS   = 18;
+    private static final int MAX_INT_DIGITS    = 10;
+    private static final int TIMESTAMP_LENGTH  = 20;
+    private static final int SECONDS_PER_DAY   = 86400;
+
+    // element ids
+    private static final int OTHER    = 0;
+    private static final int NODE     = 1;
+    private static final int WAY      = 2;
+    private static final int RELATION = 3;
+    private static final int ND       = 4;
+    private static final int MEMBER   = 5;
+    private static final int TAG      = 6;
+
+    private static final String[] ELEMENT_NAME_STRINGS = { null, Node.NAME, Way.NAME, Relation.NAME, Way.NODE, Relation.MEMBER_ATTR, OsmElement.TAG };
+    private static final byte[][] ELEMENT_NAMES        = bytes(ELEMENT_NAME_STRINGS);
+
+    // attribute ids
+    private static final int ATTR_ID        = 1;
+    private static final int ATTR_VERSION   = 2;
+    private static final int ATTR_TIMESTAMP = 3;
+    private static final int ATTR_LAT       = 4;
+    private static final int ATTR_LON       = 5;
+    private static final int ATTR_VISIBLE   = 6;
+    private static final int ATTR_ACTION    = 7;
+    private static final int ATTR_REF       = 8;
+    private static final int ATTR_TYPE      = 9;
+    private static final int ATTR_ROLE      = 10;
+    private static final int ATTR_KEY       = 11;
+    private static final int ATTR_VALUE     = 12;
+
+    private static final byte[][] ATTRIBUTE_NAMES = bytes(new String[] { null, OsmElement.ID_ATTR, OsmElement.VERSION_ATTR, OsmElement.TIMESTAMP_ATTR,
+            Node.LAT_ATTR, Node.LON_ATTR, OsmElement.VISIBLE_ATTR, OsmElement.JOSM_ACTION, Relation.MEMBER_REF_ATTR, Relation.MEMBER_TYPE_ATTR,
+            Relation.MEMBER_ROLE_ATTR, OsmElement.TAG_KEY_ATTR, OsmElement.TAG_VALUE_ATTR });
+
+    private static final byte[] FALSE_BYTES   = bytes(OsmElement.FALSE_VALUE);
+    private static final byte[] PI_END        = bytes("?>");
+    private static final byte[] COMMENT_START = bytes("--");
+    private static final byte[] COMMENT_END   = bytes("-->");
+    private static final byte[] CDATA_START   = bytes("[CDATA[");
+    private static final byte[] CDATA_END     = bytes("]]>");
+
+    // input
+    private InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int          position;
+    private int          limit;
+    private long         offset;
+
+    // element and attribute names
+    private byte[] name = new byte[64];
+    private int    nameLength;
+
+    // attributes of the current XML element
+    private int      attributeCount;
+    private int[]    attributeIds     = new int[16];
+    private String[] attributeNames   = new String[16];
+    private int[]    attributeStarts  = new int[16];
+    private int[]    attributeLengths = new int[16];
+    private byte[]   values           = new byte[1024];
+    private int      valuesLength;
+
+    // text content of elements we don't handle directly
+    private byte[]  text = new byte[256];
+    private int     textLength;
+    private boolean collectText;
+
+    // open XML elements
+    private int[]    openIds   = new int[8];
+    private String[] openNames = new String[8];
+    private int      depth;
+
+    // tags of the current OSM element, alternating keys and values
+    private String[] tags = new String[32];
+    private int      tagCount;
+
+    private final byte[][] cacheKeys   = new byte[CACHE_SIZE][];
+    private final String[] cacheValues = new String[CACHE_SIZE];
+
+    private final List<Node> nodeBuffer = new ArrayList<>();
+    private final List<Way>  wayBuffer  = new ArrayList<>();
+
+    /**
+     * Construct a new instance of the parser
+     */
+    public OsmStreamParser() {
+        this(false);
+    }
+
+    /**
+     * Construct a new instance of the parser
+     *
+     * @param relaxWayParsing if true return empty ways and will fill in missing nodes with references to temp elements,
+     *            this is useful for retrieving deleted ways and the like
+     */
+    public OsmStreamParser(boolean relaxWayParsing) {
+        super(relaxWayParsing);
+    }
+
+    /**
+     * Get the bytes of an ASCII String
+     *
+     * @param s the String
+     * @return the bytes
+     */
+    @NonNull
+    private static byte[] bytes(@NonNull String s) {
+        return s.getBytes(ISO_8859_1);
+    }
+
+    /**
+     * Get the bytes of ASCII Strings
+     *
+     * @param strings the Strings, the first entry is not used
+     * @return an array of byte arrays with null as the first entry
+     */
+    @NonNull
+    private static byte[][] bytes(@NonNull String[] strings) {
+        byte[][] result = new byte[strings.length][];
+        for (int i = 1; i < strings.length; i++) {
+            result[i] = bytes(strings[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Parse the input
+     *
+     * @param in the InputStream
+     * @throws SAXException if the input is not well formed or any elements couldn't be parsed
+     * @throws IOException when reading the input fails
+     * @throws ParserConfigurationException if the input isn't UTF-8 and a SAX parser couldn't be created
+     */
+    @Override
+    public void start(@NonNull final InputStream in) throws SAXException, IOException, ParserConfigurationException {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        offset = 0;
+        depth = 0;
+        tagCount = 0;
+        collectText = false;
+        nodeBuffer.clear();
+        wayBuffer.clear();
+        try {
+            if (!isUtf8()) {
+                Log.i(DEBUG_TAG, "Input is not UTF-8, using SAX parser");
+                super.start(new SequenceInputStream(new ByteArrayInputStream(buffer, 0, limit), in));
+                return;
+            }
+            parse();
+            flushNodes();
+            flushWays();
+            endDocument();
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /**
+     * Check the start of the input for the encoding
+     *
+     * This reads the start of the input in to the buffer and skips a UTF-8 byte order mark
+     *
+     * @return true if the input is UTF-8 encoded
+     * @throws IOException if reading fails
+     */
+    private boolean isUtf8() throws IOException {
+        int count;
+        while (limit < PROLOG_SIZE && (count = in.read(buffer, limit, buffer.length - limit)) != -1) {
+            limit += count;
+        }
+        if (limit >= 2 && (buffer[0] == 0 || buffer[1] == 0 || (buffer[0] & 0xFF) >= 0xFE)) {
+            return false; // UTF-16 or UTF-32
+        }
+        if (limit >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+            position = 3;
+        }
+        String prolog = new String(buffer, position, Math.min(limit - position, PROLOG_SIZE), ISO_8859_1);
+        int end = prolog.indexOf("?>");
+        if (!prolog.startsWith("<?xml") || end < 0) {
+            return true;
+        }
+        String declaration = prolog.substring(0, end);
+        int encodingStart = declaration.indexOf("encoding");
+        if (encodingStart < 0) {
+            return true;
+        }
+        String encoding = declaration.substring(encodingStart + "encoding".length()).replaceAll("[\\s=\"']", " ").trim().split(" ")[0];
+        switch (encoding.toUpperCase(Locale.US)) {
+        case "UTF-8":
+        case "UTF8":
+        case "US-ASCII":
+        case "ASCII":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Refill the buffer
+     *
+     * @return false if the end of the input has been reached
+     * @throws IOException if reading fails
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Read the next byte
+     *
+     * @return the byte or -1 at the end of the input
+     * @throws IOException if reading fails
+     */
+    private int read() throws IOException {
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Get the next byte without consuming it
+     *
+     * @return the byte or -1 at the end of the input
+     * @throws IOException if reading fails
+     */
+    private int peek() throws IOException {
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Read the next byte, failing at the end of the input
+     *
+     * @return the byte
+     * @throws IOException if reading fails
+     * @throws SAXException at the end of the input
+     */
+    private int readRequired() throws IOException, SAXException {
+        int c = read();
+        if (c == -1) {
+            throw error("Unexpected end of input");
+        }
+        return c;
+    }
+
+    /**
+     * Create an exception for malformed input
+     *
+     * @param message the error message
+     * @return a SAXException
+     */
+    @NonNull
+    private SAXException error(@NonNull String message) {
+        return new SAXException(message + " at byte " + (offset + position));
+    }
+
+    /**
+     * Check for XML white space
+     *
+     * @param c the character
+     * @return true if c is white space
+     */
+    private static boolean isWhiteSpace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Skip white space
+     *
+     * @return the first byte that is not white space, -1 at the end of the input
+     * @throws IOException if reading fails
+     */
+    private int skipWhiteSpace() throws IOException {
+        int c = read();
+        while (isWhiteSpace(c)) {
+            c = read();
+        }
+        return c;
+    }
+
+    /**
+     * The main loop
+     *
+     * @throws SAXException if the input is malformed
+     * @throws IOException if reading fails
+     */
+    private void parse() throws SAXException, IOException {
+        boolean root = false;
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                if (collectText) {
+                    appendText(c);
+                }
+                continue;
+            }
+            c = readRequired();
+            switch (c) {
+            case '?':
+                skipPast(PI_END, false);
+                break;
+            case '!':
+                parseDeclaration();
+                break;
+            case '/':
+                parseEndTag();
+                break;
+            default:
+                if (root && depth == 0) {
+                    throw error("More than one root element");
+                }
+                root = true;
+                parseStartTag(c);
+            }
+        }
+        if (!root) {
+            throw error("No root element");
+        }
+        if (depth > 0) {
+            throw error("Unexpected end of input in " + openNames[depth - 1]);
+        }
+    }
+
+    /**
+     * Skip input until the terminator has been read
+     *
+     * @param terminator the terminating bytes
+     * @param append if true append everything, except the terminator, to the text
+     * @throws SAXException at the end of the input
+     * @throws IOException if reading fails
+     */
+    private void skipPast(@NonNull byte[] terminator, boolean append) throws SAXException, IOException {
+        int matched = 0;
+        while (matched < terminator.length) {
+            int c = readRequired();
+            if (append) {
+                appendByte(c);
+            }
+            if (c == terminator[matched]) {
+                matched++;
+            } else if (c == terminator[0]) {
+                // handles runs like "--->" and "]]]>"
+                matched = matched > 1 && terminator[1] == c ? matched : 1;
+            } else {
+                matched = 0;
+            }
+        }
+        if (append) {
+            textLength -= terminator.length;
+        }
+    }
+
+    /**
+     * Check if the input continues with specific bytes and consume them
+     *
+     * @param expected the expected bytes
+     * @throws SAXException if the input doesn't match
+     * @throws IOException if reading fails
+     */
+    private void expect(@NonNull byte[] expected) throws SAXException, IOException {
+        for (byte b : expected) {
+            if (readRequired() != b) {
+                throw error("Unexpected input");
+            }
+        }
+    }
+
+    /**
+     * Parse comments, CDATA sections and DOCTYPE declarations
+     *
+     * @throws SAXException if the input is malformed
+     * @throws IOException if reading fails
+     */
+    private void parseDeclaration() throws SAXException, IOException {
+        int c = peek();
+        if (c == '-') {
+            expect(COMMENT_START);
+            skipPast(COMMENT_END, false);
+        } else if (c == '[') {
+            expect(CDATA_START);
+            skipPast(CDATA_END, collectText);
+        } else {
+            // DOCTYPE, potentially with an internal subset
+            int brackets = 0;
+            while ((c = readRequired()) != '>' || brackets > 0) {
+                if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an element or attribute name
+     *
+     * @param c the first byte of the name
+     * @return the byte following the name
+     * @throws SAXException if the name is empty
+     * @throws IOException if reading fails
+     */
+    private int readName(int c) throws SAXException, IOException {
+        nameLength = 0;
+        while (c != -1 && !isWhiteSpace(c) && c != '>' && c != '/' && c != '=') {
+            if (nameLength == name.length) {
+                name = Arrays.copyOf(name, name.length * 2);
+            }
+            name[nameLength++] = (byte) c;
+            c = read();
+        }
+        if (nameLength == 0) {
+            throw error("Missing name");
+        }
+        return c;
+    }
+
+    /**
+     * Find the id of the current name
+     *
+     * @param names the known names
+     * @return the index in names or OTHER
+     */
+    private int nameId(@NonNull byte[][] names) {
+        for (int i = 1; i < names.length; i++) {
+            if (equals(names[i], name, 0, nameLength)) {
+                return i;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Compare bytes
+     *
+     * @param expected the expected bytes
+     * @param b array holding the bytes to compare
+     * @param start start offset in b
+     * @param length number of bytes to compare
+     * @return true if the bytes are the same
+     */
+    private static boolean equals(@NonNull byte[] expected, @NonNull byte[] b, int start, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != b[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a start tag including its attributes
+     *
+     * @param first the first byte of the element name
+     * @throws SAXException if the input is malformed
+     * @throws IOException if reading fails
+     */
+    private void parseStartTag(int first) throws SAXException, IOException {
+        int c = readName(first);
+        final int id = nameId(ELEMENT_NAMES);
+        final String elementName = id == OTHER ? string(name, 0, nameLength) : null;
+        attributeCount = 0;
+        valuesLength = 0;
+        boolean empty = false;
+        while (true) {
+            if (isWhiteSpace(c)) {
+                c = skipWhiteSpace();
+            }
+            if (c == '>') {
+                break;
+            }
+            if (c == '/') {
+                if (readRequired() != '>') {
+                    throw error("Expected >");
+                }
+                empty = true;
+                break;
+            }
+            if (c == -1) {
+                throw error("Unexpected end of input");
+            }
+            c = parseAttribute(c, id == OTHER);
+        }
+        startElement(id, elementName);
+        if (empty) {
+            endElement(id, elementName);
+        } else {
+            if (depth == openIds.length) {
+                openIds = Arrays.copyOf(openIds, depth * 2);
+                openNames = Arrays.copyOf(openNames, depth * 2);
+            }
+            openIds[depth] = id;
+            openNames[depth] = id == OTHER ? elementName : ELEMENT_NAME_STRINGS[id];
+            depth++;
+        }
+    }
+
+    /**
+     * Parse an attribute
+     *
+     * @param first the first byte of the attribute name
+     * @param keepName if true the name is stored as a String
+     * @return the byte after the attribute value
+     * @throws SAXException if the input is malformed
+     * @throws IOException if reading fails
+     */
+    private int parseAttribute(int first, boolean keepName) throws SAXException, IOException {
+        int c = readName(first);
+        if (isWhiteSpace(c)) {
+            c = skipWhiteSpace();
+        }
+        if (c != '=') {
+            throw error("Expected =");
+        }
+        int quote = skipWhiteSpace();
+        if (quote != '"' && quote != '\'') {
+            throw error("Expected quote");
+        }
+        if (attributeCount == attributeIds.length) {
+            int size = attributeCount * 2;
+            attributeIds = Arrays.copyOf(attributeIds, size);
+            attributeNames = Arrays.copyOf(attributeNames, size);
+            attributeStarts = Arrays.copyOf(attributeStarts, size);
+            attributeLengths = Arrays.copyOf(attributeLengths, size);
+        }
+        attributeIds[attributeCount] = nameId(ATTRIBUTE_NAMES);
+        attributeNames[attributeCount] = keepName ? string(name, 0, nameLength) : null;
+        final int start = valuesLength;
+        while ((c = readRequired()) != quote) {
+            switch (c) {
+            case '&':
+                parseReference(false);
+                break;
+            case '<':
+                throw error("< in attribute value");
+            case '\r':
+                if (peek() == '\n') {
+                    position++;
+                }
+                appendValue(' ');
+                break;
+            case '\n':
+            case '\t':
+                appendValue(' ');
+                break;
+            default:
+                appendValue(c);
+            }
+        }
+        attributeStarts[attributeCount] = start;
+        attributeLengths[attributeCount] = valuesLength - start;
+        attributeCount++;
+        return read();
+    }
+
+    /**
+     * Parse a character or entity reference, the leading &amp; has already been consumed
+     *
+     * @param toText if true append to the text, otherwise to the attribute values
+     * @throws SAXException if the reference is invalid
+     * @throws IOException if reading fails
+     */
+    private void parseReference(boolean toText) throws SAXException, IOException {
+        StringBuilder reference = new StringBuilder();
+        int c;
+        while ((c = readRequired()) != ';') {
+            if (reference.length() > 10) {
+                throw error("Invalid reference");
+            }
+            reference.append((char) c);
+        }
+        String ref = reference.toString();
+        int codePoint;
+        switch (ref) {
+        case "amp":
+            codePoint = '&';
+            break;
+        case "lt":
+            codePoint = '<';
+            break;
+        case "gt":
+            codePoint = '>';
+            break;
+        case "quot":
+            codePoint = '"';
+            break;
+        case "apos":
+            codePoint = '\'';
+            break;
+        default:
+            try {
+                if (ref.startsWith("#x")) {
+                    codePoint = Integer.parseInt(ref.substring(2), 16);
+                } else if (ref.startsWith("#")) {
+                    codePoint = Integer.parseInt(ref.substring(1));
+                } else {
+                    throw error("Unknown entity " + ref);
+                }
+            } catch (NumberFormatException e) {
+                throw error("Invalid character reference " + ref);
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                throw error("Invalid character reference " + ref);
+            }
+        }
+        byte[] encoded = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+        for (byte b : encoded) {
+            if (toText) {
+                appendByte(b & 0xFF);
+            } else {
+                appendValue(b & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Append a byte to the attribute values
+     *
+     * @param c the byte
+     */
+    private void appendValue(int c) {
+        if (valuesLength == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valuesLength++] = (byte) c;
+    }
+
+    /**
+     * Append a byte of character data to the text, handling references and line ends
+     *
+     * @param c the byte
+     * @throws SAXException if a reference is invalid
+     * @throws IOException if reading fails
+     */
+    private void appendText(int c) throws SAXException, IOException {
+        if (c == '&') {
+            parseReference(true);
+        } else if (c == '\r') {
+            if (peek() == '\n') {
+                position++;
+            }
+            appendByte('\n');
+        } else {
+            appendByte(c);
+        }
+    }
+
+    /**
+     * Append a byte to the text
+     *
+     * @param c the byte
+     */
+    private void appendByte(int c) {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textLength++] = (byte) c;
+    }
+
+    /**
+     * Parse an end tag
+     *
+     * @throws SAXException if the input is malformed or doesn't match the start tag
+     * @throws IOException if reading fails
+     */
+    private void parseEndTag() throws SAXException, IOException {
+        int c = readName(readRequired());
+        if (isWhiteSpace(c)) {
+            c = skipWhiteSpace();
+        }
+        if (c != '>') {
+            throw error("Expected >");
+        }
+        if (depth == 0) {
+            throw error("Unexpected end tag");
+        }
+        depth--;
+        final int id = nameId(ELEMENT_NAMES);
+        final String elementName = openNames[depth];
+        if (id != openIds[depth] || (id == OTHER && !equals(elementName.getBytes(UTF_8), name, 0, nameLength))) {
+            throw error("End tag doesn't match " + elementName);
+        }
+        endElement(id, elementName);
+    }
+
+    /**
+     * Find an attribute
+     *
+     * @param id the attribute id
+     * @return the index of the attribute or -1 if not present
+     */
+    private int attribute(int id) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value of an attribute as a String
+     *
+     * @param id the attribute id
+     * @return the value or null if not present
+     */
+    @Nullable
+    private String stringAttribute(int id) {
+        int i = attribute(id);
+        return i < 0 ? null : string(values, attributeStarts[i], attributeLengths[i]);
+    }
+
+    /**
+     * Get the value of a required attribute as a long
+     *
+     * @param id the attribute id
+     * @return the value
+     * @throws NumberFormatException if the attribute is missing or not a number
+     */
+    private long longAttribute(int id) {
+        int i = attribute(id);
+        if (i < 0) {
+            throw new NumberFormatException("Missing attribute");
+        }
+        return parseLong(values, attributeStarts[i], attributeLengths[i]);
+    }
+
+    /**
+     * Get the value of a required coordinate attribute
+     *
+     * @param id the attribute id
+     * @return the value times 1E7
+     * @throws NumberFormatException if the attribute is missing or not a number
+     */
+    private int coordinateAttribute(int id) {
+        int i = attribute(id);
+        if (i < 0) {
+            throw new NumberFormatException("Missing attribute");
+        }
+        return parseE7(values, attributeStarts[i], attributeLengths[i]);
+    }
+
+    /**
+     * Handle a start tag
+     *
+     * @param id the element id
+     * @param elementName the element name for elements that are not handled here
+     * @throws SAXException if parsing needs to stop
+     */
+    private void startElement(int id, @Nullable String elementName) throws SAXException {
+        collectText = false;
+        try {
+            switch (id) {
+            case NODE:
+            case WAY:
+            case RELATION:
+                startOsmElement(id);
+                break;
+            case ND:
+                if (currentWay == null) {
+                    Log.e(DEBUG_TAG, "No currentWay set!");
+                } else {
+                    addWayNode(longAttribute(ATTR_REF));
+                }
+                break;
+            case MEMBER:
+                if (currentRelation == null) {
+                    Log.e(DEBUG_TAG, "No currentRelation set!");
+                } else {
+                    addRelationMember(stringAttribute(ATTR_TYPE), longAttribute(ATTR_REF), stringAttribute(ATTR_ROLE));
+                }
+                break;
+            case TAG:
+                addTag(stringAttribute(ATTR_KEY), stringAttribute(ATTR_VALUE));
+                break;
+            default:
+                AttributesImpl atts = new AttributesImpl();
+                for (int i = 0; i < attributeCount; i++) {
+                    atts.addAttribute("", attributeNames[i], attributeNames[i], "CDATA",
+                            new String(values, attributeStarts[i], attributeLengths[i], UTF_8));
+                }
+                textLength = 0;
+                collectText = true;
+                startElement("", elementName, elementName, atts);
+            }
+        } catch (OsmParseException e) {
+            handleException(e);
+        } catch (NumberFormatException e) {
+            handleException(new OsmParseException(unparsable(id)));
+        }
+    }
+
+    /**
+     * Get the same error message as OsmParser for unparsable elements
+     *
+     * @param id the element id
+     * @return an error message
+     */
+    @NonNull
+    private static String unparsable(int id) {
+        switch (id) {
+        case ND:
+            return "WayNode unparsable";
+        case MEMBER:
+            return "RelationMember unparsable";
+        default:
+            return "Element unparsable";
+        }
+    }
+
+    /**
+     * Create a new node, way or relation from the current attributes
+     *
+     * @param id the element id
+     * @throws OsmParseException if the element is invalid
+     */
+    private void startOsmElement(int id) throws OsmParseException {
+        long osmId = longAttribute(ATTR_ID);
+        int versionIndex = attribute(ATTR_VERSION);
+        long osmVersion = versionIndex < 0 ? 0 : parseLong(values, attributeStarts[versionIndex], attributeLengths[versionIndex]);
+        int timestampIndex = attribute(ATTR_TIMESTAMP);
+        long timestamp = timestampIndex < 0 ? -1L : parseTimestamp(values, attributeStarts[timestampIndex], attributeLengths[timestampIndex]);
+        int visibleIndex = attribute(ATTR_VISIBLE);
+        final boolean deleted = visibleIndex >= 0 && equals(FALSE_BYTES, values, attributeStarts[visibleIndex], attributeLengths[visibleIndex]);
+        byte status = elementStatus(OsmElement.STATE_UNCHANGED, deleted, stringAttribute(ATTR_ACTION), osmId);
+        switch (id) {
+        case NODE:
+            int lat = Integer.MAX_VALUE;
+            int lon = Integer.MAX_VALUE;
+            if (!deleted) {
+                lat = coordinateAttribute(ATTR_LAT);
+                lon = coordinateAttribute(ATTR_LON);
+            }
+            createElement(Node.NAME, osmId, osmVersion, timestamp, status, lat, lon);
+            break;
+        case WAY:
+            flushNodes();
+            createElement(Way.NAME, osmId, osmVersion, timestamp, status, 0, 0);
+            break;
+        default:
+            flushNodes();
+            flushWays();
+            createElement(Relation.NAME, osmId, osmVersion, timestamp, status, 0, 0);
+        }
+    }
+
+    /**
+     * Handle an end tag
+     *
+     * @param id the element id
+     * @param elementName the element name for elements that are not handled here
+     * @throws SAXException if parsing needs to stop
+     */
+    private void endElement(int id, @Nullable String elementName) throws SAXException {
+        switch (id) {
+        case NODE:
+            if (currentNode == null) {
+                throw new SAXException("State error, null Node");
+            }
+            addTags(currentNode);
+            nodeBuffer.add(currentNode);
+            currentNode = null;
+            break;
+        case WAY:
+            if (currentWay == null) {
+                throw new SAXException("State error, null Way");
+            }
+            addTags(currentWay);
+            if (!currentWay.getNodes().isEmpty() || allowEmptyWays) {
+                wayBuffer.add(currentWay);
+            } else {
+                Log.e(DEBUG_TAG, "Way " + currentWay.getOsmId() + " has no nodes! Ignored.");
+            }
+            currentWay = null;
+            break;
+        case RELATION:
+            endElement("", Relation.NAME, Relation.NAME);
+            break;
+        case ND:
+        case MEMBER:
+        case TAG:
+            break;
+        default:
+            if (collectText && textLength > 0) {
+                char[] chars = new String(text, 0, textLength, UTF_8).toCharArray();
+                characters(chars, 0, chars.length);
+            }
+            collectText = false;
+            endElement("", elementName, elementName);
+        }
+    }
+
+    /**
+     * Record a parse error
+     *
+     * @param e the OsmParseException
+     */
+    private void handleException(@NonNull OsmParseException e) {
+        Log.e(DEBUG_TAG, "OsmParseException", e);
+        getExceptions().add(e);
+    }
+
+    /**
+     * Add the collected Nodes to storage
+     */
+    private void flushNodes() {
+        if (!nodeBuffer.isEmpty()) {
+            Storage storage = getStorage();
+            storage.ensureCapacity(nodeBuffer.size(), 0, 0);
+            for (Node n : nodeBuffer) {
+                storage.insertNodeUnsafe(n);
+            }
+            nodeBuffer.clear();
+        }
+    }
+
+    /**
+     * Add the collected Ways to storage
+     */
+    private void flushWays() {
+        if (!wayBuffer.isEmpty()) {
+            Storage storage = getStorage();
+            storage.ensureCapacity(0, wayBuffer.size(), 0);
+            for (Way w : wayBuffer) {
+                storage.insertWayUnsafe(w);
+            }
+            wayBuffer.clear();
+        }
+    }
+
+    /**
+     * Add a tag to the current element
+     *
+     * @param key the key
+     * @param value the value
+     * @throws OsmParseException if the key is missing
+     */
+    private void addTag(@Nullable String key, @Nullable String value) throws OsmParseException {
+        if (key == null) {
+            throw new OsmParseException("Tag without key");
+        }
+        if (tagCount * 2 == tags.length) {
+            tags = Arrays.copyOf(tags, tags.length * 2);
+        }
+        tags[tagCount * 2] = key;
+        tags[tagCount * 2 + 1] = value;
+        tagCount++;
+    }
+
+    /**
+     * Add accumulated tags to element
+     *
+     * @param e element to add the tags to
+     */
+    @Override
+    void addTags(OsmElement e) {
+        if (tagCount == 0) {
+            return;
+        }
+        // insertion sort by key, stable so that the last value for duplicate keys wins as with a Map
+        for (int i = 1; i < tagCount; i++) {
+            String key = tags[i * 2];
+            String value = tags[i * 2 + 1];
+            int j = i - 1;
+            while (j >= 0 && tags[j * 2].compareTo(key) > 0) {
+                tags[(j + 1) * 2] = tags[j * 2];
+                tags[(j + 1) * 2 + 1] = tags[j * 2 + 1];
+                j--;
+            }
+            tags[(j + 1) * 2] = key;
+            tags[(j + 1) * 2 + 1] = value;
+        }
+        int count = 0;
+        for (int i = 0; i < tagCount; i++) {
+            if (count > 0 && tags[(count - 1) * 2].equals(tags[i * 2])) {
+                tags[(count - 1) * 2 + 1] = tags[i * 2 + 1];
+            } else {
+                tags[count * 2] = tags[i * 2];
+                tags[count * 2 + 1] = tags[i * 2 + 1];
+                count++;
+            }
+        }
+        tagCount = 0;
+        e.setTags(TagDictionary.share(Arrays.copyOf(tags, count * 2)));
+    }
+
+    /**
+     * Get a String for UTF-8 encoded bytes, short Strings are cached
+     *
+     * @param b the array holding the bytes
+     * @param start the offset of the first byte
+     * @param length the number of bytes
+     * @return a String
+     */
+    @NonNull
+    private String string(@NonNull byte[] b, int start, int length) {
+        if (length > TagDictionary.MAX_STRING_LENGTH) {
+            return new String(b, start, length, UTF_8);
+        }
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + b[i];
+        }
+        final int slot = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+        byte[] key = cacheKeys[slot];
+        if (key != null && equals(key, b, start, length)) {
+            return cacheValues[slot];
+        }
+        String s = TagDictionary.intern(new String(b, start, length, UTF_8));
+        cacheKeys[slot] = Arrays.copyOfRange(b, start, start + length);
+        cacheValues[slot] = s;
+        return s;
+    }
+
+    /**
+     * Parse a decimal long from ASCII bytes
+     *
+     * @param b the array holding the bytes
+     * @param start the offset of the first byte
+     * @param length the number of bytes
+     * @return the value
+     * @throws NumberFormatException if the bytes are not a valid number
+     */
+    static long parseLong(@NonNull byte[] b, int start, int length) {
+        int i = start;
+        final int end = start + length;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > MAX_LONG_DIGITS) {
+            return Long.parseLong(new String(b, start, length, ISO_8859_1));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number " + new String(b, start, length, ISO_8859_1));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a decimal coordinate from ASCII bytes and scale it by 1E7
+     *
+     * Any further decimal places are truncated, the same as with BigDecimal.scaleByPowerOfTen(7).intValue()
+     *
+     * @param b the array holding the bytes
+     * @param start the offset of the first byte
+     * @param length the number of bytes
+     * @return the value times 1E7
+     * @throws NumberFormatException if the bytes are not a valid number
+     */
+    static int parseE7(@NonNull byte[] b, int start, int length) {
+        int i = start;
+        final int end = start + length;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long integer = 0;
+        int digits = 0;
+        for (; i < end && b[i] >= '0' && b[i] <= '9'; i++, digits++) {
+            integer = integer * 10 + (b[i] - '0');
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        int allFractionDigits = 0;
+        if (i < end && b[i] == '.') {
+            for (i++; i < end && b[i] >= '0' && b[i] <= '9'; i++, allFractionDigits++) {
+                if (fractionDigits < COORDINATE_DIGITS) {
+                    fraction = fraction * 10 + (b[i] - '0');
+                    fractionDigits++;
+                }
+            }
+        }
+        if (i != end || digits + allFractionDigits == 0 || digits > MAX_INT_DIGITS) {
+            // exponents and other unusual formats
+            return new BigDecimal(new String(b, start, length, ISO_8859_1)).scaleByPowerOfTen(COORDINATE_DIGITS).intValue();
+        }
+        for (; fractionDigits < COORDINATE_DIGITS; fractionDigits++) {
+            fraction *= 10;
+        }
+        long value = integer * 10000000L + fraction;
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parse an OSM timestamp
+     *
+     * @param b the array holding the bytes
+     * @param start the offset of the first byte
+     * @param length the number of bytes
+     * @return seconds since the unix epoch or -1
+     */
+    static long parseTimestamp(@NonNull byte[] b, int start, int length) {
+        // yyyy-MM-ddTHH:mm:ssZ
+        if (length == TIMESTAMP_LENGTH && b[start + 4] == '-' && b[start + 7] == '-' && b[start + 10] == 'T' && b[start + 13] == ':'
+                && b[start + 16] == ':' && b[start + 19] == 'Z') {
+            int year = digits(b, start, 4);
+            int month = digits(b, start + 5, 2);
+            int day = digits(b, start + 8, 2);
+            int hour = digits(b, start + 11, 2);
+            int minute = digits(b, start + 14, 2);
+            int second = digits(b, start + 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0
+                    && second <= 59) {
+                return daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+            }
+        }
+        String timestampStr = new String(b, start, length, UTF_8);
+        try {
+            return DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT).parse(timestampStr).getTime() / 1000;
+        } catch (ParseException e) {
+            Log.d(DEBUG_TAG, "Invalid timestamp " + timestampStr);
+            return -1L;
+        }
+    }
+
+    /**
+     * Parse a fixed number of decimal digits
+     *
+     * @param b the array holding the bytes
+     * @param start the offset of the first byte
+     * @param count the number of digits
+     * @return the value or -1 if there is a non-digit
+     */
+    private static int digits(@NonNull byte[] b, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Calculate the number of days since 1970-01-01 for a date in the proleptic Gregorian calendar
+     *
+     * See http://howardhinnant.github.io/date_algorithms.html
+     *
+     * @param year the year
+     * @param month the month 1-12
+     * @param day the day of the month, values larger than the month length roll over in to the next month
+     * @return the number of days
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
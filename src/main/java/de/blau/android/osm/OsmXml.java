@@ -49,6 +49,8 @@ public final class OsmXml {
         return 0;
     };
 
+    private static final Comparator<Relation> deletedRelationOrder = (r1, r2) -> relationOrder.compare(r2, r1);
+
     /**
      * Empty private constructor to prevent instantiation
      */
@@ -168,15 +170,7 @@ public final class OsmXml {
         }
         if (!deletedRelations.isEmpty()) {
             // sort the relations so that parents come first, will not handle loops and similar brokenness
-            Collections.sort(deletedRelations, (r1, r2) -> {
-                if (r1.hasParentRelation(r2)) {
-                    return 1;
-                }
-                if (r2.hasParentRelation(r1)) {
-                    return -1;
-                }
-                return 0;
-            });
+            Collections.sort(deletedRelations, deletedRelationOrder);
         }
 
         // NOTE as deleted elements cannot be referenced we need to undelete them in MODIFY elements before we reference
@@ -210,6 +204,63 @@ public final class OsmXml {
         serializer.endDocument();
     }
 
+    /**
+     * Get the changed elements in an order in which they can be uploaded in separate batches
+     * 
+     * Created and modified elements come first, nodes before the ways that use them and child relations before their
+     * parents, followed by the deleted elements in the opposite order. Any prefix of the result only references
+     * elements that are either unchanged or are contained in the prefix.
+     * 
+     * @param storage a Storage object with the changes
+     * @param maxChanges maximum number of elements to return
+     * @return a List of OsmElement in upload order
+     */
+    @NonNull
+    public static List<OsmElement> uploadOrder(@NonNull Storage storage, int maxChanges) {
+        List<OsmElement> result = new ArrayList<>();
+        List<Node> deletedNodes = new ArrayList<>();
+        List<Way> deletedWays = new ArrayList<>();
+        List<Relation> deletedRelations = new ArrayList<>();
+        addInUploadOrder(storage.getNodes(), result, deletedNodes);
+        addInUploadOrder(storage.getWays(), result, deletedWays);
+        List<Relation> relations = new ArrayList<>(storage.getRelations());
+        // sort the relations so that children come first, will not handle loops and similar brokenness
+        Collections.sort(relations, relationOrder);
+        addInUploadOrder(relations, result, deletedRelations);
+        // sort the relations so that parents come first, will not handle loops and similar brokenness
+        Collections.sort(deletedRelations, deletedRelationOrder);
+        // delete in opposite order
+        result.addAll(deletedRelations);
+        result.addAll(deletedWays);
+        result.addAll(deletedNodes);
+        return result.size() > maxChanges ? new ArrayList<>(result.subList(0, maxChanges)) : result;
+    }
+
+    /**
+     * Sort changed elements in to created or modified and deleted ones
+     * 
+     * @param <T> the OsmElement type
+     * @param elements the elements to check
+     * @param createdAndModified target List for created and modified elements
+     * @param deleted target List for deleted elements
+     */
+    private static <T extends OsmElement> void addInUploadOrder(@NonNull List<T> elements, @NonNull List<OsmElement> createdAndModified,
+            @NonNull List<T> deleted) {
+        for (T elem : elements) {
+            switch (elem.state) {
+            case OsmElement.STATE_CREATED:
+            case OsmElement.STATE_MODIFIED:
+                createdAndModified.add(elem);
+                break;
+            case OsmElement.STATE_DELETED:
+                deleted.add(elem);
+                break;
+            default:
+                logNotModified(elem);
+            }
+        }
+    }
+
     /**
      * Serialize a MODIFY section
      * 
@@ -171,6 +171,13 @@ public class Server {
 
     private long changesetId = -1;
 
+    /**
+     * Default maximum number of elements uploaded in one diff upload request
+     */
+    public static final int DEFAULT_UPLOAD_BATCH_SIZE = 1000;
+
+    private int uploadBatchSize = DEFAULT_UPLOAD_BATCH_SIZE;
+
     private final String generator;
 
     private final XmlPullParserFactory xmlParserFactory;
@@ -923,38 +930,73 @@ public class Server {
     }
 
     /**
-     * Upload edits in OCS format and process the server response
+     * Upload edits in OCS format in batches and process the server response for each batch
+     * 
+     * At most the maximum number of elements allowed in a changeset are uploaded in dependency order, see
+     * {@link OsmXml#uploadOrder(Storage, int)}. The result of each batch is applied before the next batch is written,
+     * so later batches use the new ids and if the upload fails part way the acknowledged elements are no longer
+     * pending and the next upload resumes with the remaining ones.
      * 
      * @param delegator reference to the StorageDelegator
      * @param storage a Storage element hold the elements to upload
      * @throws IOException if writing the output doesn't work
      */
     public void diffUpload(@NonNull final StorageDelegator delegator, @NonNull final Storage storage) throws IOException {
-        try {
-            for (OsmElement elem : storage.getElements()) {
-                if (elem.state != OsmElement.STATE_DELETED) {
-                    discardedTags.remove(elem);
-                }
+        List<OsmElement> elements = OsmXml.uploadOrder(storage, getCachedCapabilities().getMaxElementsInChangeset());
+        for (OsmElement elem : elements) {
+            if (elem.state != OsmElement.STATE_DELETED) {
+                discardedTags.remove(elem);
             }
-            RequestBody body = new XmlRequestBody() {
-                @Override
-                public void writeTo(BufferedSink sink) throws IOException {
-                    try {
-                        OsmXml.writeOsmChange(storage, sink.outputStream(), changesetId, getCachedCapabilities().getMaxElementsInChangeset(),
-                                App.getUserAgent());
-                    } catch (IllegalArgumentException | IllegalStateException | XmlPullParserException e) {
-                        throw new IOException(e);
+        }
+        boolean rehash = false; // if ids are changed we need to rehash storage
+        boolean complete = false;
+        try {
+            int start = 0;
+            do {
+                final int end = Math.min(elements.size(), start + uploadBatchSize);
+                final Storage batch = new Storage();
+                batch.addChangedElements(elements.subList(start, end));
+                RequestBody body = new XmlRequestBody() {
+                    @Override
+                    public void writeTo(BufferedSink sink) throws IOException {
+                        try {
+                            OsmXml.writeOsmChange(batch, sink.outputStream(), changesetId, Integer.MAX_VALUE, App.getUserAgent());
+                        } catch (IllegalArgumentException | IllegalStateException | XmlPullParserException e) {
+                            throw new IOException(e);
+                        }
                     }
+                };
+                try (Response response = openConnectionForAuthenticatedAccess(getDiffUploadUrl(changesetId), HTTP_POST, body)) {
+                    rehash |= processDiffUploadResult(delegator, response, xmlParserFactory.newPullParser());
                 }
-            };
-            try (Response response = openConnectionForAuthenticatedAccess(getDiffUploadUrl(changesetId), HTTP_POST, body)) {
-                processDiffUploadResult(delegator, response, xmlParserFactory.newPullParser());
-            }
+                Log.d(DEBUG_TAG, "Uploaded " + end + " of " + elements.size() + " elements");
+                start = end;
+            } while (start < elements.size());
+            complete = true;
         } catch (IllegalArgumentException | IllegalStateException | XmlPullParserException e1) {
             throw new OsmException(e1.getMessage());
+        } finally {
+            if (rehash || !complete) { // a failed batch may have been partially processed
+                delegator.getCurrentStorage().rehash();
+                Storage apiStorage = delegator.getApiStorage();
+                if (!apiStorage.isEmpty()) {
+                    apiStorage.rehash();
+                }
+                // ids have changed, cached filter results are keyed on the old ones
+                delegator.onElementChanged((List<OsmElement>) null, (List<OsmElement>) null);
+            }
         }
     }
 
+    /**
+     * Set the maximum number of elements uploaded in one request
+     * 
+     * @param size the number of elements
+     */
+    void setUploadBatchSize(int size) {
+        uploadBatchSize = Math.max(1, size);
+    }
+
     public static final Pattern ERROR_MESSAGE_BAD_OAUTH_REQUEST = Pattern.compile("(?i)Bad OAuth request.*");
 
     /**
@@ -963,12 +1005,16 @@ public class Server {
      * Note: we try to process as much as possible outside of real parser errors, as the data has already been
      * successfully uploaded to the API, the caller needs to assure that we do not get recalled on the non fatal errors.
      * 
+     * Ids of new elements are changed after they have been removed from API storage, so only the current storage needs
+     * to be rehashed, the caller is expected to do that once after all results have been processed.
+     * 
      * @param delegator the StorageDelegator containing to data to update
      * @param response Response from the API
      * @param parser parser instance
+     * @return true if ids have changed and storage needs to be rehashed
      * @throws IOException on an error processing the data
      */
-    private void processDiffUploadResult(@NonNull StorageDelegator delegator, @NonNull Response response, @NonNull XmlPullParser parser) throws IOException {
+    private boolean processDiffUploadResult(@NonNull StorageDelegator delegator, @NonNull Response response, @NonNull XmlPullParser parser) throws IOException {
         int code = response.code();
         if (code != HttpURLConnection.HTTP_OK) {
             String message = Server.readStream(response.body().byteStream());
@@ -1051,15 +1097,10 @@ public class Server {
                     }
                 }
             }
-            if (rehash) {
-                delegator.getCurrentStorage().rehash();
-                if (!apiStorage.isEmpty()) { // shouldn't happen
-                    apiStorage.rehash();
-                }
-            }
         } catch (XmlPullParserException | NumberFormatException | IOException e) {
             throw new OsmException(e.toString());
         }
+        return rehash;
     }
 
     /**
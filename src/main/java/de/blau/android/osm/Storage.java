@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -14,6 +15,7 @@ import de.blau.android.exception.OsmException;
 import de.blau.android.exception.StorageException;
 import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.util.collections.LongOsmElementMap;
+import de.blau.android.util.collections.LongOsmElementMultiMap;
 
 /**
  * Container for OSM data
@@ -36,6 +38,34 @@ public class Storage implements Serializable {
 
     private transient LongHashSet nodeIsRef;
 
+    /**
+     * Spatial indices, these are created on demand and then maintained incrementally
+     */
+    private transient ElementGrid<Node> nodeGrid;
+    private transient ElementGrid<Way>  wayGrid;
+
+    /**
+     * Elements that have been removed from the spatial indices because their geometry has changed, these are re-added
+     * before the next query
+     */
+    private transient Set<OsmElement> reindex;
+
+    /**
+     * Node id to Way index, created on demand. This may contain stale entries, but will always contain an entry for
+     * each Node of a Way in storage, except for Ways in changedWayNodes.
+     */
+    private transient LongOsmElementMultiMap<Way> nodeWays;
+
+    /**
+     * Ways that may have had Nodes added since the last time the Node to Way index was synced
+     */
+    private transient Set<Way> changedWayNodes;
+
+    /**
+     * Changed whenever elements are added, removed or have their geometry changed
+     */
+    private transient volatile int modificationCount;
+
     /**
      * Default constructor
      * <p>
@@ -125,8 +155,7 @@ public class Storage implements Serializable {
     /**
      * Return all nodes in a bounding box
      * 
-     * Notes: - currently this does a sequential scan of all nodes - using a for loop instead of for each is twice as
-     * fast
+     * Note: this uses a spatial index that is created on first use
      * 
      * @param box bounding box to search in
      * @return a list of all nodes in box
@@ -139,16 +168,15 @@ public class Storage implements Serializable {
     /**
      * Return all nodes in a bounding box
      * 
-     * Notes: - currently this does a sequential scan of all nodes - using a for loop instead of for each is twice as
-     * fast
+     * Note: this uses a spatial index that is created on first use
      * 
      * @param box bounding box to search in
      * @param result List of Node to hold the result
      * @return a list of all nodes in box
      */
     @NonNull
-    public List<Node> getNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
-        return nodes.values(result, (Node n) -> box.isIn(n.getLon(), n.getLat()));
+    public synchronized List<Node> getNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
+        return getNodeGrid().query(box, result, (Node n) -> box.isIn(n.getLon(), n.getLat()));
     }
 
     /**
@@ -172,7 +200,7 @@ public class Storage implements Serializable {
     /**
      * Return all ways covered or possibly intersecting a bounding box
      * <p>
-     * Note: currently this does a sequential scan of all ways
+     * Note: this uses a spatial index that is created on first use
      * 
      * @param box bounding box to search in
      * @return a list of all ways in box
@@ -185,21 +213,177 @@ public class Storage implements Serializable {
     /**
      * Return all ways covered or possibly intersecting a bounding box
      * <p>
-     * Note: currently this does a sequential scan of all ways
+     * Note: this uses a spatial index that is created on first use
      * 
      * @param box bounding box to search in
      * @param result List of Way to hold the result
      * @return a list of all ways in box
      */
     @NonNull
-    public List<Way> getWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
+    public synchronized List<Way> getWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
         BoundingBox newBox = new BoundingBox(); // avoid creating new instances
-        return ways.values(result, (Way w) -> {
+        return getWayGrid().query(box, result, (Way w) -> {
             BoundingBox wayBox = w.getBounds(newBox);
             return wayBox.intersects(box);
         });
     }
 
+    /**
+     * Get the spatial index for Nodes, creating it if necessary
+     * 
+     * @return the ElementGrid holding the Nodes
+     */
+    @NonNull
+    private ElementGrid<Node> getNodeGrid() {
+        if (nodeGrid == null) {
+            nodeGrid = new ElementGrid<>();
+            for (Node n : nodes) {
+                nodeGrid.insert(n);
+            }
+            removeFromReindex(Node.class);
+        }
+        reindex();
+        return nodeGrid;
+    }
+
+    /**
+     * Get the spatial index for Ways, creating it if necessary
+     * 
+     * @return the ElementGrid holding the Ways
+     */
+    @NonNull
+    private ElementGrid<Way> getWayGrid() {
+        if (wayGrid == null) {
+            wayGrid = new ElementGrid<>();
+            for (Way w : ways) {
+                wayGrid.insert(w);
+            }
+            removeFromReindex(Way.class);
+        }
+        reindex();
+        return wayGrid;
+    }
+
+    /**
+     * Remove all elements of a specific type from the list of elements that need to be re-indexed
+     * 
+     * @param c the class of the elements
+     */
+    private void removeFromReindex(@NonNull Class<? extends OsmElement> c) {
+        if (reindex != null) {
+            for (Iterator<OsmElement> it = reindex.iterator(); it.hasNext();) {
+                if (c.isInstance(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-add any elements that have changed geometry to the spatial indices
+     */
+    private void reindex() {
+        if (reindex == null || reindex.isEmpty()) {
+            return;
+        }
+        for (OsmElement e : reindex) {
+            if (e instanceof Node) {
+                if (nodeGrid != null) {
+                    nodeGrid.insert((Node) e);
+                }
+            } else if (e instanceof Way && wayGrid != null) {
+                wayGrid.insert((Way) e);
+            }
+        }
+        reindex.clear();
+    }
+
+    /**
+     * Add an element to the relevant spatial index if it exists
+     * 
+     * @param element the element
+     */
+    private synchronized void index(@NonNull OsmElement element) {
+        if (element instanceof Node) {
+            if (nodeGrid != null) {
+                nodeGrid.insert((Node) element);
+            }
+        } else if (element instanceof Way && wayGrid != null) {
+            wayGrid.insert((Way) element);
+        }
+    }
+
+    /**
+     * Remove an element from the relevant spatial index if it exists
+     * 
+     * @param element the element
+     */
+    private synchronized void unindex(@NonNull OsmElement element) {
+        if (reindex != null && reindex.remove(element)) {
+            return;
+        }
+        if (element instanceof Node) {
+            if (nodeGrid != null) {
+                nodeGrid.remove((Node) element);
+            }
+        } else if (element instanceof Way && wayGrid != null) {
+            wayGrid.remove((Way) element);
+        }
+    }
+
+    /**
+     * Indicate that the geometry of an element is going to change
+     * <p>
+     * For Nodes this needs to be called before the position is changed, for Ways before the cached bounding box is
+     * invalidated. The element will be re-indexed before the next spatial query. If the element is not in this storage
+     * this is a nop.
+     * 
+     * @param element the element
+     */
+    synchronized void invalidateGeometry(@NonNull OsmElement element) {
+        modified();
+        if (!(element instanceof Node && nodeGrid != null && nodes.get(element.getOsmId()) == element)
+                && !(element instanceof Way && wayGrid != null && ways.get(element.getOsmId()) == element)) {
+            return;
+        }
+        if (reindex == null) {
+            reindex = new HashSet<>();
+        } else if (reindex.contains(element)) {
+            return;
+        }
+        unindex(element);
+        reindex.add(element);
+    }
+
+    /**
+     * Drop the spatial index for Ways, it will be recreated on the next query
+     * <p>
+     * This is cheaper than invalidating the geometry of each Way individually if all or nearly all Ways are affected
+     */
+    synchronized void invalidateWayIndex() {
+        modified();
+        wayGrid = null;
+        removeFromReindex(Way.class);
+    }
+
+    /**
+     * Note that elements have been added, removed or changed
+     */
+    void modified() {
+        modificationCount++; // NOSONAR only needs to be different from previous values, not exact
+    }
+
+    /**
+     * Get a value that changes whenever elements are added, removed or have their geometry changed
+     * 
+     * This can be used to check if the results of previous queries are still valid
+     * 
+     * @return the current modification count
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Get how many ways there are in storage
      * 
@@ -258,6 +442,23 @@ public class Storage implements Serializable {
         return false;
     }
 
+    /**
+     * Make room for additional elements so that inserting them doesn't need to grow the indices repeatedly
+     * 
+     * @param nodeCount the number of Nodes that will be added
+     * @param wayCount the number of Ways that will be added
+     * @param relationCount the number of Relations that will be added
+     */
+    void ensureCapacity(int nodeCount, int wayCount, int relationCount) {
+        try {
+            nodes.ensureCapacity(nodes.size() + nodeCount);
+            ways.ensureCapacity(ways.size() + wayCount);
+            relations.ensureCapacity(relations.size() + relationCount);
+        } catch (OutOfMemoryError err) {
+            throw new StorageException(StorageException.OOM);
+        }
+    }
+
     /**
      * Insert a node in to storage regardless of it is already present or not
      * 
@@ -265,7 +466,14 @@ public class Storage implements Serializable {
      */
     void insertNodeUnsafe(@NonNull final Node node) {
         try {
-            nodes.put(node.getOsmId(), node);
+            Node previous = nodes.put(node.getOsmId(), node);
+            modified();
+            if (nodeGrid != null) {
+                if (previous != null) {
+                    unindex(previous);
+                }
+                index(node);
+            }
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -279,7 +487,17 @@ public class Storage implements Serializable {
      */
     void insertWayUnsafe(@NonNull final Way way) {
         try {
-            ways.put(way.getOsmId(), way);
+            Way previous = ways.put(way.getOsmId(), way);
+            modified();
+            if (wayGrid != null) {
+                if (previous != null) {
+                    unindex(previous);
+                }
+                index(way);
+            }
+            if (nodeWays != null) {
+                addWayNodes(way);
+            }
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -293,6 +511,7 @@ public class Storage implements Serializable {
     void insertRelationUnsafe(@NonNull final Relation relation) {
         try {
             relations.put(relation.getOsmId(), relation);
+            modified();
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -333,7 +552,7 @@ public class Storage implements Serializable {
      * @return true if the node was in storage
      */
     boolean removeNode(@NonNull final Node node) {
-        return nodes.remove(node.getOsmId()) != null;
+        return removeIndexed(nodes.remove(node.getOsmId()));
     }
 
     /**
@@ -343,7 +562,11 @@ public class Storage implements Serializable {
      * @return true if the way was in storage
      */
     boolean removeWay(@NonNull final Way way) {
-        return ways.remove(way.getOsmId()) != null;
+        OsmElement removed = ways.remove(way.getOsmId());
+        if (removed != null && nodeWays != null) {
+            removeWayNodes((Way) removed);
+        }
+        return removeIndexed(removed);
     }
 
     /**
@@ -353,7 +576,11 @@ public class Storage implements Serializable {
      * @return true if the relation was in storage
      */
     boolean removeRelation(@NonNull final Relation relation) {
-        return relations.remove(relation.getOsmId()) != null;
+        if (relations.remove(relation.getOsmId()) != null) {
+            modified();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -364,11 +591,26 @@ public class Storage implements Serializable {
      */
     boolean removeElement(@Nullable final OsmElement element) {
         if (element instanceof Way) {
-            return ways.remove(element.getOsmId()) != null;
+            return removeWay((Way) element);
         } else if (element instanceof Node) {
-            return nodes.remove(element.getOsmId()) != null;
+            return removeNode((Node) element);
         } else if (element instanceof Relation) {
-            return relations.remove(element.getOsmId()) != null;
+            return removeRelation((Relation) element);
+        }
+        return false;
+    }
+
+    /**
+     * Remove an element that has been removed from storage from the spatial indices
+     * 
+     * @param removed the removed element or null
+     * @return true if removed was not null
+     */
+    private boolean removeIndexed(@Nullable final OsmElement removed) {
+        if (removed != null) {
+            modified();
+            unindex(removed);
+            return true;
         }
         return false;
     }
@@ -458,16 +700,105 @@ public class Storage implements Serializable {
     /**
      * Get all ways that node is a vertex of
      * 
-     * This method currently does a sequential scan of all ways in storage and should be avoided, note checking against
-     * the ways bounding boxes is slower than this
+     * This uses a Node to Way index that is created on first use
      * 
      * @param node node to search for
      * @return list containing all ways containing node
      */
     @NonNull
-    public List<Way> getWays(@NonNull final Node node) {
-        List<Way> mWays = new ArrayList<>();
-        return ways.values(mWays, (Way w) -> w.hasNode(node));
+    public synchronized List<Way> getWays(@NonNull final Node node) {
+        final long id = node.getOsmId();
+        List<Way> candidates = getNodeWays().get(id, new ArrayList<>());
+        List<Way> result = new ArrayList<>(candidates.size());
+        boolean isStorageNode = nodes.get(id) == node;
+        for (Way w : candidates) {
+            boolean inStorage = ways.get(w.getOsmId()) == w;
+            if (inStorage && w.hasNode(node)) {
+                result.add(w);
+            } else if (!inStorage || isStorageNode) {
+                nodeWays.remove(id, w); // stale entry
+            }
+        }
+        for (Way w : changedWayNodes) {
+            if (!result.contains(w) && w.hasNode(node) && ways.get(w.getOsmId()) == w) {
+                result.add(w);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the Node to Way index, creating it if necessary
+     * 
+     * @return the index
+     */
+    @NonNull
+    private LongOsmElementMultiMap<Way> getNodeWays() {
+        if (nodeWays == null) {
+            nodeWays = new LongOsmElementMultiMap<>(Math.max(1, nodes.size()));
+            for (Way w : ways) {
+                addWayNodes(w);
+            }
+            changedWayNodes = new HashSet<>();
+        }
+        return nodeWays;
+    }
+
+    /**
+     * Add entries for all Nodes of a Way to the Node to Way index
+     * 
+     * @param way the Way
+     */
+    private synchronized void addWayNodes(@NonNull Way way) {
+        List<Node> wayNodes = way.getNodes();
+        final int wayNodesSize = wayNodes.size();
+        for (int i = 0; i < wayNodesSize; i++) {
+            nodeWays.put(wayNodes.get(i).getOsmId(), way);
+        }
+    }
+
+    /**
+     * Remove entries for all Nodes of a Way from the Node to Way index
+     * 
+     * @param way the Way
+     */
+    private synchronized void removeWayNodes(@NonNull Way way) {
+        List<Node> wayNodes = way.getNodes();
+        final int wayNodesSize = wayNodes.size();
+        for (int i = 0; i < wayNodesSize; i++) {
+            nodeWays.remove(wayNodes.get(i).getOsmId(), way);
+        }
+        changedWayNodes.remove(way);
+    }
+
+    /**
+     * Indicate that the Nodes of a Way are going to change or have changed
+     * 
+     * Until {@link #syncWayNodes()} is called the Way will be checked individually when the Node to Way index is
+     * queried.
+     * 
+     * @param way the Way
+     */
+    synchronized void invalidateWayNodes(@NonNull Way way) {
+        if (nodeWays != null) {
+            changedWayNodes.add(way);
+        }
+    }
+
+    /**
+     * Update the Node to Way index for all Ways that have changed Nodes
+     * 
+     * This should only be called when no operation that changes Ways is in progress
+     */
+    synchronized void syncWayNodes() {
+        if (nodeWays != null && !changedWayNodes.isEmpty()) {
+            for (Way w : changedWayNodes) {
+                if (ways.get(w.getOsmId()) == w) {
+                    addWayNodes(w);
+                }
+            }
+            changedWayNodes.clear();
+        }
     }
 
     /**
@@ -488,14 +819,15 @@ public class Storage implements Serializable {
 
     /**
      * Tests if node is first or last node of any way in storage
-     * <p>
-     * This method currently does a sequential scan of all ways in storage and should be avoided
      * 
      * @param node node to check
      * @return true if node is the first or last node of at least one way
      */
     public boolean isEndNode(@Nullable final Node node) {
-        for (Way way : ways) {
+        if (node == null) {
+            return false;
+        }
+        for (Way way : getWays(node)) {
             if (way.isEndNode(node)) {
                 return true;
             }
@@ -566,6 +898,10 @@ public class Storage implements Serializable {
         nodes.rehash();
         ways.rehash();
         relations.rehash();
+        synchronized (this) {
+            nodeWays = null; // keyed by id
+            changedWayNodes = null;
+        }
     }
 
     /**
@@ -4,7 +4,7 @@ import static de.blau.android.util.Winding.COLINEAR;
 import static de.blau.android.util.Winding.COUNTERCLOCKWISE;
 import static de.blau.android.util.Winding.winding;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -92,11 +92,50 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private transient boolean imageryRecorded = false;
 
-    public static final String FILENAME        = "lastActivity" + "." + FileExtensions.RES;
-    public static final String BACKUP_FILENAME = FILENAME + ".backup";
+    public static final String FILENAME         = "lastActivity" + "." + FileExtensions.RES;
+    public static final String BACKUP_FILENAME  = FILENAME + ".backup";
+    public static final String JOURNAL_FILENAME = FILENAME + StorageSnapshot.JOURNAL_SUFFIX;
 
     private transient SavingHelper<StorageDelegator> savingHelper = new SavingHelper<>();
 
+    /**
+     * Incremental saving of the data, created on demand
+     */
+    private transient StorageSnapshot snapshot;
+
+    /**
+     * The undo and clipboard state at the last save, used to avoid writing it again if it hasn't changed
+     */
+    private transient UndoStorage       savedUndo;
+    private transient int               savedUndoCount;
+    private transient ClipboardStorage  savedClipboard;
+    private transient int               savedClipboardCount;
+    private transient OsmElementFactory savedFactory;
+
+    /**
+     * What is saved in addition to the OSM data
+     */
+    private static final class SavedState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final UndoStorage       undo;
+        final ClipboardStorage  clipboard;
+        final OsmElementFactory factory;
+
+        /**
+         * Construct a new instance
+         * 
+         * @param undo the UndoStorage
+         * @param clipboard the ClipboardStorage
+         * @param factory the OsmElementFactory
+         */
+        SavedState(@NonNull UndoStorage undo, @NonNull ClipboardStorage clipboard, @NonNull OsmElementFactory factory) {
+            this.undo = undo;
+            this.clipboard = clipboard;
+            this.factory = factory;
+        }
+    }
+
     /**
      * A OsmElementFactory that is used to create new elements. Needs to be persisted together with
      * currentStorage/apiStorage to avoid duplicate IDs when the application is restarted after some elements have been
@@ -200,11 +239,17 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @return true, when the file is available, otherwise false.
      */
     public static boolean isStateAvailable(@NonNull Context context) {
-        try (FileInputStream in = context.openFileInput(FILENAME)) {
-            return true;
-        } catch (IOException e) {
-            return false;
-        }
+        return context.getFileStreamPath(FILENAME).exists();
+    }
+
+    /**
+     * Delete all saved state files including backups
+     * 
+     * @param context an Android context
+     */
+    public static void deleteState(@NonNull Context context) {
+        StorageSnapshot.delete(context.getFileStreamPath(FILENAME));
+        StorageSnapshot.delete(context.getFileStreamPath(BACKUP_FILENAME));
     }
 
     /**
@@ -282,6 +327,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param post list of changed elements after the operation or null
      */
     <T extends OsmElement> void onElementChanged(@Nullable List<T> pre, @Nullable List<T> post) {
+        currentStorage.modified();
+        // elements are normally saved to undo before they are changed, this catches any that weren't
+        if (pre != null) {
+            undo.getChangedElements().addAll(pre);
+        }
+        if (post != null) {
+            undo.getChangedElements().addAll(post);
+        }
         if (post != null) {
             boolean nodeChanged = false;
             BoundingBox changed = null;
@@ -289,7 +342,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 e.stamp();
                 e.resetHasProblem();
                 if (Way.NAME.equals(e.getName())) {
-                    ((Way) e).invalidateBoundingBox();
+                    invalidateWayGeometry((Way) e);
                 } else if (Node.NAME.equals(e.getName())) {
                     nodeChanged = true;
                     if (changed == null) {
@@ -301,7 +354,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             }
             if (nodeChanged) {
                 for (Way w : currentStorage.getWays(changed)) {
-                    w.invalidateBoundingBox();
+                    invalidateWayGeometry(w);
                     w.resetHasProblem();
                 }
             }
@@ -381,13 +434,38 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param w the way to operate on
      */
     private void invalidateWay(@NonNull Way w) {
-        w.invalidateBoundingBox();
+        invalidateWayGeometry(w);
         if (w.hasTagKey(Tags.KEY_HIGHWAY) || w.hasTagKey(Tags.KEY_WATERWAY)) {
             // we only validate way connections for highway and waterway elements currently
             w.resetHasProblem();
         }
     }
 
+    /**
+     * Invalidate the cached bounding box of a Way and update the spatial and Node to Way indices
+     * 
+     * This needs to be called for every Way in storage that has its geometry changed
+     * 
+     * @param w the Way
+     */
+    public void invalidateWayGeometry(@NonNull Way w) {
+        currentStorage.invalidateGeometry(w);
+        apiStorage.invalidateGeometry(w);
+        currentStorage.invalidateWayNodes(w);
+        apiStorage.invalidateWayNodes(w);
+        w.invalidateBoundingBox();
+    }
+
+    /**
+     * Update the spatial indices for a Node, this needs to be called -before- the Node is moved
+     * 
+     * @param n the Node
+     */
+    private void invalidateNodeGeometry(@NonNull Node n) {
+        currentStorage.invalidateGeometry(n);
+        apiStorage.invalidateGeometry(n);
+    }
+
     /**
      * Way geometry has to be invalidated -before- nodes are moved
      * 
@@ -448,6 +526,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * apiStorage is empty. As a side effect it updates the id sequences for the creation of new elements.
      */
     public synchronized void fixupApiStorage() {
+        untrackedChanges();
         long minNodeId = 0;
         long minWayId = 0;
         long minRelationId = 0;
@@ -668,6 +747,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private void updateLatLon(@NonNull final Node node, final int latE7, final int lonE7) {
         apiStorage.insertElementSafe(node);
+        invalidateNodeGeometry(node);
         node.setLat(latE7);
         node.setLon(lonE7);
         node.updateState(OsmElement.STATE_MODIFIED);
@@ -1564,7 +1644,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
         way.updateState(OsmElement.STATE_MODIFIED);
         apiStorage.insertElementSafe(way);
-        onElementChanged(null, way);
+        onElementChanged(node, way);
         if (!node.hasTags() && getCurrentStorage().getWays(node).isEmpty()) {
             removeNode(node);
         }
@@ -1595,7 +1675,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.updateState(OsmElement.STATE_MODIFIED);
             apiStorage.insertElementSafe(way);
         }
-        onElementChanged(null, way);
+        onElementChanged(node, way);
         if (deleteNode) {
             removeNode(node);
         }
@@ -1730,7 +1810,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 changedElements.add(r);
             }
         }
-        onElementChanged(null, changedElements);
+        onElementChanged(Util.wrapInList((OsmElement) node), changedElements);
         return newNode;
     }
 
@@ -1843,7 +1923,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             removeWay(way);
         } else {
             apiStorage.insertElementSafe(way);
-            onElementChanged(null, way);
+            onElementChanged(existingNode, way);
         }
     }
 
@@ -1989,7 +2069,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 element.removeParentRelation(r);
                 Log.i(DEBUG_TAG, "... done");
             }
-            onElementChanged(null, changedElements);
+            onElementChanged(Util.wrapInList(element), changedElements);
             onParentRelationChanged(element);
         }
     }
@@ -2007,6 +2087,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         dirty = true;
         undo.save(r);
         try {
+            List<OsmElement> removed = new ArrayList<>();
             for (RelationMember member : members) {
                 Log.i(DEBUG_TAG, "removing " + member.getType() + " #" + member.getRef() + " from relation #" + r.getOsmId());
                 r.removeMember(member);
@@ -2015,11 +2096,12 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                     undo.save(element);
                     element.removeParentRelation(r);
                     onParentRelationChanged(element);
+                    removed.add(element);
                 }
             }
             r.updateState(OsmElement.STATE_MODIFIED);
             apiStorage.insertElementSafe(r);
-            onElementChanged(null, r);
+            onElementChanged(removed, Util.wrapInList((OsmElement) r));
             Log.i(DEBUG_TAG, "... done");
         } catch (StorageException e) {
             // TODO handle OOM
@@ -2045,7 +2127,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         apiStorage.insertElementSafe(r);
         undo.save(element);
         element.removeParentRelation(r);
-        onElementChanged(null, r);
+        onElementChanged(element, r);
         onParentRelationChanged(element);
         Log.i(DEBUG_TAG, "... done");
     }
@@ -2222,12 +2304,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 newMembers.add(newMember);
             }
         }
+        List<OsmElement> removed = new ArrayList<>();
         for (RelationMember rm : membersHash.values()) {
             changed = true;
             OsmElement e = rm.getElement();
             if (e != null) {
                 undo.save(e);
                 e.removeParentRelation(r);
+                removed.add(e);
             }
         }
 
@@ -2235,7 +2319,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             r.replaceMembers(newMembers);
             r.updateState(OsmElement.STATE_MODIFIED);
             apiStorage.insertElementSafe(r);
-            onElementChanged(null, r);
+            onElementChanged(removed, Util.wrapInList((OsmElement) r));
         } else {
             undo.remove(r); // nothing changed
         }
@@ -2493,6 +2577,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 }
                 undo.save(e);
                 if (e instanceof Node) {
+                    invalidateNodeGeometry((Node) e);
                     ((Node) e).setLat(((Node) e).getLat() + deltaLat);
                     ((Node) e).setLon(((Node) e).getLon() + deltaLon);
                     newNodes.put((Node) e, null);
@@ -2501,6 +2586,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                     for (Node nd : nodes) {
                         if (!newNodes.containsKey(nd)) {
                             undo.save(nd);
+                            invalidateNodeGeometry(nd);
                             nd.setLat(nd.getLat() + deltaLat);
                             nd.setLon(nd.getLon() + deltaLon);
                             nd.updateState(nd.getOsmId() < 0 ? OsmElement.STATE_CREATED : OsmElement.STATE_MODIFIED);
@@ -2508,7 +2594,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             newNodes.put(nd, null);
                         }
                     }
-                    ((Way) e).invalidateBoundingBox();
+                    invalidateWayGeometry((Way) e);
                 }
                 insertElementSafe(e);
                 e.updateState(e.getOsmId() < 0 ? OsmElement.STATE_CREATED : OsmElement.STATE_MODIFIED);
@@ -2729,8 +2815,24 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
 
         if (readingLock.tryLock()) {
-            // TODO this doesn't really help with error conditions need to throw exception
-            if (savingHelper.save(ctx, FILENAME, this, true)) {
+            boolean saved = false;
+            try {
+                StorageSnapshot target = getSnapshot(ctx);
+                if (undo != savedUndo) {
+                    // changes made before the current undo instance was created have not been recorded
+                    target.changedAll();
+                }
+                boolean stateChanged = undo != savedUndo || undo.getModificationCount() != savedUndoCount || clipboard != savedClipboard
+                        || clipboard.getModificationCount() != savedClipboardCount || factory != savedFactory;
+                target.save(currentStorage, apiStorage, undo.getChangedElements(), new SavedState(undo, clipboard, factory), stateChanged);
+                undo.clearChangedElements();
+                setSavedState();
+                saved = true;
+            } catch (Exception | Error e) { // NOSONAR crashing is not an option
+                Log.e(DEBUG_TAG, "failed to save " + FILENAME, e);
+                ACRAHelper.nocrashReport(e, e.getMessage());
+            }
+            if (saved) {
                 dirty = false;
             } else {
                 // this is essentially catastrophic and can only happen if something went really wrong
@@ -2753,6 +2855,26 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
     }
 
+    /**
+     * Remember the undo and clipboard state that has just been saved or read
+     */
+    private void setSavedState() {
+        savedUndo = undo;
+        savedUndoCount = undo.getModificationCount();
+        savedClipboard = clipboard;
+        savedClipboardCount = clipboard.getModificationCount();
+        savedFactory = factory;
+    }
+
+    /**
+     * Indicate that elements have been changed without saving them to undo first
+     */
+    private void untrackedChanges() {
+        if (snapshot != null) {
+            snapshot.changedAll();
+        }
+    }
+
     /**
      * Read save data from standard file
      * 
@@ -2775,6 +2897,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public boolean readFromFile(Context context, String filename) {
         try {
             lock();
+            File file = context.getFileStreamPath(filename);
+            if (StorageSnapshot.isSnapshot(file)) {
+                return readSnapshot(FILENAME.equals(filename) ? getSnapshot(context) : new StorageSnapshot(file, null));
+            }
+            // state saved by older versions
             StorageDelegator newDelegator = savingHelper.load(context, filename, true);
 
             if (newDelegator != null) {
@@ -2802,6 +2929,90 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
     }
 
+    /**
+     * Get the StorageSnapshot for the default state file
+     * 
+     * @param context an Android Context
+     * @return the StorageSnapshot
+     */
+    @NonNull
+    private StorageSnapshot getSnapshot(@NonNull Context context) {
+        if (snapshot == null) {
+            snapshot = new StorageSnapshot(context.getFileStreamPath(FILENAME), context.getFileStreamPath(BACKUP_FILENAME));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Read the data and state from a StorageSnapshot
+     * 
+     * If the undo state can't be restored the data is still used, with empty undo storage and clipboard
+     * 
+     * @param source the StorageSnapshot to read from
+     * @return true if the data was read successfully
+     */
+    private boolean readSnapshot(@NonNull StorageSnapshot source) {
+        Storage newCurrent = new Storage();
+        Storage newApi = new Storage();
+        Object state;
+        try {
+            state = source.load(newCurrent, newApi);
+        } catch (IOException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "readSnapshot failed " + e.getMessage());
+            return false;
+        }
+        currentStorage = newCurrent;
+        if (currentStorage.getBoundingBoxes().isEmpty() && !currentStorage.isEmpty()) {
+            try {
+                currentStorage.setBoundingBox(currentStorage.calcBoundingBoxFromData());
+            } catch (OsmException e) {
+                Log.e(DEBUG_TAG, "readSnapshot got " + e.getMessage());
+            }
+        }
+        apiStorage = newApi;
+        fixupBacklinks();
+        if (state instanceof SavedState) {
+            undo = ((SavedState) state).undo;
+            clipboard = ((SavedState) state).clipboard;
+            factory = ((SavedState) state).factory;
+            if (source == snapshot) {
+                setSavedState();
+            }
+        } else {
+            Log.w(DEBUG_TAG, "undo state not available");
+            undo = new UndoStorage(currentStorage, apiStorage);
+            clipboard = new ClipboardStorage();
+            factory = new OsmElementFactory();
+            setIdSequences();
+        }
+        dirty = false; // data was just read, i.e. memory and file are in sync
+        return true;
+    }
+
+    /**
+     * Make sure that the factory doesn't create ids that are already in use
+     */
+    private void setIdSequences() {
+        long nodeId = 0;
+        long wayId = 0;
+        long relationId = 0;
+        for (Storage storage : new Storage[] { currentStorage, apiStorage }) {
+            for (Node n : storage.getNodeIndex()) {
+                nodeId = Math.min(nodeId, n.getOsmId());
+            }
+            for (Way w : storage.getWayIndex()) {
+                wayId = Math.min(wayId, w.getOsmId());
+                for (Node n : w.getNodes()) {
+                    nodeId = Math.min(nodeId, n.getOsmId());
+                }
+            }
+            for (Relation r : storage.getRelationIndex()) {
+                relationId = Math.min(relationId, r.getOsmId());
+            }
+        }
+        factory.setIdSequences(nodeId, wayId, relationId);
+    }
+
     /**
      * Return a localized list of strings describing the changes we would upload on {@link #uploadToServer(Server)}.
      * 
@@ -2878,6 +3089,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     /**
      * Upload created, modified and deleted data in diff format
      * 
+     * Each changeset is uploaded in batches, elements from batches that have been acknowledged by the server are
+     * updated immediately, so if the upload fails calling this again will only upload the remaining changes.
+     * 
      * @param server Server to upload changes to.
      * @param comment Changeset comment tag
      * @param source Changeset source tag
@@ -2891,6 +3105,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             boolean closeChangeset, @Nullable Map<String, String> extraTags, @Nullable List<OsmElement> elements) throws IOException {
 
         dirty = true; // storages will get modified as data is uploaded, these changes need to be saved to file
+        untrackedChanges(); // states, versions and ids are changed directly
         removeUnchanged();
         // upload methods set dirty flag too, in case the file is saved during an upload
         boolean fullUpload = elements == null;
@@ -2974,6 +3189,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         if (storage.isEmpty()) { // no point in doing anything
             return;
         }
+        untrackedChanges();
 
         List<OsmElement> newElements = new ArrayList<>(); // elements that we need to run postMerg on
 
@@ -3359,6 +3575,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param box the BoundingBox
      */
     protected void prune(@Nullable Logic logic, @NonNull BoundingBox box) {
+        untrackedChanges();
         LongHashSet keepNodes = new LongHashSet();
         LongHashSet keepWays = new LongHashSet();
         LongHashSet keepRelations = new LongHashSet();
@@ -3469,6 +3686,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * Note this doesn't handle selected elements and should only be called when nothing is selected
      */
     public synchronized void pruneAll() {
+        untrackedChanges();
         LongHashSet keepNodes = new LongHashSet();
         LongHashSet keepRelations = new LongHashSet();
 
@@ -3538,6 +3756,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public synchronized boolean applyOsc(@NonNull Storage osc, @Nullable PostMergeHandler postMerge) {
         Log.d(DEBUG_TAG, "applyOsc called");
+        untrackedChanges();
         final String ABORTMESSAGE = "applyOsc aborting %s is unchanged/created";
 
         // make temp copy of current storage (we may have to abort
@@ -0,0 +1,1767 @@
+package de.blau.android.osm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LongHashSet;
+import de.blau.android.util.collections.LongOsmElementMap;
+import de.blau.android.util.collections.LongPrimitiveList;
+
+/**
+ * Compact binary format for the saved OSM data with incremental saves
+ *
+ * The state consists of three files:
+ * <ul>
+ * <li>the snapshot, a complete copy of the data in current and API storage. Element ids, versions, coordinates, way
+ * nodes and relation members are stored in columns of delta encoded variable length integers, tags and roles as indices
+ * in to a table of unique Strings</li>
+ * <li>the journal, an append only list of batches of changes since the snapshot was written, a batch uses the same
+ * format as the snapshot plus a list of removed elements</li>
+ * <li>the state file, containing whatever the caller wants to save in addition to the data, written with Java
+ * serialisation. References to elements and to the two storages are replaced by ids</li>
+ * </ul>
+ *
+ * The caller passes the elements that have been changed since the last save, so that saving only needs to look at
+ * these. If the data has been changed in ways that are not tracked, {@link #changedAll()} needs to be called, the next
+ * save will then find the changes by comparing a 64 bit fingerprint of every element with the one from the last full
+ * comparison. When the journal has become large compared to the snapshot a new snapshot is written instead.
+ *
+ * The state file is only rewritten if the caller indicates that the state has changed, after untracked changes or if a
+ * new snapshot has been written. It is valid for the journal batches that were written after it as long as the elements it references are
+ * still present.
+ *
+ * This class is not thread safe, access needs to be synchronized externally.
+ */
+class StorageSnapshot {
+
+    private static final String DEBUG_TAG = StorageSnapshot.class.getSimpleName().substring(0, Math.min(23, StorageSnapshot.class.getSimpleName().length()));
+
+    private static final int SNAPSHOT_MAGIC = 0x56534E50; // VSNP
+    private static final int JOURNAL_MAGIC  = 0x56534A4E; // VSJN
+    private static final int STATE_MAGIC    = 0x56535354; // VSST
+    private static final int FORMAT_VERSION = 1;
+
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String STATE_SUFFIX   = ".state";
+
+    private static final int JOURNAL_HEADER_SIZE = 16;
+    private static final int BATCH_HEADER_SIZE   = 8;
+
+    /**
+     * The journal is only compacted if it is larger than this
+     */
+    static final long MIN_COMPACTION_SIZE = 256 * 1024L;
+
+    /**
+     * If more than 1/FULL_SNAPSHOT_DIVISOR elements have changed a snapshot is written instead of a journal batch
+     */
+    private static final int FULL_SNAPSHOT_DIVISOR = 4;
+
+    private static final int IN_CURRENT = 1;
+    private static final int IN_API     = 2;
+
+    private static final int MEMBER_HAS_ELEMENT = 1;
+
+    private static final long SEED        = 0x6A09E667F3BCC909L;
+    private static final long NULL_STRING = 0x243F6A8885A308D3L;
+
+    private static final Charset UTF_8 = Charset.forName(OsmXml.UTF_8);
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File stateFile;
+    private final File backupFile;
+
+    private long         snapshotId;
+    private int          batches;
+    private long         journalLength;
+    private Fingerprints fingerprints;
+    private boolean      rescan = true;
+    private long         boxes;
+
+    /**
+     * Ids of the elements written to the journal since the fingerprints were calculated
+     */
+    private final LongHashSet[] journaled = { new LongHashSet(), new LongHashSet(), new LongHashSet() };
+
+    /**
+     * Way nodes that are neither in current nor in API storage, maintained between saves
+     */
+    private LongOsmElementMap<Node> detachedNodes = new LongOsmElementMap<>();
+
+    /**
+     * Element id and fingerprint pairs sorted by id
+     */
+    private static final class Fingerprints {
+        final long[][] ids          = new long[3][];
+        final long[][] values       = new long[3][];
+        int            elementCount = 0;
+    }
+
+    private static final int NODES     = 0;
+    private static final int WAYS      = 1;
+    private static final int RELATIONS = 2;
+
+    /**
+     * Replacement for OsmElements in storage in the state file
+     */
+    private static final class ElementRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int  type;
+        final long id;
+
+        /**
+         * Construct a new reference
+         *
+         * @param type NODES, WAYS or RELATIONS
+         * @param id the element id
+         */
+        ElementRef(int type, long id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Replacement for the storages in the state file
+     */
+    private enum StorageRef {
+        CURRENT, API
+    }
+
+    /**
+     * The elements that are saved: everything in current and API storage plus way nodes that are in neither, which can
+     * happen for deleted ways
+     */
+    private static final class Elements {
+        final Storage           current;
+        final Storage           api;
+        LongOsmElementMap<Node> detachedNodes;
+
+        /**
+         * Construct a new instance
+         *
+         * @param current the current storage
+         * @param api the API storage
+         * @param detachedNodes way nodes that are in neither storage
+         */
+        Elements(@NonNull Storage current, @NonNull Storage api, @NonNull LongOsmElementMap<Node> detachedNodes) {
+            this.current = current;
+            this.api = api;
+            this.detachedNodes = detachedNodes;
+        }
+
+        /**
+         * Find all way nodes that are not in storage, replacing the existing ones
+         */
+        void collectDetachedNodes() {
+            detachedNodes = new LongOsmElementMap<>();
+            collectDetachedNodes(current);
+            collectDetachedNodes(api);
+        }
+
+        /**
+         * Check if a Node is in one of the storages
+         *
+         * @param n the Node
+         * @return true if it is in current or API storage
+         */
+        boolean isStored(@NonNull Node n) {
+            return current.getNode(n.getOsmId()) == n || api.getNode(n.getOsmId()) == n;
+        }
+
+        /**
+         * Update the detached way nodes for a changed Node
+         *
+         * @param n the Node
+         */
+        void updateDetached(@NonNull Node n) {
+            final long id = n.getOsmId();
+            if (current.getNode(id) != null || api.getNode(id) != null) {
+                detachedNodes.remove(id);
+            } else if (!current.getWays(n).isEmpty() || !api.getWays(n).isEmpty()) {
+                detachedNodes.put(id, n);
+            } else if (detachedNodes.get(id) == n) {
+                detachedNodes.remove(id);
+            }
+        }
+
+        /**
+         * Get the total number of elements in both storages
+         *
+         * @return the element count
+         */
+        int count() {
+            return current.getNodeCount() + current.getWayCount() + current.getRelationCount() + api.getNodeCount() + api.getWayCount()
+                    + api.getRelationCount();
+        }
+
+        /**
+         * Find nodes of ways in storage that are not in storage
+         *
+         * @param storage the Storage
+         */
+        private void collectDetachedNodes(@NonNull Storage storage) {
+            for (Way w : storage.getWayIndex()) {
+                for (Node n : w.getNodes()) {
+                    long id = n.getOsmId();
+                    if (current.getNode(id) == null && api.getNode(id) == null) {
+                        detachedNodes.put(id, n);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Get a Node
+         *
+         * @param id the Node id
+         * @return the Node or null
+         */
+        @Nullable
+        Node getNode(long id) {
+            Node n = current.getNode(id);
+            if (n == null) {
+                n = api.getNode(id);
+            }
+            return n != null ? n : detachedNodes.get(id);
+        }
+
+        /**
+         * Get a Way
+         *
+         * @param id the Way id
+         * @return the Way or null
+         */
+        @Nullable
+        Way getWay(long id) {
+            Way w = current.getWay(id);
+            return w != null ? w : api.getWay(id);
+        }
+
+        /**
+         * Get a Relation
+         *
+         * @param id the Relation id
+         * @return the Relation or null
+         */
+        @Nullable
+        Relation getRelation(long id) {
+            Relation r = current.getRelation(id);
+            return r != null ? r : api.getRelation(id);
+        }
+
+        /**
+         * Get an element
+         *
+         * @param type NODES, WAYS or RELATIONS
+         * @param id the element id
+         * @return the OsmElement or null
+         */
+        @Nullable
+        OsmElement get(int type, long id) {
+            switch (type) {
+            case NODES:
+                return getNode(id);
+            case WAYS:
+                return getWay(id);
+            case RELATIONS:
+                return getRelation(id);
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Get an element
+         *
+         * @param type the element type name
+         * @param id the element id
+         * @return the OsmElement or null
+         */
+        @Nullable
+        OsmElement get(@NonNull String type, long id) {
+            return get(type(type), id);
+        }
+
+        /**
+         * Get the storages an element is in
+         *
+         * @param e the OsmElement
+         * @return a combination of IN_CURRENT and IN_API
+         */
+        int flags(@NonNull OsmElement e) {
+            final int type = type(e.getName());
+            final long id = e.getOsmId();
+            return (get(current, type, id) == e ? IN_CURRENT : 0) | (get(api, type, id) == e ? IN_API : 0);
+        }
+
+        /**
+         * Put an element in to the storages indicated by flags and remove it from the others
+         *
+         * @param e the OsmElement
+         * @param flags a combination of IN_CURRENT and IN_API
+         */
+        void place(@NonNull OsmElement e, int flags) {
+            place(current, e, (flags & IN_CURRENT) != 0);
+            place(api, e, (flags & IN_API) != 0);
+            if (e instanceof Node) {
+                if (flags == 0) {
+                    detachedNodes.put(e.getOsmId(), (Node) e);
+                } else {
+                    detachedNodes.remove(e.getOsmId());
+                }
+            }
+        }
+
+        /**
+         * Add or remove an element from a storage
+         *
+         * @param storage the Storage
+         * @param e the OsmElement
+         * @param add if true add, otherwise remove
+         */
+        private static void place(@NonNull Storage storage, @NonNull OsmElement e, boolean add) {
+            if (add) {
+                storage.insertElementUnsafe(e);
+            } else {
+                storage.removeElement(e);
+            }
+        }
+
+        /**
+         * Remove an element completely
+         *
+         * @param type NODES, WAYS or RELATIONS
+         * @param id the element id
+         */
+        void remove(int type, long id) {
+            OsmElement e = get(type, id);
+            if (e != null) {
+                current.removeElement(e);
+                api.removeElement(e);
+                if (type == NODES) {
+                    detachedNodes.remove(id);
+                }
+            }
+        }
+
+        /**
+         * Get an element from a Storage
+         *
+         * @param storage the Storage
+         * @param type NODES, WAYS or RELATIONS
+         * @param id the element id
+         * @return the OsmElement or null
+         */
+        @Nullable
+        private static OsmElement get(@NonNull Storage storage, int type, long id) {
+            switch (type) {
+            case NODES:
+                return storage.getNode(id);
+            case WAYS:
+                return storage.getWay(id);
+            case RELATIONS:
+                return storage.getRelation(id);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Construct a new instance
+     *
+     * @param snapshotFile the file for the snapshot, the journal and state files use the same name with a suffix
+     * @param backupFile if not null, the existing files are moved here before a new snapshot is written
+     */
+    StorageSnapshot(@NonNull File snapshotFile, @Nullable File backupFile) {
+        this.snapshotFile = snapshotFile;
+        journalFile = new File(snapshotFile.getPath() + JOURNAL_SUFFIX);
+        stateFile = new File(snapshotFile.getPath() + STATE_SUFFIX);
+        this.backupFile = backupFile;
+    }
+
+    /**
+     * Check if a file is a snapshot in this format
+     *
+     * @param file the File
+     * @return true if the file starts with the snapshot header
+     */
+    static boolean isSnapshot(@NonNull File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == SNAPSHOT_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the snapshot, journal and state files
+     *
+     * @param snapshotFile the snapshot file
+     */
+    static void delete(@NonNull File snapshotFile) {
+        delete(snapshotFile, new File(snapshotFile.getPath() + JOURNAL_SUFFIX), new File(snapshotFile.getPath() + STATE_SUFFIX));
+    }
+
+    /**
+     * Delete files, ignoring failures
+     *
+     * @param files the Files to delete
+     */
+    private static void delete(@NonNull File... files) {
+        for (File f : files) {
+            if (f.exists() && !f.delete()) {
+                Log.e(DEBUG_TAG, "Unable to delete " + f.getName());
+            }
+        }
+    }
+
+    /**
+     * Get the current size of the journal
+     *
+     * @return the length of the valid part of the journal in bytes
+     */
+    long getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * Get the number of batches in the journal
+     *
+     * @return the batch count
+     */
+    int getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * Indicate that the data has been changed in ways that have not been reported to save
+     *
+     * The next save will compare all elements with the state at the last comparison
+     */
+    void changedAll() {
+        rescan = true;
+    }
+
+    /**
+     * Save the data after untracked changes
+     *
+     * All elements are compared with the state at the last comparison and the additional state is always written
+     *
+     * @param current the current storage
+     * @param api the API storage
+     * @param state additional state to save, references to current and api and elements they contain are saved as
+     *            references
+     * @throws IOException if writing fails
+     */
+    void save(@NonNull Storage current, @NonNull Storage api, @Nullable Serializable state) throws IOException {
+        changedAll();
+        save(current, api, new ArrayList<>(), state, true);
+    }
+
+    /**
+     * Save the data
+     *
+     * Only elements that have changed since the last save or load are written, unless a full snapshot is needed
+     *
+     * @param current the current storage
+     * @param api the API storage
+     * @param changed the elements that have been changed, added or removed since the last save
+     * @param state additional state to save, references to current and api and elements they contain are saved as
+     *            references
+     * @param stateChanged if false the state is only written if a new snapshot is written
+     * @throws IOException if writing fails
+     */
+    void save(@NonNull Storage current, @NonNull Storage api, @NonNull Collection<OsmElement> changed, @Nullable Serializable state,
+            boolean stateChanged) throws IOException {
+        final long start = System.currentTimeMillis();
+        // untracked changes may have changed ids or removed elements that the state refers to
+        final boolean untracked = rescan;
+        Elements elements = new Elements(current, api, detachedNodes);
+        final long nextBoxes = boxes(current, api);
+        boolean full = fingerprints == null || !snapshotFile.exists() || journalLength > Math.max(MIN_COMPACTION_SIZE, snapshotFile.length() / 2);
+        Fingerprints next = null;
+        if (!full) {
+            long[][] changedIds = new long[3][];
+            long[][] removedIds = new long[3][];
+            int count;
+            if (rescan) {
+                elements.collectDetachedNodes();
+                next = fingerprints(elements);
+                count = compare(next, changedIds, removedIds);
+            } else {
+                count = collect(elements, changed, changedIds, removedIds);
+            }
+            if (count > elements.count() / FULL_SNAPSHOT_DIVISOR) {
+                full = true;
+            } else if (count > 0 || boxes != nextBoxes) {
+                appendBatch(elements, changedIds, removedIds);
+                if (next == null) {
+                    for (int type = NODES; type <= RELATIONS; type++) {
+                        addAll(journaled[type], changedIds[type]);
+                        addAll(journaled[type], removedIds[type]);
+                    }
+                }
+                Log.d(DEBUG_TAG, "Saved " + count + " changes in " + (System.currentTimeMillis() - start) + " ms, journal size " + journalLength);
+            }
+        }
+        if (full) {
+            if (next == null) {
+                elements.collectDetachedNodes();
+                next = fingerprints(elements);
+            }
+            writeSnapshot(elements, next);
+            Log.d(DEBUG_TAG, "Saved " + next.elementCount + " elements in " + (System.currentTimeMillis() - start) + " ms, snapshot size "
+                    + snapshotFile.length());
+        }
+        if (next != null) {
+            setFingerprints(next);
+        }
+        detachedNodes = elements.detachedNodes;
+        rescan = false;
+        boxes = nextBoxes;
+        if (full || untracked || stateChanged || !stateFile.exists()) {
+            writeState(elements, state);
+        }
+    }
+
+    /**
+     * Get the ids of the elements that need to be written from the changed elements
+     *
+     * @param elements all elements
+     * @param changed the changed elements
+     * @param changedIds the ids of the elements that are present by type
+     * @param removedIds the ids of the elements that have been removed by type
+     * @return the total number of ids
+     */
+    private static int collect(@NonNull Elements elements, @NonNull Collection<OsmElement> changed, @NonNull long[][] changedIds,
+            @NonNull long[][] removedIds) {
+        LongHashSet[] ids = { new LongHashSet(), new LongHashSet(), new LongHashSet() };
+        for (OsmElement e : changed) {
+            final int type = type(e.getName());
+            ids[type].put(e.getOsmId());
+            if (type == NODES) {
+                elements.updateDetached((Node) e);
+            }
+        }
+        // nodes of changed ways that are not in storage need to be available when the journal is read
+        for (long id : ids[WAYS].values()) {
+            Way w = elements.getWay(id);
+            if (w != null) {
+                for (Node n : w.getNodes()) {
+                    if (!elements.isStored(n)) {
+                        elements.detachedNodes.put(n.getOsmId(), n);
+                        ids[NODES].put(n.getOsmId());
+                    }
+                }
+            }
+        }
+        int count = 0;
+        for (int type = NODES; type <= RELATIONS; type++) {
+            LongPrimitiveList present = new LongPrimitiveList();
+            LongPrimitiveList removed = new LongPrimitiveList();
+            for (long id : ids[type].values()) {
+                if (elements.get(type, id) != null) {
+                    present.add(id);
+                } else {
+                    removed.add(id);
+                }
+            }
+            changedIds[type] = present.values();
+            removedIds[type] = removed.values();
+            Arrays.sort(changedIds[type]);
+            Arrays.sort(removedIds[type]);
+            count += changedIds[type].length + removedIds[type].length;
+        }
+        return count;
+    }
+
+    /**
+     * Get the ids of the elements that need to be written by comparing fingerprints
+     *
+     * Elements that have been written to the journal since the last comparison are always included as they might
+     * have been changed back to the previous state
+     *
+     * @param next the current Fingerprints
+     * @param changedIds the ids of the changed elements by type
+     * @param removedIds the ids of the removed elements by type
+     * @return the total number of ids
+     */
+    private int compare(@NonNull Fingerprints next, @NonNull long[][] changedIds, @NonNull long[][] removedIds) {
+        int count = 0;
+        for (int type = NODES; type <= RELATIONS; type++) {
+            LongPrimitiveList changed = new LongPrimitiveList();
+            LongPrimitiveList removed = new LongPrimitiveList();
+            diff(fingerprints.ids[type], fingerprints.values[type], next.ids[type], next.values[type], changed, removed);
+            if (!journaled[type].isEmpty()) {
+                LongHashSet found = new LongHashSet();
+                addAll(found, changed.values());
+                addAll(found, removed.values());
+                for (long id : journaled[type].values()) {
+                    if (!found.contains(id)) {
+                        if (Arrays.binarySearch(next.ids[type], id) >= 0) {
+                            changed.add(id);
+                        } else {
+                            removed.add(id);
+                        }
+                    }
+                }
+            }
+            changedIds[type] = changed.values();
+            removedIds[type] = removed.values();
+            count += changedIds[type].length + removedIds[type].length;
+        }
+        return count;
+    }
+
+    /**
+     * Add ids to a set
+     *
+     * @param set the LongHashSet
+     * @param ids the ids to add
+     */
+    private static void addAll(@NonNull LongHashSet set, @NonNull long[] ids) {
+        for (long id : ids) {
+            set.put(id);
+        }
+    }
+
+    /**
+     * Set the fingerprints that the next comparison is done against
+     *
+     * @param next the new Fingerprints
+     */
+    private void setFingerprints(@NonNull Fingerprints next) {
+        fingerprints = next;
+        for (LongHashSet ids : journaled) {
+            ids.clear();
+        }
+    }
+
+    /**
+     * Load the data
+     *
+     * @param current an empty Storage that the current data will be added to
+     * @param api an empty Storage that the API data will be added to
+     * @return the additional state or null if there was none or it didn't match the data
+     * @throws IOException if the snapshot could not be read
+     */
+    @Nullable
+    Object load(@NonNull Storage current, @NonNull Storage api) throws IOException {
+        final long start = System.currentTimeMillis();
+        Elements elements = new Elements(current, api, new LongOsmElementMap<>());
+        readSnapshot(elements);
+        readJournal(elements);
+        Log.d(DEBUG_TAG, "Loaded " + current.getNodeCount() + " nodes " + current.getWayCount() + " ways " + current.getRelationCount() + " relations and "
+                + batches + " journal batches in " + (System.currentTimeMillis() - start) + " ms");
+        elements.collectDetachedNodes();
+        detachedNodes = elements.detachedNodes;
+        setFingerprints(fingerprints(elements));
+        rescan = false;
+        boxes = boxes(current, api);
+        return readState(elements);
+    }
+
+    /**
+     * Write a complete snapshot, moving the existing files to the backup location
+     *
+     * @param elements the elements to save
+     * @param fingerprints the Fingerprints of the elements, the ids are used for the order of the elements
+     * @throws IOException if writing fails
+     */
+    private void writeSnapshot(@NonNull Elements elements, @NonNull Fingerprints fingerprints) throws IOException {
+        final long newId = System.currentTimeMillis() ^ System.nanoTime();
+        File temp = new File(snapshotFile.getPath() + "." + System.currentTimeMillis());
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 65536), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(newId);
+            writeSection(out, elements, fingerprints.ids, new long[][] { new long[0], new long[0], new long[0] });
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            delete(temp);
+            throw e;
+        }
+        if (backupFile != null) {
+            rename(journalFile, new File(backupFile.getPath() + JOURNAL_SUFFIX));
+            rename(stateFile, new File(backupFile.getPath() + STATE_SUFFIX));
+            rename(snapshotFile, backupFile);
+        }
+        if (!temp.renameTo(snapshotFile)) {
+            delete(temp);
+            throw new IOException("Renaming " + temp.getName() + " failed");
+        }
+        // a left over journal would be ignored as it refers to the previous snapshot
+        delete(journalFile, stateFile);
+        snapshotId = newId;
+        batches = 0;
+        journalLength = 0;
+    }
+
+    /**
+     * Rename a file, replacing an existing one
+     *
+     * @param from the source File
+     * @param to the target File
+     */
+    private static void rename(@NonNull File from, @NonNull File to) {
+        if (from.exists()) {
+            delete(to);
+            if (!from.renameTo(to)) {
+                Log.e(DEBUG_TAG, "Renaming " + from.getName() + " failed");
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot
+     *
+     * @param elements the target for the elements
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    private void readSnapshot(@NonNull Elements elements) throws IOException {
+        try (InputStream fileIn = new BufferedInputStream(new FileInputStream(snapshotFile), 65536)) {
+            CheckedInputStream checked = new CheckedInputStream(fileIn, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a snapshot or unsupported version");
+            }
+            snapshotId = in.readLong();
+            readSection(in, elements);
+            int expected = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(fileIn).readInt() != expected) {
+                throw new IOException("Snapshot checksum error");
+            }
+        }
+        batches = 0;
+        journalLength = 0;
+    }
+
+    /**
+     * Append a batch of changes to the journal
+     *
+     * @param elements all elements
+     * @param changed the ids of the changed elements by type
+     * @param removed the ids of the removed elements by type
+     * @throws IOException if writing fails
+     */
+    private void appendBatch(@NonNull Elements elements, @NonNull long[][] changed, @NonNull long[][] removed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeSection(out, elements, changed, removed);
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile, "rw")) {
+            if (journalLength < JOURNAL_HEADER_SIZE) {
+                journal.setLength(0);
+                journal.writeInt(JOURNAL_MAGIC);
+                journal.writeInt(FORMAT_VERSION);
+                journal.writeLong(snapshotId);
+                journalLength = JOURNAL_HEADER_SIZE;
+            }
+            // overwrites anything left from a failed write
+            journal.seek(journalLength);
+            journal.writeInt(payload.length);
+            journal.writeInt((int) crc.getValue());
+            journal.write(payload);
+            journal.setLength(journal.getFilePointer());
+            journal.getFD().sync();
+            journalLength = journal.getFilePointer();
+        }
+        batches++;
+    }
+
+    /**
+     * Apply the batches in the journal
+     *
+     * Reading stops at the first incomplete or corrupt batch
+     *
+     * @param elements the elements from the snapshot
+     * @throws IOException if reading fails
+     */
+    private void readJournal(@NonNull Elements elements) throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        final long length = journalFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 65536))) {
+            if (length < JOURNAL_HEADER_SIZE || in.readInt() != JOURNAL_MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != snapshotId) {
+                Log.e(DEBUG_TAG, "Journal doesn't match snapshot");
+                return;
+            }
+            long position = JOURNAL_HEADER_SIZE;
+            while (position + BATCH_HEADER_SIZE <= length) {
+                int size = in.readInt();
+                int expected = in.readInt();
+                if (size < 0 || position + BATCH_HEADER_SIZE + size > length) {
+                    Log.e(DEBUG_TAG, "Incomplete journal batch at " + position);
+                    break;
+                }
+                byte[] payload = new byte[size];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, size);
+                if ((int) crc.getValue() != expected) {
+                    Log.e(DEBUG_TAG, "Corrupt journal batch at " + position);
+                    break;
+                }
+                readSection(new DataInputStream(new ByteArrayInputStream(payload)), elements);
+                position += BATCH_HEADER_SIZE + size;
+                batches++;
+            }
+            journalLength = position;
+        }
+    }
+
+    /**
+     * Write the additional state
+     *
+     * @param elements the saved elements
+     * @param state the state Object
+     * @throws IOException if writing fails
+     */
+    private void writeState(@NonNull final Elements elements, @Nullable Serializable state) throws IOException {
+        File temp = new File(stateFile.getPath() + "." + System.currentTimeMillis());
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fileOut)) {
+                {
+                    enableReplaceObject(true);
+                }
+
+                @Override
+                protected Object replaceObject(Object obj) throws IOException {
+                    if (obj == elements.current) {
+                        return StorageRef.CURRENT;
+                    }
+                    if (obj == elements.api) {
+                        return StorageRef.API;
+                    }
+                    if (obj instanceof OsmElement) {
+                        OsmElement e = (OsmElement) obj;
+                        int type = type(e.getName());
+                        if (elements.get(type, e.getOsmId()) == e) {
+                            return new ElementRef(type, e.getOsmId());
+                        }
+                    }
+                    return obj;
+                }
+            };
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(snapshotId);
+            out.writeInt(batches);
+            out.writeObject(state);
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            delete(temp);
+            throw e;
+        }
+        delete(stateFile);
+        if (!temp.renameTo(stateFile)) {
+            delete(temp);
+            throw new IOException("Renaming " + temp.getName() + " failed");
+        }
+    }
+
+    /**
+     * Read the additional state
+     *
+     * @param elements the loaded elements
+     * @return the state or null if it doesn't match the data
+     */
+    @Nullable
+    private Object readState(@NonNull final Elements elements) {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(stateFile))) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) throws IOException {
+                if (obj == StorageRef.CURRENT) {
+                    return elements.current;
+                }
+                if (obj == StorageRef.API) {
+                    return elements.api;
+                }
+                if (obj instanceof ElementRef) {
+                    OsmElement e = elements.get(((ElementRef) obj).type, ((ElementRef) obj).id);
+                    if (e == null) {
+                        throw new IOException("Unresolved reference to " + ((ElementRef) obj).id);
+                    }
+                    return e;
+                }
+                return obj;
+            }
+        }) {
+            // the state stays valid for batches that were appended later
+            if (in.readInt() != STATE_MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != snapshotId || in.readInt() > batches) {
+                Log.w(DEBUG_TAG, "State doesn't match data");
+                return null;
+            }
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "Reading state failed " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write a set of elements
+     *
+     * @param out the output
+     * @param elements all elements
+     * @param ids the ids of the elements to write by type
+     * @param removed the ids of elements that have been removed by type
+     * @throws IOException if writing fails
+     */
+    private static void writeSection(@NonNull DataOutputStream out, @NonNull Elements elements, @NonNull long[][] ids, @NonNull long[][] removed)
+            throws IOException {
+        OsmElement[][] toWrite = new OsmElement[3][];
+        Map<String, Integer> index = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (int type = NODES; type <= RELATIONS; type++) {
+            long[] typeIds = ids[type];
+            OsmElement[] typeElements = new OsmElement[typeIds.length];
+            for (int i = 0; i < typeIds.length; i++) {
+                OsmElement e = elements.get(type, typeIds[i]);
+                if (e == null) {
+                    throw new IOException("Element " + typeIds[i] + " not found");
+                }
+                typeElements[i] = e;
+                if (e.tags != null) {
+                    for (Entry<String, String> tag : e.tags.entrySet()) {
+                        addString(index, strings, tag.getKey());
+                        addString(index, strings, tag.getValue());
+                    }
+                }
+                if (e instanceof Relation) {
+                    for (RelationMember member : ((Relation) e).getMembers()) {
+                        addString(index, strings, member.getType());
+                        if (member.getRole() != null) {
+                            addString(index, strings, member.getRole());
+                        }
+                    }
+                }
+            }
+            toWrite[type] = typeElements;
+        }
+        writeVarLong(out, strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+        writeBoxes(out, elements.current);
+        writeBoxes(out, elements.api);
+        for (long[] typeRemoved : removed) {
+            writeIds(out, typeRemoved);
+        }
+        for (OsmElement[] typeElements : toWrite) {
+            writeCommon(out, elements, typeElements, index);
+        }
+        // node coordinates
+        long last = 0;
+        for (OsmElement e : toWrite[NODES]) {
+            int lat = ((Node) e).getLat();
+            writeVarLong(out, zigzag(lat - last));
+            last = lat;
+        }
+        last = 0;
+        for (OsmElement e : toWrite[NODES]) {
+            int lon = ((Node) e).getLon();
+            writeVarLong(out, zigzag(lon - last));
+            last = lon;
+        }
+        // way nodes
+        for (OsmElement e : toWrite[WAYS]) {
+            writeVarLong(out, ((Way) e).getNodes().size());
+        }
+        last = 0;
+        for (OsmElement e : toWrite[WAYS]) {
+            for (Node n : ((Way) e).getNodes()) {
+                long id = n.getOsmId();
+                writeVarLong(out, zigzag(id - last));
+                last = id;
+            }
+        }
+        // relation members
+        for (OsmElement e : toWrite[RELATIONS]) {
+            writeVarLong(out, ((Relation) e).getMembers().size());
+        }
+        for (OsmElement e : toWrite[RELATIONS]) {
+            for (RelationMember member : ((Relation) e).getMembers()) {
+                writeVarLong(out, index.get(member.getType()));
+                out.writeByte(member.getElement() != null ? MEMBER_HAS_ELEMENT : 0);
+            }
+        }
+        last = 0;
+        for (OsmElement e : toWrite[RELATIONS]) {
+            for (RelationMember member : ((Relation) e).getMembers()) {
+                long ref = member.getRef();
+                writeVarLong(out, zigzag(ref - last));
+                last = ref;
+            }
+        }
+        for (OsmElement e : toWrite[RELATIONS]) {
+            for (RelationMember member : ((Relation) e).getMembers()) {
+                String role = member.getRole();
+                writeVarLong(out, role == null ? 0 : index.get(role) + 1L);
+            }
+        }
+    }
+
+    /**
+     * Add a String to the String table if it isn't already present
+     *
+     * @param index map from String to its position in the table
+     * @param strings the String table
+     * @param s the String
+     */
+    private static void addString(@NonNull Map<String, Integer> index, @NonNull List<String> strings, @NonNull String s) {
+        if (!index.containsKey(s)) {
+            index.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    /**
+     * Write the bounding boxes of a Storage
+     *
+     * @param out the output
+     * @param storage the Storage
+     * @throws IOException if writing fails
+     */
+    private static void writeBoxes(@NonNull DataOutput out, @NonNull Storage storage) throws IOException {
+        List<BoundingBox> boxes = new ArrayList<>();
+        for (BoundingBox box : storage.getBoundingBoxes()) {
+            if (box != null) {
+                boxes.add(box);
+            }
+        }
+        writeVarLong(out, boxes.size());
+        for (BoundingBox box : boxes) {
+            out.writeInt(box.getLeft());
+            out.writeInt(box.getBottom());
+            out.writeInt(box.getRight());
+            out.writeInt(box.getTop());
+        }
+    }
+
+    /**
+     * Write a delta encoded list of ids
+     *
+     * @param out the output
+     * @param ids the ids
+     * @throws IOException if writing fails
+     */
+    private static void writeIds(@NonNull DataOutput out, @NonNull long[] ids) throws IOException {
+        writeVarLong(out, ids.length);
+        long last = 0;
+        for (long id : ids) {
+            writeVarLong(out, zigzag(id - last));
+            last = id;
+        }
+    }
+
+    /**
+     * Write the attributes common to all element types column by column
+     *
+     * @param out the output
+     * @param elements all elements
+     * @param toWrite the elements to write
+     * @param index map from String to its position in the table
+     * @throws IOException if writing fails
+     */
+    private static void writeCommon(@NonNull DataOutput out, @NonNull Elements elements, @NonNull OsmElement[] toWrite, @NonNull Map<String, Integer> index)
+            throws IOException {
+        writeVarLong(out, toWrite.length);
+        long last = 0;
+        for (OsmElement e : toWrite) {
+            long id = e.getOsmId();
+            writeVarLong(out, zigzag(id - last));
+            last = id;
+        }
+        for (OsmElement e : toWrite) {
+            writeVarLong(out, zigzag(e.getOsmVersion()));
+        }
+        last = 0;
+        for (OsmElement e : toWrite) {
+            long timestamp = e.getTimestamp();
+            writeVarLong(out, zigzag(timestamp - last));
+            last = timestamp;
+        }
+        for (OsmElement e : toWrite) {
+            out.writeByte(e.getState() | elements.flags(e) << 4);
+        }
+        for (OsmElement e : toWrite) {
+            writeVarLong(out, e.tags == null ? 0 : e.tags.size());
+        }
+        for (OsmElement e : toWrite) {
+            if (e.tags != null) {
+                for (Entry<String, String> tag : e.tags.entrySet()) {
+                    writeVarLong(out, index.get(tag.getKey()));
+                    writeVarLong(out, index.get(tag.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a set of elements and apply them
+     *
+     * @param in the input
+     * @param elements the existing elements
+     * @throws IOException if reading fails
+     */
+    private static void readSection(@NonNull DataInputStream in, @NonNull Elements elements) throws IOException {
+        String[] strings = new String[readCount(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(in)];
+            in.readFully(bytes);
+            strings[i] = TagDictionary.intern(new String(bytes, UTF_8));
+        }
+        readBoxes(in, elements.current);
+        readBoxes(in, elements.api);
+        for (int type = NODES; type <= RELATIONS; type++) {
+            int count = readCount(in);
+            long last = 0;
+            for (int i = 0; i < count; i++) {
+                last += unzigzag(readVarLong(in));
+                elements.remove(type, last);
+            }
+        }
+        int[][] flags = new int[3][];
+        OsmElement[][] read = new OsmElement[3][];
+        for (int type = NODES; type <= RELATIONS; type++) {
+            read[type] = readCommon(in, elements, type, strings, flags);
+        }
+        // node coordinates
+        final OsmElement[] nodes = read[NODES];
+        int last = 0;
+        for (OsmElement n : nodes) {
+            last += (int) unzigzag(readVarLong(in));
+            ((Node) n).setLat(last);
+        }
+        last = 0;
+        for (OsmElement n : nodes) {
+            last += (int) unzigzag(readVarLong(in));
+            ((Node) n).setLon(last);
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            elements.place(nodes[i], flags[NODES][i]);
+        }
+        // way nodes, these either have been read in this section or previously
+        final OsmElement[] ways = read[WAYS];
+        int[] counts = readCounts(in, ways.length);
+        long lastId = 0;
+        for (int i = 0; i < ways.length; i++) {
+            Way w = (Way) ways[i];
+            List<Node> wayNodes = w.getNodes();
+            wayNodes.clear();
+            for (int j = 0; j < counts[i]; j++) {
+                lastId += unzigzag(readVarLong(in));
+                Node n = elements.getNode(lastId);
+                if (n != null) {
+                    wayNodes.add(n);
+                } else {
+                    Log.e(DEBUG_TAG, "Way " + w.getOsmId() + " node " + lastId + " missing");
+                }
+            }
+            w.invalidateBoundingBox();
+        }
+        for (int i = 0; i < ways.length; i++) {
+            elements.place(ways[i], flags[WAYS][i]);
+        }
+        // relation members, all relations need to be in place before the members can be resolved
+        final OsmElement[] relations = read[RELATIONS];
+        for (int i = 0; i < relations.length; i++) {
+            elements.place(relations[i], flags[RELATIONS][i]);
+        }
+        counts = readCounts(in, relations.length);
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        String[] types = new String[total];
+        byte[] memberFlags = new byte[total];
+        for (int i = 0; i < total; i++) {
+            types[i] = string(strings, readVarLong(in));
+            memberFlags[i] = in.readByte();
+        }
+        long[] refs = new long[total];
+        lastId = 0;
+        for (int i = 0; i < total; i++) {
+            lastId += unzigzag(readVarLong(in));
+            refs[i] = lastId;
+        }
+        int m = 0;
+        for (int i = 0; i < relations.length; i++) {
+            Relation r = (Relation) relations[i];
+            r.members.clear();
+            for (int j = 0; j < counts[i]; j++, m++) {
+                long role = readVarLong(in);
+                RelationMember member = new RelationMember(types[m], refs[m], role == 0 ? null : string(strings, role - 1));
+                if ((memberFlags[m] & MEMBER_HAS_ELEMENT) != 0) {
+                    member.setElement(elements.get(types[m], refs[m]));
+                }
+                r.members.add(member);
+            }
+        }
+    }
+
+    /**
+     * Read the attributes common to all element types and create or update the elements
+     *
+     * @param in the input
+     * @param elements the existing elements
+     * @param type NODES, WAYS or RELATIONS
+     * @param strings the String table
+     * @param flags array to store the storage flags of the elements in
+     * @return the read elements
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static OsmElement[] readCommon(@NonNull DataInput in, @NonNull Elements elements, int type, @NonNull String[] strings, @NonNull int[][] flags)
+            throws IOException {
+        final int count = readCount(in);
+        long[] ids = new long[count];
+        long last = 0;
+        for (int i = 0; i < count; i++) {
+            last += unzigzag(readVarLong(in));
+            ids[i] = last;
+        }
+        long[] versions = new long[count];
+        for (int i = 0; i < count; i++) {
+            versions[i] = unzigzag(readVarLong(in));
+        }
+        long[] timestamps = new long[count];
+        last = 0;
+        for (int i = 0; i < count; i++) {
+            last += unzigzag(readVarLong(in));
+            timestamps[i] = last;
+        }
+        byte[] states = new byte[count];
+        int[] typeFlags = new int[count];
+        for (int i = 0; i < count; i++) {
+            int b = in.readUnsignedByte();
+            states[i] = (byte) (b & 0x0F);
+            typeFlags[i] = b >> 4;
+        }
+        flags[type] = typeFlags;
+        int[] tagCounts = readCounts(in, count);
+        OsmElement[] result = new OsmElement[count];
+        for (int i = 0; i < count; i++) {
+            OsmElement e = elements.get(type, ids[i]);
+            if (e == null) {
+                e = create(type, ids[i], versions[i], timestamps[i], states[i]);
+            } else {
+                e.setOsmVersion(versions[i]);
+                e.setTimestamp(timestamps[i]);
+                e.setState(states[i]);
+            }
+            if (tagCounts[i] == 0) {
+                e.tags = null;
+            } else {
+                String[] keysAndValues = new String[tagCounts[i] * 2];
+                for (int j = 0; j < keysAndValues.length; j++) {
+                    keysAndValues[j] = string(strings, readVarLong(in));
+                }
+                e.tags = TagDictionary.share(keysAndValues);
+            }
+            result[i] = e;
+        }
+        return result;
+    }
+
+    /**
+     * Create a new element
+     *
+     * @param type NODES, WAYS or RELATIONS
+     * @param id the id
+     * @param version the version
+     * @param timestamp the timestamp
+     * @param state the state
+     * @return a new OsmElement
+     * @throws IOException for an unknown type
+     */
+    @NonNull
+    private static OsmElement create(int type, long id, long version, long timestamp, byte state) throws IOException {
+        switch (type) {
+        case NODES:
+            return OsmElementFactory.createNode(id, version, timestamp, state, 0, 0);
+        case WAYS:
+            return OsmElementFactory.createWay(id, version, timestamp, state);
+        case RELATIONS:
+            return OsmElementFactory.createRelation(id, version, timestamp, state);
+        default:
+            throw new IOException("Unknown element type " + type);
+        }
+    }
+
+    /**
+     * Read bounding boxes and replace the ones in a Storage
+     *
+     * @param in the input
+     * @param storage the Storage
+     * @throws IOException if reading fails
+     */
+    private static void readBoxes(@NonNull DataInput in, @NonNull Storage storage) throws IOException {
+        storage.clearBoundingBoxList();
+        int count = readCount(in);
+        for (int i = 0; i < count; i++) {
+            storage.addBoundingBox(new BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+    }
+
+    /**
+     * Read a column of counts
+     *
+     * @param in the input
+     * @param count the number of values
+     * @return an array with the values
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static int[] readCounts(@NonNull DataInput in, int count) throws IOException {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = readCount(in);
+        }
+        return result;
+    }
+
+    /**
+     * Read a non-negative count
+     *
+     * @param in the input
+     * @return the count
+     * @throws IOException if reading fails or the value is invalid
+     */
+    private static int readCount(@NonNull DataInput in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("Invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Get a String from the table
+     *
+     * @param strings the String table
+     * @param index the index
+     * @return the String
+     * @throws IOException if the index is out of range
+     */
+    @NonNull
+    private static String string(@NonNull String[] strings, long index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid string index " + index);
+        }
+        return strings[(int) index];
+    }
+
+    /**
+     * Get the numeric type of an element
+     *
+     * @param name the element type name
+     * @return NODES, WAYS or RELATIONS, -1 if unknown
+     */
+    private static int type(@NonNull String name) {
+        switch (name) {
+        case Node.NAME:
+            return NODES;
+        case Way.NAME:
+            return WAYS;
+        case Relation.NAME:
+            return RELATIONS;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Write a variable length long
+     *
+     * @param out the output
+     * @param value the value
+     * @throws IOException if writing fails
+     */
+    static void writeVarLong(@NonNull DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a variable length long
+     *
+     * @param in the input
+     * @return the value
+     * @throws IOException if reading fails
+     */
+    static long readVarLong(@NonNull DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length value");
+    }
+
+    /**
+     * Map signed values to unsigned ones so that small absolute values result in small numbers
+     *
+     * @param value the value
+     * @return the encoded value
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse {@link #zigzag(long)}
+     *
+     * @param value the encoded value
+     * @return the original value
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Calculate the fingerprints of all elements
+     *
+     * @param elements the elements
+     * @return Fingerprints sorted by element id
+     */
+    @NonNull
+    private static Fingerprints fingerprints(@NonNull Elements elements) {
+        Fingerprints result = new Fingerprints();
+        final int capacity = Math.max(16, elements.current.getNodeCount() + elements.api.getNodeCount() + elements.detachedNodes.size());
+        LongPrimitiveList ids = new LongPrimitiveList(capacity);
+        LongPrimitiveList values = new LongPrimitiveList(capacity);
+        for (Node n : elements.current.getNodeIndex()) {
+            add(elements, n, ids, values);
+        }
+        for (Node n : elements.api.getNodeIndex()) {
+            if (elements.current.getNode(n.getOsmId()) == null) {
+                add(elements, n, ids, values);
+            }
+        }
+        for (Node n : elements.detachedNodes) {
+            add(elements, n, ids, values);
+        }
+        set(result, NODES, ids, values);
+        ids.clear();
+        values.clear();
+        for (Way w : elements.current.getWayIndex()) {
+            add(elements, w, ids, values);
+        }
+        for (Way w : elements.api.getWayIndex()) {
+            if (elements.current.getWay(w.getOsmId()) == null) {
+                add(elements, w, ids, values);
+            }
+        }
+        set(result, WAYS, ids, values);
+        ids.clear();
+        values.clear();
+        for (Relation r : elements.current.getRelationIndex()) {
+            add(elements, r, ids, values);
+        }
+        for (Relation r : elements.api.getRelationIndex()) {
+            if (elements.current.getRelation(r.getOsmId()) == null) {
+                add(elements, r, ids, values);
+            }
+        }
+        set(result, RELATIONS, ids, values);
+        return result;
+    }
+
+    /**
+     * Calculate a fingerprint of the bounding boxes of both storages
+     *
+     * @param current the current storage
+     * @param api the API storage
+     * @return a 64 bit hash
+     */
+    private static long boxes(@NonNull Storage current, @NonNull Storage api) {
+        long boxes = SEED;
+        for (Storage storage : new Storage[] { current, api }) {
+            for (BoundingBox box : storage.getBoundingBoxes()) {
+                if (box != null) {
+                    boxes = mix(mix(boxes, ((long) box.getLeft() << 32) ^ (box.getBottom() & 0xFFFFFFFFL)), ((long) box.getRight() << 32) ^ (box.getTop() & 0xFFFFFFFFL));
+                }
+            }
+            boxes = mix(boxes, NULL_STRING);
+        }
+        return boxes;
+    }
+
+    /**
+     * Add the fingerprint of an element
+     *
+     * @param elements all elements
+     * @param e the OsmElement
+     * @param ids the list of ids
+     * @param values the list of fingerprints
+     */
+    private static void add(@NonNull Elements elements, @NonNull OsmElement e, @NonNull LongPrimitiveList ids, @NonNull LongPrimitiveList values) {
+        ids.add(e.getOsmId());
+        values.add(fingerprint(e, elements.flags(e)));
+    }
+
+    /**
+     * Sort and store the fingerprints for one element type
+     *
+     * @param fingerprints the target Fingerprints
+     * @param type NODES, WAYS or RELATIONS
+     * @param ids the list of ids
+     * @param values the list of fingerprints
+     */
+    private static void set(@NonNull Fingerprints fingerprints, int type, @NonNull LongPrimitiveList ids, @NonNull LongPrimitiveList values) {
+        long[] idArray = ids.values();
+        long[] valueArray = values.values();
+        sort(idArray, valueArray, 0, idArray.length - 1);
+        fingerprints.ids[type] = idArray;
+        fingerprints.values[type] = valueArray;
+        fingerprints.elementCount += idArray.length;
+    }
+
+    /**
+     * Compare two sets of fingerprints
+     *
+     * @param oldIds previous ids, sorted
+     * @param oldValues previous fingerprints
+     * @param newIds current ids, sorted
+     * @param newValues current fingerprints
+     * @param changed ids of new and changed elements
+     * @param removed ids of removed elements
+     */
+    private static void diff(@NonNull long[] oldIds, @NonNull long[] oldValues, @NonNull long[] newIds, @NonNull long[] newValues,
+            @NonNull LongPrimitiveList changed, @NonNull LongPrimitiveList removed) {
+        int i = 0;
+        int j = 0;
+        while (i < oldIds.length || j < newIds.length) {
+            if (j >= newIds.length || (i < oldIds.length && oldIds[i] < newIds[j])) {
+                removed.add(oldIds[i++]);
+            } else if (i >= oldIds.length || newIds[j] < oldIds[i]) {
+                changed.add(newIds[j++]);
+            } else {
+                if (oldValues[i] != newValues[j]) {
+                    changed.add(newIds[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Sort two parallel arrays by the values in the first one
+     *
+     * @param keys the keys to sort by, must be unique
+     * @param values the values
+     * @param low first index, inclusive
+     * @param high last index, inclusive
+     */
+    private static void sort(@NonNull long[] keys, @NonNull long[] values, int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            // median of three as pivot
+            if (keys[mid] < keys[low]) {
+                swap(keys, values, mid, low);
+            }
+            if (keys[high] < keys[low]) {
+                swap(keys, values, high, low);
+            }
+            if (keys[high] < keys[mid]) {
+                swap(keys, values, high, mid);
+            }
+            long pivot = keys[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // recurse on the smaller part to limit stack depth
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j] < keys[j - 1]; j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    /**
+     * Swap entries in two parallel arrays
+     *
+     * @param keys the first array
+     * @param values the second array
+     * @param i first index
+     * @param j second index
+     */
+    private static void swap(@NonNull long[] keys, @NonNull long[] values, int i, int j) {
+        long tempKey = keys[i];
+        keys[i] = keys[j];
+        keys[j] = tempKey;
+        long tempValue = values[i];
+        values[i] = values[j];
+        values[j] = tempValue;
+    }
+
+    /**
+     * Calculate the fingerprint of an element
+     *
+     * @param e the OsmElement
+     * @param flags the storages the element is in
+     * @return a 64 bit hash of everything that is saved
+     */
+    static long fingerprint(@NonNull OsmElement e, int flags) {
+        long h = mix(SEED, e.getOsmId());
+        h = mix(h, e.getOsmVersion());
+        h = mix(h, e.getTimestamp());
+        h = mix(h, e.getState() | flags << 4);
+        if (e.tags instanceof TagMap) {
+            h = mix(h, ((TagMap) e.tags).fingerprint());
+        } else if (e.tags != null && !e.tags.isEmpty()) {
+            // same result as for a TagMap with the same content
+            long tags = SEED;
+            for (Entry<String, String> tag : e.tags.entrySet()) {
+                tags = mix(mix(tags, fingerprint(tag.getKey())), fingerprint(tag.getValue()));
+            }
+            h = mix(h, tags);
+        } else {
+            h = mix(h, 0);
+        }
+        if (e instanceof Node) {
+            h = mix(h, ((long) ((Node) e).getLat() << 32) ^ (((Node) e).getLon() & 0xFFFFFFFFL));
+        } else if (e instanceof Way) {
+            List<Node> nodes = ((Way) e).getNodes();
+            h = mix(h, nodes.size());
+            for (Node n : nodes) {
+                h = mix(h, n.getOsmId());
+            }
+        } else if (e instanceof Relation) {
+            List<RelationMember> members = ((Relation) e).getMembers();
+            h = mix(h, members.size());
+            for (RelationMember member : members) {
+                h = mix(h, fingerprint(member.getType()));
+                h = mix(h, member.getRef());
+                h = mix(h, fingerprint(member.getRole()));
+                h = mix(h, member.getElement() != null ? MEMBER_HAS_ELEMENT : 0);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Calculate the fingerprint of tags
+     *
+     * @param keysAndValues alternating keys and values
+     * @return a 64 bit hash
+     */
+    static long fingerprint(@NonNull String[] keysAndValues) {
+        long h = SEED;
+        for (String s : keysAndValues) {
+            h = mix(h, fingerprint(s));
+        }
+        return h;
+    }
+
+    /**
+     * Calculate a 64 bit FNV-1a hash of a String
+     *
+     * @param s the String or null
+     * @return a 64 bit hash
+     */
+    private static long fingerprint(@Nullable String s) {
+        if (s == null) {
+            return NULL_STRING;
+        }
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /**
+     * Mix a value in to a hash
+     *
+     * @param h the current hash
+     * @param value the value
+     * @return the new hash
+     */
+    private static long mix(long h, long value) {
+        h ^= value * 0x9E3779B97F4A7C15L;
+        return Long.rotateLeft(h, 31) * 0xBF58476D1CE4E5B9L;
+    }
+}
@@ -17,4 +17,12 @@ public interface StyleableFeature {
      * @param fp the style to set, null to reset
      */
     public void setStyle(@Nullable FeatureStyle fp);
+
+    /**
+     * Set the rendering style for this way as determined in a specific style epoch
+     * 
+     * @param fp the style to set, null to reset
+     * @param epoch the style epoch the style was determined in
+     */
+    public void setStyle(@Nullable FeatureStyle fp, int epoch);
 }
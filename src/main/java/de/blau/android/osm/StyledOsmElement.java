@@ -1,6 +1,7 @@
 package de.blau.android.osm;
 
 import androidx.annotation.Nullable;
+import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.DataStyle.FeatureStyle;
 
 public abstract class StyledOsmElement extends OsmElement implements StyleableFeature{
@@ -20,6 +21,7 @@ public abstract class StyledOsmElement extends OsmElement implements StyleableFe
     }
 
     protected transient FeatureStyle style = null; // FeatureProfile is currently not serializable
+    private transient int            styleEpoch;   // the style is only valid if this matches the current epoch
     
     @Override
     void updateState(final byte newState) {
@@ -35,11 +37,17 @@ public abstract class StyledOsmElement extends OsmElement implements StyleableFe
 
     @Override
     public FeatureStyle getStyle() {
-        return style;
+        return styleEpoch == DataStyle.getStyleEpoch() ? style : null;
     }
 
     @Override
     public void setStyle(@Nullable FeatureStyle fp) {
+        setStyle(fp, DataStyle.getStyleEpoch());
+    }
+
+    @Override
+    public void setStyle(@Nullable FeatureStyle fp, int epoch) {
         style = fp;
+        styleEpoch = epoch;
     }
 }
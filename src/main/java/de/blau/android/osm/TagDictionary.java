@@ -0,0 +1,167 @@
+package de.blau.android.osm;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Global pool of tag strings and small tag sets
+ *
+ * OSM data contains the same keys and a comparatively small set of values (highway, building=yes, ...) over and over
+ * again, sharing the String instances and the {@link TagMap}s for common combinations of tags reduces the memory
+ * needed for a large amount of data considerably.
+ *
+ * The pools are bounded, when they are full existing entries will still be returned but no new ones added, as this only
+ * affects memory use and not correctness it is not a problem if this happens.
+ *
+ * This class is thread safe.
+ */
+public final class TagDictionary {
+
+    /**
+     * Maximum number of Strings in the pool
+     */
+    static final int MAX_STRINGS = 50000;
+
+    /**
+     * Longer Strings are unlikely to be shared
+     */
+    static final int MAX_STRING_LENGTH = 64;
+
+    /**
+     * Maximum number of shared tag sets
+     */
+    static final int MAX_TAG_SETS = 10000;
+
+    /**
+     * Tag sets with more tags are unlikely to be shared
+     */
+    static final int MAX_SHARED_TAG_SET_SIZE = 3;
+
+    private static final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>(); // NOSONAR
+    private static final ConcurrentHashMap<TagMap, TagMap> tagSets = new ConcurrentHashMap<>(); // NOSONAR
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private TagDictionary() {
+        // private
+    }
+
+    /**
+     * Get the shared instance of a String
+     *
+     * @param s the String
+     * @return the shared instance, or s if it isn't pooled
+     */
+    @Nullable
+    public static String intern(@Nullable String s) {
+        if (s == null || s.length() > MAX_STRING_LENGTH) {
+            return s;
+        }
+        String shared = strings.get(s);
+        if (shared != null) {
+            return shared;
+        }
+        if (strings.size() >= MAX_STRINGS) {
+            return s;
+        }
+        shared = strings.putIfAbsent(s, s);
+        return shared != null ? shared : s;
+    }
+
+    /**
+     * Create a TagMap from a Map
+     *
+     * @param tags the tags, keys must not be null
+     * @return a, potentially shared, TagMap or null if tags is null or empty
+     */
+    @Nullable
+    public static TagMap tags(@Nullable Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return null;
+        }
+        if (tags instanceof TagMap) {
+            return (TagMap) tags; // already immutable
+        }
+        final int size = tags.size();
+        String[] keysAndValues = new String[size * 2];
+        if (tags instanceof SortedMap && ((SortedMap<String, String>) tags).comparator() == null) {
+            int i = 0;
+            for (Entry<String, String> tag : tags.entrySet()) {
+                keysAndValues[i++] = tag.getKey();
+                keysAndValues[i++] = tag.getValue();
+            }
+        } else {
+            String[] keys = tags.keySet().toArray(new String[size]);
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i++) {
+                keysAndValues[i * 2] = keys[i];
+                keysAndValues[i * 2 + 1] = tags.get(keys[i]);
+            }
+        }
+        return share(keysAndValues);
+    }
+
+    /**
+     * Intern the contents of keysAndValues and return a shared TagMap if possible
+     *
+     * @param keysAndValues alternating keys and values sorted by key, will be modified and potentially used in the result
+     * @return a TagMap
+     */
+    @NonNull
+    static TagMap share(@NonNull String[] keysAndValues) {
+        for (int i = 0; i < keysAndValues.length; i++) {
+            keysAndValues[i] = intern(keysAndValues[i]);
+        }
+        TagMap result = new TagMap(keysAndValues);
+        if (keysAndValues.length > MAX_SHARED_TAG_SET_SIZE * 2) {
+            return result;
+        }
+        if (keysAndValues.length == 0) {
+            return TagMap.EMPTY;
+        }
+        TagMap shared = tagSets.get(result);
+        if (shared != null) {
+            return shared;
+        }
+        if (tagSets.size() >= MAX_TAG_SETS) {
+            return result;
+        }
+        shared = tagSets.putIfAbsent(result, result);
+        return shared != null ? shared : result;
+    }
+
+    /**
+     * Empty the pools
+     *
+     * Existing tags are not affected, they simply will not be shared with new ones
+     */
+    public static void clear() {
+        strings.clear();
+        tagSets.clear();
+    }
+
+    /**
+     * Get the number of pooled Strings
+     *
+     * @return the String count
+     */
+    static int stringCount() {
+        return strings.size();
+    }
+
+    /**
+     * Get the number of pooled tag sets
+     *
+     * @return the tag set count
+     */
+    static int tagSetCount() {
+        return tagSets.size();
+    }
+}
@@ -0,0 +1,274 @@
+package de.blau.android.osm;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Compact immutable SortedMap for tags
+ *
+ * Keys and values are stored alternating in a single array sorted by key, lookups use a binary search. As instances
+ * are immutable they can be shared between elements, see {@link TagDictionary}.
+ *
+ * Modifying methods throw an UnsupportedOperationException, as with the unmodifiable view previously returned by
+ * {@link OsmElement#getTags()}.
+ */
+public final class TagMap extends AbstractMap<String, String> implements SortedMap<String, String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final TagMap EMPTY = new TagMap(new String[0]);
+
+    /**
+     * key0, value0, key1, value1 ... sorted by key
+     */
+    private final String[] keysAndValues;
+
+    private transient int                         hash;
+    private transient long                        fingerprint;
+    private transient Set<Entry<String, String>> entrySet;
+
+    /**
+     * Construct a new instance
+     *
+     * @param keysAndValues alternating keys and values sorted by key, the array is not copied
+     */
+    TagMap(@NonNull String[] keysAndValues) {
+        this.keysAndValues = keysAndValues;
+    }
+
+    /**
+     * Get the internal array
+     *
+     * @return the array holding the keys and values
+     */
+    @NonNull
+    String[] getKeysAndValues() {
+        return keysAndValues;
+    }
+
+    /**
+     * Find the index of a key
+     *
+     * @param key the key
+     * @return the index of the key in keysAndValues if found, -(insertion point) - 1 otherwise
+     */
+    private int indexOf(@NonNull String key) {
+        int low = 0;
+        int high = keysAndValues.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            String midKey = keysAndValues[mid * 2];
+            int cmp = midKey == key ? 0 : midKey.compareTo(key); // NOSONAR keys are typically interned
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid * 2;
+            }
+        }
+        return -(low * 2) - 1;
+    }
+
+    /**
+     * Get the position of the first entry with a key greater or equal to key
+     *
+     * @param key the key
+     * @return the position in keysAndValues
+     */
+    private int ceiling(@NonNull String key) {
+        int index = indexOf(key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    @Override
+    public int size() {
+        return keysAndValues.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keysAndValues.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    @Nullable
+    public String get(@Nullable Object key) {
+        if (key instanceof String) {
+            int index = indexOf((String) key);
+            if (index >= 0) {
+                return keysAndValues[index + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null; // natural ordering
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(@NonNull String fromKey, @NonNull String toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return range(ceiling(fromKey), ceiling(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(@NonNull String toKey) {
+        return range(0, ceiling(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(@NonNull String fromKey) {
+        return range(ceiling(fromKey), keysAndValues.length);
+    }
+
+    /**
+     * Get a copy of a range of entries
+     *
+     * As this map is immutable a copy behaves the same as a view would
+     *
+     * @param from start position in keysAndValues, inclusive
+     * @param to end position in keysAndValues, exclusive
+     * @return a TagMap with the entries
+     */
+    @NonNull
+    private TagMap range(int from, int to) {
+        if (from == 0 && to == keysAndValues.length) {
+            return this;
+        }
+        return from >= to ? EMPTY : new TagMap(Arrays.copyOfRange(keysAndValues, from, to));
+    }
+
+    @Override
+    public String firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keysAndValues[0];
+    }
+
+    @Override
+    public String lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keysAndValues[keysAndValues.length - 2];
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < keysAndValues.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (index >= keysAndValues.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(keysAndValues[index], keysAndValues[index + 1]);
+                            index += 2;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return TagMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof TagMap) {
+            String[] other = ((TagMap) o).keysAndValues;
+            if (other.length != keysAndValues.length || hashCode() != o.hashCode()) {
+                return false;
+            }
+            for (int i = 0; i < other.length; i++) {
+                String s = keysAndValues[i];
+                String otherS = other[i];
+                if (s != otherS && (s == null || !s.equals(otherS))) { // NOSONAR
+                    return false;
+                }
+            }
+            return true;
+        }
+        return o instanceof Map && super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && keysAndValues.length > 0) {
+            // same as the Map contract requires
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                String value = keysAndValues[i + 1];
+                h += keysAndValues[i].hashCode() ^ (value == null ? 0 : value.hashCode());
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Get a 64 bit hash of the contents
+     * 
+     * Contrary to {@link #hashCode()} this is order dependent and doesn't rely on String.hashCode, so it can be used to
+     * detect changes with a negligible probability of collisions, see {@link StorageSnapshot}
+     * 
+     * @return a 64 bit hash
+     */
+    long fingerprint() {
+        long h = fingerprint;
+        if (h == 0 && keysAndValues.length > 0) {
+            h = StorageSnapshot.fingerprint(keysAndValues);
+            fingerprint = h;
+        }
+        return h;
+    }
+
+    /**
+     * Replace deserialized instances with shared ones
+     *
+     * @return a shared TagMap with the same content
+     */
+    private Object readResolve() {
+        return TagDictionary.share(keysAndValues);
+    }
+}
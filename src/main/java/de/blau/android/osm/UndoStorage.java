@@ -1,16 +1,29 @@
 package de.blau.android.osm;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import android.content.Context;
 import android.util.Log;
@@ -41,6 +54,11 @@ import de.blau.android.util.Util;
  * Avoid calling functions that change the state from other threads except the main one. This may mess up your menu due
  * to calls to updateIcon. You have been warned.
  * 
+ * Saved states share unchanged tags, way nodes, relation members and parent relations with the previous saved state
+ * of the same element, so only the fields that actually changed use additional memory. If the estimated size of the
+ * undo checkpoints exceeds the memory budget the oldest checkpoints are written to compressed page files and read back
+ * in when they are needed again.
+ * 
  * @author Jan Schejbal
  * @author Simon Poole
  */
@@ -49,6 +67,37 @@ public class UndoStorage implements Serializable {
 
     private static final String DEBUG_TAG = UndoStorage.class.getSimpleName().substring(0, Math.min(23, UndoStorage.class.getSimpleName().length()));
 
+    /**
+     * Default maximum estimated size of the undo checkpoints held in memory
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024L * 1024L;
+
+    /**
+     * Name of the directory for the page files
+     */
+    public static final String SPILL_DIRECTORY = "undo";
+
+    /**
+     * The most recent checkpoints are always kept in memory
+     */
+    static final int MIN_IN_MEMORY = 10;
+
+    /**
+     * Number of checkpoints that are searched for a previous state of an element
+     */
+    private static final int DELTA_LOOKBACK = 32;
+
+    private static final String PAGE_SUFFIX = ".page";
+
+    // rough estimates of the memory used by the saved states
+    private static final int ELEMENT_SIZE   = 80;
+    private static final int TAG_SIZE       = 16;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int MEMBER_SIZE    = 40;
+
+    private static volatile long memoryBudget   = DEFAULT_MEMORY_BUDGET; // NOSONAR
+    private static volatile File spillDirectory = null;                  // NOSONAR
+
     // Original storages for "contains" checks and restoration
     private Storage currentStorage;
     private Storage apiStorage;
@@ -56,6 +105,48 @@ public class UndoStorage implements Serializable {
     private final LinkedList<Checkpoint> undoCheckpoints = new LinkedList<>();
     private final LinkedList<Checkpoint> redoCheckpoints = new LinkedList<>();
 
+    private String pagePrefix;
+    private int    pageCount = 0;
+
+    /**
+     * The OsmElements referenced from each page file, these are held here and not written to the file, so that the
+     * contents can be read back even if the elements have been removed from storage or their ids have changed
+     */
+    private Map<String, OsmElement[]> pageElements = new HashMap<>();
+
+    /**
+     * The OsmElements that have been saved or restored since the last call to {@link #clearChangedElements()}, this
+     * allows saving the data incrementally without comparing everything
+     */
+    private transient Set<OsmElement> changedElements;
+
+    private transient int modificationCount;
+
+    /**
+     * Replacement for OsmElements in the page files
+     */
+    private static final class ElementRef implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        final int index;
+
+        /**
+         * Construct a new reference
+         * 
+         * @param index the index of the element in the table for the page file
+         */
+        ElementRef(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Replacement for the UndoStorage instance in the page files
+     */
+    private enum UndoStorageRef {
+        INSTANCE
+    }
+
     static final Comparator<UndoElement> elementOrder = (ue1, ue2) -> {
         OsmElement e1 = ue1.element;
         OsmElement e2 = ue2.element;
@@ -113,6 +204,10 @@ public class UndoStorage implements Serializable {
     public UndoStorage(@NonNull UndoStorage undoStorage, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
         this.currentStorage = currentStorage;
         this.apiStorage = apiStorage;
+        // page files are shared with the original
+        pagePrefix = undoStorage.getPagePrefix();
+        pageCount = undoStorage.pageCount;
+        getPageElements().putAll(undoStorage.getPageElements());
         for (Checkpoint cp : undoStorage.undoCheckpoints) {
             undoCheckpoints.add(new Checkpoint(cp));
         }
@@ -139,6 +234,24 @@ public class UndoStorage implements Serializable {
         this.apiStorage = apiStorage;
     }
 
+    /**
+     * Set the maximum estimated size of the undo checkpoints that are held in memory
+     * 
+     * @param budget the budget in bytes
+     */
+    public static void setMemoryBudget(long budget) {
+        memoryBudget = budget;
+    }
+
+    /**
+     * Set the directory older checkpoints are written to, if not set all checkpoints are kept in memory
+     * 
+     * @param directory the directory or null
+     */
+    public static void setSpillDirectory(@Nullable File directory) {
+        spillDirectory = directory;
+    }
+
     /**
      * Call to create a new checkpoint. When the user performs an undo operation, the state will be reverted to what it
      * was at the last checkpoint. Checkpoints should NOT be created for changes that are made as part of other
@@ -148,8 +261,13 @@ public class UndoStorage implements Serializable {
      * @param name the name of the checkpoint, used for debugging and display purposes
      */
     public void createCheckpoint(@NonNull String name) {
+        // no changes in progress at this point
+        currentStorage.syncWayNodes();
+        apiStorage.syncWayNodes();
+        modified();
         if (undoCheckpoints.isEmpty() || !undoCheckpoints.getLast().isEmpty()) {
             undoCheckpoints.add(new Checkpoint(name));
+            enforceMemoryBudget();
         } else {
             // Empty checkpoint exists, just rename it
             undoCheckpoints.getLast().setName(name);
@@ -174,6 +292,7 @@ public class UndoStorage implements Serializable {
     public void removeCheckpoint(@NonNull String name, boolean force) {
         if (!undoCheckpoints.isEmpty() && (undoCheckpoints.getLast().isEmpty() || force) && undoCheckpoints.getLast().getName().equals(name)) {
             undoCheckpoints.removeLast();
+            modified();
         }
     }
 
@@ -185,6 +304,8 @@ public class UndoStorage implements Serializable {
      * @param element the element to save
      */
     void save(@NonNull OsmElement element) {
+        invalidateWayNodes(element);
+        changed(element);
         try {
             if (undoCheckpoints.isEmpty()) {
                 Log.e(DEBUG_TAG, "Attempted to save without valid checkpoint - forgot to call createCheckpoint()");
@@ -206,6 +327,8 @@ public class UndoStorage implements Serializable {
      * @param inApiStorage true if the element is in the api storage
      */
     void save(@NonNull OsmElement element, boolean inCurrentStorage, boolean inApiStorage) {
+        invalidateWayNodes(element);
+        changed(element);
         try {
             if (undoCheckpoints.isEmpty()) {
                 Log.e(DEBUG_TAG, "Attempted to save without valid checkpoint - forgot to call createCheckpoint()");
@@ -217,12 +340,73 @@ public class UndoStorage implements Serializable {
         }
     }
 
+    /**
+     * If element is a Way indicate to the storages that its Nodes may change
+     * 
+     * @param element the element that is going to be changed
+     */
+    private void invalidateWayNodes(@NonNull OsmElement element) {
+        if (element instanceof Way) {
+            currentStorage.invalidateWayNodes((Way) element);
+            apiStorage.invalidateWayNodes((Way) element);
+        }
+    }
+
+    /**
+     * Record that an element is going to be changed or has been restored
+     * 
+     * @param element the OsmElement
+     */
+    private void changed(@NonNull OsmElement element) {
+        modified();
+        getChangedElements().add(element);
+    }
+
+    /**
+     * Get the elements that have been saved or restored since the last call to {@link #clearChangedElements()}
+     * 
+     * @return a Set of OsmElement, compared by identity
+     */
+    @NonNull
+    Set<OsmElement> getChangedElements() {
+        if (changedElements == null) {
+            changedElements = Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        return changedElements;
+    }
+
+    /**
+     * Forget the changed elements
+     */
+    void clearChangedElements() {
+        getChangedElements().clear();
+    }
+
+    /**
+     * Indicate that the contents have changed
+     */
+    private void modified() {
+        modificationCount++; // NOSONAR only needs to be different from previous values, not exact
+    }
+
+    /**
+     * Get the modification count
+     * 
+     * This changes every time the contents that would be serialized change
+     * 
+     * @return the modification count
+     */
+    int getModificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Remove the saved state of this element from the last checkpoint
      * 
      * @param element element for which the state should be removed
      */
     public void remove(@NonNull OsmElement element) {
+        modified();
         Checkpoint checkpoint = undoCheckpoints.getLast();
         if (checkpoint != null) {
             checkpoint.remove(element);
@@ -235,8 +419,10 @@ public class UndoStorage implements Serializable {
      * @param element element for which the state should be removed
      */
     public void removeFromAll(@NonNull OsmElement element) {
+        modified();
         for (Checkpoint checkpoint : new ArrayList<>(undoCheckpoints)) {
-            if (checkpoint != null) {
+            if (checkpoint != null && checkpoint.mayContain(element.getName(), element.getOsmId())) {
+                pageIn(checkpoint);
                 checkpoint.remove(element);
                 if (checkpoint.isEmpty()) {
                     undoCheckpoints.remove(checkpoint);
@@ -264,6 +450,7 @@ public class UndoStorage implements Serializable {
             return null;
         }
         Checkpoint checkpoint = undoCheckpoints.getLast();
+        pageIn(checkpoint);
         BoundingBox result = null;
         for (UndoElement ue : checkpoint.elements.values()) {
             BoundingBox box = ue.element.getBounds();
@@ -320,6 +507,7 @@ public class UndoStorage implements Serializable {
      */
     @Nullable
     public BoundingBox getBounds(@NonNull Checkpoint checkpoint) {
+        pageIn(checkpoint);
         BoundingBox result = null;
         for (UndoElement ue : checkpoint.elements.values()) {
             BoundingBox box = ue.getBounds(checkpoint);
@@ -382,10 +570,11 @@ public class UndoStorage implements Serializable {
             Log.w(DEBUG_TAG, "Attempted to undo, but no undo checkpoints available");
             return null;
         }
-        String name = undoCheckpoints.get(checkpoint).getName();
+        Checkpoint undoPoint = undoCheckpoints.get(checkpoint);
+        String name = undoPoint.getName();
         Checkpoint redoPoint = new Checkpoint(name);
-        if (undoCheckpoints.get(checkpoint).restore(redoPoint)) {
-            undoCheckpoints.remove(checkpoint);
+        if (undoPoint.restore(redoPoint)) {
+            undoCheckpoints.remove(undoPoint);
         }
         redoCheckpoints.add(redoPoint);
         return name;
@@ -453,6 +642,344 @@ public class UndoStorage implements Serializable {
         return !redoCheckpoints.isEmpty();
     }
 
+    /**
+     * Get the estimated size of the undo checkpoints that are in memory
+     * 
+     * @return the size in bytes
+     */
+    long getMemoryUsage() {
+        long size = 0;
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            if (!checkpoint.isPagedOut()) {
+                size += checkpoint.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of undo checkpoints that have been written to page files
+     * 
+     * @return the count of paged out checkpoints
+     */
+    int getPagedOutCount() {
+        int count = 0;
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            if (checkpoint.isPagedOut()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the most recent saved state of an element in the last DELTA_LOOKBACK undo checkpoints
+     * 
+     * @param element the element
+     * @return the saved state or null if none was found
+     */
+    @Nullable
+    private UndoElement previousState(@NonNull OsmElement element) {
+        Iterator<Checkpoint> it = undoCheckpoints.descendingIterator();
+        for (int i = 0; i < DELTA_LOOKBACK && it.hasNext(); i++) {
+            UndoElement ue = it.next().elements.get(element);
+            if (ue != null) {
+                return ue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the members of a relation are the same as saved ones
+     * 
+     * @param members the current members
+     * @param saved the saved members
+     * @return true if role, type, id and the referenced element of all members are the same
+     */
+    private static boolean sameMembers(@NonNull List<RelationMember> members, @NonNull List<RelationMember> saved) {
+        if (members.size() != saved.size()) {
+            return false;
+        }
+        for (int i = 0; i < members.size(); i++) {
+            RelationMember member = members.get(i);
+            RelationMember savedMember = saved.get(i);
+            if (!member.equals(savedMember) || member.getElement() != savedMember.getElement()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a key for an element that is unique over all element types
+     * 
+     * @param type the element type
+     * @param osmId the element id
+     * @return a long key
+     */
+    private static long elementKey(@NonNull String type, long osmId) {
+        int typeIndex = Node.NAME.equals(type) ? 0 : (Way.NAME.equals(type) ? 1 : 2);
+        return (osmId << 2) | typeIndex;
+    }
+
+    /**
+     * Get the prefix for the names of our page files, creating it if necessary
+     * 
+     * @return the prefix
+     */
+    @NonNull
+    private String getPagePrefix() {
+        if (pagePrefix == null) {
+            pagePrefix = UUID.randomUUID().toString();
+        }
+        return pagePrefix;
+    }
+
+    /**
+     * Get the tables of OsmElements referenced from the page files, creating it if necessary
+     * 
+     * @return a Map from page file name to element table
+     */
+    @NonNull
+    private Map<String, OsmElement[]> getPageElements() {
+        if (pageElements == null) { // state saved by a previous version
+            pageElements = new HashMap<>();
+        }
+        return pageElements;
+    }
+
+    /**
+     * Write the oldest undo checkpoints to a page file if the checkpoints in memory exceed the memory budget
+     * 
+     * The size is reduced to three quarters of the budget so that this doesn't happen on every new checkpoint, the
+     * last MIN_IN_MEMORY checkpoints are never written out.
+     */
+    private void enforceMemoryBudget() {
+        long size = getMemoryUsage();
+        final long budget = memoryBudget;
+        final File directory = spillDirectory;
+        if (size <= budget || directory == null) {
+            return;
+        }
+        int inMemory = undoCheckpoints.size() - getPagedOutCount();
+        List<Checkpoint> toPageOut = new ArrayList<>();
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            if (size <= budget * 3 / 4 || inMemory <= MIN_IN_MEMORY) {
+                break;
+            }
+            if (!checkpoint.isPagedOut()) {
+                toPageOut.add(checkpoint);
+                size -= checkpoint.size;
+                inMemory--;
+            }
+        }
+        if (!toPageOut.isEmpty()) {
+            pageOut(directory, toPageOut);
+        }
+    }
+
+    /**
+     * Write checkpoints to a new page file and remove their contents from memory
+     * 
+     * OsmElements are replaced by references in to a table that is kept in memory, so that they keep their identity
+     * and can be restored even if they have been removed from storage in the meantime. This UndoStorage is replaced by
+     * a reference too, everything else is written as is.
+     * 
+     * @param directory the directory for the page files
+     * @param checkpoints the checkpoints to write
+     */
+    private void pageOut(@NonNull File directory, @NonNull List<Checkpoint> checkpoints) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(DEBUG_TAG, "Unable to create " + directory.getPath());
+            return;
+        }
+        final String name = getPagePrefix() + "-" + pageCount++ + PAGE_SUFFIX;
+        File file = new File(directory, name);
+        ArrayList<Map<OsmElement, UndoElement>> contents = new ArrayList<>();
+        for (Checkpoint checkpoint : checkpoints) {
+            contents.add(checkpoint.elements);
+        }
+        final List<OsmElement> referenced = new ArrayList<>();
+        final Map<OsmElement, Integer> indices = new IdentityHashMap<>();
+        try (FileOutputStream fileOut = new FileOutputStream(file);
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(fileOut))) {
+                    {
+                        enableReplaceObject(true);
+                    }
+
+                    @Override
+                    protected Object replaceObject(Object obj) throws IOException {
+                        if (obj == UndoStorage.this) {
+                            return UndoStorageRef.INSTANCE;
+                        }
+                        if (obj instanceof OsmElement) {
+                            Integer index = indices.get(obj);
+                            if (index == null) {
+                                index = referenced.size();
+                                indices.put((OsmElement) obj, index);
+                                referenced.add((OsmElement) obj);
+                            }
+                            return new ElementRef(index);
+                        }
+                        return obj;
+                    }
+                }) {
+            out.writeObject(contents);
+        } catch (IOException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "Writing " + name + " failed " + e.getMessage());
+            deletePage(file);
+            return;
+        }
+        getPageElements().put(name, referenced.toArray(new OsmElement[referenced.size()]));
+        for (int i = 0; i < checkpoints.size(); i++) {
+            checkpoints.get(i).setPage(name, i);
+        }
+        modified();
+        Log.i(DEBUG_TAG, "Wrote " + checkpoints.size() + " checkpoints to " + name);
+        deleteUnusedPages(directory);
+    }
+
+    /**
+     * Read the contents of a checkpoint, and of all other checkpoints in the same page file, back in to memory
+     * 
+     * If the page file can't be read, the checkpoints are left as is, callers that need the contents to restore state
+     * need to handle this
+     * 
+     * @param checkpoint the Checkpoint
+     * @return true if the contents are in memory
+     */
+    private boolean pageIn(@NonNull Checkpoint checkpoint) {
+        if (!checkpoint.isPagedOut()) {
+            return true;
+        }
+        final String name = checkpoint.page;
+        List<Checkpoint> inPage = new ArrayList<>();
+        for (Checkpoint cp : undoCheckpoints) {
+            if (name.equals(cp.page)) {
+                inPage.add(cp);
+            }
+        }
+        // on undo the checkpoint has already been removed from the list
+        if (!inPage.contains(checkpoint)) {
+            inPage.add(checkpoint);
+        }
+        final OsmElement[] referenced = getPageElements().get(name);
+        final File directory = spillDirectory;
+        File file = directory != null ? new File(directory, name) : new File(name);
+        try (FileInputStream fileIn = new FileInputStream(file);
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(fileIn))) {
+            {
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) throws IOException {
+                if (obj == UndoStorageRef.INSTANCE) {
+                    return UndoStorage.this;
+                }
+                if (obj instanceof ElementRef) {
+                    int index = ((ElementRef) obj).index;
+                    if (referenced == null || index < 0 || index >= referenced.length) {
+                        throw new IOException("Unresolved reference " + index + " in " + name);
+                    }
+                    return referenced[index];
+                }
+                return obj;
+            }
+        }) {
+            @SuppressWarnings("unchecked")
+            List<Map<OsmElement, UndoElement>> contents = (List<Map<OsmElement, UndoElement>>) in.readObject();
+            for (Checkpoint cp : inPage) {
+                cp.setContents(contents.get(cp.pageIndex));
+            }
+            Log.i(DEBUG_TAG, "Read " + inPage.size() + " checkpoints from " + name);
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "Reading " + name + " failed " + e.getMessage());
+            return false;
+        }
+        getPageElements().remove(name);
+        deletePage(file);
+        modified();
+        return true;
+    }
+
+    /**
+     * Remove a checkpoint that couldn't be read back in, and all older ones, as they can't be restored consistently
+     * any more
+     * 
+     * @param checkpoint the Checkpoint
+     */
+    private void discardUnreadable(@NonNull Checkpoint checkpoint) {
+        // on undo the checkpoint has already been removed from the list
+        int last = undoCheckpoints.contains(checkpoint) ? -1 : undoCheckpoints.size() - 1;
+        for (int i = 0; i < undoCheckpoints.size(); i++) {
+            if (checkpoint.page.equals(undoCheckpoints.get(i).page)) {
+                last = Math.max(last, i);
+            }
+        }
+        Log.e(DEBUG_TAG, "Discarding " + (last + 1) + " undo checkpoints");
+        modified();
+        for (int i = 0; i <= last; i++) {
+            undoCheckpoints.removeFirst().setContents(new HashMap<>());
+        }
+        checkpoint.setContents(new HashMap<>());
+        final File directory = spillDirectory;
+        if (directory != null) {
+            deleteUnusedPages(directory);
+        }
+    }
+
+    /**
+     * Delete page files that are not referenced by any of our checkpoints
+     * 
+     * @param directory the directory containing the page files
+     */
+    private void deleteUnusedPages(@NonNull File directory) {
+        Iterator<String> it = getPageElements().keySet().iterator();
+        while (it.hasNext()) {
+            if (!isPageUsed(it.next())) {
+                it.remove();
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PAGE_SUFFIX) && !isPageUsed(name)) {
+                deletePage(file);
+            }
+        }
+    }
+
+    /**
+     * Check if any of our checkpoints is stored in a page file
+     * 
+     * @param name the name of the page file
+     * @return true if the page file is in use
+     */
+    private boolean isPageUsed(@NonNull String name) {
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            if (name.equals(checkpoint.page)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete a page file logging failure
+     * 
+     * @param file the File
+     */
+    private static void deletePage(@NonNull File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(DEBUG_TAG, "Unable to delete " + file.getPath());
+        }
+    }
+
     /**
      * Represents an undo checkpoint to which the user can revert. Any time an element is <b>first</b> changed since the
      * checkpoint was created, the original element state is saved. (This is ensured by calling {@link #add(OsmElement)}
@@ -463,8 +990,15 @@ public class UndoStorage implements Serializable {
     class Checkpoint implements Serializable {
         private static final long serialVersionUID = 2L;
 
-        private final Map<OsmElement, UndoElement> elements = new HashMap<>();
-        private String                             name;
+        private Map<OsmElement, UndoElement> elements = new HashMap<>();
+        private String                       name;
+        private long                         size = 0;
+
+        // set if the contents have been written to a page file
+        private String page;
+        private int    pageIndex;
+        private long[] pageKeys;
+        private String pageAction;
 
         /**
          * Construct a new checkpoint
@@ -483,6 +1017,11 @@ public class UndoStorage implements Serializable {
         private Checkpoint(@NonNull Checkpoint cp) {
             name = cp.name;
             elements.putAll(cp.elements);
+            size = cp.size;
+            page = cp.page;
+            pageIndex = cp.pageIndex;
+            pageKeys = cp.pageKeys;
+            pageAction = cp.pageAction;
         }
 
         /**
@@ -507,15 +1046,18 @@ public class UndoStorage implements Serializable {
             if (elements.containsKey(element)) {
                 return;
             }
+            UndoElement ue;
             if (element instanceof Node) {
-                elements.put(element, new UndoNode((Node) element, inCurrentStorage, inApiStorage));
+                ue = new UndoNode((Node) element, inCurrentStorage, inApiStorage);
             } else if (element instanceof Way) {
-                elements.put(element, new UndoWay((Way) element, inCurrentStorage, inApiStorage));
+                ue = new UndoWay((Way) element, inCurrentStorage, inApiStorage);
             } else if (element instanceof Relation) {
-                elements.put(element, new UndoRelation((Relation) element, inCurrentStorage, inApiStorage));
+                ue = new UndoRelation((Relation) element, inCurrentStorage, inApiStorage);
             } else {
                 throw new IllegalArgumentException("Unsupported element type");
             }
+            elements.put(element, ue);
+            size += ue.size;
         }
 
         /**
@@ -524,10 +1066,81 @@ public class UndoStorage implements Serializable {
          * @param element the element for which remove the saved state
          */
         private void remove(@NonNull OsmElement element) {
-            if (!elements.containsKey(element)) {
-                return;
+            UndoElement ue = elements.remove(element);
+            if (ue != null) {
+                size -= ue.size;
+            }
+        }
+
+        /**
+         * Check if this checkpoint has been written to a page file
+         * 
+         * @return true if the contents are not in memory
+         */
+        private boolean isPagedOut() {
+            return page != null;
+        }
+
+        /**
+         * Check if this checkpoint might contain a saved state for an element without reading it back in
+         * 
+         * @param type the element type
+         * @param osmId the element id
+         * @return true if a state might be saved for the element
+         */
+        private boolean mayContain(@NonNull String type, long osmId) {
+            return !isPagedOut() || Arrays.binarySearch(pageKeys, elementKey(type, osmId)) >= 0;
+        }
+
+        /**
+         * Replace the contents with a reference to a page file, the contents must have already been written
+         * 
+         * @param file the name of the page file
+         * @param index the index of the checkpoint in the file
+         */
+        private void setPage(@NonNull String file, int index) {
+            pageAction = getAction(null);
+            pageKeys = new long[elements.size()];
+            int i = 0;
+            for (UndoElement ue : elements.values()) {
+                pageKeys[i++] = elementKey(ue.element.getName(), ue.osmId);
             }
-            elements.remove(element);
+            Arrays.sort(pageKeys);
+            page = file;
+            pageIndex = index;
+            elements = new HashMap<>();
+        }
+
+        /**
+         * Replace the reference to the page file with the contents read from it
+         * 
+         * @param contents the saved states
+         */
+        private void setContents(@NonNull Map<OsmElement, UndoElement> contents) {
+            elements = contents;
+            page = null;
+            pageKeys = null;
+            pageAction = null;
+        }
+
+        /**
+         * Get a description of the checkpoint and the elements in it
+         * 
+         * @param ctx an Android Context
+         * @return the name of the Checkpoint plus descriptions of the elements as HTML
+         */
+        @NonNull
+        private String getAction(@Nullable Context ctx) {
+            if (isPagedOut()) {
+                return pageAction;
+            }
+            StringBuilder message = new StringBuilder(getName() + "<br>");
+            for (UndoElement u : elements.values()) {
+                message.append("<small>");
+                message.append(u.getDescription(ctx));
+                message.append("</small><br>");
+            }
+            return message.toString();
         }
 
         /**
@@ -538,6 +1151,10 @@ public class UndoStorage implements Serializable {
          * @return true if the restore was successful
          */
         private boolean restore(@Nullable Checkpoint redoCheckpoint) {
+            if (!pageIn(this)) {
+                discardUnreadable(this);
+                return false;
+            }
             boolean ok = true;
             List<UndoElement> list = new ArrayList<>(elements.values());
             final StorageDelegator delegator = App.getDelegator();
@@ -555,7 +1172,13 @@ public class UndoStorage implements Serializable {
                     if (ue instanceof UndoNode) {
                         restoredNode = true;
                     }
-                    ok = (ue.restore() != null) && ok;
+                    OsmElement restored = ue.restore();
+                    changed(ue.element);
+                    if (restored != null) {
+                        changed(restored);
+                    } else {
+                        ok = false;
+                    }
                 }
                 if (restoredNode) {
                     // zap the bounding box of all ways as their geometry may have changed
@@ -564,7 +1187,11 @@ public class UndoStorage implements Serializable {
                     for (Way way : currentStorage.getWays()) {
                         way.invalidateBoundingBox();
                     }
+                    currentStorage.invalidateWayIndex();
+                    apiStorage.invalidateWayIndex();
                 }
+                currentStorage.syncWayNodes();
+                apiStorage.syncWayNodes();
 
                 delegator.fixupBacklinks();
             }
@@ -575,7 +1202,7 @@ public class UndoStorage implements Serializable {
          * @return true if no elements have yet been stored in this checkpoint
          */
         private boolean isEmpty() {
-            return elements.isEmpty();
+            return !isPagedOut() && elements.isEmpty();
         }
 
         /**
@@ -603,6 +1230,7 @@ public class UndoStorage implements Serializable {
          */
         @NonNull
         public Set<OsmElement> getSavedElements() {
+            pageIn(this);
             return elements.keySet();
         }
 
@@ -622,20 +1250,25 @@ public class UndoStorage implements Serializable {
      * @author Jan
      */
     public abstract class UndoElement implements OsmElementInterface, Serializable {
-        private static final long serialVersionUID = 2L;
+        private static final long serialVersionUID = 3L;
 
         final OsmElement element;
 
-        private final long                    osmId;
-        private final long                    osmVersion;
-        private final byte                    state;
-        private final TreeMap<String, String> tags;
+        private final long                      osmId;
+        private final long                      osmVersion;
+        private final byte                      state;
+        private final SortedMap<String, String> tags;
 
         private final boolean inCurrentStorage;
         private final boolean inApiStorage;
 
         private final List<Relation> parentRelations;
 
+        /**
+         * Estimated memory use of the fields that are not shared with the previous state
+         */
+        int size = ELEMENT_SIZE;
+
         /**
          * Create a new undo object
          * 
@@ -652,9 +1285,21 @@ public class UndoStorage implements Serializable {
             osmId = originalElement.getOsmId();
             osmVersion = originalElement.getOsmVersion();
             state = originalElement.getState();
-            tags = originalElement.getTags().isEmpty() ? new TreeMap<>() : new TreeMap<>(originalElement.getTags());
 
-            parentRelations = element.getParentRelations() != null ? new ArrayList<>(element.getParentRelations()) : null;
+            UndoElement previous = previousState(originalElement);
+            // tags are immutable and can be shared with the element itself
+            tags = TagDictionary.tags(originalElement.getTags());
+            if (tags != null && (previous == null || previous.tags != tags)) {
+                size += tags.size() * TAG_SIZE;
+            }
+
+            List<Relation> parents = element.getParentRelations();
+            if (parents != null && previous != null && parents.equals(previous.parentRelations)) {
+                parentRelations = previous.parentRelations;
+            } else {
+                parentRelations = parents != null ? new ArrayList<>(parents) : null;
+                size += parents != null ? parents.size() * REFERENCE_SIZE : 0;
+            }
         }
 
         /**
@@ -760,7 +1405,7 @@ public class UndoStorage implements Serializable {
         @Override
         @NonNull
         public SortedMap<String, String> getTags() {
-            return Collections.unmodifiableSortedMap(tags);
+            return tags != null ? tags : TagMap.EMPTY;
         }
 
         @Override
@@ -834,7 +1479,11 @@ public class UndoStorage implements Serializable {
         @Override
         public OsmElement restore() {
             OsmElement restored = super.restore();
-
+            if (restored == null) {
+                return null;
+            }
+            currentStorage.invalidateGeometry(restored);
+            apiStorage.invalidateGeometry(restored);
             ((Node) restored).lat = lat;
             ((Node) restored).lon = lon;
             return restored;
@@ -866,7 +1515,7 @@ public class UndoStorage implements Serializable {
      * @see UndoElement
      */
     public class UndoWay extends UndoElement implements WayInterface, Serializable {
-        private static final long serialVersionUID = 3L;
+        private static final long serialVersionUID = 4L;
         private final List<Node>  nodes;
 
         /**
@@ -878,7 +1527,18 @@ public class UndoStorage implements Serializable {
          */
         public UndoWay(@NonNull Way originalWay, boolean inCurrentStorage, boolean inApiStorage) {
             super(originalWay, inCurrentStorage, inApiStorage);
-            nodes = inCurrentStorage || inApiStorage ? new ArrayList<>(originalWay.getNodes()) : new ArrayList<>();
+            if (inCurrentStorage || inApiStorage) {
+                List<Node> wayNodes = originalWay.getNodes();
+                UndoElement previous = previousState(originalWay);
+                if (previous instanceof UndoWay && wayNodes.equals(((UndoWay) previous).nodes)) {
+                    nodes = ((UndoWay) previous).nodes;
+                } else {
+                    nodes = new ArrayList<>(wayNodes);
+                    size += wayNodes.size() * REFERENCE_SIZE;
+                }
+            } else {
+                nodes = Collections.emptyList();
+            }
         }
 
         @Override
@@ -922,6 +1582,10 @@ public class UndoStorage implements Serializable {
                 }
                 // reset the style
                 ((Way) restored).setStyle(null);
+                currentStorage.invalidateGeometry(restored);
+                apiStorage.invalidateGeometry(restored);
+                currentStorage.invalidateWayNodes((Way) restored);
+                apiStorage.invalidateWayNodes((Way) restored);
                 ((Way) restored).invalidateBoundingBox();
             }
             return restored;
@@ -961,7 +1625,7 @@ public class UndoStorage implements Serializable {
     public class UndoRelation extends UndoElement implements RelationInterface, Serializable {
 
         private static final String        DEBUG_TAG        = "UndoRelation";
-        private static final long          serialVersionUID = 1L;
+        private static final long          serialVersionUID = 2L;
         private final List<RelationMember> members;
 
         /**
@@ -973,12 +1637,20 @@ public class UndoStorage implements Serializable {
          */
         public UndoRelation(@NonNull Relation originalRelation, boolean inCurrentStorage, boolean inApiStorage) {
             super(originalRelation, inCurrentStorage, inApiStorage);
-            // deep copy
-            members = new ArrayList<>();
             if (inCurrentStorage || inApiStorage) {
-                for (RelationMember member : originalRelation.members) {
-                    members.add(new RelationMember(member));
+                UndoElement previous = previousState(originalRelation);
+                if (previous instanceof UndoRelation && sameMembers(originalRelation.members, ((UndoRelation) previous).members)) {
+                    members = ((UndoRelation) previous).members;
+                } else {
+                    // deep copy
+                    members = new ArrayList<>();
+                    for (RelationMember member : originalRelation.members) {
+                        members.add(new RelationMember(member));
+                    }
+                    size += members.size() * MEMBER_SIZE;
                 }
+            } else {
+                members = Collections.emptyList();
             }
         }
 
@@ -987,7 +1659,8 @@ public class UndoStorage implements Serializable {
             OsmElement restored = super.restore();
             if (restored != null) {
                 ((Relation) restored).members.clear();
-                for (RelationMember rm : members) {
+                for (RelationMember member : members) {
+                    RelationMember rm = new RelationMember(member); // the saved members may be shared
                     OsmElement rmElement = rm.getElement();
                     if (rmElement instanceof StyleableFeature) {
                         ((StyleableFeature) rmElement).setStyle(null); // style could have been generated from Relation
@@ -1071,13 +1744,7 @@ public class UndoStorage implements Serializable {
         String[] result = new String[checkpoints.size()];
         int i = 0;
         for (Checkpoint checkpoint : checkpoints) {
-            StringBuilder message = new StringBuilder(checkpoint.getName() + "<br>");
-            for (UndoElement u : checkpoint.elements.values()) {
-                message.append("<small>");
-                message.append(u.getDescription(ctx));
-                message.append("</small><br>");
-            }
-            result[i++] = message.toString();
+            result[i++] = checkpoint.getAction(ctx);
         }
         return result;
     }
@@ -1131,7 +1798,11 @@ public class UndoStorage implements Serializable {
         List<UndoElement> result = new ArrayList<>();
         String name = element.getName();
         long osmId = element.getOsmId();
-        for (Checkpoint checkpoint : checkpoints) {
+        for (Checkpoint checkpoint : new ArrayList<>(checkpoints)) {
+            if (!checkpoint.mayContain(name, osmId)) {
+                continue;
+            }
+            pageIn(checkpoint);
             for (UndoElement undoElement : checkpoint.elements.values()) {
                 if (undoElement.element.getName().equals(name) && undoElement.osmId == osmId) {
                     result.add(undoElement);
@@ -1176,7 +1847,11 @@ public class UndoStorage implements Serializable {
         List<Checkpoint> result = new ArrayList<>();
         String name = element.getName();
         long osmId = element.getOsmId();
-        for (Checkpoint checkpoint : checkpoints) {
+        for (Checkpoint checkpoint : new ArrayList<>(checkpoints)) {
+            if (!checkpoint.mayContain(name, osmId)) {
+                continue;
+            }
+            pageIn(checkpoint);
             for (UndoElement undoElement : checkpoint.elements.values()) {
                 if (undoElement.element.getName().equals(name) && undoElement.osmId == osmId) {
                     result.add(checkpoint);
@@ -2,6 +2,7 @@ package de.blau.android.osm;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -12,6 +13,7 @@ import org.xmlpull.v1.XmlSerializer;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import de.blau.android.resources.DataStyle.FeatureStyle;
 import de.blau.android.util.GeoMath;
 import de.blau.android.util.rtree.BoundedObject;
 import de.blau.android.validation.Validator;
@@ -40,6 +42,11 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
      */
     private transient ElementType elementType;
 
+    /**
+     * cached indices of the nodes retained when simplifying the geometry, indexed by zoom level
+     */
+    private transient int[][] simplifiedNodes;
+
     public static final String NAME = "way";
 
     /**
@@ -460,7 +467,8 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
              * From a systematic pov it would be better to get this from a preset, however the current matching preset
              * isn't available here and using the style is far cheaper.
              */
-            if (tags != null && (Tags.VALUE_YES.equals(tags.get(Tags.KEY_AREA)) || (style != null && style.isArea()))) {
+            FeatureStyle currentStyle = getStyle();
+            if (tags != null && (Tags.VALUE_YES.equals(tags.get(Tags.KEY_AREA)) || (currentStyle != null && currentStyle.isArea()))) {
                 return ElementType.AREA;
             }
             return ElementType.CLOSEDWAY;
@@ -559,6 +567,36 @@ public class Way extends StyledOsmElement implements WayInterface, BoundedObject
         left = Integer.MIN_VALUE;
         // changing geometry might chage the type
         elementType = null;
+        simplifiedNodes = null;
+    }
+
+    /**
+     * Get the cached indices of the nodes that are retained when the geometry is simplified for a zoom level
+     * 
+     * @param zoomLevel the zoom level
+     * @return the indices in ascending order or null if not cached
+     */
+    @Nullable
+    public int[] getSimplifiedNodes(int zoomLevel) {
+        int[][] cache = simplifiedNodes;
+        return cache != null && zoomLevel < cache.length ? cache[zoomLevel] : null;
+    }
+
+    /**
+     * Cache the indices of the nodes that are retained when the geometry is simplified for a zoom level
+     * 
+     * The cache is cleared when the geometry is invalidated
+     * 
+     * @param zoomLevel the zoom level
+     * @param indices the indices in ascending order
+     */
+    public void setSimplifiedNodes(int zoomLevel, @NonNull int[] indices) {
+        int[][] cache = simplifiedNodes;
+        if (cache == null || zoomLevel >= cache.length) {
+            cache = cache == null ? new int[zoomLevel + 1][] : Arrays.copyOf(cache, zoomLevel + 1);
+        }
+        cache[zoomLevel] = indices;
+        simplifiedNodes = cache;
     }
 
     /**
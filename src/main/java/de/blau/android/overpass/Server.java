@@ -26,6 +26,7 @@ import de.blau.android.geocode.Search.SearchResult;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.OsmParser;
+import de.blau.android.osm.OsmStreamParser;
 import de.blau.android.osm.Storage;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.ViewBox;
@@ -254,7 +255,7 @@ public final class Server {
 
         Response response = client.newCall(request).execute();
         if (response.isSuccessful()) {
-            final OsmParser osmParser = new OsmParser();
+            final OsmParser osmParser = new OsmStreamParser();
             try (ResponseBody responseBody = response.body(); InputStream in = responseBody.byteStream()) {
                 osmParser.start(in);
             } catch (ParserConfigurationException pcex) {
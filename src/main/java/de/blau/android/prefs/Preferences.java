@@ -20,6 +20,7 @@ import de.blau.android.Map;
 import de.blau.android.R;
 import de.blau.android.contract.Urls;
 import de.blau.android.osm.Server;
+import de.blau.android.osm.UndoStorage;
 import de.blau.android.presets.Preset;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.TileLayerSource.Category;
@@ -54,8 +55,10 @@ public class Preferences {
     private final String      mapOrientation;
     private int               gpsInterval;
     private float             gpsDistance;
+    private int               gpsCompressionTolerance;
     private float             maxStrokeWidth;
     private int               tileCacheSize;                 // in MB
+    private int               mvtRasterCacheSize;            // in MB
     private final boolean     preferRemovableStorage;
     private int               mapillaryCacheSize;            // in MB
     private int               downloadRadius;                // in m
@@ -139,6 +142,7 @@ public class Preferences {
     private final int         minCircleNodes;
     private final double      maxCircleSegment;
     private final double      minCircleSegment;
+    private final int         undoMemoryBudget;
 
     public static final String DEFAULT_MAP_STYLE     = "Color Round Nodes";
     public static final String DEFAULT_PEN_MAP_STYLE = "Pen Round Nodes";
@@ -174,6 +178,7 @@ public class Preferences {
         maxStrokeWidth = getIntPref(R.string.config_maxStrokeWidth_key, 16);
 
         tileCacheSize = getIntPref(R.string.config_tileCacheSize_key, 100);
+        mvtRasterCacheSize = getIntPref(R.string.config_mvtRasterCacheSize_key, 0);
         preferRemovableStorage = prefs.getBoolean(r.getString(R.string.config_preferRemovableStorage_key), true);
         mapillaryCacheSize = getIntPref(R.string.config_mapillaryCacheSize_key, de.blau.android.layer.mapillary.MapillaryOverlay.MAPILLARY_DEFAULT_CACHE_SIZE);
 
@@ -209,6 +214,7 @@ public class Preferences {
         gpsTcpSource = prefs.getString(r.getString(R.string.config_gps_source_tcp_key), "127.0.0.1:1958");
         gpsDistance = getIntPref(R.string.config_gps_distance_key, 2);
         gpsInterval = getIntPref(R.string.config_gps_interval_key, 1000);
+        gpsCompressionTolerance = getIntPref(R.string.config_gps_compression_key, 0);
         gpxLabelSource = prefs.getString(r.getString(R.string.config_gpx_label_source_key), r.getString(R.string.gpx_automatic));
         gpxSymbol = prefs.getString(r.getString(R.string.config_gpx_symbol_key), TriangleDown.NAME);
         gpxLabelMinZoom = getIntPref(R.string.config_gpx_label_min_zoom_key, Map.SHOW_LABEL_LIMIT);
@@ -329,6 +335,7 @@ public class Preferences {
         minCircleNodes = getIntPref(R.string.config_minCircleNodes_key, 6);
         maxCircleSegment = getFloatFromStringPref(R.string.config_maxCircleSegment_key, 2.0f);
         minCircleSegment = getFloatFromStringPref(R.string.config_minCircleSegment_key, 0.5f);
+        undoMemoryBudget = getIntPref(R.string.config_undoMemoryBudget_key, (int) (UndoStorage.DEFAULT_MEMORY_BUDGET / (1024L * 1024L)));
     }
 
     /**
@@ -347,6 +354,15 @@ public class Preferences {
         return tileCacheSize;
     }
 
+    /**
+     * Get the size of the in memory cache for rasterized vector tiles
+     * 
+     * @return the size of the cache in MB, 0 if rasterizing is turned off
+     */
+    public int getMvtRasterCacheSize() {
+        return mvtRasterCacheSize;
+    }
+
     /**
      * Check if we should prefer removable storage over built in for tiles
      * 
@@ -605,6 +621,15 @@ public class Preferences {
         gpsDistance = distance;
     }
 
+    /**
+     * Get the configured tolerance for compressing recorded tracks
+     * 
+     * @return the maximum distance of a dropped point from the recorded track in meters, 0 if compression is off
+     */
+    public int getGpsCompressionTolerance() {
+        return gpsCompressionTolerance;
+    }
+
     /**
      * Check if we are allowed to fall back to Network locations
      * 
@@ -1929,6 +1954,15 @@ public class Preferences {
         return minCircleSegment;
     }
 
+    /**
+     * Get the maximum amount of memory the undo checkpoints should use before older ones are written to storage
+     * 
+     * @return the budget in MB, at least 1
+     */
+    public int getUndoMemoryBudget() {
+        return Math.max(1, undoMemoryBudget);
+    }
+
     /**
      * Get an integer valued preference from a string pref
      * 
@@ -104,6 +104,9 @@ public class Preset implements Serializable {
     //
     private static final String DEBUG_TAG = Preset.class.getSimpleName().substring(0, Math.min(23, Preset.class.getSimpleName().length()));
 
+    /** cache for findBestMatch results */
+    private static final PresetMatchCache matchCache = new PresetMatchCache(PresetMatchCache.DEFAULT_SIZE); // NOSONAR
+
     /** The directory containing all data (xml, MRU data, images) about this preset */
     private File directory;
 
@@ -551,6 +554,7 @@ public class Preset implements Serializable {
      * @param currentItem the item
      */
     void addToIndices(@NonNull PresetItem currentItem) {
+        matchCache.invalidate(this);
         final StringWithDescription dummy = new StringWithDescription("");
         for (Entry<String, PresetField> e : currentItem.getFields().entrySet()) {
             PresetField field = e.getValue();
@@ -604,6 +608,7 @@ public class Preset implements Serializable {
      * @param item the PresetItem
      */
     public void deleteItem(@NonNull PresetItem item) {
+        matchCache.invalidate(this);
         for (String key : searchIndex.getKeys()) {
             searchIndex.removeItem(key, item);
         }
@@ -1118,13 +1123,57 @@ public class Preset implements Serializable {
     @Nullable
     public static PresetItem findBestMatch(@Nullable Preset[] presets, @Nullable Map<String, String> tags, @Nullable List<String> regions,
             @Nullable ElementType elementType, boolean useAddressKeys, @Nullable Map<String, String> ignoreTags) {
-        int bestMatchStrength = 0;
-        PresetItem bestMatch = null;
-
         if (tags == null || presets == null) {
             Log.e(DEBUG_TAG, "findBestMatch " + (tags == null ? "tags null" : "presets null"));
             return null;
         }
+        return matchCache.get(presets, tags, regions, elementType, useAddressKeys, ignoreTags,
+                () -> findBestMatchUncached(presets, tags, regions, elementType, useAddressKeys, ignoreTags));
+    }
+
+    /**
+     * Invalidate the cached results of findBestMatch
+     * 
+     * This needs to be called when presets are reloaded or changed
+     */
+    public static void invalidateMatchCache() {
+        matchCache.clear();
+    }
+
+    /**
+     * Get the number of findBestMatch calls that were served from the cache
+     * 
+     * @return the hit count
+     */
+    public static long getMatchCacheHits() {
+        return matchCache.getHits();
+    }
+
+    /**
+     * Get the number of findBestMatch calls that had to be computed
+     * 
+     * @return the miss count
+     */
+    public static long getMatchCacheMisses() {
+        return matchCache.getMisses();
+    }
+
+    /**
+     * Finds the preset item best matching a certain tag set without using the cache
+     * 
+     * @param presets presets presets to match against
+     * @param tags tags to check against (i.e. tags of a map element)
+     * @param regions if not null this will be taken in to account wrt scoring
+     * @param elementType if not null the ElementType will be considered
+     * @param useAddressKeys use addr: keys if true
+     * @param ignoreTags Map of keys to ignore
+     * @return a preset or null if none found
+     */
+    @Nullable
+    static PresetItem findBestMatchUncached(@NonNull Preset[] presets, @NonNull Map<String, String> tags, @Nullable List<String> regions,
+            @Nullable ElementType elementType, boolean useAddressKeys, @Nullable Map<String, String> ignoreTags) {
+        int bestMatchStrength = 0;
+        PresetItem bestMatch = null;
 
         // Build candidate list
         Set<PresetItem> possibleMatches = new LinkedHashSet<>();
@@ -0,0 +1,242 @@
+package de.blau.android.presets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.OsmElement.ElementType;
+import de.blau.android.osm.TagDictionary;
+
+/**
+ * Bounded LRU cache for the results of {@link Preset#findBestMatch(Preset[], Map, List, ElementType, boolean, Map)}
+ *
+ * Rendering and validation call findBestMatch for every tagged element, but the number of distinct tag sets is far
+ * smaller than the number of elements.
+ *
+ * This is thread safe.
+ */
+class PresetMatchCache {
+
+    static final int DEFAULT_SIZE = 5000;
+
+    /**
+     * Marker for cached lookups that didn't return a match
+     */
+    private static final Object NO_MATCH = new Object();
+
+    /**
+     * Key for the cache, tags are stored as an immutable map
+     */
+    private static final class Key {
+        final Preset[]            presets;
+        final Map<String, String> tags;
+        final List<String>        regions;
+        final ElementType         elementType;
+        final boolean             useAddressKeys;
+        final Map<String, String> ignoreTags;
+        final int                 hash;
+
+        /**
+         * Construct a new key
+         *
+         * @param presets the presets
+         * @param tags the tags
+         * @param regions any regions or null
+         * @param elementType the ElementType or null
+         * @param useAddressKeys use addr: keys if true
+         * @param ignoreTags Map of keys to ignore or null
+         */
+        Key(@NonNull Preset[] presets, @Nullable Map<String, String> tags, @Nullable List<String> regions, @Nullable ElementType elementType,
+                boolean useAddressKeys, @Nullable Map<String, String> ignoreTags) {
+            this.presets = presets;
+            this.tags = tags;
+            this.regions = regions;
+            this.elementType = elementType;
+            this.useAddressKeys = useAddressKeys;
+            this.ignoreTags = ignoreTags;
+            int h = Arrays.hashCode(presets);
+            h = 31 * h + (tags == null ? 0 : tags.hashCode());
+            h = 31 * h + (regions == null ? 0 : regions.hashCode());
+            h = 31 * h + (elementType == null ? 0 : elementType.hashCode());
+            h = 31 * h + (useAddressKeys ? 1 : 0);
+            hash = 31 * h + (ignoreTags == null ? 0 : ignoreTags.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            // Preset doesn't override equals so this compares the Preset instances
+            return hash == other.hash && useAddressKeys == other.useAddressKeys && elementType == other.elementType && Arrays.equals(presets, other.presets)
+                    && equalsOrNull(tags, other.tags) && equalsOrNull(regions, other.regions) && equalsOrNull(ignoreTags, other.ignoreTags);
+        }
+
+        /**
+         * Null safe equals
+         *
+         * @param o1 first Object
+         * @param o2 second Object
+         * @return true if both are null or equal
+         */
+        private static boolean equalsOrNull(@Nullable Object o1, @Nullable Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        /**
+         * Get a copy of this key that will not be affected by changes to the arguments it was created with
+         *
+         * @return a new Key
+         */
+        @NonNull
+        Key immutableCopy() {
+            return new Key(presets.clone(), TagDictionary.tags(tags), regions == null ? null : new ArrayList<>(regions), elementType, useAddressKeys,
+                    ignoreTags == null ? null : TagDictionary.tags(ignoreTags));
+        }
+    }
+
+    /**
+     * Interface for computing the value if not cached
+     */
+    interface Matcher {
+        /**
+         * Find the best match
+         *
+         * @return a PresetItem or null
+         */
+        @Nullable
+        PresetItem match();
+    }
+
+    private final int              maxSize;
+    private final Map<Key, Object> cache;
+    private final Set<Preset>      cachedPresets = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long                   hits       = 0;
+    private long                   misses     = 0;
+    private int                    generation = 0;
+
+    /**
+     * Construct a new cache
+     *
+     * @param maxSize the maximum number of entries
+     */
+    PresetMatchCache(int maxSize) {
+        this.maxSize = maxSize;
+        cache = new LinkedHashMap<Key, Object>(16, 0.75f, true) { // NOSONAR
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > PresetMatchCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the best match from the cache or compute it
+     *
+     * @param presets presets to match against
+     * @param tags tags to check against
+     * @param regions if not null this will be taken in to account wrt scoring
+     * @param elementType if not null the ElementType will be considered
+     * @param useAddressKeys use addr: keys if true
+     * @param ignoreTags Map of keys to ignore
+     * @param matcher the Matcher to use if the result isn't cached
+     * @return a PresetItem or null
+     */
+    @Nullable
+    PresetItem get(@NonNull Preset[] presets, @NonNull Map<String, String> tags, @Nullable List<String> regions, @Nullable ElementType elementType,
+            boolean useAddressKeys, @Nullable Map<String, String> ignoreTags, @NonNull Matcher matcher) {
+        Key key = new Key(presets, tags.isEmpty() ? null : tags, regions, elementType, useAddressKeys,
+                ignoreTags == null || ignoreTags.isEmpty() ? null : ignoreTags);
+        int startGeneration;
+        synchronized (this) {
+            Object result = cache.get(key);
+            if (result != null) {
+                hits++;
+                return result == NO_MATCH ? null : (PresetItem) result;
+            }
+            misses++;
+            startGeneration = generation;
+        }
+        PresetItem match = matcher.match();
+        synchronized (this) {
+            if (startGeneration == generation) { // don't add results if the cache was invalidated in the meantime
+                cache.put(key.immutableCopy(), match == null ? NO_MATCH : match);
+                for (Preset p : presets) {
+                    if (p != null) {
+                        cachedPresets.add(p);
+                    }
+                }
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Empty the cache
+     */
+    synchronized void clear() {
+        generation++;
+        if (!cache.isEmpty()) {
+            cache.clear();
+        }
+        cachedPresets.clear();
+    }
+
+    /**
+     * Empty the cache if there are results for preset in it
+     * 
+     * @param preset the Preset that has changed
+     */
+    synchronized void invalidate(@NonNull Preset preset) {
+        if (cachedPresets.contains(preset)) {
+            clear();
+        } else {
+            generation++; // a match could be in progress
+        }
+    }
+
+    /**
+     * Get the number of cached results
+     *
+     * @return the number of entries
+     */
+    synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of lookups that were served from the cache
+     *
+     * @return the hit count
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that needed to be computed
+     *
+     * @return the miss count
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+}
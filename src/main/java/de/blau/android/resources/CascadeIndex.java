@@ -0,0 +1,180 @@
+package de.blau.android.resources;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.resources.DataStyle.FeatureStyle;
+
+/**
+ * Index over the cascaded styles of a FeatureStyle
+ * 
+ * Every style is filed under one of its tags, preferably one with a fixed value, so that only the styles filed under
+ * a tag the element actually has need to be checked. Styles are numbered in their original order and the lowest
+ * numbered match is returned, so the result is the same as that of checking all styles in order.
+ */
+final class CascadeIndex {
+
+    private static final int LINEAR_LIMIT = 4; // below this a linear scan is cheaper
+
+    private final FeatureStyle[]                  styles;
+    private final Map<String, Map<String, int[]>> byValue;
+    private final Map<String, int[]>              byKey;
+    private final int[]                           always;
+
+    /**
+     * Build an index for a list of styles
+     * 
+     * @param cascadedStyles the styles in matching order
+     */
+    CascadeIndex(@NonNull List<FeatureStyle> cascadedStyles) {
+        styles = cascadedStyles.toArray(new FeatureStyle[cascadedStyles.size()]);
+        if (styles.length <= LINEAR_LIMIT) {
+            byValue = null;
+            byKey = null;
+            always = null;
+            return;
+        }
+        Map<String, Map<String, List<Integer>>> tempByValue = new HashMap<>();
+        Map<String, List<Integer>> tempByKey = new HashMap<>();
+        List<Integer> tempAlways = new ArrayList<>();
+        for (int i = 0; i < styles.length; i++) {
+            String key = null;
+            String value = null;
+            for (Entry<String, String> tag : styles[i].tags.entrySet()) {
+                if (!DataStyle.WILDCARD.equals(tag.getValue())) {
+                    key = tag.getKey();
+                    value = tag.getValue();
+                    break;
+                }
+                if (key == null) {
+                    key = tag.getKey();
+                }
+            }
+            if (key == null) {
+                tempAlways.add(i);
+            } else if (value == null) {
+                add(tempByKey, key, i);
+            } else {
+                Map<String, List<Integer>> values = tempByValue.get(key);
+                if (values == null) {
+                    values = new HashMap<>();
+                    tempByValue.put(key, values);
+                }
+                add(values, value, i);
+            }
+        }
+        byValue = new HashMap<>();
+        for (Entry<String, Map<String, List<Integer>>> entry : tempByValue.entrySet()) {
+            byValue.put(entry.getKey(), toArrays(entry.getValue()));
+        }
+        byKey = toArrays(tempByKey);
+        always = toArray(tempAlways);
+    }
+
+    /**
+     * Add an index to the list stored under a key
+     * 
+     * @param map the target Map
+     * @param key the key
+     * @param index the index to add
+     */
+    private static void add(@NonNull Map<String, List<Integer>> map, @NonNull String key, int index) {
+        List<Integer> indices = map.get(key);
+        if (indices == null) {
+            indices = new ArrayList<>();
+            map.put(key, indices);
+        }
+        indices.add(index);
+    }
+
+    /**
+     * Convert all the values of a Map to arrays
+     * 
+     * @param map the Map
+     * @return a new Map with int arrays as values
+     */
+    @NonNull
+    private static Map<String, int[]> toArrays(@NonNull Map<String, List<Integer>> map) {
+        Map<String, int[]> result = new HashMap<>();
+        for (Entry<String, List<Integer>> entry : map.entrySet()) {
+            result.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Convert a List of Integer to an array
+     * 
+     * @param list the List
+     * @return an int array
+     */
+    @NonNull
+    private static int[] toArray(@NonNull List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Find the first style that matches
+     * 
+     * @param tags tags from the element we are trying to match
+     * @param closed true if the element is a way and closed
+     * @return the first matching style or null if none matches
+     */
+    @Nullable
+    FeatureStyle firstMatch(@NonNull SortedMap<String, String> tags, boolean closed) {
+        if (byValue == null) {
+            for (FeatureStyle style : styles) {
+                if (style.matches(tags, closed)) {
+                    return style;
+                }
+            }
+            return null;
+        }
+        int best = first(always, styles.length, tags, closed);
+        for (Entry<String, String> tag : tags.entrySet()) {
+            Map<String, int[]> values = byValue.get(tag.getKey());
+            if (values != null) {
+                int[] candidates = values.get(tag.getValue());
+                if (candidates != null) {
+                    best = first(candidates, best, tags, closed);
+                }
+            }
+            int[] candidates = byKey.get(tag.getKey());
+            if (candidates != null) {
+                best = first(candidates, best, tags, closed);
+            }
+        }
+        return best < styles.length ? styles[best] : null;
+    }
+
+    /**
+     * Find the first matching style in a list of candidates that comes before the current best match
+     * 
+     * @param candidates indices of candidate styles in ascending order
+     * @param best index of the current best match
+     * @param tags tags from the element we are trying to match
+     * @param closed true if the element is a way and closed
+     * @return the index of the new best match
+     */
+    private int first(@NonNull int[] candidates, int best, @NonNull SortedMap<String, String> tags, boolean closed) {
+        for (int i : candidates) {
+            if (i >= best) {
+                break;
+            }
+            if (styles[i].matches(tags, closed)) {
+                return i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,101 @@
+package de.blau.android.resources;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.resources.TileLayerSource.Provider;
+import de.blau.android.resources.TileLayerSource.Provider.CoverageArea;
+import de.blau.android.util.rtree.PackedRTree;
+
+/**
+ * Spatial index over the coverage areas of a set of imagery sources
+ * 
+ * The bounding boxes of all coverage areas are stored in a packed R-tree, each entry refers back to the source the area
+ * belongs to. Sources without any coverage information cover everything and are kept in a separate list. The result of
+ * a query is the same as calling TileLayerSource#covers on every source, but only the areas that are actually close to
+ * the query box need to be looked at.
+ * 
+ * The index is not updated if the sources change, it needs to be rebuilt instead.
+ */
+class CoverageIndex {
+
+    private final PackedRTree           tree;
+    private final TileLayerSource[]     itemSources;
+    private final List<TileLayerSource> global = new ArrayList<>();
+
+    /**
+     * Build an index for some sources
+     * 
+     * @param sources the sources to index
+     */
+    CoverageIndex(@NonNull Collection<TileLayerSource> sources) {
+        int[] boxes = new int[4 * sources.size()];
+        TileLayerSource[] items = new TileLayerSource[sources.size()];
+        int count = 0;
+        for (TileLayerSource source : sources) {
+            if (isGlobal(source)) {
+                global.add(source);
+                continue;
+            }
+            for (Provider provider : source.getProviders()) {
+                for (CoverageArea area : provider.getCoverageAreas()) {
+                    if (count == items.length) {
+                        int capacity = Math.max(16, 2 * count);
+                        items = Arrays.copyOf(items, capacity);
+                        boxes = Arrays.copyOf(boxes, 4 * capacity);
+                    }
+                    BoundingBox box = area.getBoundingBox(); // NOSONAR can't be null here
+                    int offset = 4 * count;
+                    boxes[offset] = box.getLeft();
+                    boxes[offset + 1] = box.getBottom();
+                    boxes[offset + 2] = box.getRight();
+                    boxes[offset + 3] = box.getTop();
+                    items[count++] = source;
+                }
+            }
+        }
+        tree = new PackedRTree(boxes, count);
+        itemSources = items;
+    }
+
+    /**
+     * Check if a source doesn't have coverage information that restricts it
+     * 
+     * @param source the source
+     * @return true if the source covers everything
+     */
+    private static boolean isGlobal(@NonNull TileLayerSource source) {
+        List<Provider> providers = source.getProviders();
+        if (providers.isEmpty()) {
+            return true;
+        }
+        for (Provider provider : providers) {
+            List<CoverageArea> areas = provider.getCoverageAreas();
+            if (areas == null || areas.isEmpty()) {
+                return true;
+            }
+            for (CoverageArea area : areas) {
+                if (area.getBoundingBox() == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add all sources that cover a BoundingBox to a Set
+     * 
+     * @param box the BoundingBox
+     * @param result the Set the sources are added to
+     */
+    void query(@NonNull BoundingBox box, @NonNull Set<TileLayerSource> result) {
+        result.addAll(global);
+        tree.query(box, item -> result.add(itemSources[item]));
+    }
+}
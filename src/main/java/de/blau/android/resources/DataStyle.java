@@ -18,6 +18,7 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -176,6 +177,8 @@ public final class DataStyle extends DefaultHandler {
     public static final float DEFAULT_GPX_STROKE_WIDTH     = 4.0f;
     public static final float DEFAULT_GEOJSON_STROKE_WIDTH = 3.0f;
 
+    static final String WILDCARD = "*";
+
     public class FeatureStyle {
 
         final Map<String, String> tags;
@@ -199,7 +202,8 @@ public final class DataStyle extends DefaultHandler {
         private int               labelZoomLimit = Integer.MAX_VALUE;
         private int               textColor;
 
-        List<FeatureStyle> cascadedStyles = null;
+        List<FeatureStyle>            cascadedStyles = null;
+        private volatile CascadeIndex cascadeIndex   = null;
 
         class DashPath {
             float[] intervals;
@@ -220,7 +224,7 @@ public final class DataStyle extends DefaultHandler {
                 if (kv.length == 2) {
                     tags.put(kv[0], kv[1]);
                 } else if (kv.length == 1) {
-                    tags.put(kv[0], "*");
+                    tags.put(kv[0], WILDCARD);
                 }
             }
             setArea(false);
@@ -290,6 +294,22 @@ public final class DataStyle extends DefaultHandler {
                 cascadedStyles = new ArrayList<>();
             }
             cascadedStyles.add(style);
+            cascadeIndex = null;
+        }
+
+        /**
+         * Get the index over the cascaded styles, building it if necessary
+         * 
+         * @return a CascadeIndex
+         */
+        @NonNull
+        CascadeIndex getCascadeIndex() {
+            CascadeIndex index = cascadeIndex;
+            if (index == null) {
+                index = new CascadeIndex(cascadedStyles);
+                cascadeIndex = index;
+            }
+            return index;
         }
 
         /**
@@ -490,13 +510,24 @@ public final class DataStyle extends DefaultHandler {
                     return false;
                 }
                 String tagValue = tag.getValue();
-                if (!tagValue.equals(v) && !"*".equals(tagValue)) {
+                if (!tagValue.equals(v) && !WILDCARD.equals(tagValue)) {
                     return false;
                 }
             }
             return true;
         }
 
+        /**
+         * Match the provided tags and closed status with this style
+         * 
+         * @param elementTags the provided tags
+         * @param isClosed true if the element is a way and closed
+         * @return true if the style applies
+         */
+        boolean matches(@NonNull SortedMap<String, String> elementTags, boolean isClosed) {
+            return (closed == null || closed == isClosed) && match(elementTags);
+        }
+
         /**
          * Get the minimum zoom level objects with this style should be visible from on
          * 
@@ -748,6 +779,7 @@ public final class DataStyle extends DefaultHandler {
     private FeatureStyle               relationStyles;
 
     private static DataStyle                  currentStyle;
+    private static final AtomicInteger        styleEpoch      = new AtomicInteger();
     private static HashMap<String, DataStyle> availableStyles = new HashMap<>();
 
     public static final float NODE_OVERLAP_TOLERANCE_VALUE = 10f;
@@ -1484,7 +1516,10 @@ public final class DataStyle extends DefaultHandler {
     public static boolean switchTo(@NonNull String n) {
         DataStyle p = getStyle(n);
         if (p != null) {
-            currentStyle = p;
+            if (p != currentStyle) {
+                currentStyle = p;
+                invalidateStyles();
+            }
             Log.i(DEBUG_TAG, "Switching to " + n);
             return true;
         }
@@ -1944,6 +1979,7 @@ public final class DataStyle extends DefaultHandler {
         DataStyle p = new DataStyle(ctx);
         p.name = BUILTIN_STYLE_NAME;
         currentStyle = p;
+        invalidateStyles();
         availableStyles.put(p.getName(), p);
     }
 
@@ -1953,6 +1989,25 @@ public final class DataStyle extends DefaultHandler {
     public static void reset() {
         availableStyles.clear();
         currentStyle = null;
+        invalidateStyles();
+    }
+
+    /**
+     * Get the current style epoch
+     * 
+     * Styles cached in elements are only valid if they were set in the current epoch
+     * 
+     * @return the current style epoch
+     */
+    public static int getStyleEpoch() {
+        return styleEpoch.get();
+    }
+
+    /**
+     * Invalidate all styles cached in elements
+     */
+    public static void invalidateStyles() {
+        styleEpoch.incrementAndGet();
     }
 
     /**
@@ -2029,22 +2084,36 @@ public final class DataStyle extends DefaultHandler {
         final boolean styleable = element instanceof StyleableFeature;
         FeatureStyle style = styleable ? ((StyleableFeature) element).getStyle() : null;
         if (style == null) {
-            if (element instanceof Way) {
-                style = matchRecursive(currentStyle.wayStyles, element.getTags(), ((Way) element).isClosed());
-            } else if (element instanceof Node) {
-                style = matchRecursive(currentStyle.nodeStyles, element.getTags(), false);
-            } else {
-                style = matchRecursive(currentStyle.relationStyles, element.getTags(), false);
-            }
+            // read the epoch first so that a concurrent style change will cause the result to be discarded
+            final int epoch = styleEpoch.get();
+            style = resolveStyle(element);
             if (styleable) {
-                ((StyleableFeature) element).setStyle(style);
+                ((StyleableFeature) element).setStyle(style, epoch);
             }
         }
         return style;
     }
 
     /**
-     * Recursively traverse the styles and try to find a match
+     * Determine the style to use for the element without caching it in the object
+     * 
+     * @param element the OsmElement we need the style for
+     * @param <T> an OsmElement
+     * @return the style
+     */
+    @NonNull
+    public static <T extends OsmElement> FeatureStyle resolveStyle(@NonNull final T element) {
+        final DataStyle current = currentStyle;
+        if (element instanceof Way) {
+            return matchCascaded(current.wayStyles, element.getTags(), ((Way) element).isClosed());
+        } else if (element instanceof Node) {
+            return matchCascaded(current.nodeStyles, element.getTags(), false);
+        }
+        return matchCascaded(current.relationStyles, element.getTags(), false);
+    }
+
+    /**
+     * Traverse the styles and try to find a match
      * 
      * @param style the style
      * @param tags tags from the element we are trying to match
@@ -2052,14 +2121,14 @@ public final class DataStyle extends DefaultHandler {
      * @return the best matching style
      */
     @NonNull
-    private static FeatureStyle matchRecursive(@NonNull FeatureStyle style, @NonNull SortedMap<String, String> tags, boolean closed) {
+    static FeatureStyle matchCascaded(@NonNull FeatureStyle style, @NonNull SortedMap<String, String> tags, boolean closed) {
         FeatureStyle result = style;
-        if (style.cascadedStyles != null) {
-            for (FeatureStyle s : style.cascadedStyles) {
-                if ((s.closed == null || s.closed == closed) && s.match(tags)) {
-                    return matchRecursive(s, tags, closed);
-                }
+        while (result.cascadedStyles != null) {
+            FeatureStyle match = result.getCascadeIndex().firstMatch(tags, closed);
+            if (match == null) {
+                break;
             }
+            result = match;
         }
         return result;
     }
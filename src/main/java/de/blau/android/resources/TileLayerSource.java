@@ -17,12 +17,15 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -507,6 +510,18 @@ public class TileLayerSource implements Serializable {
     private static List<String>                 imageryBlacklist     = null;
     private static boolean                      fullyPopulated       = false;
 
+    private static final int                   IDS_CACHE_SIZE     = 16;
+    private static CoverageIndex               backgroundCoverage = null;
+    private static CoverageIndex               overlayCoverage    = null;
+    private static final Map<IdsKey, String[]> idsCache           = new LinkedHashMap<IdsKey, String[]>(IDS_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<IdsKey, String[]> eldest) {
+            return size() > IDS_CACHE_SIZE;
+        }
+    };
+
     private static Map<String, Drawable> logoCache = new HashMap<>();
     private static final Drawable        NOLOGO    = new ColorDrawable();
 
@@ -531,6 +546,7 @@ public class TileLayerSource implements Serializable {
                 // load meta information from Bing (or from other sources using the same format)
                 Bing.loadMeta(ctx, this, parser);
                 metadataLoaded = true;
+                invalidateCoverage();
                 // once we've got here, a selected layer that was previously non-available might now be available ...
                 // re-set configuration
                 if (ctx instanceof Main && ((Main) ctx).getMap() != null) {
@@ -875,6 +891,7 @@ public class TileLayerSource implements Serializable {
                     } else {
                         backgroundServerList.put(layer.getId(), layer);
                     }
+                    resetCoverage();
                 }
                 return layer;
             }
@@ -1042,10 +1059,57 @@ public class TileLayerSource implements Serializable {
             background = TileLayerDatabase.getLayer(ctx, db, LAYER_MAPNIK);
             overlayServerList.put(LAYER_MAPNIK, background);
         }
+        resetCoverage();
+        if (populate) {
+            backgroundCoverage = new CoverageIndex(backgroundServerList.values());
+            overlayCoverage = new CoverageIndex(overlayServerList.values());
+        }
         Log.d(DEBUG_TAG, "Generating TileLayer lists took " + (System.currentTimeMillis() - start) / 1000);
         setTranslations(ctx);
     }
 
+    /**
+     * Discard the coverage indices and any cached results, needs to be called with serverListLock held whenever the
+     * in memory lists or the layers in them change
+     */
+    private static void resetCoverage() {
+        backgroundCoverage = null;
+        overlayCoverage = null;
+        idsCache.clear();
+    }
+
+    /**
+     * Discard the coverage indices and any cached results, locks against concurrent change
+     */
+    private static void invalidateCoverage() {
+        synchronized (serverListLock) {
+            resetCoverage();
+        }
+    }
+
+    /**
+     * Get the coverage index for a list of layers, (re-)building it if necessary
+     * 
+     * @param servers the list of layers
+     * @return a CoverageIndex
+     */
+    @NonNull
+    private static CoverageIndex getCoverageIndex(@NonNull Map<String, TileLayerSource> servers) {
+        if (servers == backgroundServerList) {
+            if (backgroundCoverage == null) {
+                backgroundCoverage = new CoverageIndex(servers.values());
+            }
+            return backgroundCoverage;
+        }
+        if (servers == overlayServerList) {
+            if (overlayCoverage == null) {
+                overlayCoverage = new CoverageIndex(servers.values());
+            }
+            return overlayCoverage;
+        }
+        return new CoverageIndex(servers.values());
+    }
+
     /**
      * Set name and description to translated values if they exist
      * 
@@ -1431,6 +1495,11 @@ public class TileLayerSource implements Serializable {
             TileType tileType, @Nullable BoundingBox box) {
         TileLayerSource noneLayer = null;
         List<TileLayerSource> list = new ArrayList<>();
+        Set<TileLayerSource> covering = null;
+        if (filtered && box != null) {
+            covering = Collections.newSetFromMap(new IdentityHashMap<TileLayerSource, Boolean>());
+            getCoverageIndex(servers).query(box, covering);
+        }
         for (TileLayerSource osmts : servers.values()) {
             if (Category.internal.equals(osmts.getCategory())) {
                 // never return internal configs
@@ -1443,7 +1512,7 @@ public class TileLayerSource implements Serializable {
                 if (tileType != null && !tileType.equals(osmts.getTileType())) {
                     continue;
                 }
-                if (box != null && !osmts.covers(box)) {
+                if (covering != null && !covering.contains(osmts)) {
                     continue;
                 }
             }
@@ -1577,15 +1646,84 @@ public class TileLayerSource implements Serializable {
         List<String> ids = new ArrayList<>();
         synchronized (serverListLock) {
             if (serverList != null) {
+                IdsKey key = new IdsKey(serverList, filtered ? box : null, filtered, tileType, category);
+                String[] cached = idsCache.get(key);
+                if (cached != null) {
+                    return cached.clone();
+                }
                 List<TileLayerSource> list = getServersFilteredSorted(filtered, serverList, category, tileType, box);
                 for (TileLayerSource t : list) {
                     ids.add(t.id);
                 }
+                String[] idArray = ids.toArray(new String[ids.size()]);
+                idsCache.put(key, idArray);
+                return idArray.clone();
+            }
+        }
+        return new String[0];
+    }
+
+    /**
+     * Key for the cache of results of getIds
+     */
+    private static final class IdsKey {
+        private final Map<String, TileLayerSource> serverList;
+        private final boolean                      hasBox;
+        private final int                          left;
+        private final int                          bottom;
+        private final int                          right;
+        private final int                          top;
+        private final boolean                      filtered;
+        private final TileType                     tileType;
+        private final Category                     category;
+
+        /**
+         * Construct a new key
+         * 
+         * @param serverList Map containing the layers
+         * @param box bounding box to test coverage against
+         * @param filtered if the result is filtered
+         * @param tileType the type of tiles served by this source
+         * @param category category of layer or null for all
+         */
+        IdsKey(@NonNull Map<String, TileLayerSource> serverList, @Nullable BoundingBox box, boolean filtered, @Nullable TileType tileType,
+                @Nullable Category category) {
+            this.serverList = serverList;
+            hasBox = box != null;
+            left = hasBox ? box.getLeft() : 0;
+            bottom = hasBox ? box.getBottom() : 0;
+            right = hasBox ? box.getRight() : 0;
+            top = hasBox ? box.getTop() : 0;
+            this.filtered = filtered;
+            this.tileType = tileType;
+            this.category = category;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(serverList);
+            result = 31 * result + (hasBox ? 1 : 0);
+            result = 31 * result + left;
+            result = 31 * result + bottom;
+            result = 31 * result + right;
+            result = 31 * result + top;
+            result = 31 * result + (filtered ? 1 : 0);
+            result = 31 * result + (tileType != null ? tileType.hashCode() : 0);
+            return 31 * result + (category != null ? category.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IdsKey)) {
+                return false;
             }
+            IdsKey other = (IdsKey) obj;
+            return serverList == other.serverList && hasBox == other.hasBox && left == other.left && bottom == other.bottom && right == other.right
+                    && top == other.top && filtered == other.filtered && tileType == other.tileType && category == other.category;
         }
-        String[] idArray = new String[ids.size()];
-        ids.toArray(idArray);
-        return idArray;
     }
 
     /**
@@ -1985,6 +2123,7 @@ public class TileLayerSource implements Serializable {
                     removeMatchingSource(overlayServerList, p);
                 }
             }
+            resetCoverage();
         }
     }
 
@@ -2429,6 +2568,7 @@ public class TileLayerSource implements Serializable {
             existingTileServer.setTileWidth(tileSize);
             existingTileServer.setTileHeight(tileSize);
             TileLayerDatabase.updateLayer(db, existingTileServer);
+            invalidateCoverage(); // the layer may be in the in memory lists
         }
     }
 
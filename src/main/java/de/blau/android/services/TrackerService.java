@@ -730,6 +730,9 @@ public class TrackerService extends Service {
     @TargetApi(24)
     private void init() {
         prefs = App.getPreferences(this);
+        if (track != null) {
+            track.setCompressionTolerance(prefs.getGpsCompressionTolerance());
+        }
         String gpsSource = prefs.getGpsSource();
         final boolean useTcpClient = gpsSource.equals(prefTcpClient);
         final boolean useTcpServer = gpsSource.equals(prefTcpServer);
@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import android.content.Context;
@@ -32,6 +33,9 @@ public class MBTileProviderDataBase implements LocalTileContainer {
 
     private static final int BUFFER_SIZE = 4096;
 
+    /** Larger tiles are returned without contents by {@link #getTiles} as they might not fit in a CursorWindow */
+    private static final int MAX_BULK_TILE_SIZE = 512 * 1024;
+
     static final String         T_MBTILES            = "tiles";
     private static final String T_MBTILES_ZOOM_LEVEL = "zoom_level";
     private static final String T_MBTILES_TILE_X     = "tile_column";
@@ -49,6 +53,10 @@ public class MBTileProviderDataBase implements LocalTileContainer {
 
     private static final String T_MBTILES_GET = "SELECT " + T_MBTILES_DATA + " FROM " + T_MBTILES + " WHERE " + T_MBTILES_WHERE;
 
+    private static final String T_MBTILES_GET_RANGE = "SELECT " + T_MBTILES_TILE_X + "," + T_MBTILES_TILE_Y + ",CASE WHEN length(" + T_MBTILES_DATA + ")<="
+            + MAX_BULK_TILE_SIZE + " THEN " + T_MBTILES_DATA + " END FROM " + T_MBTILES + " WHERE " + T_MBTILES_ZOOM_LEVEL + "=%d" + AND + T_MBTILES_TILE_X
+            + " BETWEEN %d AND %d" + AND + T_MBTILES_TILE_Y + " BETWEEN %d AND %d";
+
     private static final String T_MBTILES_GET_ZOOMS = "SELECT DISTINCT " + T_MBTILES_ZOOM_LEVEL + " FROM " + T_MBTILES + " ORDER BY " + T_MBTILES_ZOOM_LEVEL;
 
     // ===========================================================
@@ -69,6 +77,17 @@ public class MBTileProviderDataBase implements LocalTileContainer {
 
     private Map<String, String> metadata = null;
 
+    public interface TileDataConsumer {
+        /**
+         * Called for each tile retrieved by {@link MBTileProviderDataBase#getTiles}
+         * 
+         * @param x tile x
+         * @param y tile y in the google/OSM scheme
+         * @param data the tile contents or null if the tile was too large to be retrieved in bulk
+         */
+        void accept(int x, int y, @Nullable byte[] data);
+    }
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -178,6 +197,35 @@ public class MBTileProviderDataBase implements LocalTileContainer {
         return null;
     }
 
+    /**
+     * Retrieve all tiles in a rectangle of tile coordinates with one query
+     * 
+     * This avoids a round trip to the database per tile, tiles that are larger than MAX_BULK_TILE_SIZE are reported
+     * without contents and need to be retrieved with {@link #getTileStream(MapTile)}
+     * 
+     * @param zoom the zoom level
+     * @param left left most tile x
+     * @param top top most tile y
+     * @param right right most tile x
+     * @param bottom bottom most tile y
+     * @param consumer called for each tile that exists
+     * @throws IOException if we had issues reading from the database
+     */
+    public void getTiles(int zoom, int left, int top, int right, int bottom, @NonNull TileDataConsumer consumer) throws IOException {
+        if (!mDatabase.isOpen()) {
+            return;
+        }
+        final int ymax = 1 << zoom; // TMS scheme
+        String query = String.format(Locale.US, T_MBTILES_GET_RANGE, zoom, left, right, ymax - bottom - 1, ymax - top - 1);
+        try (Cursor cursor = mDatabase.rawQuery(query, null)) {
+            while (cursor.moveToNext()) {
+                consumer.accept(cursor.getInt(0), ymax - cursor.getInt(1) - 1, cursor.getBlob(2));
+            }
+        } catch (SQLiteException sex) {
+            throw new IOException(sex.getMessage());
+        }
+    }
+
     /**
      * Bind the tile values to the prepared statement
      * 
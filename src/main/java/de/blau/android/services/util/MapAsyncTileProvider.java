@@ -1,21 +1,34 @@
 package de.blau.android.services.util;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.util.Log;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
+import de.blau.android.resources.TileLayerSource;
+import de.blau.android.util.collections.LongPrimitiveList;
 import de.blau.android.views.util.MapTileProviderCallback;
+import de.blau.android.views.util.TileKey;
 
 /**
  * This class was taken from OpenStreetMapViewer (original package org.andnav.osm) in 2010-06 by Marcus Wolschon to be
  * integrated into the de.blau.androin OSMEditor.
  * 
+ * Requests are executed in priority order, if a viewport has been set for a renderer, tiles at the viewport zoom level
+ * nearest to the center of the viewport are loaded first, tiles at other zoom levels after that. Queued requests that
+ * are no longer relevant for the viewport are cancelled.
+ * 
  * @author Nicolas Gramlich
  * @author Marcus Wolschon &lt;Marcus@Wolschon.biz&gt;
  * @author Simon Poole
@@ -28,11 +41,99 @@ public abstract class MapAsyncTileProvider {
     public static final int DOESNOTEXIST = 2;
     public static final int NONETWORK    = 3;
     public static final int RETRY        = 4;
+    public static final int CANCELLED    = 5;
 
     public static final int ALLZOOMS = -1;
 
-    ThreadPoolExecutor                  mThreadPool;
-    private final Map<String, Runnable> mPending = new HashMap<>();
+    static final int         DEFAULT_PRIORITY = 0;
+    static final int         STALE            = Integer.MAX_VALUE;
+    private static final int ZOOM_PENALTY     = 1024;                                     // per zoom level difference
+    private static final int MAX_ZOOM_DIFF    = TileLayerSource.DEFAULT_MAX_OVERZOOM + 1;
+    private static final int VIEWPORT_MARGIN  = 1;                                        // in tiles
+
+    /**
+     * Order TileLoaders by priority and then by age, anything else runs first
+     */
+    private static final Comparator<Runnable> REQUEST_ORDER = (r1, r2) -> {
+        boolean isLoader1 = r1 instanceof TileLoader;
+        boolean isLoader2 = r2 instanceof TileLoader;
+        if (!isLoader1 || !isLoader2) {
+            return Boolean.compare(isLoader1, isLoader2);
+        }
+        TileLoader l1 = (TileLoader) r1;
+        TileLoader l2 = (TileLoader) r2;
+        if (l1.priority != l2.priority) {
+            return Integer.compare(l1.priority, l2.priority);
+        }
+        return Long.compare(l1.sequence, l2.sequence);
+    };
+
+    ThreadPoolExecutor                        mThreadPool;
+    private final LongSparseArray<TileLoader> mPending  = new LongSparseArray<>();
+    private final Map<String, Viewport>       viewports = new HashMap<>();
+    private final AtomicLong                  sequence  = new AtomicLong();
+    private final AtomicLong                  started   = new AtomicLong();
+    private final AtomicLong                  waitTime  = new AtomicLong();
+    private final AtomicLong                  cancelled = new AtomicLong();
+
+    /**
+     * The area that is currently being displayed for a renderer in tile coordinates
+     */
+    static final class Viewport {
+        final int zoom;
+        final int centerX;
+        final int centerY;
+        final int halfWidth;
+        final int halfHeight;
+
+        /**
+         * Construct a new Viewport
+         * 
+         * @param zoom the zoom level
+         * @param left left most tile x
+         * @param top top most tile y
+         * @param right right most tile x
+         * @param bottom bottom most tile y
+         */
+        Viewport(int zoom, int left, int top, int right, int bottom) {
+            this.zoom = zoom;
+            centerX = (left + right) / 2;
+            centerY = (top + bottom) / 2;
+            halfWidth = (Math.abs(right - left) + 1) / 2;
+            halfHeight = (Math.abs(bottom - top) + 1) / 2;
+        }
+
+        /**
+         * Check if this is the same area as another Viewport
+         * 
+         * @param other the other Viewport
+         * @return true if the same
+         */
+        boolean same(@NonNull Viewport other) {
+            return zoom == other.zoom && centerX == other.centerX && centerY == other.centerY && halfWidth == other.halfWidth
+                    && halfHeight == other.halfHeight;
+        }
+    }
+
+    /**
+     * Create a ThreadPoolExecutor that executes tile requests in priority order
+     * 
+     * @param threads the number of threads
+     * @return a ThreadPoolExecutor
+     */
+    @NonNull
+    ThreadPoolExecutor createThreadPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(11, REQUEST_ORDER)) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                super.beforeExecute(t, r);
+                if (r instanceof TileLoader) {
+                    started.incrementAndGet();
+                    waitTime.addAndGet(System.nanoTime() - ((TileLoader) r).queued);
+                }
+            }
+        };
+    }
 
     /**
      * Queue a tile for loading, if it is already in the queue this returns without doing anything
@@ -41,15 +142,19 @@ public abstract class MapAsyncTileProvider {
      * @param aCallback the call back for when the tile has been loaded
      */
     public synchronized void loadMapTileAsync(@NonNull final MapTile aTile, final MapTileProviderCallback aCallback) {
-        final String tileId = aTile.toId();
+        final long tileKey = aTile.toKey();
         synchronized (mPending) {
-            if (mPending.containsKey(tileId)) {
+            if (mPending.get(tileKey) != null) {
                 return;
             }
         }
-        Runnable r = getTileLoader(aTile, aCallback);
+        TileLoader r = getTileLoader(aTile, aCallback);
+        int priority = getPriority(aTile);
+        r.priority = priority == STALE ? ZOOM_PENALTY * (MAX_ZOOM_DIFF + 1) : priority;
+        r.sequence = sequence.getAndIncrement();
+        r.queued = System.nanoTime();
         synchronized (mPending) {
-            mPending.put(tileId, r);
+            mPending.put(tileKey, r);
         }
         try {
             mThreadPool.execute(r);
@@ -58,17 +163,124 @@ public abstract class MapAsyncTileProvider {
         }
     }
 
+    /**
+     * Set the area that is currently displayed for a renderer
+     * 
+     * Queued requests for the renderer are re-prioritized and requests that are no longer relevant are cancelled, the
+     * callback for a cancelled request is called with CANCELLED as reason.
+     * 
+     * @param rendererId the renderer
+     * @param zoom the zoom level
+     * @param left left most tile x
+     * @param top top most tile y
+     * @param right right most tile x
+     * @param bottom bottom most tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        Viewport viewport = new Viewport(zoom, left, top, right, bottom);
+        List<TileLoader> stale = new ArrayList<>();
+        synchronized (this) {
+            Viewport previous = viewports.get(rendererId);
+            if (previous != null && previous.same(viewport)) {
+                return;
+            }
+            viewports.put(rendererId, viewport);
+            List<TileLoader> requeue = new ArrayList<>();
+            synchronized (mPending) {
+                for (int i = 0; i < mPending.size(); i++) {
+                    TileLoader loader = mPending.valueAt(i);
+                    if (!rendererId.equals(loader.mTile.rendererID)) {
+                        continue;
+                    }
+                    int priority = getPriority(loader.mTile);
+                    if (priority != loader.priority && mThreadPool.remove(loader)) {
+                        if (priority == STALE) {
+                            stale.add(loader);
+                        } else {
+                            loader.priority = priority;
+                            requeue.add(loader);
+                        }
+                    }
+                }
+                for (TileLoader loader : stale) {
+                    mPending.remove(loader.mTile.toKey());
+                }
+            }
+            for (TileLoader loader : requeue) {
+                try {
+                    mThreadPool.execute(loader);
+                } catch (RejectedExecutionException rjee) {
+                    Log.e(DEBUG_TAG, "Execution rejected " + rjee.getMessage());
+                }
+            }
+        }
+        cancelled.addAndGet(stale.size());
+        // notify outside of the locks, the callbacks may need to acquire their own
+        for (TileLoader loader : stale) {
+            MapTile tile = loader.mTile;
+            try {
+                loader.mCallback.mapTileFailed(tile.rendererID, tile.zoomLevel, tile.x, tile.y, CANCELLED, null);
+            } catch (IOException e) {
+                Log.e(DEBUG_TAG, "mapTileFailed failed with " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Determine the priority of a tile request relative to the current viewport of its renderer
+     * 
+     * Lower values are loaded first.
+     * 
+     * @param tile the tile descriptor
+     * @return the priority or STALE if the tile isn't needed for the viewport
+     */
+    synchronized int getPriority(@NonNull MapTile tile) {
+        Viewport viewport = viewports.get(tile.rendererID);
+        if (viewport == null) {
+            return DEFAULT_PRIORITY;
+        }
+        int zoomDiff = Math.abs(tile.zoomLevel - viewport.zoom);
+        if (zoomDiff > MAX_ZOOM_DIFF) {
+            return STALE;
+        }
+        // compare at the lower of the two zoom levels
+        int zoom = Math.min(tile.zoomLevel, viewport.zoom);
+        int tileShift = tile.zoomLevel - zoom;
+        int viewportShift = viewport.zoom - zoom;
+        int n = 1 << zoom;
+        int dx = distance(tile.x >> tileShift, viewport.centerX >> viewportShift, n);
+        int dy = distance(tile.y >> tileShift, viewport.centerY >> viewportShift, n);
+        if (dx > (viewport.halfWidth >> viewportShift) + VIEWPORT_MARGIN || dy > (viewport.halfHeight >> viewportShift) + VIEWPORT_MARGIN) {
+            return STALE;
+        }
+        return zoomDiff * ZOOM_PENALTY + Math.max(dx, dy);
+    }
+
+    /**
+     * Distance between two tile coordinates taking wrap around in to account
+     * 
+     * @param a first coordinate
+     * @param b second coordinate
+     * @param n number of tiles at the zoom level
+     * @return the distance in tiles
+     */
+    private static int distance(int a, int b, int n) {
+        int d = Math.abs(a - b) % n;
+        return Math.min(d, n - d);
+    }
+
     /**
      * Remove a specific request from the Executors queue
      * 
-     * @param tileId id of the request
+     * @param tileKey key of the request
      * @return true if successful
      */
-    private boolean removeRequest(@NonNull final String tileId) {
+    private boolean removeRequest(final long tileKey) {
         synchronized (mPending) {
-            Runnable r = mPending.get(tileId);
-            if (mThreadPool.remove(r)) {
-                mPending.remove(tileId);
+            TileLoader r = mPending.get(tileKey);
+            if (r != null && mThreadPool.remove(r)) {
+                mPending.remove(tileKey);
+                cancelled.incrementAndGet();
                 return true;
             }
         }
@@ -82,24 +294,58 @@ public abstract class MapAsyncTileProvider {
      * @param zoom the zoom level we want to remove tiles for, if ALLZOOMS remove all requests for the renderer
      */
     public void flushQueue(@NonNull String rendererId, int zoom) {
-        Set<Entry<String, Runnable>> entries;
+        final int rendererIndex = TileKey.rendererIndex(rendererId);
+        LongPrimitiveList keys = new LongPrimitiveList();
         synchronized (mPending) {
-            entries = new HashSet<>(mPending.entrySet());
-        }
-        if (zoom != ALLZOOMS) {
-            String id = Integer.toString(zoom) + rendererId; // see MapTile.toId()
-            for (Entry<String, Runnable> e : entries) {
-                if (e.getKey().startsWith(id)) {
-                    removeRequest(e.getKey());
-                }
-            }
-        } else {
-            for (Entry<String, Runnable> e : entries) {
-                if (e.getKey().contains(rendererId)) {
-                    removeRequest(e.getKey());
+            for (int i = 0; i < mPending.size(); i++) {
+                long key = mPending.keyAt(i);
+                if (TileKey.rendererIndex(key) == rendererIndex && (zoom == ALLZOOMS || zoom == TileKey.zoom(key))) {
+                    keys.add(key);
                 }
             }
         }
+        for (int i = 0; i < keys.size(); i++) {
+            removeRequest(keys.get(i));
+        }
+    }
+
+    /**
+     * Get the number of requests waiting to be executed
+     * 
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return mThreadPool.getQueue().size();
+    }
+
+    /**
+     * Get the average time requests have waited in the queue before being executed
+     * 
+     * @return the average wait time in ms
+     */
+    public long getAverageWaitTime() {
+        long count = started.get();
+        return count == 0 ? 0 : waitTime.get() / count / 1000000L;
+    }
+
+    /**
+     * Get the number of requests that have been cancelled before being executed
+     * 
+     * @return the number of cancelled requests
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * Get a summary of the queue statistics
+     * 
+     * @return a String suitable for display
+     */
+    @NonNull
+    public String getQueueStatistics() {
+        return String.format(Locale.US, "queued %d started %d average wait %d ms cancelled %d", getQueueDepth(), started.get(), getAverageWaitTime(),
+                getCancelledCount());
     }
 
     /**
@@ -109,11 +355,14 @@ public abstract class MapAsyncTileProvider {
      * @param aCallback callback to the TileProvider
      * @return a TileLoader
      */
-    protected abstract Runnable getTileLoader(@NonNull final MapTile aTile, @NonNull final MapTileProviderCallback aCallback);
+    protected abstract TileLoader getTileLoader(@NonNull final MapTile aTile, @NonNull final MapTileProviderCallback aCallback);
 
     abstract class TileLoader implements Runnable {
         final MapTile                 mTile;
         final MapTileProviderCallback mCallback;
+        int                           priority = DEFAULT_PRIORITY;
+        long                          sequence;
+        long                          queued;
 
         /**
          * Construct a new TileLoader
@@ -131,7 +380,7 @@ public abstract class MapAsyncTileProvider {
          */
         void finished() {
             synchronized (mPending) {
-                mPending.remove(mTile.toId());
+                mPending.remove(mTile.toKey());
             }
         }
     }
@@ -4,6 +4,7 @@ import java.io.Serializable;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import de.blau.android.views.util.TileKey;
 
 /**
  * This class merely holds the coordinates embedded in the url of a tile.
@@ -26,7 +27,8 @@ public class MapTile implements Serializable {
 
     public int zoomLevel;
 
-    private String id = null;
+    private String        id            = null;
+    private transient int rendererIndex = 0;
 
     public static final int MAPTILE_SUCCESS_ID = 0;
     public static final int MAPTILE_FAIL_ID    = MAPTILE_SUCCESS_ID + 1;
@@ -53,6 +55,7 @@ public class MapTile implements Serializable {
      */
     public MapTile(@NonNull MapTile tile) {
         this.rendererID = tile.rendererID;
+        this.rendererIndex = tile.rendererIndex;
         this.zoomLevel = tile.zoomLevel;
         this.x = tile.x;
         this.y = tile.y;
@@ -76,6 +79,20 @@ public class MapTile implements Serializable {
         return id;
     }
 
+    /**
+     * Get a packed key for this tile
+     * 
+     * This doesn't allocate anything after the first call
+     * 
+     * @return the key
+     */
+    public long toKey() {
+        if (rendererIndex == 0) {
+            rendererIndex = TileKey.rendererIndex(rendererID);
+        }
+        return TileKey.pack(rendererIndex, zoomLevel, x, y);
+    }
+
     /**
      * Reset anything important so that the instance can be reused
      */
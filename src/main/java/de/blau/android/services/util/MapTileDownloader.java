@@ -17,8 +17,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
@@ -106,12 +104,12 @@ public class MapTileDownloader extends MapAsyncTileProvider {
         mCtx = ctx;
         this.mapTileSaver = mapTileSaver;
         networkStatus = new NetworkStatus(ctx);
-        mThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(App.getPreferences(ctx).getMaxTileDownloadThreads());
+        mThreadPool = createThreadPool(App.getPreferences(ctx).getMaxTileDownloadThreads());
         client = App.getHttpClient().newBuilder().connectTimeout(TIMEOUT, TimeUnit.MILLISECONDS).readTimeout(TIMEOUT, TimeUnit.MILLISECONDS).build();
     }
 
     @Override
-    protected Runnable getTileLoader(MapTile aTile, MapTileProviderCallback aCallback) {
+    protected MapAsyncTileProvider.TileLoader getTileLoader(MapTile aTile, MapTileProviderCallback aCallback) {
         return new TileLoader(aTile, aCallback);
     }
 
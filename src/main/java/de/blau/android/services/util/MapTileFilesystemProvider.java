@@ -7,8 +7,6 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteException;
@@ -73,7 +71,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider implements M
         tileCache = new MapTileProviderDataBase(new CustomDatabaseContext(ctx, mountPoint.getAbsolutePath()));
 
         int maxThreads = App.getPreferences(ctx).getMaxTileDownloadThreads();
-        mThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxThreads);
+        mThreadPool = createThreadPool(maxThreads);
 
         mTileDownloader = new MapTileDownloader(ctx, this);
 
@@ -94,7 +92,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider implements M
     }
 
     @Override
-    public Runnable getTileLoader(@NonNull MapTile aTile, @NonNull MapTileProviderCallback aCallback) {
+    public MapAsyncTileProvider.TileLoader getTileLoader(@NonNull MapTile aTile, @NonNull MapTileProviderCallback aCallback) {
         return new TileLoader(aTile, aCallback);
     }
 
@@ -168,6 +166,18 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider implements M
         mTileDownloader.flushQueue(rendererId, zoom);
     }
 
+    @Override
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        super.setViewport(rendererId, zoom, left, top, right, bottom);
+        mTileDownloader.setViewport(rendererId, zoom, left, top, right, bottom);
+    }
+
+    @Override
+    @NonNull
+    public String getQueueStatistics() {
+        return super.getQueueStatistics() + " downloads " + mTileDownloader.getQueueStatistics();
+    }
+
     /**
      * This will load a single tile from a local source or from the local tile cache, if necessary it will queue the
      * tile for download in the later case.
@@ -203,6 +203,25 @@ public final class ContentResolverUtil {
         return size;
     }
 
+    /**
+     * Get the value of the last modified column for this Uri. This is only available for document Uris.
+     *
+     * @param context The context.
+     * @param uri The Uri to query.
+     * @return The value of the last modified column in ms since the epoch or -1 if not available.
+     */
+    public static long getLastModifiedColumn(@NonNull Context context, @NonNull Uri uri) {
+        String lastModified = getColumn(context, DocumentsContract.Document.COLUMN_LAST_MODIFIED, uri); // NOSONAR
+        if (lastModified != null) {
+            try {
+                return Long.parseLong(lastModified);
+            } catch (NumberFormatException nfex) {
+                Log.w(DEBUG_TAG, "getLastModifiedColumn " + nfex.getMessage() + " for " + uri);
+            }
+        }
+        return -1L;
+    }
+
     /**
      * Get the value of a column for this Uri. This is useful for MediaStore Uris, and other file-based
      * ContentProviders.
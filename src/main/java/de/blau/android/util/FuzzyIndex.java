@@ -0,0 +1,256 @@
+package de.blau.android.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Index for substring and fuzzy (edit distance) searches over a fixed set of Strings
+ *
+ * Keys are ordered by length and indexed by trigram posting lists. Substring searches only need to check the keys that
+ * contain the rarest trigram of the search term. For fuzzy searches only keys with a length that is within the maximum
+ * edit distance are considered, and, for longer terms, only those that share enough trigrams with the term, see
+ * Ukkonen "Approximate string-matching with q-grams and maximal matches". The final result is always determined with
+ * {@link OptimalStringAlignment} so the results are exactly the same as calculating the distance for every key.
+ *
+ * Searching is thread safe, the index itself cannot be modified after construction.
+ */
+public class FuzzyIndex {
+
+    private static final int Q = 3;
+
+    /**
+     * Callback for results
+     */
+    public interface MatchHandler {
+        /**
+         * Called once for every matching key
+         *
+         * @param key the matching key
+         * @param distance 0 for substring matches, the edit distance otherwise
+         */
+        void onMatch(@NonNull String key, int distance);
+    }
+
+    /** keys ordered by length */
+    private final String[]           keys;
+    /** index of the first key with at least the array index as length */
+    private final int[]              lengthStart;
+    /** trigram to ascending key indices */
+    private final Map<String, int[]> trigrams = new HashMap<>();
+
+    /**
+     * Build an index for keys
+     *
+     * @param keys the Strings to index
+     */
+    public FuzzyIndex(@NonNull Collection<String> keys) {
+        this.keys = keys.toArray(new String[0]);
+        Arrays.sort(this.keys, (String s1, String s2) -> Integer.compare(s1.length(), s2.length()));
+        int maxLength = this.keys.length > 0 ? this.keys[this.keys.length - 1].length() : 0;
+        lengthStart = new int[maxLength + 2];
+        int length = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            while (length <= this.keys[i].length()) {
+                lengthStart[length++] = i;
+            }
+        }
+        while (length < lengthStart.length) {
+            lengthStart[length++] = this.keys.length;
+        }
+        buildTrigrams();
+    }
+
+    /**
+     * Build the trigram posting lists, each list contains the ascending indices of the keys containing the trigram
+     */
+    private void buildTrigrams() {
+        Map<String, int[]> temp = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            for (int j = 0; j + Q <= key.length(); j++) {
+                String trigram = key.substring(j, j + Q);
+                int[] list = temp.get(trigram);
+                if (list == null) {
+                    list = new int[] { 0, 0, 0, 0 }; // first element holds the size
+                    temp.put(trigram, list);
+                }
+                int size = list[0];
+                if (size > 0 && list[size] == i) {
+                    continue; // trigram occurs more than once in this key
+                }
+                if (size + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    temp.put(trigram, list);
+                }
+                list[size + 1] = i;
+                list[0] = size + 1;
+            }
+        }
+        for (Entry<String, int[]> entry : temp.entrySet()) {
+            int[] list = entry.getValue();
+            trigrams.put(entry.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+    }
+
+    /**
+     * Get the number of indexed keys
+     *
+     * @return the key count
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the index of the first key with at least the specified length
+     *
+     * @param length the length
+     * @return an index in to keys
+     */
+    private int start(int length) {
+        return lengthStart[Math.max(0, Math.min(length, lengthStart.length - 1))];
+    }
+
+    /**
+     * Search the index
+     *
+     * Every key that contains one of the substrings is returned with distance 0, every other key that has an OSA edit
+     * distance to term of at most maxDistance with that distance.
+     *
+     * @param substrings Strings to check for literal containment
+     * @param term the term to use for the edit distance
+     * @param maxDistance the maximum edit distance
+     * @param handler called for each match
+     */
+    public void search(@NonNull Collection<String> substrings, @NonNull String term, int maxDistance, @NonNull MatchHandler handler) {
+        BitSet found = new BitSet(keys.length);
+        for (String s : substrings) {
+            searchSubstring(s, found, handler);
+        }
+        searchFuzzy(term, maxDistance, found, handler);
+    }
+
+    /**
+     * Find all keys containing s
+     *
+     * @param s the String to search for
+     * @param found keys that have already been found
+     * @param handler called for each match
+     */
+    private void searchSubstring(@NonNull String s, @NonNull BitSet found, @NonNull MatchHandler handler) {
+        final int start = start(s.length());
+        if (s.length() < Q) {
+            // short Strings will match a large part of the keys anyway
+            for (int i = start; i < keys.length; i++) {
+                if (!found.get(i) && keys[i].contains(s)) {
+                    found.set(i);
+                    handler.onMatch(keys[i], 0);
+                }
+            }
+            return;
+        }
+        // only check the keys with the rarest trigram
+        int[] shortest = null;
+        for (int j = 0; j + Q <= s.length(); j++) {
+            int[] list = trigrams.get(s.substring(j, j + Q));
+            if (list == null) {
+                return; // can't match
+            }
+            if (shortest == null || list.length < shortest.length) {
+                shortest = list;
+            }
+        }
+        if (shortest == null) {
+            return;
+        }
+        for (int p = lowerBound(shortest, start); p < shortest.length; p++) {
+            int i = shortest[p];
+            if (!found.get(i) && keys[i].contains(s)) {
+                found.set(i);
+                handler.onMatch(keys[i], 0);
+            }
+        }
+    }
+
+    /**
+     * Find all keys within maxDistance of term
+     *
+     * @param term the search term
+     * @param maxDistance the maximum edit distance
+     * @param found keys that have already been found
+     * @param handler called for each match
+     */
+    private void searchFuzzy(@NonNull String term, int maxDistance, @NonNull BitSet found, @NonNull MatchHandler handler) {
+        final int length = term.length();
+        final int start = start(length - maxDistance);
+        final int end = start(length + maxDistance + 1);
+        // each edit can change at most Q trigrams, a transposition Q + 1
+        final int minCommon = (length - Q + 1) - maxDistance * (Q + 1);
+        if (minCommon <= 0) {
+            for (int i = start; i < end; i++) {
+                checkDistance(i, term, maxDistance, found, handler);
+            }
+            return;
+        }
+        int[] counts = new int[end - start];
+        for (int j = 0; j + Q <= length; j++) {
+            int[] list = trigrams.get(term.substring(j, j + Q));
+            if (list != null) {
+                for (int p = lowerBound(list, start); p < list.length && list[p] < end; p++) {
+                    counts[list[p] - start]++;
+                }
+            }
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] >= minCommon) {
+                checkDistance(start + i, term, maxDistance, found, handler);
+            }
+        }
+    }
+
+    /**
+     * Check the edit distance of a key
+     *
+     * @param i the index of the key
+     * @param term the search term
+     * @param maxDistance the maximum edit distance
+     * @param found keys that have already been found
+     * @param handler called for each match
+     */
+    private void checkDistance(int i, @NonNull String term, int maxDistance, @NonNull BitSet found, @NonNull MatchHandler handler) {
+        if (!found.get(i)) {
+            int distance = OptimalStringAlignment.editDistance(keys[i], term, maxDistance);
+            if (distance >= 0) {
+                found.set(i);
+                handler.onMatch(keys[i], distance);
+            }
+        }
+    }
+
+    /**
+     * Find the position of the first value that is greater or equal to value in a sorted array
+     *
+     * @param array the array
+     * @param value the value
+     * @return the position
+     */
+    private static int lowerBound(@NonNull int[] array, int value) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
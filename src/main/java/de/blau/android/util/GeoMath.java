@@ -664,6 +664,72 @@ public final class GeoMath {
         points.truncate(o);
     }
 
+    /**
+     * Simplify a line with the Douglas-Peucker algorithm
+     *
+     * The first and last vertex are always retained, for closed lines the distance from the start vertex is used for
+     * the first split.
+     *
+     * @param points x and y values of the vertices of the line, two values per vertex
+     * @param tolerance the maximum distance of a removed vertex from the simplified line
+     * @return the indices of the retained vertices in ascending order
+     */
+    @NonNull
+    public static int[] simplify(@NonNull final FloatPrimitiveList points, float tolerance) {
+        final int count = points.size() / 2;
+        final float[] xy = points.getArray();
+        boolean[] keep = new boolean[count];
+        int kept = 0;
+        if (count > 0) {
+            keep[0] = true;
+            keep[count - 1] = true;
+            kept = count > 1 ? 2 : 1;
+        }
+        // ranges that still need to be processed, avoids recursion for long lines
+        int[] stack = new int[2 * count];
+        int top = 0;
+        if (count > 2) {
+            stack[top++] = 0;
+            stack[top++] = count - 1;
+        }
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            final float firstX = xy[2 * first];
+            final float firstY = xy[2 * first + 1];
+            final float lastX = xy[2 * last];
+            final float lastY = xy[2 * last + 1];
+            double maxDistance = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = getLineDistance(xy[2 * i], xy[2 * i + 1], firstX, firstY, lastX, lastY);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index > 0 && maxDistance > tolerance) {
+                keep[index] = true;
+                kept++;
+                if (index - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = index;
+                }
+                if (last - index > 1) {
+                    stack[top++] = index;
+                    stack[top++] = last;
+                }
+            }
+        }
+        int[] result = new int[kept];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) {
+                result[j++] = i;
+            }
+        }
+        return result;
+    }
+
     /**
      * Sort a list of photos by distance from a specific one
      * 
@@ -1,5 +1,7 @@
 package de.blau.android.util;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -34,6 +36,37 @@ public abstract class Hash {
         }
     }
 
+    /**
+     * Hashes the contents of an InputStream with SHA256, reading it to the end
+     * 
+     * @param is the InputStream
+     * @return a hexadecimal representation of the SHA-256 hash
+     * @throws IOException if reading fails
+     */
+    public static String sha256(@NonNull InputStream is) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Get a new SHA256 MessageDigest
+     * 
+     * @return a MessageDigest
+     */
+    @NonNull
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new OperationFailedException("Your Java is broken", e);
+        }
+    }
+
     /**
      * Converts a byte array to lowercase hexadecimal (without separators)
      * 
@@ -1,5 +1,6 @@
 package de.blau.android.util;
 
+import java.lang.ref.WeakReference;
 import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -7,6 +8,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +44,30 @@ public final class SearchIndexUtils {
     private static final int OFFSET_EXACT_MATCH_WITH_ACCENTS    = 30;
     private static final int MAN_MADE_PENALTY                   = 5;
 
+    /**
+     * Fuzzy indices for the search index MultiHashMaps, the MultiHashMaps are only weakly referenced
+     */
+    private static final List<FuzzyIndexEntry> fuzzyIndices = new ArrayList<>();
+
+    private static final class FuzzyIndexEntry {
+        final WeakReference<MultiHashMap<String, ?>> source;
+        final FuzzyIndex                             index;
+        final int                                    keyModificationCount;
+
+        /**
+         * Construct a new entry
+         * 
+         * @param source the MultiHashMap the index was built from
+         * @param index the FuzzyIndex
+         * @param keyModificationCount the key modification count of source when the index was built
+         */
+        FuzzyIndexEntry(@NonNull MultiHashMap<String, ?> source, @NonNull FuzzyIndex index, int keyModificationCount) {
+            this.source = new WeakReference<>(source);
+            this.index = index;
+            this.keyModificationCount = keyModificationCount;
+        }
+    }
+
     /**
      * Private constructor
      */
@@ -179,78 +205,58 @@ public final class SearchIndexUtils {
             terms.addAll(temp);
         }
 
+        final String originalTerm = term;
         for (MultiHashMap<String, PresetItem> index : presetSeachIndices) {
-            for (String s : index.getKeys()) {
-                for (String t : terms) {
-                    int distance = s.indexOf(t);
-                    if (distance == -1) {
-                        distance = OptimalStringAlignment.editDistance(s, normalizedTerm, maxDistance);
-                        if (distance == -1) { // way out
-                            continue;
-                        }
-                    } else {
-                        distance = 0; // literal substring match, we don't want to weight this worse than a fuzzy match
-                    }
-                    if (distance <= maxDistance) {
-                        Set<PresetItem> presetItems = index.get(s);
-                        int weight = distance * presetItems.size(); // if there are a lot of items for a term, penalize
-                        for (PresetItem pi : presetItems) {
-                            if ((type == null || pi.appliesTo(type)) && pi.appliesIn(country)) {
-                                IndexSearchResult isr = new IndexSearchResult(rescale(term, normalizedTerm, weight, pi), pi);
-                                addToResult(rawResult, isr.weight, isr);
-                            }
-                        }
+            // literal substring matches have distance 0, we don't want to weight these worse than a fuzzy match
+            getFuzzyIndex(index).search(terms, normalizedTerm, maxDistance, (String s, int distance) -> {
+                Set<PresetItem> presetItems = index.get(s);
+                int weight = distance * presetItems.size(); // if there are a lot of items for a term, penalize
+                for (PresetItem pi : presetItems) {
+                    if ((type == null || pi.appliesTo(type)) && pi.appliesIn(country)) {
+                        IndexSearchResult isr = new IndexSearchResult(rescale(originalTerm, normalizedTerm, weight, pi), pi);
+                        addToResult(rawResult, isr.weight, isr);
                     }
                 }
-            }
+            });
         }
 
         // search in NSI
         if (App.getPreferences(ctx).nameSuggestionPresetsEnabled()) {
             MultiHashMap<String, NameAndTags> nsi = App.getNameSearchIndex(ctx);
-            Set<String> names = nsi.getKeys();
             Preset[] presets = App.getCurrentPresets(ctx);
             Preset preset = Preset.dummyInstance();
-            for (String name : names) {
-                int distance = name.indexOf(normalizedTerm);
-                if (distance == -1) {
-                    distance = OptimalStringAlignment.editDistance(name, normalizedTerm, maxDistance);
-                } else {
-                    distance = 0;
-                }
-                if ((distance >= 0 && distance <= maxDistance)) {
-                    Set<NameAndTags> nats = nsi.get(name);
-                    for (NameAndTags nat : nats) {
-                        if (nat.inUseIn(regions)) {
-                            TagMap tags = nat.getTags();
-                            PresetItem pi = Preset.findBestMatch(presets, tags, null, null, false, null);
-                            PresetItem namePi = new PresetItem(preset, null, nat.getName(), pi == null ? null : pi.getIconpath(), null);
+            getFuzzyIndex(nsi).search(Collections.singletonList(normalizedTerm), normalizedTerm, maxDistance, (String name, int distance) -> {
+                Set<NameAndTags> nats = nsi.get(name);
+                for (NameAndTags nat : nats) {
+                    if (nat.inUseIn(regions)) {
+                        TagMap tags = nat.getTags();
+                        PresetItem pi = Preset.findBestMatch(presets, tags, null, null, false, null);
+                        PresetItem namePi = new PresetItem(preset, null, nat.getName(), pi == null ? null : pi.getIconpath(), null);
 
-                            for (Entry<String, String> entry : tags.entrySet()) {
-                                namePi.addTag(entry.getKey(), PresetKeyType.TEXT, entry.getValue(), null, null);
-                            }
-                            if (pi != null) {
-                                Map<String, PresetField> fields = pi.getFields();
-                                for (Entry<String, PresetField> entry : fields.entrySet()) {
-                                    final PresetField value = entry.getValue();
-                                    if (value instanceof PresetTagField) {
-                                        String key = entry.getKey();
-                                        if (!tags.containsKey(key)) {
-                                            namePi.addField(value);
-                                        }
+                        for (Entry<String, String> entry : tags.entrySet()) {
+                            namePi.addTag(entry.getKey(), PresetKeyType.TEXT, entry.getValue(), null, null);
+                        }
+                        if (pi != null) {
+                            Map<String, PresetField> fields = pi.getFields();
+                            for (Entry<String, PresetField> entry : fields.entrySet()) {
+                                final PresetField value = entry.getValue();
+                                if (value instanceof PresetTagField) {
+                                    String key = entry.getKey();
+                                    if (!tags.containsKey(key)) {
+                                        namePi.addField(value);
                                     }
                                 }
                             }
-                            IndexSearchResult isr = new IndexSearchResult(rescale(term, normalizedTerm, distance, namePi), namePi);
-                            // penalize results that aren't shops etc
-                            if (namePi.hasKey(Tags.KEY_MAN_MADE)) {
-                                isr.weight += MAN_MADE_PENALTY;
-                            }
-                            addToResult(rawResult, isr.weight, isr);
                         }
+                        IndexSearchResult isr = new IndexSearchResult(rescale(originalTerm, normalizedTerm, distance, namePi), namePi);
+                        // penalize results that aren't shops etc
+                        if (namePi.hasKey(Tags.KEY_MAN_MADE)) {
+                            isr.weight += MAN_MADE_PENALTY;
+                        }
+                        addToResult(rawResult, isr.weight, isr);
                     }
                 }
-            }
+            });
         }
 
         // sort and return results
@@ -265,6 +271,49 @@ public final class SearchIndexUtils {
         return result;
     }
 
+    /**
+     * Get a FuzzyIndex for the keys of a search index, building it if necessary
+     * 
+     * The index is rebuilt if keys have been added to or removed from the search index since it was built, presets
+     * being reloaded results in new search index instances and is handled by the identity check
+     * 
+     * @param searchIndex the search index
+     * @return a FuzzyIndex
+     */
+    @NonNull
+    static FuzzyIndex getFuzzyIndex(@NonNull MultiHashMap<String, ?> searchIndex) {
+        synchronized (fuzzyIndices) {
+            Iterator<FuzzyIndexEntry> it = fuzzyIndices.iterator();
+            while (it.hasNext()) {
+                FuzzyIndexEntry entry = it.next();
+                MultiHashMap<String, ?> source = entry.source.get();
+                if (source == null) {
+                    it.remove();
+                } else if (source == searchIndex) {
+                    if (entry.keyModificationCount == searchIndex.getKeyModificationCount()) {
+                        return entry.index;
+                    }
+                    it.remove();
+                }
+            }
+            long start = System.currentTimeMillis();
+            int keyModificationCount = searchIndex.getKeyModificationCount();
+            FuzzyIndex index = new FuzzyIndex(searchIndex.getKeys());
+            Log.d(DEBUG_TAG, "Building fuzzy index for " + index.size() + " keys took " + (System.currentTimeMillis() - start) + " ms");
+            fuzzyIndices.add(new FuzzyIndexEntry(searchIndex, index, keyModificationCount));
+            return index;
+        }
+    }
+
+    /**
+     * Drop all cached FuzzyIndex instances
+     */
+    public static void clearFuzzyIndices() {
+        synchronized (fuzzyIndices) {
+            fuzzyIndices.clear();
+        }
+    }
+
     /**
      * Add a search result to the results map, not adding duplicates but always using the result with the lowest weight
      * 
@@ -371,7 +371,7 @@ public class LongOsmElementMap<V extends OsmElement> implements Iterable<V>, Ser
      * 
      * @param minimumCapacity the capacity to ensure
      */
-    private void ensureCapacity(int minimumCapacity) {
+    public void ensureCapacity(int minimumCapacity) {
         int newCapacity = Tools.arraySize(minimumCapacity, fillFactor);
         if (newCapacity > data.length) {
             rehash(newCapacity);
@@ -0,0 +1,364 @@
+package de.blau.android.util.collections;
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import androidx.annotation.NonNull;
+import de.blau.android.osm.OsmElement;
+
+/**
+ * long to multiple OsmElements HashMap
+ *
+ * Maps a long key to a set of OsmElements, elements are compared by identity. As the typical use case is mapping a Node
+ * id to the Ways it is a member of, and most keys will only have one value, single values are stored directly and only
+ * keys with multiple values use an array.
+ *
+ * Open addressing with linear probing and backward shift deletion, based on public domain code see
+ * http://unlicense.org from Mikhail Vorontsov, see https://github.com/mikvor
+ *
+ * This code is not thread safe and requires external synchronization.
+ *
+ * @version 0.1
+ */
+@SuppressLint("UseSparseArrays")
+public class LongOsmElementMultiMap<V extends OsmElement> {
+
+    private static final long  FREE_KEY           = 0;
+    private static final float DEFAULT_FILLFACTOR = 0.75f;
+    private static final int   DEFAULT_CAPACITY   = 16;
+
+    /** Keys */
+    private long[]   keys;
+    /** Values, either a single V or an array of OsmElement */
+    private Object[] values;
+
+    /** Fill factor, must be between (0 and 1) */
+    private final float fillFactor;
+    /** We will resize a map once it reaches this size */
+    private int         threshold;
+    /** Current number of keys */
+    private int         size;
+    /** Mask to calculate the original position */
+    private long        mask;
+    /** Value(s) for the 'free' key */
+    private Object      freeValue;
+
+    /**
+     * Create a new map with default values for capacity and fill factor
+     */
+    public LongOsmElementMultiMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new map with the specified size and the default fill factor
+     *
+     * @param size initial capacity of the map
+     */
+    public LongOsmElementMultiMap(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive!");
+        }
+        final int capacity = Tools.arraySize(size, DEFAULT_FILLFACTOR);
+        this.mask = capacity - 1L;
+        this.fillFactor = DEFAULT_FILLFACTOR;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+
+        threshold = (int) (capacity * fillFactor);
+    }
+
+    /**
+     * Add a value for key, if the value is already present for key this is a nop
+     *
+     * @param key the key
+     * @param value the value to add
+     */
+    public void put(final long key, @NonNull final V value) {
+        if (key == FREE_KEY) {
+            freeValue = add(freeValue, value);
+            return;
+        }
+        int ptr = (int) (Tools.phiMix(key) & mask);
+        while (true) {
+            long e = keys[ptr];
+            if (e == FREE_KEY) {
+                keys[ptr] = key;
+                values[ptr] = value;
+                if (size >= threshold) {
+                    rehash(keys.length * 2); // size is set inside
+                } else {
+                    ++size;
+                }
+                return;
+            } else if (e == key) {
+                values[ptr] = add(values[ptr], value);
+                return;
+            }
+            ptr = (int) ((ptr + 1) & mask); // the next index calculation
+        }
+    }
+
+    /**
+     * Add a value to an existing slot
+     *
+     * @param current the current value(s) or null
+     * @param value the value to add
+     * @return the new value(s)
+     */
+    @NonNull
+    private static Object add(final Object current, @NonNull final OsmElement value) {
+        if (current == null) {
+            return value;
+        }
+        if (current instanceof OsmElement) {
+            if (current == value) {
+                return current;
+            }
+            return new OsmElement[] { (OsmElement) current, value };
+        }
+        OsmElement[] array = (OsmElement[]) current;
+        for (OsmElement e : array) {
+            if (e == value) {
+                return current;
+            }
+        }
+        OsmElement[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    /**
+     * Remove a value for key
+     *
+     * @param key the key
+     * @param value the value to remove
+     * @return true if the value was found and removed
+     */
+    public boolean remove(final long key, @NonNull final V value) {
+        if (key == FREE_KEY) {
+            Object temp = freeValue;
+            freeValue = removeValue(freeValue, value);
+            return temp != freeValue;
+        }
+        int ptr = find(key);
+        if (ptr < 0) {
+            return false;
+        }
+        Object current = values[ptr];
+        Object result = removeValue(current, value);
+        if (result == null) {
+            --size;
+            shiftKeys(ptr);
+        } else {
+            values[ptr] = result;
+        }
+        return result != current;
+    }
+
+    /**
+     * Remove a value from a slot
+     *
+     * @param current the current value(s) or null
+     * @param value the value to remove
+     * @return the new value(s) or null if there are none left
+     */
+    private static Object removeValue(final Object current, @NonNull final OsmElement value) {
+        if (current == null || current == value) {
+            return null;
+        }
+        if (current instanceof OsmElement) {
+            return current;
+        }
+        OsmElement[] array = (OsmElement[]) current;
+        final int length = array.length;
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                if (length == 2) {
+                    return array[1 - i];
+                }
+                OsmElement[] result = new OsmElement[length - 1];
+                System.arraycopy(array, 0, result, 0, i);
+                System.arraycopy(array, i + 1, result, i, length - i - 1);
+                return result;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Remove a key and all its values
+     *
+     * @param key the key
+     * @return true if the key was present
+     */
+    public boolean removeKey(final long key) {
+        if (key == FREE_KEY) {
+            boolean present = freeValue != null;
+            freeValue = null;
+            return present;
+        }
+        int ptr = find(key);
+        if (ptr < 0) {
+            return false;
+        }
+        --size;
+        shiftKeys(ptr);
+        return true;
+    }
+
+    /**
+     * Find the position of key
+     *
+     * @param key the key, not the free key
+     * @return the position or -1 if not found
+     */
+    private int find(final long key) {
+        int ptr = (int) (Tools.phiMix(key) & mask);
+        while (true) {
+            long e = keys[ptr];
+            if (e == FREE_KEY) {
+                return -1;
+            } else if (e == key) {
+                return ptr;
+            }
+            ptr = (int) ((ptr + 1) & mask); // the next index calculation
+        }
+    }
+
+    /**
+     * Shift entries with the same hash.
+     *
+     * @param pos starting pos
+     * @return free slot
+     */
+    private int shiftKeys(int pos) {
+        int last;
+        int slot;
+        long k;
+        final long[] temp = this.keys;
+        while (true) {
+            last = pos;
+            pos = (int) ((pos + 1) & mask);
+            while (true) {
+                if ((k = temp[pos]) == FREE_KEY) {
+                    temp[last] = FREE_KEY;
+                    values[last] = null;
+                    return last;
+                }
+                slot = (int) (Tools.phiMix(k) & mask);// calculate the starting slot for the current key
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (int) ((pos + 1) & mask); // go to the next entry
+            }
+            temp[last] = k;
+            values[last] = values[pos];
+        }
+    }
+
+    /**
+     * Add all values for key to result
+     *
+     * @param key the key
+     * @param result a List that the values will be added to
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public List<V> get(final long key, @NonNull List<V> result) {
+        Object value;
+        if (key == FREE_KEY) {
+            value = freeValue;
+        } else {
+            int ptr = find(key);
+            if (ptr < 0) {
+                return result;
+            }
+            value = values[ptr];
+        }
+        if (value instanceof OsmElement) {
+            result.add((V) value);
+        } else if (value != null) {
+            for (OsmElement e : (OsmElement[]) value) {
+                result.add((V) e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if there is at least one value for key
+     *
+     * @param key the key
+     * @return true if key is present
+     */
+    public boolean containsKey(final long key) {
+        if (key == FREE_KEY) {
+            return freeValue != null;
+        }
+        return find(key) >= 0;
+    }
+
+    /**
+     * Return the number of keys in the map
+     *
+     * @return the key count
+     */
+    public int size() {
+        return size + (freeValue != null ? 1 : 0);
+    }
+
+    /**
+     * Return if the map is empty
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Remove all keys and values from the map
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        size = 0;
+        freeValue = null;
+    }
+
+    /**
+     * Recalculate the hashes for the whole map
+     *
+     * @param newCapacity new capacity
+     */
+    private void rehash(final int newCapacity) {
+        threshold = (int) (newCapacity * fillFactor);
+        mask = newCapacity - 1L;
+
+        final int oldCapacity = keys.length;
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+
+        keys = new long[newCapacity];
+        values = new Object[newCapacity];
+
+        size = 0;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            final long k = oldKeys[i];
+            if (k != FREE_KEY) {
+                int ptr = (int) (Tools.phiMix(k) & mask);
+                while (keys[ptr] != FREE_KEY) {
+                    ptr = (int) ((ptr + 1) & mask);
+                }
+                keys[ptr] = k;
+                values[ptr] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ public class MultiHashMap<K, V> implements Serializable {
     private static final long serialVersionUID = 1L;
     private Map<K, Set<V>>    map;
     private boolean           sorted;
+    private transient int     keyModificationCount;
 
     /** Creates a regular, unsorted MultiHashMap */
     public MultiHashMap() {
@@ -86,6 +87,7 @@ public class MultiHashMap<K, V> implements Serializable {
         if (values == null) {
             values = (sorted ? new TreeSet<>() : new HashSet<>());
             map.put(key, values);
+            keyModificationCount++; // NOSONAR only needs to be different from previous values, not exact
         }
         return values.add(item);
     }
@@ -101,6 +103,7 @@ public class MultiHashMap<K, V> implements Serializable {
         if (values == null) {
             values = (sorted ? new TreeSet<>() : new HashSet<>());
             map.put(key, values);
+            keyModificationCount++; // NOSONAR only needs to be different from previous values, not exact
         }
         values.addAll(Arrays.asList(items));
     }
@@ -116,6 +119,7 @@ public class MultiHashMap<K, V> implements Serializable {
         if (values == null) {
             values = (sorted ? new TreeSet<>() : new HashSet<>());
             map.put(key, values);
+            keyModificationCount++; // NOSONAR only needs to be different from previous values, not exact
         }
         values.addAll(items);
     }
@@ -141,7 +145,9 @@ public class MultiHashMap<K, V> implements Serializable {
      * @param key key of the values we want to remove
      */
     public void removeKey(@NonNull K key) {
-        map.remove(key);
+        if (map.remove(key) != null) {
+            keyModificationCount++; // NOSONAR only needs to be different from previous values, not exact
+        }
     }
 
     /**
@@ -164,6 +170,16 @@ public class MultiHashMap<K, V> implements Serializable {
      */
     public void clear() {
         map.clear();
+        keyModificationCount++; // NOSONAR only needs to be different from previous values, not exact
+    }
+
+    /**
+     * Get a counter that changes every time a key is added or removed via the methods of this class
+     * 
+     * @return the current value of the counter
+     */
+    public int getKeyModificationCount() {
+        return keyModificationCount;
     }
 
     /**
@@ -0,0 +1,240 @@
+package de.blau.android.util.collections;
+
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.OsmElement;
+
+/**
+ * OsmElement to value HashMap
+ * 
+ * Keys are hashed on the element id and stored in a primitive open addressing table with the ids and values in
+ * parallel arrays, so that lookups neither allocate nor call hashCode and equals. Removal shifts following entries back
+ * instead of leaving tombstones so that the table doesn't degrade with many removals.
+ * 
+ * Keys are matched on identity, an entry for a different element object with the same id is treated as absent and
+ * will be replaced by put. Null values are supported.
+ * 
+ * The id of an element is recorded when it is added, if the id of the element changes afterwards the entry can only be
+ * found and removed with the old id, the map stays consistent but will not find the element with its new id.
+ * 
+ * This code is not thread safe and requires external synchronization.
+ * 
+ * @param <K> the OsmElement type
+ * @param <V> the value type
+ */
+public class OsmElementValueMap<K extends OsmElement, V> {
+
+    private static final float FILLFACTOR       = 0.5f;
+    private static final int   DEFAULT_CAPACITY = 16;
+
+    public interface SelectValue<W> {
+        /**
+         * Select a value
+         * 
+         * @param value the value
+         * @return true if the element the value belongs to should be selected
+         */
+        boolean select(@Nullable W value);
+    }
+
+    private OsmElement[] keys;
+    private long[]       ids;
+    private Object[]     values;
+    private int          threshold;
+    private int          size;
+    private int          mask;
+
+    /**
+     * Create a new map with the default capacity
+     */
+    public OsmElementValueMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new map with the specified capacity
+     * 
+     * @param size initial size of the map
+     */
+    public OsmElementValueMap(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive!");
+        }
+        allocate(Tools.arraySize(size, FILLFACTOR));
+    }
+
+    /**
+     * Allocate new arrays
+     * 
+     * @param capacity the capacity, this needs to be a power of 2
+     */
+    private void allocate(int capacity) {
+        keys = new OsmElement[capacity];
+        ids = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * FILLFACTOR);
+        size = 0;
+    }
+
+    /**
+     * Find the slot for an id
+     * 
+     * @param id the element id
+     * @return the slot holding an element with the id or the free slot terminating the chain
+     */
+    private int slot(long id) {
+        int ptr = (int) (Tools.phiMix(id) & mask);
+        while (keys[ptr] != null && ids[ptr] != id) {
+            ptr = (ptr + 1) & mask;
+        }
+        return ptr;
+    }
+
+    /**
+     * Get the value for an element
+     * 
+     * @param key the element
+     * @return the value or null if not present
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(@NonNull K key) {
+        int ptr = slot(key.getOsmId());
+        return keys[ptr] == key ? (V) values[ptr] : null;
+    }
+
+    /**
+     * Check if there is an entry for an element
+     * 
+     * @param key the element
+     * @return true if there is an entry for exactly this element
+     */
+    public boolean containsKey(@NonNull K key) {
+        return keys[slot(key.getOsmId())] == key;
+    }
+
+    /**
+     * Set the value for an element replacing any existing entry with the same id
+     * 
+     * @param key the element
+     * @param value the value
+     */
+    public void put(@NonNull K key, @Nullable V value) {
+        final long id = key.getOsmId();
+        int ptr = slot(id);
+        if (keys[ptr] == null) {
+            if (size >= threshold) {
+                rehash(keys.length * 2);
+                ptr = slot(id);
+            }
+            size++;
+        }
+        keys[ptr] = key;
+        ids[ptr] = id;
+        values[ptr] = value;
+    }
+
+    /**
+     * Remove the entry with a specific id
+     * 
+     * @param id the element id
+     * @return true if an entry was removed
+     */
+    public boolean remove(long id) {
+        int ptr = slot(id);
+        if (keys[ptr] == null) {
+            return false;
+        }
+        // shift following entries of the chain back if they are not in their home slot
+        int free = ptr;
+        ptr = (ptr + 1) & mask;
+        while (keys[ptr] != null) {
+            int home = (int) (Tools.phiMix(ids[ptr]) & mask);
+            if (((ptr - home) & mask) >= ((ptr - free) & mask)) {
+                keys[free] = keys[ptr];
+                ids[free] = ids[ptr];
+                values[free] = values[ptr];
+                free = ptr;
+            }
+            ptr = (ptr + 1) & mask;
+        }
+        keys[free] = null;
+        values[free] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Get the number of entries
+     * 
+     * @return the entry count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the map is empty
+     * 
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Add the elements with selected values to a List
+     * 
+     * @param result the List to add the elements to
+     * @param s the selector
+     * @return result
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public List<K> keys(@NonNull List<K> result, @NonNull SelectValue<V> s) {
+        for (int i = 0; i < keys.length; i++) {
+            OsmElement e = keys[i];
+            if (e != null && s.select((V) values[i])) {
+                result.add((K) e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rehash the map
+     * 
+     * @param newCapacity new size
+     */
+    private void rehash(int newCapacity) {
+        final OsmElement[] oldKeys = keys;
+        final long[] oldIds = ids;
+        final Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            OsmElement e = oldKeys[i];
+            if (e != null) {
+                int ptr = slot(oldIds[i]);
+                keys[ptr] = e;
+                ids[ptr] = oldIds[i];
+                values[ptr] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
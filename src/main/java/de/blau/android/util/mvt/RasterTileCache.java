@@ -0,0 +1,155 @@
+package de.blau.android.util.mvt;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Size limited LRU cache for rendered vector tiles
+ * 
+ * Entries are keyed by the identity of the decoded tile, the zoom level the tile was rendered for, the size of the
+ * Bitmap and the revision of the Style that was used. The decoded tiles are only weakly referenced, so that tiles
+ * that have been evicted from the tile cache can be garbage collected, their entries will simply not be found again
+ * and age out.
+ */
+public class RasterTileCache {
+
+    private final long                       maxBytes;
+    private long                             bytes = 0;
+    private final LinkedHashMap<Key, Bitmap> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Key {
+        private final WeakReference<Object> tile;
+        private final int                   tileHash;
+        private final int                   zoom;
+        private final int                   width;
+        private final int                   height;
+        private final int                   revision;
+
+        /**
+         * Construct a new key
+         * 
+         * @param tile the decoded tile
+         * @param zoom the zoom level
+         * @param width the width of the Bitmap
+         * @param height the height of the Bitmap
+         * @param revision the Style revision
+         */
+        Key(@NonNull Object tile, int zoom, int width, int height, int revision) {
+            this.tile = new WeakReference<>(tile);
+            tileHash = System.identityHashCode(tile);
+            this.zoom = zoom;
+            this.width = width;
+            this.height = height;
+            this.revision = revision;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((tileHash * 31 + zoom) * 31 + width) * 31 + height) * 31 + revision;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            Object t = tile.get();
+            return t != null && t == other.tile.get() && zoom == other.zoom && width == other.width && height == other.height
+                    && revision == other.revision;
+        }
+    }
+
+    /**
+     * Construct a new cache
+     * 
+     * @param maxBytes the maximum total size of the cached Bitmaps in bytes
+     */
+    public RasterTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a rendered tile
+     * 
+     * @param tile the decoded tile
+     * @param zoom the zoom level
+     * @param width the width of the Bitmap
+     * @param height the height of the Bitmap
+     * @param revision the Style revision
+     * @return the Bitmap or null if not found
+     */
+    @Nullable
+    public synchronized Bitmap get(@NonNull Object tile, int zoom, int width, int height, int revision) {
+        return cache.get(new Key(tile, zoom, width, height, revision));
+    }
+
+    /**
+     * Add a rendered tile, evicting the least recently used ones if necessary
+     * 
+     * @param tile the decoded tile
+     * @param zoom the zoom level
+     * @param revision the Style revision
+     * @param bitmap the rendered tile
+     */
+    public synchronized void put(@NonNull Object tile, int zoom, int revision, @NonNull Bitmap bitmap) {
+        Bitmap previous = cache.put(new Key(tile, zoom, bitmap.getWidth(), bitmap.getHeight(), revision), bitmap);
+        if (previous != null) {
+            bytes -= previous.getByteCount();
+        }
+        bytes += bitmap.getByteCount();
+        Iterator<Entry<Key, Bitmap>> it = cache.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Bitmap eldest = it.next().getValue();
+            if (eldest != bitmap) {
+                // don't recycle, the Bitmap may still be in use for drawing
+                bytes -= eldest.getByteCount();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        cache.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the number of cached tiles
+     * 
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the total size of the cached Bitmaps
+     * 
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the maximum size of the cache
+     * 
+     * @return the size in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -40,6 +40,7 @@ import android.graphics.Rect;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import de.blau.android.util.GeoJSONConstants;
 import vector_tile.VectorTile;
 import vector_tile.VectorTile.Tile.GeomType;
 import vector_tile.VectorTile.Tile.Layer;
@@ -129,78 +130,95 @@ public class VectorTileDecoder {
     }
 
     /**
-     * Decode geometry
-     * 
-     * Currently this decodes to GeoJson, this is not very efficient for linear features and rings and should be
-     * replaced
+     * Decode the geometry commands to absolute coordinates
      * 
      * @param geomType target GeomType
      * @param commands MVT commands
-     * @param scale scaling factor
-     * @return a GeoJson geometry
+     * @param coords array for the coordinates, x and y interleaved, needs to be at least twice as long as commands
+     * @param sizes array for the number of coordinates of each part, needs to be at least as long as commands
+     * @return the number of parts
      */
-    @NonNull
-    static Geometry decodeGeometry(@NonNull GeomType geomType, @NonNull List<Integer> commands, double scale) {
+    private static int decodeCoordinates(@NonNull GeomType geomType, @NonNull int[] commands, @NonNull int[] coords, @NonNull int[] sizes) {
         int x = 0;
         int y = 0;
 
-        List<List<Point>> coordsList = new ArrayList<>();
-        List<Point> coords = null;
+        int parts = 0;
+        int partStart = 0;
+        int pos = 0;
 
-        int geometryCount = commands.size();
+        int geometryCount = commands.length;
         int length = 0;
         int command = 0;
         int i = 0;
         while (i < geometryCount) {
 
             if (length <= 0) {
-                length = commands.get(i++).intValue();
+                length = commands[i++];
                 command = length & ((1 << 3) - 1);
                 length = length >> 3;
             }
 
             if (length > 0) {
                 if (command == Command.MOVE_TO) {
-                    coords = new ArrayList<>();
-                    coordsList.add(coords);
+                    partStart = pos;
+                    sizes[parts++] = 0;
                 }
                 length--;
 
-                if (coords == null) {
+                if (parts == 0) {
                     Log.e(DEBUG_TAG, "Command " + command + " without preceeding MOVE_TO");
                     continue;
                 }
                 if (command == Command.CLOSE_PATH) {
-                    if (geomType != VectorTile.Tile.GeomType.POINT && !coords.isEmpty()) {
-                        coords.add(coords.get(0));
+                    if (geomType != VectorTile.Tile.GeomType.POINT && pos > partStart) {
+                        coords[pos++] = coords[partStart];
+                        coords[pos++] = coords[partStart + 1];
+                        sizes[parts - 1]++;
                     }
                 } else {
                     // Command.LINE_TO must have been proceeded by a MOVE_TO
-                    int dx = commands.get(i++).intValue();
-                    int dy = commands.get(i++).intValue();
-
-                    dx = zigZagDecode(dx);
-                    dy = zigZagDecode(dy);
-
-                    x = x + dx;
-                    y = y + dy;
-
-                    Point coord = Point.fromLngLat(x / scale, y / scale);
-                    coords.add(coord);
+                    if (i + 1 >= geometryCount) {
+                        Log.e(DEBUG_TAG, "Truncated geometry");
+                        break;
+                    }
+                    x = x + zigZagDecode(commands[i++]);
+                    y = y + zigZagDecode(commands[i++]);
+                    coords[pos++] = x;
+                    coords[pos++] = y;
+                    sizes[parts - 1]++;
                 }
             }
         }
+        return parts;
+    }
+
+    /**
+     * Decode geometry
+     * 
+     * Currently this decodes to GeoJson, this is not very efficient for linear features and rings and should be
+     * replaced
+     * 
+     * @param geomType target GeomType
+     * @param commands MVT commands
+     * @param scale scaling factor
+     * @return a GeoJson geometry
+     */
+    @NonNull
+    static Geometry decodeGeometry(@NonNull GeomType geomType, @NonNull int[] commands, double scale) {
+        int[] coords = new int[2 * commands.length];
+        int[] sizes = new int[commands.length];
+        int parts = decodeCoordinates(geomType, commands, coords, sizes);
 
         Geometry geometry = null;
 
         switch (geomType) {
         case LINESTRING:
             List<LineString> lineStrings = new ArrayList<>();
-            for (List<Point> cs : coordsList) {
-                if (cs.size() <= 1) {
+            for (int part = 0, offset = 0; part < parts; offset += 2 * sizes[part], part++) {
+                if (sizes[part] <= 1) {
                     continue;
                 }
-                lineStrings.add(LineString.fromLngLats(cs));
+                lineStrings.add(LineString.fromLngLats(toPoints(coords, offset, sizes[part], scale)));
             }
             if (lineStrings.size() == 1) {
                 geometry = lineStrings.get(0);
@@ -209,22 +227,22 @@ public class VectorTileDecoder {
             }
             break;
         case POINT:
-            List<Point> allCoords = new ArrayList<>();
-            for (List<Point> cs : coordsList) {
-                allCoords.addAll(cs);
+            int count = 0;
+            for (int part = 0; part < parts; part++) {
+                count += sizes[part];
             }
-            if (allCoords.size() == 1) {
-                geometry = allCoords.get(0);
-            } else if (allCoords.size() > 1) {
-                geometry = MultiPoint.fromLngLats(allCoords);
+            if (count == 1) {
+                geometry = Point.fromLngLat(coords[0] / scale, coords[1] / scale);
+            } else if (count > 1) {
+                geometry = MultiPoint.fromLngLats(toPoints(coords, 0, count, scale));
             }
             break;
         case POLYGON:
             List<List<LineString>> polygonRings = new ArrayList<>();
             List<LineString> ringsForCurrentPolygon = new ArrayList<>();
-            for (List<Point> cs : coordsList) {
+            for (int part = 0, offset = 0; part < parts; offset += 2 * sizes[part], part++) {
                 // skip exterior with too few coordinates
-                final boolean lessThan4 = cs.size() < 4;
+                final boolean lessThan4 = sizes[part] < 4;
                 if (ringsForCurrentPolygon.isEmpty() && lessThan4) {
                     break;
                 }
@@ -232,9 +250,9 @@ public class VectorTileDecoder {
                 if (!ringsForCurrentPolygon.isEmpty() && lessThan4) {
                     continue;
                 }
-                LineString ring = LineString.fromLngLats(cs); // is this closed or not?
+                LineString ring = LineString.fromLngLats(toPoints(coords, offset, sizes[part], scale)); // is this closed or not?
 
-                if (winding(ring.coordinates()) == COUNTERCLOCKWISE) {
+                if (winding(coords, offset, sizes[part], scale) == COUNTERCLOCKWISE) {
                     ringsForCurrentPolygon = new ArrayList<>();
                     polygonRings.add(ringsForCurrentPolygon);
                 }
@@ -266,27 +284,94 @@ public class VectorTileDecoder {
         return geometry;
     }
 
+    /**
+     * Determine the GeoJSON type the geometry would have when decoded without actually creating the Geometry
+     * 
+     * @param geomType target GeomType
+     * @param commands MVT commands
+     * @param scale scaling factor
+     * @return the GeoJSON geometry type
+     */
+    @NonNull
+    static String decodeGeometryType(@NonNull GeomType geomType, @NonNull int[] commands, double scale) {
+        int[] coords = new int[2 * commands.length];
+        int[] sizes = new int[commands.length];
+        int parts = decodeCoordinates(geomType, commands, coords, sizes);
+
+        int count = 0;
+        switch (geomType) {
+        case LINESTRING:
+            for (int part = 0; part < parts; part++) {
+                if (sizes[part] > 1) {
+                    count++;
+                }
+            }
+            return count == 1 ? GeoJSONConstants.LINESTRING : count > 1 ? GeoJSONConstants.MULTILINESTRING : GeoJSONConstants.GEOMETRYCOLLECTION;
+        case POINT:
+            for (int part = 0; part < parts; part++) {
+                count += sizes[part];
+            }
+            return count == 1 ? GeoJSONConstants.POINT : count > 1 ? GeoJSONConstants.MULTIPOINT : GeoJSONConstants.GEOMETRYCOLLECTION;
+        case POLYGON:
+            boolean haveRings = false;
+            for (int part = 0, offset = 0; part < parts; offset += 2 * sizes[part], part++) {
+                final boolean lessThan4 = sizes[part] < 4;
+                if (!haveRings && lessThan4) {
+                    break;
+                }
+                if (haveRings && lessThan4) {
+                    continue;
+                }
+                if (winding(coords, offset, sizes[part], scale) == COUNTERCLOCKWISE) {
+                    count++;
+                }
+                haveRings = true;
+            }
+            return count == 1 ? GeoJSONConstants.POLYGON : count > 1 ? GeoJSONConstants.MULTIPOLYGON : GeoJSONConstants.GEOMETRYCOLLECTION;
+        default:
+            return GeoJSONConstants.GEOMETRYCOLLECTION;
+        }
+    }
+
+    /**
+     * Convert decoded coordinates to a List of Points
+     * 
+     * @param coords the coordinates, x and y interleaved
+     * @param offset the offset of the first coordinate
+     * @param count the number of coordinates
+     * @param scale scaling factor
+     * @return a List of Points
+     */
+    @NonNull
+    private static List<Point> toPoints(@NonNull int[] coords, int offset, int count, double scale) {
+        List<Point> points = new ArrayList<>(count);
+        for (int i = offset; i < offset + 2 * count; i += 2) {
+            points.add(Point.fromLngLat(coords[i] / scale, coords[i + 1] / scale));
+        }
+        return points;
+    }
+
     public static final int COLINEAR         = 0;
     public static final int CLOCKWISE        = -1;
     public static final int COUNTERCLOCKWISE = 1;
 
     /**
-     * Determine winding of a List of Nodes
+     * Determine winding of a ring of decoded coordinates
      * 
-     * @param points the List of Points (must contain at least one)
+     * @param coords the coordinates, x and y interleaved
+     * @param offset the offset of the first coordinate
+     * @param count the number of coordinates (must be at least one)
+     * @param scale scaling factor
      * @return an int indicating winding direction
      */
-    private static int winding(List<Point> points) {
+    private static int winding(@NonNull int[] coords, int offset, int count, double scale) {
         double area = 0;
-        int s = points.size();
-        Point n1 = points.get(0);
-        double lat1 = n1.latitude();
-        double lon1 = n1.longitude();
-        int size = points.size();
-        for (int i = 0; i < size; i++) {
-            Point n2 = points.get((i + 1) % s);
-            double lat2 = n2.latitude();
-            double lon2 = n2.longitude();
+        double lat1 = coords[offset + 1] / scale;
+        double lon1 = coords[offset] / scale;
+        for (int i = 0; i < count; i++) {
+            int next = offset + 2 * ((i + 1) % count);
+            double lat2 = coords[next + 1] / scale;
+            double lon2 = coords[next] / scale;
             area = area + (lat2 - lat1) * (lon2 + lon1);
             lat1 = lat2;
             lon1 = lon2;
@@ -359,6 +444,33 @@ public class VectorTileDecoder {
             return features;
         }
 
+        /**
+         * Get a FeatureIterable for the same tile with a different layer filter
+         * 
+         * @param filter the new layer Filter
+         * @return a new FeatureIterable
+         */
+        @NonNull
+        public FeatureIterable filter(@NonNull Filter filter) {
+            return new FeatureIterable(tile, filter, autoScale);
+        }
+
+        /**
+         * Get the attribute keys used in a layer without decoding its features
+         * 
+         * @param layerName the layer name
+         * @return a List of the keys, empty if the layer doesn't exist
+         */
+        @NonNull
+        public List<String> getAttributeKeys(@NonNull String layerName) {
+            for (VectorTile.Tile.Layer layer : tile.getLayersList()) {
+                if (layerName.equals(layer.getName())) {
+                    return layer.getKeysList();
+                }
+            }
+            return Collections.emptyList();
+        }
+
         /**
          * Get all layer names from this tile
          * 
@@ -512,9 +624,13 @@ public class VectorTileDecoder {
                 attributes.put(key, value);
             }
 
-            Geometry geometry = decodeGeometry(feature.getType(), feature.getGeometryList(), scale);
+            int geometryCount = feature.getGeometryCount();
+            int[] commands = new int[geometryCount];
+            for (int i = 0; i < geometryCount; i++) {
+                commands[i] = feature.getGeometry(i);
+            }
 
-            return new Feature(layerName, extent, geometry, Collections.unmodifiableMap(attributes), feature.getId());
+            return new Feature(layerName, extent, feature.getType(), commands, scale, Collections.unmodifiableMap(attributes), feature.getId());
         }
 
         @Override
@@ -526,7 +642,8 @@ public class VectorTileDecoder {
     /**
      * Class holding MVT features
      * 
-     * Uses a GeoJSON Geometry object, note that this does not actually contain valid GeoJSON coordinates
+     * Uses a GeoJSON Geometry object, note that this does not actually contain valid GeoJSON coordinates. Features
+     * created by the decoder retain the geometry as MVT commands and only decode it when it is first accessed.
      *
      */
     public static final class Feature {
@@ -534,7 +651,11 @@ public class VectorTileDecoder {
         private final String              layerName;
         private final int                 extent;
         private final long                id;
-        private final Geometry            geometry;
+        private final GeomType            geomType;
+        private final int[]               commands;
+        private final double              scale;
+        private volatile Geometry         geometry;
+        private String                    geometryType;
         private final Map<String, Object> attributes;
         private Rect                      box;
         private Object                    cachedLabel;
@@ -550,9 +671,28 @@ public class VectorTileDecoder {
          * @param id optional id
          */
         public Feature(@NonNull String layerName, int extent, @NonNull Geometry geometry, @NonNull Map<String, Object> attributes, long id) {
+            this(layerName, extent, null, null, 1.0, attributes, id);
+            this.geometry = geometry;
+        }
+
+        /**
+         * Construct a new MVT Feature with a geometry that will be decoded on demand
+         * 
+         * @param layerName the layer name
+         * @param extent tile size (one side)
+         * @param geomType the MVT geometry type
+         * @param commands the MVT geometry commands
+         * @param scale scaling factor
+         * @param attributes attributes for the feature
+         * @param id optional id
+         */
+        Feature(@NonNull String layerName, int extent, @Nullable GeomType geomType, @Nullable int[] commands, double scale,
+                @NonNull Map<String, Object> attributes, long id) {
             this.layerName = layerName;
             this.extent = extent;
-            this.geometry = geometry;
+            this.geomType = geomType;
+            this.commands = commands;
+            this.scale = scale;
             this.attributes = attributes;
             this.id = id;
         }
@@ -592,7 +732,31 @@ public class VectorTileDecoder {
          */
         @NonNull
         public Geometry getGeometry() {
-            return geometry;
+            Geometry result = geometry;
+            if (result == null) {
+                // decoding twice in a race is harmless
+                result = decodeGeometry(geomType, commands, scale);
+                geometry = result;
+            }
+            return result;
+        }
+
+        /**
+         * Get the GeoJSON type of the geometry for this feature
+         * 
+         * This avoids decoding the geometry if it hasn't been yet
+         * 
+         * @return the GeoJSON geometry type
+         */
+        @NonNull
+        public String getGeometryType() {
+            String result = geometryType;
+            if (result == null) {
+                Geometry g = geometry;
+                result = g != null ? g.type() : decodeGeometryType(geomType, commands, scale);
+                geometryType = result;
+            }
+            return result;
         }
 
         /**
@@ -2,18 +2,23 @@ package de.blau.android.util.mvt;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
-import com.google.gson.JsonArray;
 import com.mapbox.geojson.CoordinateContainer;
 import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.GeometryCollection;
 import com.mapbox.geojson.Point;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Picture;
@@ -22,6 +27,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.util.GeoJSONConstants;
+import de.blau.android.util.Util;
 import de.blau.android.util.mvt.style.Background;
 import de.blau.android.util.mvt.style.Fill;
 import de.blau.android.util.mvt.style.Layer;
@@ -49,6 +55,7 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
 
     private Set<String>              layerNames    = new HashSet<>();
     private Map<String, Set<String>> attributeKeys = new HashMap<>();
+    private int                      maxTileZoom   = 0;
 
     private Rect destinationRect;
     private Rect screenRect;
@@ -60,6 +67,21 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
     private Canvas  symbolCanvas;
     private boolean renderPass;
 
+    /**
+     * Rasterized tiles, rendering in to the Bitmaps is done on a background thread, which is only allowed to run
+     * between frames. The lock is only held for one style layer at a time, if a frame has started in the mean time
+     * the tile is abandoned and will be queued again the next time it is displayed.
+     */
+    private RasterTileCache    rasterCache;
+    private Runnable           rasterListener;
+    private ThreadPoolExecutor rasterExecutor;
+    private final Set<Object>  rasterPending = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile int       tileWidth;
+    private volatile int       tileHeight;
+    private final Object       renderLock    = new Object();
+    private boolean            inFrame       = false;
+    private int                frameCount    = 0;
+
     /**
      * Create a new instance
      */
@@ -73,8 +95,13 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
      * @param style the Style object
      */
     public void setStyle(@NonNull Style style) {
-        this.style = style;
-        lastZoom = -1;
+        synchronized (renderLock) {
+            this.style = style;
+            lastZoom = -1;
+            if (rasterCache != null) {
+                rasterCache.clear();
+            }
+        }
     }
 
     /**
@@ -132,8 +159,44 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
     List<Layer>                     layerToRender    = new ArrayList<>();
     List<VectorTileDecoder.Feature> featuresToRender = new ArrayList<>();
 
+    /**
+     * Turn rendering tiles to Bitmaps on or off
+     * 
+     * If a cache is set, tiles are rendered to Bitmaps in the background the first time they are displayed at a
+     * specific zoom level and size, as long as that doesn't change, the Bitmaps are then used instead of rendering the
+     * features again. Labels and symbols are clipped at the tile borders and collision detection is per tile.
+     * 
+     * @param cache the RasterTileCache to use or null to turn rasterizing off
+     * @param listener called after a tile has been rendered to a Bitmap
+     */
+    public void setRasterCache(@Nullable RasterTileCache cache, @Nullable Runnable listener) {
+        if (rasterExecutor != null) {
+            Util.shutDownThreadPool(rasterExecutor);
+            rasterExecutor = null;
+        }
+        rasterCache = cache;
+        rasterListener = listener;
+        if (cache != null) {
+            rasterExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        }
+    }
+
+    /**
+     * Get the cache for rasterized tiles
+     * 
+     * @return the RasterTileCache or null if rasterizing is turned off
+     */
+    @Nullable
+    public RasterTileCache getRasterCache() {
+        return rasterCache;
+    }
+
     @Override
     public void preRender(@NonNull Canvas c, int z) {
+        synchronized (renderLock) {
+            inFrame = true;
+            frameCount++; // NOSONAR only needs to be different from previous values, not exact
+        }
         style.resetCollisionDetection();
         setScreenRect(c);
         symbolPicture.endRecording(); // if we haven't finished rendering abort here
@@ -148,57 +211,227 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
             lastZoom = z;
             renderPass = false;
         }
+        synchronized (renderLock) {
+            inFrame = false;
+            renderLock.notifyAll();
+        }
     }
 
     @Override
     public void render(@NonNull Canvas c, @NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z, @Nullable Rect fromRect,
             @NonNull Rect destinationRect, @NonNull Paint paint) {
+        if (rasterCache != null) {
+            final int width = destinationRect.width();
+            final int height = destinationRect.height();
+            tileWidth = width;
+            tileHeight = height;
+            Bitmap bitmap = rasterCache.get(features, z, width, height, style.getRevision());
+            if (bitmap != null) {
+                c.drawBitmap(bitmap, null, destinationRect, null);
+                return;
+            }
+            rasterize(features, z, width, height);
+        }
         renderPass = true;
-        scaleX = destinationRect.width() / 256f;
-        scaleY = destinationRect.height() / 256f;
-        this.destinationRect = destinationRect;
+        renderLayers(c, features, z, destinationRect);
+    }
+
+    /**
+     * Render the features of a tile
+     * 
+     * @param c the target Canvas
+     * @param features the features of the tile by source layer
+     * @param z the zoom level
+     * @param destinationRect destination rect
+     */
+    private void renderLayers(@NonNull Canvas c, @NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z,
+            @NonNull Rect destinationRect) {
         layerToRender.clear();
         List<Layer> temp = style.getLayers();
         synchronized (temp) { // protect against CME
             layerToRender.addAll(temp);
         }
-
         for (Layer layer : layerToRender) {
-            if (layer.isVisible() && z >= layer.getMinZoom() && (layer.getMaxZoom() == -1 || z <= layer.getMaxZoom())) {
-                if (layer instanceof Background) {
-                    if (z != lastZoom) {
-                        layer.onZoomChange(style, null, z);
-                    }
-                    layer.render(c, style, null, z, screenRect, destinationRect, scaleX, scaleX);
-                    continue;
+            renderLayer(c, layer, features, z, destinationRect);
+        }
+    }
+
+    /**
+     * Render the features of a tile for one style layer
+     * 
+     * @param c the target Canvas
+     * @param layer the style layer
+     * @param features the features of the tile by source layer
+     * @param z the zoom level
+     * @param destinationRect destination rect
+     */
+    private void renderLayer(@NonNull Canvas c, @NonNull Layer layer, @NonNull Map<String, List<VectorTileDecoder.Feature>> features, int z,
+            @NonNull Rect destinationRect) {
+        if (!layer.isVisible() || z < layer.getMinZoom() || (layer.getMaxZoom() != -1 && z > layer.getMaxZoom())) {
+            return;
+        }
+        scaleX = destinationRect.width() / 256f;
+        scaleY = destinationRect.height() / 256f;
+        this.destinationRect = destinationRect;
+        if (layer instanceof Background) {
+            if (z != lastZoom) {
+                layer.onZoomChange(style, null, z);
+            }
+            layer.render(c, style, null, z, screenRect, destinationRect, scaleX, scaleX);
+            return;
+        }
+        // feature rendering
+        List<VectorTileDecoder.Feature> list = features.get(layer.getSourceLayer());
+        if (list != null) {
+            featuresToRender.clear();
+            for (VectorTileDecoder.Feature feature : list) {
+                // filter first, intersectsScreen requires the geometry to be decoded
+                if (layer.evaluateFilter(feature) && intersectsScreen(feature)) {
+                    featuresToRender.add(feature);
                 }
-                // feature rendering
-                List<VectorTileDecoder.Feature> list = features.get(layer.getSourceLayer());
-                if (list != null) {
-                    JsonArray filter = layer.getFilter();
-                    featuresToRender.clear();
-                    for (VectorTileDecoder.Feature feature : list) {
-                        if (intersectsScreen(feature) && (filter == null || layer.evaluateFilter(filter, feature))) {
-                            featuresToRender.add(feature);
-                        }
+            }
+            // FIXME sort here when implemented
+            if (layer instanceof Symbol) {
+                // labels and icons are not clipped at tile boundaries, further to avoid covering them if they
+                // do exceed tile boundaries, we record to symbolCanvas and then draw all of them when
+                // everything else has been done
+                renderFeatures(symbolCanvas, layer, z, destinationRect, featuresToRender);
+            } else {
+                c.save();
+                c.clipRect(destinationRect);
+                renderFeatures(c, layer, z, destinationRect, featuresToRender);
+                c.restore();
+            }
+        }
+    }
+
+    /**
+     * Queue rendering a tile to a Bitmap
+     * 
+     * @param features the features of the tile by source layer
+     * @param z the zoom level
+     * @param width the width of the tile on screen
+     * @param height the height of the tile on screen
+     */
+    private void rasterize(@NonNull final Map<String, List<VectorTileDecoder.Feature>> features, final int z, final int width, final int height) {
+        final ThreadPoolExecutor executor = rasterExecutor;
+        if (executor == null || width <= 0 || height <= 0) {
+            return;
+        }
+        synchronized (rasterPending) {
+            if (!rasterPending.add(features)) {
+                return;
+            }
+        }
+        final RasterTileCache cache = rasterCache;
+        final Runnable listener = rasterListener;
+        final Style tileStyle = style;
+        final int revision = tileStyle.getRevision();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (renderTile(cache, width, height, features, z, tileStyle, revision) && listener != null) {
+                        listener.run();
                     }
-                    // FIXME sort here when implemented
-                    if (layer instanceof Symbol) {
-                        // labels and icons are not clipped at tile boundaries, further to avoid covering them if they
-                        // do exceed tile boundaries, we record to symbolCanvas and then draw all of them when
-                        // everything else has been done
-                        renderFeatures(symbolCanvas, layer, z, destinationRect, featuresToRender);
-                    } else {
-                        c.save();
-                        c.clipRect(destinationRect);
-                        renderFeatures(c, layer, z, destinationRect, featuresToRender);
-                        c.restore();
+                } catch (OutOfMemoryError oom) {
+                    cache.clear();
+                    Log.e(DEBUG_TAG, "Rasterizing tile failed " + oom.getMessage());
+                } finally {
+                    synchronized (rasterPending) {
+                        rasterPending.remove(features);
                     }
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (rasterPending) {
+                rasterPending.remove(features);
+            }
+            Log.e(DEBUG_TAG, "Rasterizing tile rejected " + e.getMessage());
+        }
+    }
+
+    /**
+     * Render a tile to a Bitmap between frames and add it to the cache
+     * 
+     * Nothing is rendered if the size of tiles on screen or the style have changed in the mean time, as is the case
+     * when zooming or editing the style. The shared rendering state is only locked for one style layer at a time, if a
+     * frame starts the tile is abandoned as the frame resets the collision detection.
+     * 
+     * @param cache the RasterTileCache
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @param features the features of the tile by source layer
+     * @param z the zoom level
+     * @param tileStyle the Style at the time rendering was requested
+     * @param revision the revision of the Style at that time
+     * @return true if the tile was rendered
+     */
+    private boolean renderTile(@NonNull RasterTileCache cache, int width, int height, @NonNull Map<String, List<VectorTileDecoder.Feature>> features,
+            int z, @NonNull Style tileStyle, int revision) {
+        final List<Layer> layers = new ArrayList<>();
+        final int frame;
+        synchronized (renderLock) {
+            try {
+                while (inFrame) {
+                    renderLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (isStale(width, height, tileStyle, revision)) {
+                return false;
+            }
+            frame = frameCount;
+            List<Layer> temp = style.getLayers();
+            synchronized (temp) { // protect against CME
+                layers.addAll(temp);
+            }
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Rect rect = new Rect(0, 0, width, height);
+        final Rect tileScreenRect = new Rect(rect);
+        final Canvas c = new Canvas(bitmap);
+        boolean first = true;
+        for (Layer layer : layers) {
+            synchronized (renderLock) {
+                if (inFrame || frame != frameCount || isStale(width, height, tileStyle, revision)) {
+                    return false;
+                }
+                screenRect = tileScreenRect;
+                symbolCanvas = c;
+                if (first) {
+                    style.resetCollisionDetection();
+                    first = false;
+                }
+                lastZoom = -1; // zoom dependent values need to be evaluated for all features, and again in the next frame
+                renderLayer(c, layer, features, z, rect);
+            }
+        }
+        synchronized (renderLock) {
+            if (isStale(width, height, tileStyle, revision)) {
+                return false;
             }
+            cache.put(features, z, revision, bitmap);
+            return true;
         }
     }
 
+    /**
+     * Check if a tile that is being rendered is no longer needed
+     * 
+     * Needs to be called with renderLock held
+     * 
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @param tileStyle the Style at the time rendering was requested
+     * @param revision the revision of the Style at that time
+     * @return true if the size of tiles on screen or the style have changed
+     */
+    private boolean isStale(int width, int height, @NonNull Style tileStyle, int revision) {
+        return width != tileWidth || height != tileHeight || tileStyle != style || revision != style.getRevision();
+    }
+
     /**
      * Set and save the screen rect if it hasn't been yet
      * 
@@ -230,15 +463,33 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
         }
     }
 
+    /**
+     * Set the maximum zoom level tiles are available for
+     * 
+     * Tiles for this zoom level are displayed at higher zoom levels too, so they can't be pruned by the minimum zoom of
+     * the style layers
+     * 
+     * @param maxTileZoom the maximum zoom level of the tile source
+     */
+    public void setMaxTileZoom(int maxTileZoom) {
+        this.maxTileZoom = maxTileZoom;
+    }
+
     @Override
     @NonNull
     public TileDecoder<Map<String, List<VectorTileDecoder.Feature>>> decoder() {
-        return (byte[] data, boolean small) -> {
-            try {
-                Map<String, List<VectorTileDecoder.Feature>> features = decoder.decode(data).asMap();
-                for (List<VectorTileDecoder.Feature> values : features.values()) {
-                    for (VectorTileDecoder.Feature feature : values) {
-                        final String sourceLayer = feature.getLayerName();
+        return new TileDecoder<Map<String, List<VectorTileDecoder.Feature>>>() {
+
+            @Override
+            public Map<String, List<VectorTileDecoder.Feature>> decode(@NonNull byte[] data, boolean small) {
+                return decode(data, small, -1);
+            }
+
+            @Override
+            public Map<String, List<VectorTileDecoder.Feature>> decode(@NonNull byte[] data, boolean small, int zoom) {
+                try {
+                    VectorTileDecoder.FeatureIterable tile = decoder.decode(data);
+                    for (String sourceLayer : tile.getLayerNames()) {
                         layerNames.add(sourceLayer);
                         if (style.isAutoStyle()) {
                             style.addAutoLayers(sourceLayer);
@@ -248,13 +499,17 @@ public class VectorTileRenderer implements MapTilesLayer.TileRenderer<Map<String
                             keys = new HashSet<>();
                             attributeKeys.put(sourceLayer, keys);
                         }
-                        keys.addAll(feature.getAttributes().keySet());
+                        keys.addAll(tile.getAttributeKeys(sourceLayer));
+                    }
+                    if (zoom < 0) {
+                        return tile.asMap();
                     }
+                    // only decode source layers that the style could actually display for this tile
+                    return tile.filter(style.getSourceLayerFilter(zoom, zoom >= maxTileZoom)).asMap();
+                } catch (IOException e) {
+                    Log.e(DEBUG_TAG, "decoding failed with " + e.getMessage());
+                    return null;
                 }
-                return features;
-            } catch (IOException e) {
-                Log.e(DEBUG_TAG, "decoding failed with " + e.getMessage());
-                return null;
             }
         };
     }
@@ -0,0 +1,594 @@
+package de.blau.android.util.mvt.style;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.mvt.VectorTileDecoder.Feature;
+
+/**
+ * Compiled form of a mapbox-gl filter
+ * 
+ * The filter JsonArray is translated once in to a tree of typed nodes, operators are resolved to ints, attribute keys
+ * to accessors and constant operands are converted to all the types they may be compared with up front. Sub-filters
+ * and expressions that don't depend on the feature are folded to constants. The semantics are the same as those of
+ * {@link Layer#evaluateFilter(JsonArray, Feature)}, however malformed filters are reported when compiling and then
+ * don't match anything instead of failing on every evaluation.
+ * 
+ * Compiled filters are immutable, if the underlying JsonArray is changed the filter has to be compiled again.
+ */
+abstract class CompiledFilter {
+
+    private static final String DEBUG_TAG = CompiledFilter.class.getSimpleName().substring(0, Math.min(23, CompiledFilter.class.getSimpleName().length()));
+
+    private static final int EQ     = 0;
+    private static final int NOT_EQ = 1;
+    private static final int LT     = 2;
+    private static final int LT_EQ  = 3;
+    private static final int GT     = 4;
+    private static final int GT_EQ  = 5;
+
+    static final CompiledFilter TRUE  = new Constant(true);
+    static final CompiledFilter FALSE = new Constant(false);
+
+    /**
+     * Check if a feature passes the filter
+     * 
+     * @param feature the Feature
+     * @return true if the filter accepts the feature
+     */
+    abstract boolean accept(@NonNull Feature feature);
+
+    /**
+     * Compile a filter
+     * 
+     * @param filter the JsonArray representation of the filter
+     * @return a CompiledFilter
+     */
+    @NonNull
+    static CompiledFilter compile(@NonNull JsonArray filter) {
+        try {
+            return compileFilter(filter);
+        } catch (RuntimeException e) { // NOSONAR Gson throws a variety of unchecked exceptions for unexpected content
+            Log.e(DEBUG_TAG, "Invalid filter " + filter + " " + e.getMessage());
+            return FALSE;
+        }
+    }
+
+    /**
+     * Compile a (sub-)filter
+     * 
+     * @param filter the JsonArray representation of the filter
+     * @return a CompiledFilter
+     */
+    @NonNull
+    private static CompiledFilter compileFilter(@NonNull JsonArray filter) {
+        String function = filter.get(0).getAsString();
+        switch (function) {
+        case Layer.LAYER_FILTER_EQ:
+        case Layer.LAYER_FILTER_NOT_EQ:
+        case Layer.LAYER_FILTER_LT:
+        case Layer.LAYER_FILTER_LT_EQ:
+        case Layer.LAYER_FILTER_GT:
+        case Layer.LAYER_FILTER_GT_EQ:
+            return new Comparison(Accessor.forKey(filter.get(1).getAsString()), toOperator(function), new Operand(filter.get(2)));
+        case Layer.LAYER_FILTER_IN:
+        case Layer.LAYER_FILTER_NOT_IN:
+            Operand[] values = new Operand[filter.size() - 2];
+            for (int i = 2; i < filter.size(); i++) {
+                values[i - 2] = new Operand(filter.get(i));
+            }
+            return new In(Accessor.forKey(filter.get(1).getAsString()), values, Layer.LAYER_FILTER_NOT_IN.equals(function));
+        case Layer.LAYER_FILTER_ALL:
+        case Layer.LAYER_FILTER_ANY:
+            return compileCombination(filter, Layer.LAYER_FILTER_ALL.equals(function));
+        default:
+            Expression expression = Expression.compile(filter);
+            if (expression instanceof Literal) {
+                Object result = ((Literal) expression).value;
+                return (result instanceof Boolean ? (Boolean) result : result != null) ? TRUE : FALSE;
+            }
+            return new ExpressionFilter(expression);
+        }
+    }
+
+    /**
+     * Compile an all or any filter, removing constant terms and flattening nested filters of the same kind
+     * 
+     * @param filter the JsonArray representation of the filter
+     * @param all if true all terms need to be true, otherwise any
+     * @return a CompiledFilter
+     */
+    @NonNull
+    private static CompiledFilter compileCombination(@NonNull JsonArray filter, boolean all) {
+        List<CompiledFilter> terms = new ArrayList<>();
+        for (int i = 1; i < filter.size(); i++) {
+            CompiledFilter term = compileFilter((JsonArray) filter.get(i));
+            if (term instanceof Constant) {
+                if (((Constant) term).value != all) {
+                    return term; // short circuit
+                }
+                continue; // neutral
+            }
+            if (term instanceof Combination && ((Combination) term).all == all) {
+                for (CompiledFilter t : ((Combination) term).terms) {
+                    terms.add(t);
+                }
+                continue;
+            }
+            terms.add(term);
+        }
+        switch (terms.size()) {
+        case 0:
+            return all ? TRUE : FALSE;
+        case 1:
+            return terms.get(0);
+        default:
+            return new Combination(terms.toArray(new CompiledFilter[terms.size()]), all);
+        }
+    }
+
+    /**
+     * Get the int value for a comparison operator
+     * 
+     * @param function the operator
+     * @return one of the operator constants
+     */
+    private static int toOperator(@NonNull String function) {
+        switch (function) {
+        case Layer.LAYER_FILTER_EQ:
+            return EQ;
+        case Layer.LAYER_FILTER_NOT_EQ:
+            return NOT_EQ;
+        case Layer.LAYER_FILTER_LT:
+            return LT;
+        case Layer.LAYER_FILTER_LT_EQ:
+            return LT_EQ;
+        case Layer.LAYER_FILTER_GT:
+            return GT;
+        case Layer.LAYER_FILTER_GT_EQ:
+            return GT_EQ;
+        default:
+            throw new IllegalArgumentException("Unknown operator " + function);
+        }
+    }
+
+    /**
+     * Filter with a fixed result
+     */
+    private static final class Constant extends CompiledFilter {
+        private final boolean value;
+
+        /**
+         * Construct a new constant filter
+         * 
+         * @param value the result
+         */
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean accept(@NonNull Feature feature) {
+            return value;
+        }
+    }
+
+    /**
+     * Compare an attribute to a constant
+     */
+    private static final class Comparison extends CompiledFilter {
+        private final Accessor key;
+        private final int      operator;
+        private final Operand  value;
+
+        /**
+         * Construct a new comparison
+         * 
+         * @param key the accessor for the attribute
+         * @param operator the operator
+         * @param value the constant operand
+         */
+        private Comparison(@NonNull Accessor key, int operator, @NonNull Operand value) {
+            this.key = key;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        boolean accept(@NonNull Feature feature) {
+            Object left = key.get(feature);
+            if (left == null) {
+                return operator == NOT_EQ; // val doesn't exist is true
+            }
+            if (!value.isComparable(left)) {
+                return false;
+            }
+            int result = value.compare(left);
+            switch (operator) {
+            case EQ:
+                return result == 0;
+            case NOT_EQ:
+                return result != 0;
+            case LT:
+                return result < 0;
+            case LT_EQ:
+                return result <= 0;
+            case GT:
+                return result > 0;
+            default: // GT_EQ
+                return result >= 0;
+            }
+        }
+    }
+
+    /**
+     * Check if an attribute is, or is not, in a list of constants
+     */
+    private static final class In extends CompiledFilter {
+        private final Accessor    key;
+        private final Operand[]   values;
+        private final Set<String> strings = new HashSet<>();
+        private final boolean     not;
+
+        /**
+         * Construct a new in filter
+         * 
+         * @param key the accessor for the attribute
+         * @param values the constant operands
+         * @param not if true invert the result
+         */
+        private In(@NonNull Accessor key, @NonNull Operand[] values, boolean not) {
+            this.key = key;
+            this.values = values;
+            this.not = not;
+            for (Operand value : values) {
+                if (value.string != null) {
+                    strings.add(value.string);
+                }
+            }
+        }
+
+        @Override
+        boolean accept(@NonNull Feature feature) {
+            Object left = key.get(feature);
+            if (left == null) {
+                return not;
+            }
+            if (left instanceof String) {
+                return strings.contains(left) != not;
+            }
+            for (Operand value : values) {
+                if (value.isComparable(left) && value.compare(left) == 0) {
+                    return !not;
+                }
+            }
+            return not;
+        }
+    }
+
+    /**
+     * All or any of a number of filters
+     */
+    private static final class Combination extends CompiledFilter {
+        private final CompiledFilter[] terms;
+        private final boolean          all;
+
+        /**
+         * Construct a new combination
+         * 
+         * @param terms the filters to combine
+         * @param all if true all terms need to be true, otherwise any
+         */
+        private Combination(@NonNull CompiledFilter[] terms, boolean all) {
+            this.terms = terms;
+            this.all = all;
+        }
+
+        @Override
+        boolean accept(@NonNull Feature feature) {
+            for (CompiledFilter term : terms) {
+                if (term.accept(feature) != all) {
+                    return !all;
+                }
+            }
+            return all;
+        }
+    }
+
+    /**
+     * Filter using the result of an expression
+     */
+    private static final class ExpressionFilter extends CompiledFilter {
+        private final Expression expression;
+
+        /**
+         * Construct a new filter
+         * 
+         * @param expression the compiled expression
+         */
+        private ExpressionFilter(@NonNull Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        boolean accept(@NonNull Feature feature) {
+            Object result = expression.eval(feature);
+            return result instanceof Boolean ? (Boolean) result : result != null;
+        }
+    }
+
+    /**
+     * A constant operand converted to all types it may be compared with
+     */
+    private static final class Operand {
+        private static final int AS_INT    = 1;
+        private static final int AS_LONG   = 2;
+        private static final int AS_FLOAT  = 4;
+        private static final int AS_DOUBLE = 8;
+
+        private final String  string;
+        private final int     conversions;
+        private int           intValue;
+        private long          longValue;
+        private float         floatValue;
+        private double        doubleValue;
+        private final boolean booleanValue;
+
+        /**
+         * Construct a new operand
+         * 
+         * Each numeric conversion is tried separately and recorded, a value like 3.5 or 10000000000 doesn't fit in an int
+         * but is still a number.
+         * 
+         * @param element the JsonElement holding the value
+         */
+        private Operand(@NonNull JsonElement element) {
+            string = element.isJsonPrimitive() ? element.getAsString() : null;
+            int converted = 0;
+            if (string != null) {
+                try {
+                    floatValue = element.getAsFloat();
+                    doubleValue = element.getAsDouble();
+                    converted |= AS_FLOAT | AS_DOUBLE;
+                } catch (NumberFormatException e) {
+                    // not a number at all
+                }
+                try {
+                    longValue = Long.parseLong(string);
+                    converted |= AS_LONG;
+                } catch (NumberFormatException e) {
+                    if ((converted & AS_DOUBLE) != 0 && doubleValue == Math.rint(doubleValue) && doubleValue >= Long.MIN_VALUE
+                            && doubleValue < Long.MAX_VALUE) {
+                        longValue = (long) doubleValue; // something like 3.0
+                        converted |= AS_LONG;
+                    }
+                }
+                if ((converted & AS_LONG) != 0 && longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+                    intValue = (int) longValue;
+                    converted |= AS_INT;
+                }
+            }
+            conversions = converted;
+            booleanValue = string != null && element.getAsBoolean();
+        }
+
+        /**
+         * Check if the operand can be compared with a value
+         * 
+         * Integral values are compared as doubles if the operand isn't integral or out of their range.
+         * 
+         * @param left the value
+         * @return true if compare will return a meaningful result
+         */
+        private boolean isComparable(@NonNull Object left) {
+            if (left instanceof String || left instanceof Boolean) {
+                return string != null;
+            }
+            if (left instanceof Integer || left instanceof Long || left instanceof Double) {
+                return (conversions & AS_DOUBLE) != 0;
+            }
+            if (left instanceof Float) {
+                return (conversions & AS_FLOAT) != 0;
+            }
+            Log.e(DEBUG_TAG, "compare unsupported object " + left.getClass().getCanonicalName());
+            return false;
+        }
+
+        /**
+         * Compare a value to the operand
+         * 
+         * @param left the value, isComparable must have returned true for it
+         * @return less than 0, 0 or greater than 0 if left is smaller, equal or larger than the operand
+         */
+        private int compare(@NonNull Object left) {
+            if (left instanceof String) {
+                return ((String) left).compareTo(string);
+            } else if (left instanceof Integer) {
+                return (conversions & AS_INT) != 0 ? Integer.compare((int) left, intValue) : Double.compare((int) left, doubleValue);
+            } else if (left instanceof Long) {
+                return (conversions & AS_LONG) != 0 ? Long.compare((long) left, longValue) : Double.compare((long) left, doubleValue);
+            } else if (left instanceof Float) {
+                return Float.compare((float) left, floatValue);
+            } else if (left instanceof Double) {
+                return Double.compare((double) left, doubleValue);
+            }
+            return Boolean.compare((boolean) left, booleanValue);
+        }
+    }
+
+    /**
+     * Retrieves a value from a feature
+     */
+    private abstract static class Accessor {
+
+        /**
+         * Get the value
+         * 
+         * @param feature the Feature
+         * @return the value or null
+         */
+        @Nullable
+        abstract Object get(@NonNull Feature feature);
+
+        /**
+         * Get an accessor for a key
+         * 
+         * @param key the key
+         * @return an Accessor
+         */
+        @NonNull
+        static Accessor forKey(@NonNull final String key) {
+            switch (key) {
+            case Layer.LAYER_KEY_TYPE:
+            case Layer.LAYER_KEY_ID:
+                return new Accessor() {
+                    @Override
+                    Object get(@NonNull Feature feature) {
+                        return Layer.getKeyValue(feature, key);
+                    }
+                };
+            default:
+                return new Accessor() {
+                    @Override
+                    Object get(@NonNull Feature feature) {
+                        return feature.getAttributes().get(key);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Compiled form of an expression
+     */
+    private abstract static class Expression {
+
+        /**
+         * Evaluate the expression
+         * 
+         * @param feature the Feature
+         * @return the result
+         */
+        @Nullable
+        abstract Object eval(@NonNull Feature feature);
+
+        /**
+         * Compile an expression
+         * 
+         * @param expression the JsonArray representation of the expression
+         * @return an Expression
+         */
+        @NonNull
+        static Expression compile(@NonNull JsonArray expression) {
+            String function = expression.get(0).getAsString();
+            switch (function) {
+            case Layer.LAYER_EXPRESSION_HAS:
+            case Layer.LAYER_EXPRESSION_NOT_HAS:
+                if (expression.size() == 3) {
+                    Log.w(DEBUG_TAG, "Two argument versions of has and !has are not implemented");
+                    return new Literal(null);
+                }
+                final boolean has = Layer.LAYER_EXPRESSION_HAS.equals(function);
+                final Expression hasKey = compileKey(expression.get(1));
+                if (hasKey instanceof Literal) {
+                    final Accessor accessor = Accessor.forKey(String.valueOf(((Literal) hasKey).value));
+                    return new Expression() {
+                        @Override
+                        Object eval(@NonNull Feature feature) {
+                            return (accessor.get(feature) != null) == has;
+                        }
+                    };
+                }
+                return new Expression() {
+                    @Override
+                    Object eval(@NonNull Feature feature) {
+                        return (Layer.getKeyValue(feature, String.valueOf(hasKey.eval(feature))) != null) == has;
+                    }
+                };
+            case Layer.LAYER_EXPRESSION_GET:
+                if (expression.size() == 3) {
+                    Log.w(DEBUG_TAG, "Two argument version of get is not implemented");
+                    return new Literal(null);
+                }
+                final Expression getKey = compileKey(expression.get(1));
+                if (getKey instanceof Literal) {
+                    final Accessor accessor = Accessor.forKey(String.valueOf(((Literal) getKey).value));
+                    return new Expression() {
+                        @Override
+                        Object eval(@NonNull Feature feature) {
+                            return accessor.get(feature);
+                        }
+                    };
+                }
+                return new Expression() {
+                    @Override
+                    Object eval(@NonNull Feature feature) {
+                        return Layer.getKeyValue(feature, String.valueOf(getKey.eval(feature)));
+                    }
+                };
+            case Layer.LAYER_EXPRESSION_TO_BOOLEAN:
+                JsonElement arg = expression.get(1);
+                if (!arg.isJsonArray()) {
+                    return new Literal(Layer.isTrue(arg));
+                }
+                final Expression value = compile((JsonArray) arg);
+                if (value instanceof Literal) {
+                    return new Literal(Layer.isTrue(((Literal) value).value));
+                }
+                return new Expression() {
+                    @Override
+                    Object eval(@NonNull Feature feature) {
+                        return Layer.isTrue(value.eval(feature));
+                    }
+                };
+            default:
+                Log.e(DEBUG_TAG, "Unknown/unsupported expression " + function);
+                return new Literal(null);
+            }
+        }
+
+        /**
+         * Compile the key argument of an expression
+         * 
+         * @param arg the argument
+         * @return a Literal for a constant key, otherwise an Expression
+         */
+        @NonNull
+        private static Expression compileKey(@NonNull JsonElement arg) {
+            if (arg.isJsonArray()) {
+                Expression key = compile((JsonArray) arg);
+                return key instanceof Literal ? new Literal(String.valueOf(((Literal) key).value)) : key;
+            }
+            return new Literal(arg.getAsString());
+        }
+    }
+
+    /**
+     * An expression with a constant value
+     */
+    private static final class Literal extends Expression {
+        private final Object value;
+
+        /**
+         * Construct a new literal
+         * 
+         * @param value the value
+         */
+        private Literal(@Nullable Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(@NonNull Feature feature) {
+            return value;
+        }
+    }
+}
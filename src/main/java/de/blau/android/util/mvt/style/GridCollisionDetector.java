@@ -0,0 +1,298 @@
+package de.blau.android.util.mvt.style;
+
+import java.util.Arrays;
+
+import android.graphics.Rect;
+import androidx.annotation.NonNull;
+
+/**
+ * Collision detection using a uniform grid
+ * 
+ * Boxes are registered in all grid cells their bounding rectangle covers, a new box only needs to be tested against
+ * the boxes in the cells it covers itself, making placement of n labels roughly O(n). The grid is not bounded, cells
+ * are mapped to a fixed size hash table, entries from other cells that end up in the same bucket are eliminated by the
+ * bounding rectangle test.
+ * 
+ * Boxes can be rotated, the exact test uses the separating axis theorem. All storage is in primitive arrays that are
+ * reused after a reset, there is no limit on the number of boxes.
+ */
+public class GridCollisionDetector implements CollisionDetector {
+
+    private static final int DEFAULT_CELL_SIZE = 64;
+    private static final int TABLE_SIZE        = 1024; // needs to be a power of 2
+    private static final int MAX_CELLS         = 64;   // boxes covering more cells are handled without the grid
+    private static final int INITIAL_CAPACITY  = 256;
+
+    private static final int VERTICES = 8; // 4 x and y pairs
+    private static final int BOUNDS   = 4; // left, top, right, bottom
+
+    private final int cellSize;
+
+    private float[] vertices = new float[INITIAL_CAPACITY * VERTICES];
+    private float[] bounds   = new float[INITIAL_CAPACITY * BOUNDS];
+    private int[]   stamps   = new int[INITIAL_CAPACITY];
+    private int     boxCount = 0;
+    private int     stamp    = 0;
+
+    private final int[] heads      = new int[TABLE_SIZE];
+    private int[]       entryBox   = new int[INITIAL_CAPACITY * 2];
+    private int[]       entryNext  = new int[INITIAL_CAPACITY * 2];
+    private int         entryCount = 0;
+
+    private int[] oversized      = new int[16];
+    private int   oversizedCount = 0;
+
+    private final float[] test = new float[VERTICES];
+
+    /**
+     * Construct a new instance
+     */
+    public GridCollisionDetector() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Construct a new instance
+     * 
+     * @param cellSize the size of a grid cell in screen pixels
+     */
+    public GridCollisionDetector(int cellSize) {
+        this.cellSize = cellSize;
+        Arrays.fill(heads, -1);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(heads, -1);
+        boxCount = 0;
+        entryCount = 0;
+        oversizedCount = 0;
+    }
+
+    @Override
+    public boolean collides(@NonNull Rect rect) {
+        test[0] = rect.left;
+        test[1] = rect.top;
+        test[2] = rect.right;
+        test[3] = rect.top;
+        test[4] = rect.right;
+        test[5] = rect.bottom;
+        test[6] = rect.left;
+        test[7] = rect.bottom;
+        return testAndAdd();
+    }
+
+    @Override
+    public boolean collides(@NonNull float[] start, @NonNull float[] end, float height) {
+        float dX = end[0] - start[0];
+        float dY = end[1] - start[1];
+        float r = (float) Math.sqrt(dX * dX + dY * dY);
+        // offset perpendicular to the line
+        float xDiff = r > 0 ? -height / r * dY : 0;
+        float yDiff = r > 0 ? height / r * dX : height;
+        test[0] = start[0] + xDiff;
+        test[1] = start[1] + yDiff;
+        test[2] = end[0] + xDiff;
+        test[3] = end[1] + yDiff;
+        test[4] = end[0] - xDiff;
+        test[5] = end[1] - yDiff;
+        test[6] = start[0] - xDiff;
+        test[7] = start[1] - yDiff;
+        return testAndAdd();
+    }
+
+    /**
+     * Get the number of boxes currently registered
+     * 
+     * @return the number of boxes
+     */
+    public int size() {
+        return boxCount;
+    }
+
+    /**
+     * Test the box in test against the existing ones and add it if there is no collision
+     * 
+     * @return true if there is a collision
+     */
+    private boolean testAndAdd() {
+        float left = Math.min(Math.min(test[0], test[2]), Math.min(test[4], test[6]));
+        float top = Math.min(Math.min(test[1], test[3]), Math.min(test[5], test[7]));
+        float right = Math.max(Math.max(test[0], test[2]), Math.max(test[4], test[6]));
+        float bottom = Math.max(Math.max(test[1], test[3]), Math.max(test[5], test[7]));
+        if (Float.isNaN(left) || Float.isNaN(top) || Float.isNaN(right) || Float.isNaN(bottom)) {
+            return false;
+        }
+        stamp++;
+        for (int i = 0; i < oversizedCount; i++) {
+            if (intersects(oversized[i], left, top, right, bottom)) {
+                return true;
+            }
+        }
+        final int cellLeft = cell(left);
+        final int cellTop = cell(top);
+        final int cellRight = cell(right);
+        final int cellBottom = cell(bottom);
+        final boolean isOversized = ((long) cellRight - cellLeft + 1) * ((long) cellBottom - cellTop + 1) > MAX_CELLS;
+        if (isOversized) {
+            // cheaper to simply test against everything
+            for (int i = 0; i < boxCount; i++) {
+                if (intersects(i, left, top, right, bottom)) {
+                    return true;
+                }
+            }
+        } else {
+            for (int y = cellTop; y <= cellBottom; y++) {
+                for (int x = cellLeft; x <= cellRight; x++) {
+                    for (int e = heads[bucket(x, y)]; e != -1; e = entryNext[e]) {
+                        if (intersects(entryBox[e], left, top, right, bottom)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        // no collision, add
+        int box = addBox(left, top, right, bottom);
+        if (isOversized) {
+            if (oversizedCount == oversized.length) {
+                oversized = Arrays.copyOf(oversized, oversizedCount * 2);
+            }
+            oversized[oversizedCount++] = box;
+            return false;
+        }
+        for (int y = cellTop; y <= cellBottom; y++) {
+            for (int x = cellLeft; x <= cellRight; x++) {
+                addEntry(bucket(x, y), box);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if an existing box intersects the test box
+     * 
+     * Each box is only tested once per call of testAndAdd
+     * 
+     * @param box the index of the existing box
+     * @param left left bound of the test box
+     * @param top top bound of the test box
+     * @param right right bound of the test box
+     * @param bottom bottom bound of the test box
+     * @return true if the boxes intersect
+     */
+    private boolean intersects(int box, float left, float top, float right, float bottom) {
+        if (stamps[box] == stamp) {
+            return false; // already tested
+        }
+        stamps[box] = stamp;
+        int b = box * BOUNDS;
+        if (bounds[b] > right || bounds[b + 2] < left || bounds[b + 1] > bottom || bounds[b + 3] < top) {
+            return false;
+        }
+        int v = box * VERTICES;
+        return !separated(vertices, v, test, 0) && !separated(test, 0, vertices, v);
+    }
+
+    /**
+     * Check if one of the two edge normals of box a separates the boxes
+     * 
+     * As the boxes are rectangles, the normals of the first two edges are sufficient
+     * 
+     * @param a vertices of the first box
+     * @param aOffset offset of the first box
+     * @param b vertices of the second box
+     * @param bOffset offset of the second box
+     * @return true if the boxes are separated
+     */
+    private static boolean separated(@NonNull float[] a, int aOffset, @NonNull float[] b, int bOffset) {
+        for (int edge = 0; edge < 2; edge++) {
+            int p = aOffset + 2 * edge;
+            float axisX = a[p + 1] - a[p + 3];
+            float axisY = a[p + 2] - a[p];
+            if (axisX == 0 && axisY == 0) {
+                continue; // degenerate edge
+            }
+            float minA = Float.MAX_VALUE;
+            float maxA = -Float.MAX_VALUE;
+            float minB = Float.MAX_VALUE;
+            float maxB = -Float.MAX_VALUE;
+            for (int i = 0; i < VERTICES; i += 2) {
+                float projA = a[aOffset + i] * axisX + a[aOffset + i + 1] * axisY;
+                minA = Math.min(minA, projA);
+                maxA = Math.max(maxA, projA);
+                float projB = b[bOffset + i] * axisX + b[bOffset + i + 1] * axisY;
+                minB = Math.min(minB, projB);
+                maxB = Math.max(maxB, projB);
+            }
+            if (maxA < minB || maxB < minA) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Store the test box
+     * 
+     * @param left left bound
+     * @param top top bound
+     * @param right right bound
+     * @param bottom bottom bound
+     * @return the index of the new box
+     */
+    private int addBox(float left, float top, float right, float bottom) {
+        if (boxCount == stamps.length) {
+            int capacity = boxCount * 2;
+            vertices = Arrays.copyOf(vertices, capacity * VERTICES);
+            bounds = Arrays.copyOf(bounds, capacity * BOUNDS);
+            stamps = Arrays.copyOf(stamps, capacity);
+        }
+        int box = boxCount++;
+        System.arraycopy(test, 0, vertices, box * VERTICES, VERTICES);
+        int b = box * BOUNDS;
+        bounds[b] = left;
+        bounds[b + 1] = top;
+        bounds[b + 2] = right;
+        bounds[b + 3] = bottom;
+        stamps[box] = stamp;
+        return box;
+    }
+
+    /**
+     * Add a box to a bucket of the hash table
+     * 
+     * @param bucket the bucket
+     * @param box the index of the box
+     */
+    private void addEntry(int bucket, int box) {
+        if (entryCount == entryBox.length) {
+            entryBox = Arrays.copyOf(entryBox, entryCount * 2);
+            entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+        }
+        entryBox[entryCount] = box;
+        entryNext[entryCount] = heads[bucket];
+        heads[bucket] = entryCount++;
+    }
+
+    /**
+     * Get the grid cell for a screen coordinate
+     * 
+     * @param coordinate the coordinate
+     * @return the cell index
+     */
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Get the hash table bucket for a grid cell
+     * 
+     * @param x cell x index
+     * @param y cell y index
+     * @return the bucket
+     */
+    private static int bucket(int x, int y) {
+        return (x * 73856093 ^ y * 19349663) & (TABLE_SIZE - 1);
+    }
+}
@@ -42,8 +42,8 @@ public abstract class Layer implements Serializable {
     private static final String INTERPOLATION_TYPE_IDENTITY           = "identity";
     private static final String INTERPOLATION_TYPE_CATEGORY           = "categorical";
     private static final String INTERPOLATION_TYPE                    = "type";
-    private static final String LAYER_KEY_ID                          = "$id";
-    private static final String LAYER_KEY_TYPE                        = "$type";
+    static final String         LAYER_KEY_ID                          = "$id";
+    static final String         LAYER_KEY_TYPE                        = "$type";
     private static final String LAYER_JOIN_MITER                      = "miter";
     private static final String LAYER_JOIN_ROUND                      = "round";
     private static final String LAYER_JOIN_BEVEL                      = "bevel";
@@ -51,21 +51,21 @@ public abstract class Layer implements Serializable {
     private static final String LAYER_CAP_ROUND                       = "round";
     private static final String LAYER_CAP_BUTT                        = "butt";
 
-    private static final String LAYER_FILTER_ANY    = "any";
-    private static final String LAYER_FILTER_ALL    = "all";
-    private static final String LAYER_FILTER_NOT_IN = "!in";
-    private static final String LAYER_FILTER_IN     = "in";
-    private static final String LAYER_FILTER_GT_EQ  = ">=";
-    private static final String LAYER_FILTER_GT     = ">";
-    private static final String LAYER_FILTER_LT_EQ  = "<=";
-    private static final String LAYER_FILTER_LT     = "<";
-    private static final String LAYER_FILTER_NOT_EQ = "!=";
-    private static final String LAYER_FILTER_EQ     = "==";
-
-    private static final String LAYER_EXPRESSION_NOT_HAS    = "!has";
-    private static final String LAYER_EXPRESSION_HAS        = "has";
-    private static final String LAYER_EXPRESSION_GET        = "get";
-    private static final String LAYER_EXPRESSION_TO_BOOLEAN = "to-boolean";
+    static final String LAYER_FILTER_ANY    = "any";
+    static final String LAYER_FILTER_ALL    = "all";
+    static final String LAYER_FILTER_NOT_IN = "!in";
+    static final String LAYER_FILTER_IN     = "in";
+    static final String LAYER_FILTER_GT_EQ  = ">=";
+    static final String LAYER_FILTER_GT     = ">";
+    static final String LAYER_FILTER_LT_EQ  = "<=";
+    static final String LAYER_FILTER_LT     = "<";
+    static final String LAYER_FILTER_NOT_EQ = "!=";
+    static final String LAYER_FILTER_EQ     = "==";
+
+    static final String LAYER_EXPRESSION_NOT_HAS    = "!has";
+    static final String LAYER_EXPRESSION_HAS        = "has";
+    static final String LAYER_EXPRESSION_GET        = "get";
+    static final String LAYER_EXPRESSION_TO_BOOLEAN = "to-boolean";
 
     private static final long RGB_ONLY   = 0x00FFFFFFL;
     private static final long ALPHA_ONLY = 0xFF000000L;
@@ -154,7 +154,8 @@ public abstract class Layer implements Serializable {
 
     protected SerializableTextPaint paint = new SerializableTextPaint();
 
-    private transient JsonArray filter = null;
+    private transient JsonArray      filter         = null;
+    private transient CompiledFilter compiledFilter = null;
 
     protected transient Path  path           = new Path();
     protected transient Rect  destinationRect;
@@ -332,15 +333,31 @@ public abstract class Layer implements Serializable {
     /**
      * Set a filter for this style
      * 
+     * The filter is compiled for evaluation, if the JsonArray is changed afterwards this needs to be called again
+     * 
      * @param filter the filter
      */
     public void setFilter(@Nullable JsonArray filter) {
         this.filter = filter;
+        compiledFilter = filter != null ? CompiledFilter.compile(filter) : null;
+    }
+
+    /**
+     * Evaluate the compiled filter for this layer
+     * 
+     * @param feature the feature we need to filter
+     * @return true if there is no filter or the filter accepts the feature
+     */
+    public boolean evaluateFilter(@NonNull VectorTileDecoder.Feature feature) {
+        return compiledFilter == null || compiledFilter.accept(feature);
     }
 
     /**
      * Evaluate a filter expression
      * 
+     * This interprets the expression on every call, for rendering use the compiled filter via
+     * {@link #evaluateFilter(Feature)}
+     * 
      * @param expression the expression
      * @param feature the feature we need to filter gains
      * @return true if the filter excepts the feature
@@ -458,10 +475,11 @@ public abstract class Layer implements Serializable {
      * @param key the key
      * @return the value for the key
      */
-    private Object getKeyValue(VectorTileDecoder.Feature feature, String key) {
+    @Nullable
+    static Object getKeyValue(@NonNull VectorTileDecoder.Feature feature, @NonNull String key) {
         switch (key) {
         case LAYER_KEY_TYPE:
-            String type = feature.getGeometry().type();
+            String type = feature.getGeometryType();
             return GeoJSONConstants.MULTILINESTRING.equals(type) ? GeoJSONConstants.LINESTRING : type;
         case LAYER_KEY_ID:
             return feature.getId();
@@ -515,7 +533,7 @@ public abstract class Layer implements Serializable {
      * @param o the Object
      * @return true if it corresponds to a "true" value
      */
-    private boolean isTrue(@Nullable Object o) {
+    static boolean isTrue(@Nullable Object o) {
         if (o == null) {
             return false;
         }
@@ -844,7 +862,7 @@ public abstract class Layer implements Serializable {
     private void readObject(@NonNull ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         Object temp = in.readObject();
-        filter = temp != null ? (JsonArray) JsonParser.parseString(temp.toString()) : null;
+        setFilter(temp != null ? (JsonArray) JsonParser.parseString(temp.toString()) : null);
         this.path = new Path();
         patternChecked = false;
     }
@@ -15,9 +15,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -45,6 +47,7 @@ import de.blau.android.resources.symbols.TriangleDown;
 import de.blau.android.util.ColorUtil;
 import de.blau.android.util.ExecutorTask;
 import de.blau.android.util.collections.MultiHashMap;
+import de.blau.android.util.mvt.Filter;
 import de.blau.android.util.mvt.style.Source.SourceType;
 
 public class Style implements Serializable {
@@ -150,7 +153,8 @@ public class Style implements Serializable {
     private Sprites                           sprites;
     private Map<String, Source>               sources    = new HashMap<>();
 
-    private transient CollisionDetector detector = new SimpleCollisionDetector();
+    private transient CollisionDetector detector = new GridCollisionDetector();
+    private transient volatile int      revision = 0;
 
     /**
      * Add a layer for a specific source layer
@@ -163,7 +167,9 @@ public class Style implements Serializable {
         synchronized (layers) {
             layerMap.add(sourceLayer, layerStyle);
             layers.add(layerStyle);
+            setCollisionDetector(layerStyle);
         }
+        changed();
     }
 
     /**
@@ -181,8 +187,10 @@ public class Style implements Serializable {
                 if (sourceLayer != null) {
                     layerMap.add(sourceLayer, layer);
                 }
+                setCollisionDetector(layer);
             }
         }
+        changed();
     }
 
     /**
@@ -714,13 +722,56 @@ public class Style implements Serializable {
                 layerMap.add(sourceLayer, defaultFill);
                 layers.add(defaultFill);
                 Symbol defaultSymbol = Symbol.fromPaint(sourceLayer, paint, DataStyle.getInternal(DataStyle.LABELTEXT_NORMAL).getPaint(), TriangleDown.NAME);
+                defaultSymbol.setCollisionDetector(detector);
                 layerMap.add(sourceLayer, defaultSymbol);
                 layers.add(defaultSymbol);
                 Collections.sort(layers, LAYER_TYPE_COMPARATOR);
             }
+            changed();
         }
     }
 
+    /**
+     * Get a Filter for the source layers that can potentially be visible in a tile
+     * 
+     * @param zoom the zoom level of the tile
+     * @param overZoom if true the tile will be displayed at higher zoom levels too
+     * @return a Filter that can be passed to the decoder
+     */
+    @NonNull
+    public Filter getSourceLayerFilter(int zoom, boolean overZoom) {
+        Set<String> sourceLayers = new HashSet<>();
+        synchronized (layers) {
+            for (Layer layer : layers) {
+                String sourceLayer = layer.getSourceLayer();
+                if (sourceLayer != null && layer.isVisible() && (overZoom || zoom >= layer.getMinZoom())
+                        && (layer.getMaxZoom() == -1 || zoom <= layer.getMaxZoom())) {
+                    sourceLayers.add(sourceLayer);
+                }
+            }
+        }
+        return new Filter.Any(sourceLayers);
+    }
+
+    /**
+     * Indicate that the Style or one of its Layers has been modified
+     * 
+     * This needs to be called after changes that don't go through the methods of this class so that cached renderings
+     * can be invalidated
+     */
+    public void changed() {
+        revision++; // NOSONAR a lost update is harmless as the value still changes
+    }
+
+    /**
+     * Get the current revision of the Style
+     * 
+     * @return a value that changes every time the Style is modified
+     */
+    public int getRevision() {
+        return revision;
+    }
+
     /**
      * Set the sprites
      * 
@@ -786,6 +837,44 @@ public class Style implements Serializable {
         detector.reset();
     }
 
+    /**
+     * Set the collision detector used for all symbol layers of this Style
+     * 
+     * The default is a GridCollisionDetector, the detector is not serialized and will be reset to the default when
+     * the Style is restored
+     * 
+     * @param detector the CollisionDetector to use
+     */
+    public void setCollisionDetector(@NonNull CollisionDetector detector) {
+        synchronized (layers) {
+            this.detector = detector;
+            for (Layer layer : layers) {
+                setCollisionDetector(layer);
+            }
+        }
+    }
+
+    /**
+     * Get the collision detector used for all symbol layers of this Style
+     * 
+     * @return the current CollisionDetector
+     */
+    @NonNull
+    public CollisionDetector getCollisionDetector() {
+        return detector;
+    }
+
+    /**
+     * Set the collision detector for a layer if it is a Symbol layer
+     * 
+     * @param layer the Layer
+     */
+    private void setCollisionDetector(@NonNull Layer layer) {
+        if (layer instanceof Symbol) {
+            ((Symbol) layer).setCollisionDetector(detector);
+        }
+    }
+
     /**
      * Read serialized object
      * 
@@ -795,11 +884,9 @@ public class Style implements Serializable {
      */
     private void readObject(@NonNull ObjectInputStream stream) throws IOException, ClassNotFoundException {
         stream.defaultReadObject();
-        detector = new SimpleCollisionDetector();
+        detector = new GridCollisionDetector();
         for (Layer layer : layers) {
-            if (layer instanceof Symbol) {
-                ((Symbol) layer).setCollisionDetector(detector);
-            }
+            setCollisionDetector(layer);
         }
     }
 }
@@ -0,0 +1,289 @@
+package de.blau.android.util.rtree;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.BoundingBox;
+
+/**
+ * Static packed Hilbert R-Tree
+ * 
+ * The tree is built once from the bounding boxes of all items, which are sorted along a Hilbert curve through the
+ * centers of the boxes and then packed bottom up in to full nodes. As the tree consists of a handful of primitive
+ * arrays it is very compact, cheap to serialize and doesn't need to reference the items themselves, these are simply
+ * identified by their index in the original list of boxes.
+ * 
+ * Boxes are in 1E7 scaled WGS84 coordinates, crossing the 180° meridian is not supported.
+ */
+public class PackedRTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_NODE_SIZE = 16;
+    private static final int HILBERT_MAX       = (1 << 16) - 1;
+
+    public interface Visitor {
+        /**
+         * Called for every item that intersects the query box
+         * 
+         * @param item the index of the item
+         */
+        void visit(int item);
+    }
+
+    private final int   nodeSize;
+    private final int   itemCount;
+    /** left, bottom, right, top of the leaf entries followed by the nodes of each level */
+    private final int[] boxes;
+    /** for leaf entries the item index, for nodes the index of the first child entry */
+    private final int[] indices;
+    /** the index of the first entry after each level, starting with the leaves */
+    private final int[] levelEnds;
+
+    /**
+     * Build a tree with the default node size
+     * 
+     * @param itemBoxes left, bottom, right, top of each item
+     * @param count the number of items
+     */
+    public PackedRTree(@NonNull int[] itemBoxes, int count) {
+        this(itemBoxes, count, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Build a tree
+     * 
+     * @param itemBoxes left, bottom, right, top of each item
+     * @param count the number of items
+     * @param nodeSize the maximum number of children of a node
+     */
+    public PackedRTree(@NonNull int[] itemBoxes, int count, int nodeSize) {
+        if (nodeSize < 2) {
+            throw new IllegalArgumentException("Node size must be at least 2");
+        }
+        this.nodeSize = nodeSize;
+        itemCount = count;
+        // count the entries on each level
+        int entries = count;
+        int levels = 1;
+        for (int n = count; n > 1; levels++) {
+            n = (n + nodeSize - 1) / nodeSize;
+            entries += n;
+        }
+        boxes = new int[4 * entries];
+        indices = new int[entries];
+        levelEnds = new int[levels];
+        if (count == 0) {
+            return;
+        }
+        sortLeaves(itemBoxes, count);
+        // pack the levels
+        int start = 0;
+        int end = count;
+        int level = 0;
+        levelEnds[level++] = end;
+        while (end - start > 1) {
+            int node = end;
+            for (int child = start; child < end; child += nodeSize) {
+                int last = Math.min(child + nodeSize, end);
+                int offset = 4 * node;
+                System.arraycopy(boxes, 4 * child, boxes, offset, 4);
+                for (int i = child + 1; i < last; i++) {
+                    int childOffset = 4 * i;
+                    boxes[offset] = Math.min(boxes[offset], boxes[childOffset]);
+                    boxes[offset + 1] = Math.min(boxes[offset + 1], boxes[childOffset + 1]);
+                    boxes[offset + 2] = Math.max(boxes[offset + 2], boxes[childOffset + 2]);
+                    boxes[offset + 3] = Math.max(boxes[offset + 3], boxes[childOffset + 3]);
+                }
+                indices[node++] = child;
+            }
+            start = end;
+            end = node;
+            levelEnds[level++] = end;
+        }
+    }
+
+    /**
+     * Sort the items along the Hilbert curve and copy their boxes to the leaf entries
+     * 
+     * @param itemBoxes left, bottom, right, top of each item
+     * @param count the number of items
+     */
+    private void sortLeaves(@NonNull int[] itemBoxes, int count) {
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        long maxY = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int offset = 4 * i;
+            minX = Math.min(minX, itemBoxes[offset]);
+            minY = Math.min(minY, itemBoxes[offset + 1]);
+            maxX = Math.max(maxX, itemBoxes[offset + 2]);
+            maxY = Math.max(maxY, itemBoxes[offset + 3]);
+        }
+        final double scaleX = HILBERT_MAX / (double) Math.max(1, maxX - minX);
+        final double scaleY = HILBERT_MAX / (double) Math.max(1, maxY - minY);
+        // the unsigned Hilbert value goes in the upper bits, the item index in the lower 31 ones
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            int offset = 4 * i;
+            long centerX = (itemBoxes[offset] + (long) itemBoxes[offset + 2]) / 2;
+            long centerY = (itemBoxes[offset + 1] + (long) itemBoxes[offset + 3]) / 2;
+            int x = (int) ((centerX - minX) * scaleX);
+            int y = (int) ((centerY - minY) * scaleY);
+            keys[i] = ((hilbert(x, y) & 0xFFFFFFFFL) << 31) | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            int item = (int) (keys[i] & Integer.MAX_VALUE);
+            indices[i] = item;
+            System.arraycopy(itemBoxes, 4 * item, boxes, 4 * i, 4);
+        }
+    }
+
+    /**
+     * Calculate the position of a point on a 2^16 by 2^16 Hilbert curve
+     * 
+     * See http://threadlocalmutex.com/?p=126
+     * 
+     * @param x x coordinate between 0 and 2^16 - 1
+     * @param y y coordinate between 0 and 2^16 - 1
+     * @return the position on the curve as an unsigned 32 bit value
+     */
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int na = a | (b >>> 1);
+        int nb = (a >>> 1) ^ a;
+        int nc = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int nd = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = na;
+        b = nb;
+        c = nc;
+        d = nd;
+        na = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        nb = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        nc ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        nd ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = na;
+        b = nb;
+        c = nc;
+        d = nd;
+        na = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        nb = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        nc ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        nd ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = na;
+        b = nb;
+        c = nc;
+        d = nd;
+        nc ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        nd ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = nc ^ (nc >>> 1);
+        b = nd ^ (nd >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        return (interleave(i1) << 1) | interleave(i0);
+    }
+
+    /**
+     * Interleave the lower 16 bits of a value with zeros
+     * 
+     * @param x the value
+     * @return the bits of x spread to the even positions
+     */
+    private static int interleave(int x) {
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    /**
+     * Call the visitor for all items intersecting a box
+     * 
+     * @param box the query box
+     * @param visitor the Visitor
+     */
+    public void query(@NonNull BoundingBox box, @NonNull Visitor visitor) {
+        query(box.getLeft(), box.getBottom(), box.getRight(), box.getTop(), visitor);
+    }
+
+    /**
+     * Call the visitor for all items intersecting a box
+     * 
+     * @param left left of the query box
+     * @param bottom bottom of the query box
+     * @param right right of the query box
+     * @param top top of the query box
+     * @param visitor the Visitor
+     */
+    public void query(int left, int bottom, int right, int top, @NonNull Visitor visitor) {
+        if (itemCount == 0) {
+            return;
+        }
+        int[] stack = new int[2 * 4 * levelEnds.length];
+        int stackSize = 0;
+        // start with the root
+        int first = indices.length - 1;
+        int level = levelEnds.length - 1;
+        while (true) {
+            int last = Math.min(first + nodeSize, levelEnds[level]);
+            for (int entry = first; entry < last; entry++) {
+                int offset = 4 * entry;
+                if (boxes[offset + 2] < left || boxes[offset] > right || boxes[offset + 3] < bottom || boxes[offset + 1] > top) {
+                    continue;
+                }
+                if (level == 0) {
+                    visitor.visit(indices[entry]);
+                } else {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stack.length);
+                    }
+                    stack[stackSize++] = indices[entry];
+                    stack[stackSize++] = level - 1;
+                }
+            }
+            if (stackSize == 0) {
+                return;
+            }
+            level = stack[--stackSize];
+            first = stack[--stackSize];
+        }
+    }
+
+    /**
+     * Get the number of items
+     * 
+     * @return the item count
+     */
+    public int size() {
+        return itemCount;
+    }
+
+    /**
+     * Get the bounding box of all items
+     * 
+     * @return a BoundingBox or null if the tree is empty
+     */
+    @Nullable
+    public BoundingBox getBounds() {
+        if (itemCount == 0) {
+            return null;
+        }
+        int offset = boxes.length - 4;
+        return new BoundingBox(boxes[offset], boxes[offset + 1], boxes[offset + 2], boxes[offset + 3]);
+    }
+}
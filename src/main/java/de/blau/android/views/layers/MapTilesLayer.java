@@ -54,6 +54,7 @@ import de.blau.android.util.collections.MRUList;
 import de.blau.android.views.IMapView;
 import de.blau.android.views.util.MapTileProvider;
 import de.blau.android.views.util.MapTileProvider.TileDecoder;
+import de.blau.android.views.util.TileKey;
 
 /**
  * Overlay that draws downloaded tiles which may be displayed on top of an {@link IMapView}. To add an overlay, subclass
@@ -108,8 +109,6 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
     private static final MRUList<String>        lastServers     = new MRUList<>(MRU_SIZE);
     private final SavingHelper<MRUList<String>> mruSavingHelper = new SavingHelper<>();
 
-    private int prevZoomLevel = -1; // zoom level from previous draw
-
     private static final long TILE_ERROR_LIMIT = 50;
     private boolean           tileErrorShown   = false;
     private long              tileErrorCount   = 0;
@@ -123,9 +122,12 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
     private final TileRenderer<T> mTileRenderer;
 
     // avoid creating new Rects in onDraw
-    private Rect       destRect = new Rect(); // destination rect for bit map
-    private final Rect srcRect  = new Rect();
-    private final Rect tempRect = new Rect();
+    private Rect       destRect      = new Rect(); // destination rect for bit map
+    private final Rect srcRect       = new Rect();
+    private final Rect tempRect      = new Rect();
+    private final Rect clipRect      = new Rect();
+    private final Rect cacheSrcRect  = new Rect(); // for drawTile
+    private final Rect cacheDestRect = new Rect();
 
     private final BitSet rendered = new BitSet();
 
@@ -392,7 +394,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         long owner = random.nextLong(); // unique values so that we can track in the cache which
                                         // invocation of onDraw the tile belongs too
 
-        int maxZoom = layerSource.getMaxZoomLevel();
+        int maxZoom = Math.min(layerSource.getMaxZoomLevel(), TileKey.MAX_ZOOM); // higher zoom levels can't be cached, overzoom instead
         int minZoom = layerSource.getMinZoomLevel();
         int maxOverZoom = layerSource.getMaxOverZoom();
 
@@ -400,11 +402,6 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         // some performance.
         final int actualZoomLevel = osmv.getZoomLevel();
         final int zoomLevel = Math.min(actualZoomLevel, maxZoom); // clamp to max zoom here
-        if (zoomLevel != prevZoomLevel && prevZoomLevel != -1) {
-            mTileProvider.flushQueue(layerSource.getId(), prevZoomLevel);
-        }
-        prevZoomLevel = zoomLevel;
-
         // any pre render pass setup
         mTileRenderer.preRender(c, actualZoomLevel);
 
@@ -436,6 +433,10 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
 
         final int mapTileMask = (n) - 1;
 
+        // requests for tiles that are no longer needed will be cancelled, the rest prioritized by distance from the
+        // center
+        mTileProvider.setViewport(layerSource.getId(), zoomLevel, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom);
+
         boolean firstIteration = true;
         int destIncX = 0;
         int destIncY = 0;
@@ -449,6 +450,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         // y = y tile number (latitude)
         // requiredTiles = (tileNeededBottom - tileNeededTop + 1) * (tileNeededRight - tileNeededLeft + 1)
         int row = tileNeededRight - tileNeededLeft + 1;
+        final boolean bitmapRenderer = layerSource.getTileType() == TileType.BITMAP;
         rendered.clear();
         for (int y = tileNeededTop; y <= tileNeededBottom; y++) {
             // x = x tile number (longitude)
@@ -484,8 +486,6 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                     tileBlob = mTileProvider.getMapTile(tile, owner);
                 }
 
-                final boolean bitmapRenderer = layerSource.getTileType() == TileType.BITMAP;
-
                 // OVERZOOM
                 // Preferred tile is not available - request it
                 // mTileProvider.preCacheTile(tile); already done in getMapTile
@@ -533,18 +533,54 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                 } else if (bitmapRenderer) {
                     tile.reinit();
                     // Still no tile available - try smaller scale tiles
-                    drawTile(c, osmv, Math.min(zoomLevel + 2, layerSource.getMaxZoomLevel()), zoomLevel, x & mapTileMask, y & mapTileMask, squareTiles,
-                            lonOffset, latOffset);
+                    drawTile(c, osmv, tile, Math.min(zoomLevel + 2, maxZoom), zoomLevel, x & mapTileMask, y & mapTileMask,
+                            squareTiles, lonOffset, latOffset);
                 }
                 xPos += destIncX;
             }
             xPos = 0;
             yPos += destIncY;
         }
+        if (bitmapRenderer) {
+            // the parent tiles are needed when zooming out and as substitutes, the children of the center tile when
+            // zooming in, they will be loaded after the visible tiles
+            if (zoomLevel > minZoom && zoomLevel <= maxZoom) {
+                prefetchTiles(tile, zoomLevel - 1, tileNeededLeft >> 1, tileNeededTop >> 1, tileNeededRight >> 1, tileNeededBottom >> 1, owner);
+            }
+            if (zoomLevel >= minZoom && zoomLevel < maxZoom) {
+                int centerX = ((tileNeededLeft + tileNeededRight) / 2) << 1;
+                int centerY = ((tileNeededTop + tileNeededBottom) / 2) << 1;
+                prefetchTiles(tile, zoomLevel + 1, centerX, centerY, centerX + 1, centerY + 1, owner);
+            }
+        }
         // any post render pass finalisation
         mTileRenderer.postRender(c, actualZoomLevel);
     }
 
+    /**
+     * Request tiles that are not in the in memory cache
+     * 
+     * @param tile a MapTile instance that will be reused
+     * @param zoomLevel the zoom level of the tiles
+     * @param left left most tile x
+     * @param top top most tile y
+     * @param right right most tile x
+     * @param bottom bottom most tile y
+     * @param owner id for the current owner
+     */
+    private void prefetchTiles(@NonNull MapTile tile, int zoomLevel, int left, int top, int right, int bottom, long owner) {
+        final int mapTileMask = (1 << zoomLevel) - 1;
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                tile.reinit();
+                tile.zoomLevel = zoomLevel;
+                tile.x = x & mapTileMask;
+                tile.y = y & mapTileMask;
+                mTileProvider.getMapTile(tile, owner);
+            }
+        }
+    }
+
     /**
      * Get the bottom most tile y coordinate
      * 
@@ -692,8 +728,11 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
     /**
      * Recursively search the cache for smaller tiles to fill in the required space.
      * 
+     * This is called for every missing tile while drawing and doesn't allocate any objects.
+     * 
      * @param c Canvas to draw on.
      * @param osmv Map view area.
+     * @param tile a MapTile for the current layer that will be reused for the cache lookups
      * @param maxz Maximum zoom level to attempt - don't take too long searching.
      * @param z Zoom level to draw.
      * @param x Tile X to draw.
@@ -703,14 +742,18 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
      * @param latOffset imagery latitude offset correction in WGS84
      * @return true if the space could be filled with tiles
      */
-    private boolean drawTile(@NonNull Canvas c, @NonNull IMapView osmv, int maxz, int z, int x, int y, boolean squareTiles, double lonOffset,
-            double latOffset) {
-        final MapTile tile = new MapTile(layerSource.getId(), z, x, y);
+    private boolean drawTile(@NonNull Canvas c, @NonNull IMapView osmv, @NonNull MapTile tile, int maxz, int z, int x, int y, boolean squareTiles,
+            double lonOffset, double latOffset) {
+        tile.reinit();
+        tile.zoomLevel = z;
+        tile.x = x;
+        tile.y = y;
         T bitmap = mTileProvider.getMapTileFromCache(tile);
         if (bitmap != null) {
-            mTileRenderer.render(c, bitmap, 0, new Rect(0, 0, layerSource.getTileWidth(), layerSource.getTileHeight()),
-                    getScreenRectForTile(new Rect(), c.getClipBounds().width(), c.getClipBounds().height(), osmv, z, y, x, squareTiles, lonOffset, latOffset),
-                    mPaint);
+            c.getClipBounds(clipRect);
+            cacheSrcRect.set(0, 0, layerSource.getTileWidth(), layerSource.getTileHeight());
+            mTileRenderer.render(c, bitmap, 0, cacheSrcRect,
+                    getScreenRectForTile(cacheDestRect, clipRect.width(), clipRect.height(), osmv, z, y, x, squareTiles, lonOffset, latOffset), mPaint);
             return true;
         } else {
             if (z < maxz) {
@@ -718,10 +761,10 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                 x <<= 1;
                 y <<= 1;
                 ++z;
-                boolean result = drawTile(c, osmv, maxz, z, x, y, squareTiles, lonOffset, latOffset);
-                result = drawTile(c, osmv, maxz, z, x + 1, y, squareTiles, lonOffset, latOffset) && result;
-                result = drawTile(c, osmv, maxz, z, x, y + 1, squareTiles, lonOffset, latOffset) && result;
-                result = drawTile(c, osmv, maxz, z, x + 1, y + 1, squareTiles, lonOffset, latOffset) && result;
+                boolean result = drawTile(c, osmv, tile, maxz, z, x, y, squareTiles, lonOffset, latOffset);
+                result = drawTile(c, osmv, tile, maxz, z, x + 1, y, squareTiles, lonOffset, latOffset) && result;
+                result = drawTile(c, osmv, tile, maxz, z, x, y + 1, squareTiles, lonOffset, latOffset) && result;
+                result = drawTile(c, osmv, tile, maxz, z, x + 1, y + 1, squareTiles, lonOffset, latOffset) && result;
                 return result;
             }
             // final fail
@@ -873,6 +916,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                     return;
                 case MapAsyncTileProvider.NONETWORK:
                 case MapAsyncTileProvider.DOESNOTEXIST:
+                case MapAsyncTileProvider.CANCELLED:
                     return; // ignore
                 default: // fall though to log
                 }
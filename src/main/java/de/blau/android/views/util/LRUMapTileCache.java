@@ -2,9 +2,8 @@
 package de.blau.android.views.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import android.graphics.Bitmap;
 import android.util.Log;
@@ -13,8 +12,8 @@ import androidx.annotation.Nullable;
 import de.blau.android.exception.StorageException;
 
 /**
- * Simple LRU cache for any type of object. Implemented as an extended <code>HashMap</code> with a maximum size and an
- * aggregated <code>List</code> as LRU queue.
+ * Simple LRU cache for any type of object. Implemented as a long keyed open addressing hash table with a maximum size
+ * and a doubly linked list as LRU queue, the keys are packed tile keys, see {@link TileKey}.
  * 
  * This class was taken from OpenStreetMapViewer (original package org.andnav.osm) in 2010-06 by Marcus Wolschon to be
  * integrated into the de.blau.androin OSMEditor.
@@ -32,25 +31,38 @@ public class LRUMapTileCache<T> {
     // Constants
     // ===========================================================
 
+    private static final long  FREE_KEY         = 0;
+    private static final float FILL_FACTOR      = 0.75f;
+    private static final int   INITIAL_CAPACITY = 64;
+    private static final long  LONG_PHI         = 0x9E3779B97F4A7C15L;
+
     // ===========================================================
     // Fields
     // ===========================================================
 
-    Map<String, CacheElement<T>> cache;
+    /** Open addressing hash table with linear probing, key 0 is never used */
+    private long[]            keys;
+    private CacheElement<T>[] elements;
+    private int               mask;
+    private int               threshold;
+    private int               size = 0;
 
     /** Maximum cache size. */
     private long                        maxCacheSize;
     /** Current cache size **/
     private long                        cacheSize = 0;
-    /** LRU list. */
-    private final List<CacheElement<T>> list;
+    /** LRU list, head is the most recently used element. */
+    private CacheElement<T>             head;
+    private CacheElement<T>             tail;
     private final List<CacheElement<T>> reuseList;
 
     private static class CacheElement<B> {
-        boolean recycleable = true;
-        String  key;
-        B       blob;
-        long    owner;
+        boolean         recycleable = true;
+        long            key;
+        B               blob;
+        long            owner;
+        CacheElement<B> previous;
+        CacheElement<B> next;
 
         /**
          * Container for a cached Bitmap
@@ -60,7 +72,7 @@ public class LRUMapTileCache<T> {
          * @param recycleable if true the Bitmap can be recycled
          * @param owner owner reference
          */
-        public CacheElement(@NonNull String key, @NonNull B blob, boolean recycleable, long owner) {
+        public CacheElement(long key, @NonNull B blob, boolean recycleable, long owner) {
             init(key, blob, recycleable, owner);
         }
 
@@ -72,9 +84,9 @@ public class LRUMapTileCache<T> {
          * @param recycleable if true the Bitmap can be recycled
          * @param owner owner reference
          */
-        void init(@Nullable String key, @Nullable B blob, boolean recycleable, long owner) {
-            if (key == null) {
-                throw new IllegalArgumentException("key cannot be null");
+        void init(long key, @Nullable B blob, boolean recycleable, long owner) {
+            if (key == FREE_KEY) {
+                throw new IllegalArgumentException("key cannot be 0");
             }
             if (blob == null) {
                 throw new IllegalArgumentException("bitmap cannot be null");
@@ -83,6 +95,8 @@ public class LRUMapTileCache<T> {
             this.key = key;
             this.blob = blob;
             this.owner = owner;
+            previous = null;
+            next = null;
         }
     }
 
@@ -98,8 +112,7 @@ public class LRUMapTileCache<T> {
     public LRUMapTileCache(final long maxCacheSize) {
         super();
         this.maxCacheSize = maxCacheSize;
-        cache = new HashMap<>();
-        list = new ArrayList<>(); // using a LinkedList doesn't have any real advantages
+        allocate(INITIAL_CAPACITY);
         reuseList = new ArrayList<>();
     }
 
@@ -115,14 +128,17 @@ public class LRUMapTileCache<T> {
      * Empty all data structures
      */
     public synchronized void clear() {
-        for (CacheElement<T> ce : cache.values()) {
+        for (CacheElement<T> ce = head; ce != null; ce = ce.next) {
             T b = ce.blob;
             if (b instanceof Bitmap && ce.recycleable) {
                 ((Bitmap) b).recycle();
             }
         }
-        cache.clear();
-        list.clear();
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(elements, null);
+        size = 0;
+        head = null;
+        tail = null;
         cacheSize = 0;
     }
 
@@ -139,18 +155,20 @@ public class LRUMapTileCache<T> {
         if (limit < 0) {
             limit = 0;
         }
-        while (cacheSize > limit && !list.isEmpty()) {
-            CacheElement<T> ce = list.remove(list.size() - 1);
+        while (cacheSize > limit && tail != null) {
+            CacheElement<T> ce = tail;
             if (ce.owner == owner && owner != 0) {
                 // cache is being thrashed because it is too small, fail
                 Log.e(DEBUG_TAG, "cache too small, failing");
                 return false;
             }
-            if (cache.remove(ce.key) == null) {
-                throw new IllegalStateException("can't remove " + ce.key + " from cache");
+            unlink(ce);
+            if (!remove(ce.key)) {
+                throw new IllegalStateException("can't remove " + TileKey.toString(ce.key) + " from cache");
             }
             reuseList.add(ce);
             T b = ce.blob;
+            ce.blob = null;
             if (b instanceof Bitmap && !((Bitmap) b).isRecycled()) {
                 Bitmap bitmap = (Bitmap) b;
                 cacheSize -= (long) bitmap.getRowBytes() * bitmap.getHeight();
@@ -170,7 +188,7 @@ public class LRUMapTileCache<T> {
      * @return count
      */
     public int size() {
-        return cache.size();
+        return size;
     }
 
     /**
@@ -187,8 +205,8 @@ public class LRUMapTileCache<T> {
      * @param key the key
      * @return true if present
      */
-    public synchronized boolean containsKey(@NonNull String key) {
-        return cache.containsKey(key);
+    public synchronized boolean containsKey(long key) {
+        return find(key) != null;
     }
 
     /**
@@ -222,12 +240,12 @@ public class LRUMapTileCache<T> {
      *         the specified key
      * @throws StorageException if we can't expand the cache anymore
      */
-    public synchronized T put(@NonNull final String key, @NonNull final T value, boolean recycleable, long owner) throws StorageException {
+    public synchronized T put(final long key, @NonNull final T value, boolean recycleable, long owner) throws StorageException {
         if (maxCacheSize == 0) {
             return null;
         }
 
-        CacheElement<T> prev = cache.get(key);
+        CacheElement<T> prev = find(key);
         // if the key isn't in the cache and the cache is full...
         if (prev != null) {
             update(prev);
@@ -253,13 +271,13 @@ public class LRUMapTileCache<T> {
         // avoid creating new objects
         CacheElement<T> ce = null;
         if (!reuseList.isEmpty()) {
-            ce = reuseList.remove(0);
+            ce = reuseList.remove(reuseList.size() - 1);
             ce.init(key, value, recycleable, owner);
         } else {
             ce = new CacheElement<>(key, value, recycleable, owner);
         }
-        list.add(0, ce);
-        cache.put(key, ce);
+        linkFirst(ce);
+        insert(key, ce);
         cacheSize += sizeInc;
         return value;
     }
@@ -271,8 +289,8 @@ public class LRUMapTileCache<T> {
      * @return the value to which the cache maps the specified key, or <code>null</code> if the map contains no mapping
      *         for this key
      */
-    public synchronized T get(final String key) {
-        final CacheElement<T> value = cache.get(key);
+    public synchronized T get(final long key) {
+        final CacheElement<T> value = find(key);
         if (value != null) {
             update(value);
             return value.blob;
@@ -287,8 +305,176 @@ public class LRUMapTileCache<T> {
      * @param value to move to the top of the list
      */
     private synchronized void update(final CacheElement<T> value) {
-        list.remove(value);
-        list.add(0, value);
+        if (value != head) {
+            unlink(value);
+            linkFirst(value);
+        }
+    }
+
+    /**
+     * Add an element to the front of the LRU list
+     * 
+     * @param value the element
+     */
+    private void linkFirst(@NonNull final CacheElement<T> value) {
+        value.previous = null;
+        value.next = head;
+        if (head != null) {
+            head.previous = value;
+        }
+        head = value;
+        if (tail == null) {
+            tail = value;
+        }
+    }
+
+    /**
+     * Remove an element from the LRU list
+     * 
+     * @param value the element
+     */
+    private void unlink(@NonNull final CacheElement<T> value) {
+        if (value.previous != null) {
+            value.previous.next = value.next;
+        } else {
+            head = value.next;
+        }
+        if (value.next != null) {
+            value.next.previous = value.previous;
+        } else {
+            tail = value.previous;
+        }
+        value.previous = null;
+        value.next = null;
+    }
+
+    /**
+     * Allocate new hash table arrays
+     * 
+     * @param capacity the capacity, must be a power of 2
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        elements = new CacheElement[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * FILL_FACTOR);
+    }
+
+    /**
+     * Hash function
+     * 
+     * @param key the key
+     * @return a hash value
+     */
+    private static int hash(long key) {
+        final long h = key * LONG_PHI;
+        return (int) (h ^ (h >>> 32) ^ (h >>> 16));
+    }
+
+    /**
+     * Find the element for a key
+     * 
+     * @param key the key
+     * @return the element or null if not found
+     */
+    @Nullable
+    private CacheElement<T> find(long key) {
+        int pos = hash(key) & mask;
+        long k;
+        while ((k = keys[pos]) != FREE_KEY) {
+            if (k == key) {
+                return elements[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Insert an element in to the hash table, the key must not be present
+     * 
+     * @param key the key
+     * @param value the element
+     */
+    private void insert(long key, @NonNull CacheElement<T> value) {
+        if (size >= threshold) {
+            long[] oldKeys = keys;
+            CacheElement<T>[] oldElements = elements;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE_KEY) {
+                    store(oldKeys[i], oldElements[i]);
+                }
+            }
+        }
+        store(key, value);
+        size++;
+    }
+
+    /**
+     * Store a key and element in the first free slot
+     * 
+     * @param key the key
+     * @param value the element
+     */
+    private void store(long key, @NonNull CacheElement<T> value) {
+        int pos = hash(key) & mask;
+        while (keys[pos] != FREE_KEY) {
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        elements[pos] = value;
+    }
+
+    /**
+     * Remove a key from the hash table
+     * 
+     * @param key the key
+     * @return true if the key was found
+     */
+    private boolean remove(long key) {
+        int pos = hash(key) & mask;
+        long k;
+        while ((k = keys[pos]) != FREE_KEY) {
+            if (k == key) {
+                size--;
+                shiftKeys(pos);
+                return true;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Close the gap left by a removed entry by moving following entries of the same probe sequence back
+     * 
+     * @param pos the position of the removed entry
+     */
+    private void shiftKeys(int pos) {
+        int last;
+        int slot;
+        long k;
+        while (true) {
+            last = pos;
+            pos = (pos + 1) & mask;
+            while (true) {
+                k = keys[pos];
+                if (k == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    elements[last] = null;
+                    return;
+                }
+                slot = hash(k) & mask;
+                if (last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos)) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = k;
+            elements[last] = elements[pos];
+        }
     }
 
     // ===========================================================
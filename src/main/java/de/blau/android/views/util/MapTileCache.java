@@ -61,7 +61,7 @@ public class MapTileCache<T> {
      */
     @Nullable
     public synchronized T getMapTile(@NonNull final MapTile aTile) {
-        return mCachedTiles.get(aTile.toId());
+        return mCachedTiles.get(aTile.toKey());
     }
 
     /**
@@ -74,7 +74,7 @@ public class MapTileCache<T> {
      * @throws StorageException if we coudn't store the tile
      */
     public synchronized boolean putTile(@NonNull final MapTile aTile, @NonNull final T aImage, final long owner) throws StorageException {
-        return mCachedTiles.put(aTile.toId(), aImage, true, owner) != null;
+        return mCachedTiles.put(aTile.toKey(), aImage, true, owner) != null;
     }
 
     /**
@@ -89,7 +89,7 @@ public class MapTileCache<T> {
      */
     public synchronized boolean putTile(@NonNull final MapTile aTile, @NonNull final T aImage, final boolean recycleable, final long owner)
             throws StorageException {
-        return mCachedTiles.put(aTile.toId(), aImage, recycleable, owner) != null;
+        return mCachedTiles.put(aTile.toKey(), aImage, recycleable, owner) != null;
     }
 
     // ===========================================================
@@ -124,7 +124,7 @@ public class MapTileCache<T> {
      * @return true if the tile is in the cache.
      */
     public boolean containsTile(@NonNull final MapTile aTile) {
-        return mCachedTiles.containsKey(aTile.toId());
+        return mCachedTiles.containsKey(aTile.toKey());
     }
 
     /**
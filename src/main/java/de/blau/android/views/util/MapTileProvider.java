@@ -3,10 +3,6 @@ package de.blau.android.views.util;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -18,6 +14,7 @@ import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.App;
@@ -57,8 +54,8 @@ public class MapTileProvider<T> {
     /**
      * cache provider
      */
-    private final MapTileCache<T>   mTileCache;
-    private final Map<String, Long> pending = new HashMap<>();
+    private final MapTileCache<T>       mTileCache;
+    private final LongSparseArray<Long> pending = new LongSparseArray<>();
 
     private final Handler                   mDownloadFinishedHandler;
     private final TileDecoder<T>            decoder;
@@ -80,6 +77,19 @@ public class MapTileProvider<T> {
          */
         @Nullable
         D decode(@NonNull byte[] data, boolean small);
+
+        /**
+         * Decode a tile for a specific zoom level
+         * 
+         * @param data the original tile data
+         * @param small use a little memory as possible
+         * @param zoom the zoom level of the tile
+         * @return the tile in the target format
+         */
+        @Nullable
+        default D decode(@NonNull byte[] data, boolean small, int zoom) {
+            return decode(data, small);
+        }
     }
 
     public static class BitmapDecoder implements TileDecoder<Bitmap> {
@@ -175,11 +185,11 @@ public class MapTileProvider<T> {
      * @param owner if for the current owner
      */
     private void preCacheTile(@NonNull final MapTile aTile, long owner) {
-        String id = aTile.toId();
+        long key = aTile.toKey();
         synchronized (pending) {
-            if (!pending.containsKey(id)) {
+            if (pending.get(key) == null) {
                 try {
-                    pending.put(id, owner);
+                    pending.put(key, owner);
                     if (mapTileFilesystemProvider != null) {
                         // note aTile will be reused and needs to be copied
                         mapTileFilesystemProvider.loadMapTileAsync(new MapTile(aTile), mCallback);
@@ -191,6 +201,22 @@ public class MapTileProvider<T> {
         }
     }
 
+    /**
+     * Set the area that is currently being displayed for a renderer so that tile requests can be prioritized
+     * 
+     * @param rendererId the renderer
+     * @param zoom the zoom level
+     * @param left left most tile x
+     * @param top top most tile y
+     * @param right right most tile x
+     * @param bottom bottom most tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        if (mapTileFilesystemProvider != null) {
+            mapTileFilesystemProvider.setViewport(rendererId, zoom, left, top, right, bottom);
+        }
+    }
+
     /**
      * Remove requests for a specific renderer and zoom level from the queues
      * 
@@ -204,21 +230,13 @@ public class MapTileProvider<T> {
                 mThreadPool.execute(() -> {
                     mapTileFilesystemProvider.flushQueue(rendererId, zoomLevel);
                     // remove the same from pending
-                    Set<String> keys;
+                    final int rendererIndex = TileKey.rendererIndex(rendererId);
+                    final boolean allZooms = zoomLevel == MapAsyncTileProvider.ALLZOOMS;
                     synchronized (pending) {
-                        keys = new HashSet<>(pending.keySet());
-                        if (zoomLevel != MapAsyncTileProvider.ALLZOOMS) {
-                            String id = Integer.toString(zoomLevel) + rendererId;
-                            for (String key : keys) {
-                                if (key.startsWith(id)) {
-                                    pending.remove(key);
-                                }
-                            }
-                        } else {
-                            for (String key : keys) {
-                                if (key.contains(rendererId)) {
-                                    pending.remove(key);
-                                }
+                        for (int i = pending.size() - 1; i >= 0; i--) {
+                            long key = pending.keyAt(i);
+                            if (TileKey.rendererIndex(key) == rendererIndex && (allZooms || zoomLevel == TileKey.zoom(key))) {
+                                pending.removeAt(i);
                             }
                         }
                     }
@@ -268,15 +286,15 @@ public class MapTileProvider<T> {
         public void mapTileLoaded(@NonNull final String rendererID, final int zoomLevel, final int tileX, final int tileY, @NonNull final byte[] data)
                 throws IOException {
             MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
-            String id = t.toId();
+            long key = t.toKey();
             try {
-                T tileBlob = decoder.decode(unGZip(data), smallHeap);
+                T tileBlob = decoder.decode(unGZip(data), smallHeap, zoomLevel);
                 if (tileBlob == null) {
                     Log.d(DEBUG_TAG, "decoded tile is null");
                     throw new IOException("decoded tile is null");
                 }
                 synchronized (pending) {
-                    Long l = pending.get(id);
+                    Long l = pending.get(key);
                     if (l != null) {
                         mTileCache.putTile(t, tileBlob, l);
                     } // else wasn't in pending queue just ignore
@@ -291,7 +309,7 @@ public class MapTileProvider<T> {
                 throw new IOException("Exception in mapTileLoaded callback " + npe);
             } finally {
                 synchronized (pending) {
-                    pending.remove(id);
+                    pending.remove(key);
                 }
             }
             if (MapViewConstants.DEBUGMODE) {
@@ -317,7 +335,7 @@ public class MapTileProvider<T> {
                 throws IOException {
             MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
             synchronized (pending) {
-                pending.remove(t.toId());
+                pending.remove(t.toKey());
             }
             mDownloadFinishedHandler.sendMessage(Message.obtain(mDownloadFinishedHandler, MapTile.MAPTILE_FAIL_ID, reason, 0));
         }
@@ -0,0 +1,138 @@
+package de.blau.android.views.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Packed 64 bit keys for tiles
+ * 
+ * Layout from the most significant bit: 9 bits renderer index, 5 bits zoom level, 25 bits x and 25 bits y. Renderer
+ * indices are assigned on first use and start with 1 so that a valid key is never 0.
+ */
+public final class TileKey {
+
+    public static final int MAX_ZOOM      = 25;
+    public static final int MAX_RENDERERS = (1 << 9) - 1;
+
+    private static final int  ZOOM_SHIFT     = 50;
+    private static final int  X_SHIFT        = 25;
+    private static final int  RENDERER_SHIFT = 55;
+    private static final long ZOOM_MASK      = 0x1FL;
+    private static final long XY_MASK        = (1L << 25) - 1;
+
+    private static final Map<String, Integer> rendererIndices = new HashMap<>();
+    private static final List<String>         rendererIds     = new ArrayList<>();
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private TileKey() {
+        // private
+    }
+
+    /**
+     * Get the index for a renderer, assigning a new one if necessary
+     * 
+     * @param rendererId the renderer id
+     * @return the index
+     */
+    public static int rendererIndex(@Nullable String rendererId) {
+        synchronized (rendererIndices) {
+            Integer index = rendererIndices.get(rendererId);
+            if (index == null) {
+                if (rendererIds.size() >= MAX_RENDERERS) {
+                    throw new IllegalStateException("Too many tile renderers");
+                }
+                rendererIds.add(rendererId);
+                index = rendererIds.size();
+                rendererIndices.put(rendererId, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Get the renderer id for an index
+     * 
+     * @param index the index
+     * @return the renderer id or null if not found
+     */
+    @Nullable
+    public static String rendererId(int index) {
+        synchronized (rendererIndices) {
+            return index > 0 && index <= rendererIds.size() ? rendererIds.get(index - 1) : null;
+        }
+    }
+
+    /**
+     * Pack a tile specification in to a long
+     * 
+     * @param rendererIndex the renderer index
+     * @param zoom the zoom level
+     * @param x tile x
+     * @param y tile y
+     * @return the key
+     */
+    public static long pack(int rendererIndex, int zoom, int x, int y) {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Unsupported zoom level " + zoom);
+        }
+        return ((long) rendererIndex << RENDERER_SHIFT) | ((long) zoom << ZOOM_SHIFT) | ((x & XY_MASK) << X_SHIFT) | (y & XY_MASK);
+    }
+
+    /**
+     * Get the renderer index from a key
+     * 
+     * @param key the key
+     * @return the renderer index
+     */
+    public static int rendererIndex(long key) {
+        return (int) (key >>> RENDERER_SHIFT);
+    }
+
+    /**
+     * Get the zoom level from a key
+     * 
+     * @param key the key
+     * @return the zoom level
+     */
+    public static int zoom(long key) {
+        return (int) ((key >>> ZOOM_SHIFT) & ZOOM_MASK);
+    }
+
+    /**
+     * Get the tile x from a key
+     * 
+     * @param key the key
+     * @return tile x
+     */
+    public static int x(long key) {
+        return (int) ((key >>> X_SHIFT) & XY_MASK);
+    }
+
+    /**
+     * Get the tile y from a key
+     * 
+     * @param key the key
+     * @return tile y
+     */
+    public static int y(long key) {
+        return (int) (key & XY_MASK);
+    }
+
+    /**
+     * Get a human readable representation of a key
+     * 
+     * @param key the key
+     * @return a String in the same format as MapTile.toString
+     */
+    @NonNull
+    public static String toString(long key) {
+        return rendererId(rendererIndex(key)) + "/" + zoom(key) + "/" + x(key) + "/" + y(key);
+    }
+}
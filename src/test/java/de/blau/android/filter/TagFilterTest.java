@@ -155,6 +155,58 @@ public class TagFilterTest {
         }
     }
 
+    /**
+     * Change the tags of a way and check that only the cached state of the way and its nodes is invalidated
+     */
+    @Test
+    public void tagFilterWayChanged() {
+        try (TagFilterDatabaseHelper helper = new TagFilterDatabaseHelper(context); SQLiteDatabase db = helper.getWritableDatabase()) {
+            TreeMap<String, String> tags = new TreeMap<>();
+            tags.put(Tags.KEY_BUILDING, "yes");
+            Logic logic = App.getLogic();
+
+            logic.performAdd(null, 100.0f, 100.0f);
+            Node n1 = logic.getSelectedNode();
+            logic.performAdd(null, 1000.0f, 1000.0f);
+            Node n2 = logic.getSelectedNode();
+            Way w = logic.getSelectedWay();
+            logic.setSelectedNode(null);
+            logic.setSelectedWay(null);
+            logic.setTags(null, w, tags);
+
+            logic.performAdd(null, 500.0f, 100.0f);
+            Node other = logic.getSelectedNode();
+            logic.setSelectedNode(null);
+            logic.setTags(null, other, tags);
+
+            insertTagFilterRow(db, TagFilter.DEFAULT_FILTER, true, true, "way+", Tags.KEY_BUILDING, null);
+
+            TagFilter f = new TagFilter(context);
+            Assert.assertTrue(f.include(w, false));
+            Assert.assertTrue(f.include(n1, false));
+            Assert.assertTrue(f.include(n2, false));
+            Assert.assertTrue(!f.include(other, false));
+            Assert.assertEquals(1, f.getVisibleWays().size());
+            Assert.assertEquals(2, f.getVisibleNodes().size());
+
+            tags.clear();
+            tags.put(Tags.KEY_HIGHWAY, "residential");
+            logic.setTags(null, w, tags);
+            logic.setTags(null, other, tags); // not reported to the filter
+            Assert.assertTrue(f.include(w, false)); // still cached
+            ArrayList<Way> changed = new ArrayList<>();
+            changed.add(w);
+            f.onElementChanged(null, changed);
+            Assert.assertTrue(f.getVisibleWays().isEmpty());
+            Assert.assertTrue(f.getVisibleNodes().isEmpty());
+            Assert.assertTrue(!f.include(w, false));
+            Assert.assertTrue(!f.include(n1, false));
+            Assert.assertTrue(!f.include(other, false)); // still cached
+        } catch (OsmIllegalOperationException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
     /**
      * Test against a way tagged as building that is member of a Relation that the way will be included if the relation
      * matches
@@ -0,0 +1,210 @@
+package de.blau.android.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.location.Location;
+import androidx.test.filters.LargeTest;
+import de.blau.android.util.GeoMath;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class TrackCompressorTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoMath.EARTH_RADIUS;
+    private static final double START_LAT         = 47.0;
+    private static final double START_LON         = 8.0;
+    private static final double EPSILON           = 0.05;  // meters, rounding to 1E-7 degrees
+
+    /**
+     * Compress a noisy walk with turns and a segment break and check the deviation from the raw track
+     */
+    @Test
+    public void noisyWalk() {
+        Random random = new Random(4711);
+        List<Location> raw = new ArrayList<>();
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (i % 200 == 0) {
+                heading += Math.PI / 2; // sharp turn
+            }
+            x += 1.4 * Math.cos(heading);
+            y += 1.4 * Math.sin(heading);
+            raw.add(location(x + random.nextGaussian() * 0.5, y + random.nextGaussian() * 0.5, 1000L * i));
+        }
+        List<Integer> breaks = new ArrayList<>();
+        breaks.add(1500);
+        Track track = record(raw, breaks, 2);
+        TrackPoints compressed = track.getTrackPoints();
+        assertTrue(compressed.size() < raw.size() / 5);
+        checkDeviation(raw, compressed, 2);
+        checkIntervals(compressed, 60000);
+        assertTrue(contains(compressed, raw.get(1499)));
+        assertTrue(contains(compressed, raw.get(1500)));
+        assertTrue(compressed.get(indexOf(compressed, raw.get(1500))).isNewSegment());
+        assertTrue(contains(compressed, raw.get(0)));
+        assertTrue(contains(compressed, raw.get(raw.size() - 1)));
+    }
+
+    /**
+     * Compress a stationary receiver with jitter, only the time constraint should retain points
+     */
+    @Test
+    public void stationary() {
+        Random random = new Random(42);
+        List<Location> raw = new ArrayList<>();
+        for (int i = 0; i < 3600; i++) {
+            raw.add(location(random.nextGaussian(), random.nextGaussian(), 1000L * i));
+        }
+        Track track = record(raw, new ArrayList<>(), 5);
+        TrackPoints compressed = track.getTrackPoints();
+        assertTrue(compressed.size() < raw.size() / 10);
+        checkDeviation(raw, compressed, 5);
+        checkIntervals(compressed, 60000);
+    }
+
+    /**
+     * Check that a turn is retained even if it is within the tolerance
+     */
+    @Test
+    public void heading() {
+        List<Location> raw = new ArrayList<>();
+        for (int i = 0; i <= 4; i++) {
+            raw.add(location(i * 40D, 0, 1000L * i));
+        }
+        // turn by 60°, the corner is less than 25 m from the line from the start to the next point
+        for (int i = 1; i <= 4; i++) {
+            raw.add(location(160 + i * 16D, i * 32D * Math.sin(Math.PI / 3), 1000L * (4 + i)));
+        }
+        Track track = record(raw, new ArrayList<>(), 30);
+        TrackPoints compressed = track.getTrackPoints();
+        assertEquals(3, compressed.size());
+        assertTrue(contains(compressed, raw.get(4)));
+        checkDeviation(raw, compressed, 30);
+
+        // without a turn only the end points remain
+        raw.clear();
+        for (int i = 0; i <= 8; i++) {
+            raw.add(location(i * 40D, 0, 1000L * i));
+        }
+        track = record(raw, new ArrayList<>(), 30);
+        assertEquals(2, track.getTrackPoints().size());
+    }
+
+    /**
+     * Record a track with compression
+     * 
+     * @param raw the raw locations
+     * @param breaks indices of locations that start a new segment
+     * @param tolerance the tolerance in meters
+     * @return the recorded Track
+     */
+    private Track record(List<Location> raw, List<Integer> breaks, double tolerance) {
+        Track track = new Track(null, false);
+        track.setCompressionTolerance(tolerance);
+        for (int i = 0; i < raw.size(); i++) {
+            if (breaks.contains(i)) {
+                track.markNewSegment();
+            }
+            track.addTrackPoint(raw.get(i));
+        }
+        return track;
+    }
+
+    /**
+     * Check that every raw point is within the tolerance of the compressed track between the retained points before
+     * and after it
+     * 
+     * @param raw the raw locations
+     * @param compressed the compressed track
+     * @param tolerance the tolerance in meters
+     */
+    private void checkDeviation(List<Location> raw, TrackPoints compressed, double tolerance) {
+        int k = 0;
+        double max = 0;
+        for (Location l : raw) {
+            while (k < compressed.size() - 1 && compressed.get(k + 1).getTime() <= l.getTime()) {
+                k++;
+            }
+            TrackPoint start = compressed.get(k);
+            if (start.getTime() == l.getTime()) {
+                assertEquals(l.getLatitude(), start.getLatitude(), 1E-6);
+                assertEquals(l.getLongitude(), start.getLongitude(), 1E-6);
+                continue;
+            }
+            TrackPoint end = compressed.get(k + 1);
+            double scale = METERS_PER_DEGREE * Math.cos(Math.toRadians(start.getLatitude()));
+            double px = (l.getLongitude() - start.getLongitude()) * scale;
+            double py = (l.getLatitude() - start.getLatitude()) * METERS_PER_DEGREE;
+            double ex = (end.getLongitude() - start.getLongitude()) * scale;
+            double ey = (end.getLatitude() - start.getLatitude()) * METERS_PER_DEGREE;
+            max = Math.max(max, Math.sqrt(TrackCompressor.distanceSquared(px, py, ex, ey)));
+        }
+        assertTrue("maximum deviation " + max, max <= tolerance + EPSILON);
+    }
+
+    /**
+     * Check that the time between retained points doesn't exceed the maximum
+     * 
+     * @param compressed the compressed track
+     * @param maxInterval the maximum interval in ms
+     */
+    private void checkIntervals(TrackPoints compressed, long maxInterval) {
+        for (int i = 1; i < compressed.size(); i++) {
+            assertTrue(compressed.get(i).getTime() - compressed.get(i - 1).getTime() <= maxInterval);
+        }
+    }
+
+    /**
+     * Check if a location has been retained
+     * 
+     * @param compressed the compressed track
+     * @param l the location
+     * @return true if retained
+     */
+    private boolean contains(TrackPoints compressed, Location l) {
+        return indexOf(compressed, l) >= 0;
+    }
+
+    /**
+     * Find the index of a location in the compressed track
+     * 
+     * @param compressed the compressed track
+     * @param l the location
+     * @return the index or -1
+     */
+    private int indexOf(TrackPoints compressed, Location l) {
+        for (int i = 0; i < compressed.size(); i++) {
+            if (compressed.get(i).getTime() == l.getTime()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Create a Location
+     * 
+     * @param x meters east of the start
+     * @param y meters north of the start
+     * @param time the time in ms
+     * @return a Location
+     */
+    private static Location location(double x, double y, long time) {
+        Location l = new Location("test");
+        l.setLatitude(START_LAT + y / METERS_PER_DEGREE);
+        l.setLongitude(START_LON + x / (METERS_PER_DEGREE * Math.cos(Math.toRadians(START_LAT))));
+        l.setTime(time);
+        return l;
+    }
+}
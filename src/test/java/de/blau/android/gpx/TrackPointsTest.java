@@ -0,0 +1,172 @@
+package de.blau.android.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.exception.OsmException;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.OsmXml;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.util.GeoMath;
+import de.blau.android.util.collections.FloatPrimitiveList;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class TrackPointsTest {
+
+    private static final int WIDTH  = 1000;
+    private static final int HEIGHT = 1000;
+
+    /**
+     * Check that points can be added, inserted and retrieved
+     */
+    @Test
+    public void listOperations() {
+        TrackPoints points = new TrackPoints();
+        for (int i = 0; i < 1000; i++) {
+            points.add(new TrackPoint(i == 500 ? TrackPoint.FLAG_NEWSEGMENT : 0, 47.1234567 + i * 1E-5, 9.1234567 - i * 1E-5, i, 1000L * i));
+        }
+        assertEquals(1000, points.size());
+        TrackPoint tp = points.get(500);
+        assertTrue(tp.isNewSegment());
+        assertFalse(points.get(499).isNewSegment());
+        assertEquals(47.1234567 + 500 * 1E-5, tp.getLatitude(), 1E-7);
+        assertEquals(9.1234567 - 500 * 1E-5, tp.getLongitude(), 1E-7);
+        assertEquals(500, tp.getAltitude(), 1E-3);
+        assertEquals(500000L, tp.getTime());
+        assertEquals(500, points.indexOf(tp));
+
+        List<TrackPoint> head = new ArrayList<>();
+        head.add(new TrackPoint((byte) 0, 1, 2, 3));
+        head.add(new TrackPoint((byte) 0, 4, 5, 6));
+        points.addAll(0, head);
+        assertEquals(1002, points.size());
+        assertEquals(1, points.get(0).getLatitude(), 1E-7);
+        assertFalse(points.get(1).hasAltitude());
+        assertEquals(502, points.indexOf(tp));
+        BoundingBox bounds = points.getBounds();
+        assertEquals(20000000, bounds.getLeft());
+        assertEquals(10000000, bounds.getBottom());
+        assertEquals(91234567, bounds.getRight());
+        assertEquals(471234567 + 999 * 100, bounds.getTop());
+
+        points.clear();
+        assertTrue(points.isEmpty());
+        assertNull(points.getBounds());
+    }
+
+    /**
+     * Check that a decimated track is drawn with roughly one segment per pixel and keeps the segment breaks
+     */
+    @Test
+    public void decimation() {
+        TrackPoints points = new TrackPoints();
+        for (int i = 0; i < 10000; i++) {
+            // two parallel horizontal segments
+            points.add(i == 5000 ? TrackPoint.FLAG_NEWSEGMENT : 0, i < 5000 ? 0 : 0.5, (i % 5000) * 1E-4, 0, i);
+        }
+        FloatPrimitiveList linePoints = new FloatPrimitiveList();
+        points.toLinePoints(linePoints, viewBox(-0.1, -0.1, 0.6, 0.6), WIDTH, HEIGHT);
+        int segments = linePoints.size() / 4;
+        assertTrue(segments > 0);
+        assertTrue(segments < 3 * WIDTH); // 9998 without decimation
+        float minX = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        for (int i = 0; i < linePoints.size(); i += 4) {
+            // no segment may connect the two parts
+            assertEquals(linePoints.get(i + 1), linePoints.get(i + 3), 0.01f);
+            minX = Math.min(minX, linePoints.get(i));
+            maxX = Math.max(maxX, linePoints.get(i + 2));
+        }
+        // the start and end points are kept
+        ViewBox box = viewBox(-0.1, -0.1, 0.6, 0.6);
+        assertEquals(GeoMath.lonE7ToX(WIDTH, box, 0), minX, 0.01f);
+        assertEquals(GeoMath.lonE7ToX(WIDTH, box, 4999 * 1000), maxX, 0.01f);
+
+        // adding a point extends the decimated track
+        points.add((byte) 0, 0.5, 0.55, 0, 10000);
+        points.toLinePoints(linePoints, box, WIDTH, HEIGHT);
+        maxX = -Float.MAX_VALUE;
+        for (int i = 0; i < linePoints.size(); i += 4) {
+            maxX = Math.max(maxX, linePoints.get(i + 2));
+        }
+        assertEquals(GeoMath.lonE7ToX(WIDTH, box, 5500000), maxX, 0.01f);
+    }
+
+    /**
+     * Check that only the visible part of a track is projected
+     */
+    @Test
+    public void visibleChunks() {
+        TrackPoints points = new TrackPoints();
+        for (int i = 0; i < 100000; i++) {
+            points.add((byte) 0, 0, i * 1E-6, 0, i);
+        }
+        FloatPrimitiveList linePoints = new FloatPrimitiveList();
+        // roughly 0.05 m per pixel, no decimation
+        points.toLinePoints(linePoints, viewBox(0.0100, -0.0002, 0.0105, 0.0002), WIDTH, HEIGHT);
+        int segments = linePoints.size() / 4;
+        assertTrue(segments >= 500);
+        assertTrue(segments <= 500 + 2 * TrackPoints.CHUNK_SIZE);
+
+        // nothing visible
+        points.toLinePoints(linePoints, viewBox(1, 1, 1.001, 1.001), WIDTH, HEIGHT);
+        assertEquals(0, linePoints.size());
+    }
+
+    /**
+     * Import a GPX file directly in to a track
+     */
+    @Test
+    public void importGpx() {
+        String gpx = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><gpx version=\"1.0\"><trk><trkseg>"
+                + "<trkpt lat=\"47.1\" lon=\"9.1\"><ele>100.5</ele><time>2020-01-01T00:00:00Z</time></trkpt>"
+                + "<trkpt lat=\"47.2\" lon=\"9.2\"></trkpt></trkseg><trkseg><trkpt lat=\"47.3\" lon=\"9.3\"></trkpt></trkseg></trk></gpx>";
+        Track track = new Track(null, false);
+        try {
+            track.importFromGPX(new ByteArrayInputStream(gpx.getBytes(OsmXml.UTF_8)));
+        } catch (UnsupportedEncodingException e) {
+            fail(e.getMessage());
+        }
+        TrackPoints points = track.getTrackPoints();
+        assertEquals(3, points.size());
+        assertTrue(points.get(0).isNewSegment());
+        assertEquals(100.5, points.get(0).getAltitude(), 1E-3);
+        assertEquals(1577836800000L, points.get(0).getTime());
+        assertFalse(points.get(1).isNewSegment());
+        assertFalse(points.get(1).hasAltitude());
+        assertTrue(points.get(2).isNewSegment());
+        assertEquals(9.3, points.get(2).getLongitude(), 1E-7);
+    }
+
+    /**
+     * Create a ViewBox
+     * 
+     * @param left left
+     * @param bottom bottom
+     * @param right right
+     * @param top top
+     * @return a ViewBox
+     */
+    private static ViewBox viewBox(double left, double bottom, double right, double top) {
+        try {
+            return new ViewBox(left, bottom, right, top);
+        } catch (OsmException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+}
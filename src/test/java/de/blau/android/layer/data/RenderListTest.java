@@ -0,0 +1,128 @@
+package de.blau.android.layer.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.UnitTestUtils;
+import de.blau.android.exception.OsmException;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.Tags;
+import de.blau.android.osm.ViewBox;
+import de.blau.android.osm.Way;
+import de.blau.android.resources.DataStyle;
+import de.blau.android.resources.DataStyle.FeatureStyle;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class RenderListTest {
+
+    private StorageDelegator delegator;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        DataStyle.getStylesFromFiles(ApplicationProvider.getApplicationContext());
+        delegator = UnitTestUtils.loadTestData(getClass(), "london.osm");
+    }
+
+    /**
+     * Check that a prepared list contains the same elements as a direct query
+     */
+    @Test
+    public void sameAsQuery() {
+        Storage storage = delegator.getCurrentStorage();
+        BoundingBox bounds = null;
+        try {
+            bounds = storage.calcBoundingBoxFromData();
+        } catch (OsmException e) {
+            throw new AssertionError(e.getMessage());
+        }
+        ViewBox box = new ViewBox(bounds);
+        box.scale(0.5);
+        RenderList list = RenderList.build(delegator, new ViewBox(box));
+        assertTrue(list.isCurrent(storage));
+        assertTrue(list.covers(box));
+
+        assertEquals(new HashSet<>(storage.getNodes(box)), new HashSet<>(list.nodes));
+        List<Way> ways = storage.getWays(box);
+        assertFalse(ways.isEmpty());
+        assertEquals(new HashSet<>(ways), new HashSet<>(list.ways));
+        // sorted for drawing
+        MapOverlay.LayerComparator comparator = new MapOverlay.LayerComparator();
+        for (int i = 1; i < list.ways.size(); i++) {
+            assertTrue(comparator.compare(list.ways.get(i - 1), list.ways.get(i)) <= 0);
+        }
+        // styles resolved in the list and not cached in the elements
+        assertEquals(list.ways.size(), list.wayStyles.length);
+        for (int i = 0; i < list.wayStyles.length; i++) {
+            Way w = list.ways.get(i);
+            assertNull(w.getStyle());
+            assertNotNull(list.wayStyles[i]);
+            assertSame(DataStyle.matchStyle(w), list.wayStyles[i]);
+        }
+        // only the elements in a smaller view are replayed
+        ViewBox view = new ViewBox(box);
+        view.scale(0.5);
+        assertTrue(list.covers(view));
+        List<Node> visibleNodes = new ArrayList<>();
+        list.getNodes(view, visibleNodes);
+        assertEquals(new HashSet<>(storage.getNodes(view)), new HashSet<>(visibleNodes));
+        List<Way> visibleWays = new ArrayList<>();
+        List<FeatureStyle> visibleStyles = new ArrayList<>();
+        list.getWays(view, visibleWays, visibleStyles);
+        assertEquals(new HashSet<>(storage.getWays(view)), new HashSet<>(visibleWays));
+        assertTrue(visibleWays.size() < list.ways.size());
+        assertEquals(visibleWays.size(), visibleStyles.size());
+        for (int i = 0; i < visibleWays.size(); i++) {
+            assertSame(DataStyle.matchStyle(visibleWays.get(i)), visibleStyles.get(i));
+        }
+        List<Node> nodes = new ArrayList<>(list.nodes);
+        try {
+            Collections.sort(list.ways, comparator);
+            throw new AssertionError("list should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // a much smaller view shouldn't use the list
+        ViewBox small = new ViewBox(box);
+        small.scale(0.25);
+        assertFalse(list.covers(small));
+
+        // any change should make the list stale
+        Way way = list.ways.get(0);
+        Map<String, String> tags = new TreeMap<>(way.getTags());
+        tags.put(Tags.KEY_LAYER, "1");
+        delegator.setTags(way, tags);
+        assertFalse(list.isCurrent(storage));
+
+        list = RenderList.build(delegator, new ViewBox(box));
+        assertTrue(list.isCurrent(storage));
+        Node node = nodes.get(0);
+        delegator.moveNode(node, node.getLat() + 10, node.getLon() + 10);
+        assertFalse(list.isCurrent(storage));
+    }
+}
@@ -0,0 +1,180 @@
+package de.blau.android.layer.geojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.OsmXml;
+import de.blau.android.util.GeoJSONConstants;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class FeatureStoreTest {
+
+    private static final int GRID = 50;
+
+    private File dataFile;
+
+    /**
+     * Create a data file name
+     */
+    @Before
+    public void setup() {
+        try {
+            dataFile = File.createTempFile("geojson", "." + FeatureStore.EXTENSION);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the data file
+     */
+    @After
+    public void teardown() {
+        dataFile.delete(); // NOSONAR
+    }
+
+    /**
+     * Read a FeatureCollection and query parts of it
+     */
+    @Test
+    public void featureCollection() {
+        StringBuilder json = new StringBuilder("{\"features\":[");
+        for (int i = 0; i < GRID; i++) {
+            for (int j = 0; j < GRID; j++) {
+                json.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + i * 0.01 + "," + j * 0.01
+                        + "]},\"properties\":{\"name\":\"" + i + "/" + j + "\",\"nested\":{\"a\":1}}},");
+            }
+        }
+        json.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Polygon\",");
+        json.append("\"coordinates\":[[[1,1],[2,1],[2,2],[1,2],[1,1]]]},\"properties\":{}},");
+        json.append("{\"type\":\"Feature\",\"geometry\":null,\"properties\":{}}"); // skipped
+        json.append("],\"type\":\"FeatureCollection\"}");
+        FeatureStore store = read(json.toString());
+        assertEquals(GRID * GRID + 1, store.size());
+        assertEquals(GeoJSONConstants.POINT, store.getGeometryType(0));
+        assertEquals(GeoJSONConstants.POLYGON, store.getGeometryType(GRID * GRID));
+        List<String> keys = store.getLabelKeys();
+        assertEquals(1, keys.size());
+        assertEquals("name", keys.get(0));
+        BoundingBox bounds = store.getBounds();
+        assertNotNull(bounds);
+        assertEquals(0, bounds.getLeft());
+        assertEquals(20000000, bounds.getTop());
+
+        List<Feature> result = new ArrayList<>();
+        store.query(new BoundingBox(0.095, 0.095, 0.105, 0.105), result);
+        assertEquals(1, result.size());
+        Point p = (Point) result.get(0).geometry();
+        assertEquals(0.1, p.longitude(), 1E-7);
+        assertEquals("10/10", result.get(0).getStringProperty("name"));
+
+        result.clear();
+        store.query(new BoundingBox(0.005, 0.005, 0.035, 0.025), result);
+        assertEquals(6, result.size());
+
+        result.clear();
+        store.query(new BoundingBox(1.5, 1.5, 1.6, 1.6), result);
+        assertEquals(1, result.size());
+        assertEquals(GeoJSONConstants.POLYGON, result.get(0).geometry().type());
+
+        assertEquals(GRID * GRID + 1, store.getAll().size());
+
+        // serialize and check that the restored store still works
+        FeatureStore restored = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(store);
+            }
+            assertTrue(bytes.size() < dataFile.length());
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                restored = (FeatureStore) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            fail(e.getMessage());
+        }
+        assertTrue(restored.isValid());
+        result.clear();
+        restored.query(new BoundingBox(0.095, 0.095, 0.105, 0.105), result);
+        assertEquals(1, result.size());
+        assertEquals("10/10", result.get(0).getStringProperty("name"));
+        restored.delete();
+        assertFalse(restored.isValid());
+    }
+
+    /**
+     * Read a single Feature and a single Geometry
+     */
+    @Test
+    public void singleObjects() {
+        FeatureStore store = read(
+                "{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]},\"properties\":{\"bbox\":[-1,-1,2,2]}}");
+        assertEquals(1, store.size());
+        assertEquals(GeoJSONConstants.LINESTRING, store.getGeometryType(0));
+        BoundingBox bounds = store.getBounds();
+        assertEquals(-10000000, bounds.getLeft());
+        assertEquals(20000000, bounds.getTop());
+
+        store = read("{\"coordinates\":[[30,10],[40,40]],\"type\":\"MultiPoint\"}");
+        assertEquals(1, store.size());
+        assertEquals(GeoJSONConstants.MULTIPOINT, store.getGeometryType(0));
+        assertEquals(GeoJSONConstants.MULTIPOINT, store.getAll().get(0).geometry().type());
+    }
+
+    /**
+     * Check that a source is only considered unchanged if both size and hash are known and match
+     */
+    @Test
+    public void sameSource() {
+        FeatureStore store = read("{\"coordinates\":[30,10],\"type\":\"Point\"}");
+        assertFalse(store.isSameSource(-1, null));
+        store.setSource(-1, "abc");
+        assertFalse(store.isSameSource(-1, "abc"));
+        store.setSource(100, "abc");
+        assertTrue(store.isSameSource(100, "abc"));
+        assertFalse(store.isSameSource(100, "abd"));
+        assertFalse(store.isSameSource(101, "abc"));
+        assertFalse(store.isSameSource(100, null));
+        store.setSource(100, null);
+        assertFalse(store.isSameSource(100, null));
+    }
+
+    /**
+     * Read GeoJSON in to a FeatureStore
+     * 
+     * @param json the GeoJSON
+     * @return a FeatureStore
+     */
+    private FeatureStore read(String json) {
+        try {
+            return FeatureStore.read(new ByteArrayInputStream(json.getBytes(OsmXml.UTF_8)), dataFile);
+        } catch (IOException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+}
@@ -39,6 +39,7 @@ import de.blau.android.PostAsyncActionHandler;
 import de.blau.android.ShadowWorkManager;
 import de.blau.android.SignalUtils;
 import de.blau.android.exception.OsmIllegalOperationException;
+import de.blau.android.exception.OsmServerException;
 import de.blau.android.prefs.API;
 import de.blau.android.prefs.AdvancedPrefDatabase;
 import de.blau.android.prefs.Preferences;
@@ -476,6 +477,108 @@ public class ApiTest {
         assertEquals(4L, r.getOsmVersion());
     }
 
+    /**
+     * Upload to changes (mock-)server in multiple batches in one changeset
+     */
+    @Test
+    public void dataUploadBatched() {
+        final CountDownLatch signal = new CountDownLatch(1);
+        Logic logic = App.getLogic();
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        InputStream is = loader.getResourceAsStream(TEST1_OSM_FIXTURE);
+        logic.readOsmFile(ApplicationProvider.getApplicationContext(), is, false, new FailOnErrorHandler(signal));
+        runLooper();
+        SignalUtils.signalAwait(signal, TIMEOUT);
+        assertEquals(33, App.getDelegator().getApiElementCount());
+
+        mockServer.enqueue(CAPABILITIES1_FIXTURE);
+        mockServer.enqueue(CHANGESET1_FIXTURE);
+        mockServer.enqueue(UPLOAD2_FIXTURE);
+        mockServer.enqueue(UPLOAD3_FIXTURE);
+        mockServer.enqueue(UPLOAD4_FIXTURE);
+        mockServer.enqueue(CLOSE_CHANGESET_FIXTURE);
+
+        final Server s = new Server(ApplicationProvider.getApplicationContext(), prefDB.getCurrentAPI(), GENERATOR_NAME);
+        s.setUploadBatchSize(11);
+        try {
+            App.getDelegator().uploadToServer(s, "TEST", "none", false, true, null, null);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(50000, s.getCachedCapabilities().getMaxElementsInChangeset());
+        assertEquals(0, App.getDelegator().getApiElementCount());
+        try {
+            mockServer.takeRequest(); // capabilities
+            mockServer.takeRequest(); // changeset
+            for (int i = 0; i < 3; i++) {
+                RecordedRequest request = mockServer.takeRequest();
+                assertEquals("POST", request.getMethod());
+                assertTrue(request.getPath().endsWith("/upload"));
+            }
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        }
+        Way w = (Way) App.getDelegator().getOsmElement(Way.NAME, 27009604);
+        assertEquals(OsmElement.STATE_UNCHANGED, w.getState());
+        assertEquals(19L, w.getOsmVersion());
+        Relation r = (Relation) App.getDelegator().getOsmElement(Relation.NAME, 2807173);
+        assertEquals(OsmElement.STATE_UNCHANGED, r.getState());
+        assertEquals(4L, r.getOsmVersion());
+    }
+
+    /**
+     * Upload in batches, fail after the first batch and then upload the rest
+     */
+    @Test
+    public void dataUploadResume() {
+        final CountDownLatch signal = new CountDownLatch(1);
+        Logic logic = App.getLogic();
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        InputStream is = loader.getResourceAsStream(TEST1_OSM_FIXTURE);
+        logic.readOsmFile(ApplicationProvider.getApplicationContext(), is, false, new FailOnErrorHandler(signal));
+        runLooper();
+        SignalUtils.signalAwait(signal, TIMEOUT);
+        assertEquals(33, App.getDelegator().getApiElementCount());
+
+        mockServer.enqueue(CAPABILITIES1_FIXTURE);
+        mockServer.enqueue(CHANGESET1_FIXTURE);
+        mockServer.enqueue(UPLOAD2_FIXTURE);
+        mockServer.enqueue("500");
+
+        Server s = new Server(ApplicationProvider.getApplicationContext(), prefDB.getCurrentAPI(), GENERATOR_NAME);
+        s.setUploadBatchSize(11);
+        try {
+            App.getDelegator().uploadToServer(s, "TEST", "none", false, true, null, null);
+            fail("Should have failed");
+        } catch (OsmServerException e) {
+            assertEquals(500, e.getHttpErrorCode());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        // the first batch has been applied
+        assertEquals(22, App.getDelegator().getApiElementCount());
+
+        mockServer.enqueue(CAPABILITIES1_FIXTURE);
+        mockServer.enqueue(CHANGESET1_FIXTURE);
+        mockServer.enqueue(UPLOAD3_FIXTURE);
+        mockServer.enqueue(UPLOAD4_FIXTURE);
+        mockServer.enqueue(CLOSE_CHANGESET_FIXTURE);
+
+        s = new Server(ApplicationProvider.getApplicationContext(), prefDB.getCurrentAPI(), GENERATOR_NAME);
+        s.setUploadBatchSize(11);
+        try {
+            App.getDelegator().uploadToServer(s, "TEST", "none", false, true, null, null);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(0, App.getDelegator().getApiElementCount());
+        Node n = (Node) App.getDelegator().getOsmElement(Node.NAME, 101792984);
+        assertEquals(OsmElement.STATE_UNCHANGED, n.getState());
+        assertEquals(7L, n.getOsmVersion());
+    }
+
     /**
      * Retrieve a changeset by id
      */
@@ -0,0 +1,152 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class ElementGridTest {
+
+    private static final String DEBUG_TAG = "ElementGridTest";
+
+    private static final int QUERIES = 200;
+
+    /**
+     * Create a Storage with randomly distributed Nodes and short Ways
+     *
+     * @param nodeCount the number of Nodes
+     * @param random a Random instance
+     * @return a Storage instance
+     */
+    private static Storage createStorage(int nodeCount, Random random) {
+        Storage storage = new Storage();
+        // roughly 0.5° x 0.5°, the size of a large city and surroundings
+        final int left = 85000000;
+        final int bottom = 470000000;
+        final int extent = 5000000;
+        Way way = null;
+        for (int i = 1; i <= nodeCount; i++) {
+            Node n = OsmElementFactory.createNode(i, 1, 0, OsmElement.STATE_UNCHANGED, bottom + random.nextInt(extent), left + random.nextInt(extent));
+            storage.insertNodeUnsafe(n);
+            if (i % 10 == 1) {
+                way = OsmElementFactory.createWay(i, 1, 0, OsmElement.STATE_UNCHANGED);
+                storage.insertWayUnsafe(way);
+            }
+            way.addNode(n); // NOSONAR
+        }
+        return storage;
+    }
+
+    /**
+     * Create a roughly zoom 17 sized random query box in the data area
+     *
+     * @param random a Random instance
+     * @return a BoundingBox
+     */
+    private static BoundingBox randomBox(Random random) {
+        int left = 85000000 + random.nextInt(5000000);
+        int bottom = 470000000 + random.nextInt(5000000);
+        return new BoundingBox(left, bottom, left + 100000, bottom + 70000);
+    }
+
+    /**
+     * Query results from the index should be the same as from a full scan
+     */
+    @Test
+    public void sameAsScan() {
+        Random random = new Random(4711);
+        Storage storage = createStorage(20000, random);
+        List<BoundingBox> boxes = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            boxes.add(randomBox(random));
+        }
+        BoundingBox wayBox = new BoundingBox();
+        List<Set<Node>> scannedNodes = new ArrayList<>();
+        List<Set<Way>> scannedWays = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (BoundingBox box : boxes) {
+            scannedNodes.add(new HashSet<>(storage.getNodeIndex().values(new ArrayList<>(), (Node n) -> box.isIn(n.getLon(), n.getLat()))));
+            scannedWays.add(new HashSet<>(storage.getWayIndex().values(new ArrayList<>(), (Way w) -> w.getBounds(wayBox).intersects(box))));
+        }
+        long execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "Scanning for " + QUERIES + " boxes took " + execution + " ms");
+        storage.getNodes(boxes.get(0)); // creates the indices
+        storage.getWays(boxes.get(0));
+        start = System.currentTimeMillis();
+        List<List<Node>> indexNodes = new ArrayList<>();
+        List<List<Way>> indexWays = new ArrayList<>();
+        for (BoundingBox box : boxes) {
+            indexNodes.add(storage.getNodes(box));
+            indexWays.add(storage.getWays(box));
+        }
+        execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "Index queries for " + QUERIES + " boxes took " + execution + " ms");
+        for (int i = 0; i < QUERIES; i++) {
+            assertEquals(scannedNodes.get(i), new HashSet<>(indexNodes.get(i)));
+            assertEquals(scannedWays.get(i), new HashSet<>(indexWays.get(i)));
+        }
+        // a box covering everything
+        assertEquals(storage.getNodeCount(), storage.getNodes(ViewBox.getMaxMercatorExtent()).size());
+        assertEquals(storage.getWayCount(), storage.getWays(ViewBox.getMaxMercatorExtent()).size());
+    }
+
+    /**
+     * Check that inserting, removing and moving elements is reflected in the index
+     */
+    @Test
+    public void incrementalUpdates() {
+        Storage storage = createStorage(1000, new Random(4711));
+        BoundingBox box = new BoundingBox(0, 0, 100000, 100000);
+        assertTrue(storage.getNodes(box).isEmpty()); // creates the index
+        assertTrue(storage.getWays(box).isEmpty());
+
+        Node n1 = OsmElementFactory.createNode(-1, 1, 0, OsmElement.STATE_CREATED, 50000, 50000);
+        storage.insertNodeUnsafe(n1);
+        Node n2 = OsmElementFactory.createNode(-2, 1, 0, OsmElement.STATE_CREATED, 60000, 60000);
+        storage.insertNodeUnsafe(n2);
+        Way way = OsmElementFactory.createWay(-1, 1, 0, OsmElement.STATE_CREATED);
+        way.addNode(n1);
+        way.addNode(n2);
+        storage.insertWayUnsafe(way);
+        assertEquals(2, storage.getNodes(box).size());
+        assertEquals(1, storage.getWays(box).size());
+
+        // move n2 far away, the way now is large and should be found from both ends
+        storage.invalidateGeometry(n2);
+        storage.invalidateGeometry(way);
+        n2.setLat(470000000);
+        n2.setLon(85000000);
+        way.invalidateBoundingBox();
+        assertEquals(1, storage.getNodes(box).size());
+        assertEquals(1, storage.getNodes(new BoundingBox(85000000, 470000000, 85000001, 470000001)).size());
+        assertEquals(1, storage.getWays(box).size());
+        assertTrue(storage.getWays(new BoundingBox(85000000, 470000000, 85000001, 470000001)).contains(way));
+
+        // the index should be consistent with a scan after the move
+        BoundingBox wayBox = new BoundingBox();
+        BoundingBox all = ViewBox.getMaxMercatorExtent();
+        List<Way> scannedWays = storage.getWayIndex().values(new ArrayList<>(), (Way w) -> w.getBounds(wayBox).intersects(all));
+        assertEquals(scannedWays.size(), storage.getWays(all).size());
+
+        assertTrue(storage.removeNode(n1));
+        assertTrue(storage.removeWay(way));
+        assertTrue(storage.getNodes(box).isEmpty());
+        assertTrue(storage.getWays(box).isEmpty());
+        assertFalse(storage.getWays(all).contains(way));
+        assertEquals(storage.getNodeCount(), storage.getNodes(all).size());
+    }
+}
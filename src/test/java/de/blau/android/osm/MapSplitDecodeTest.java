@@ -0,0 +1,128 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.MapSplitSource.TileData;
+import de.blau.android.services.util.MapTile;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class MapSplitDecodeTest {
+
+    /**
+     * Decode the same data as multiple tiles and check that the duplicates are removed
+     */
+    @Test
+    public void duplicateTiles() {
+        byte[] data = null;
+        try (InputStream input = MapSplitDecodeTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf");
+                ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                output.write(buffer, 0, length);
+            }
+            data = output.toByteArray();
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        BoundingBox box = new BoundingBox(9.51, 47.13, 9.53, 47.15);
+        Storage expected = new Storage();
+        try (InputStream input = MapSplitDecodeTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf")) {
+            new OsmPbfParser(null, expected, box, false).process(input);
+            expected.removeUnreferencedNodes(box);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        List<TileData> tiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tiles.add(new TileData(new MapTile(null, 14, i, 0), data));
+        }
+        List<Integer> progress = new ArrayList<>();
+        try {
+            Storage storage = MapSplitSource.decode(null, null, tiles, box, progress::add);
+            StorageUtil.assertSameData(expected, storage);
+            for (Relation r : storage.getRelationIndex()) {
+                for (RelationMember member : r.getMembers()) {
+                    OsmElement element = member.getElement();
+                    if (element != null && storage.contains(element)) {
+                        assertSame(storage.getOsmElement(member.getType(), member.getRef()), element);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(Arrays.asList(33, 66, 100), progress);
+    }
+
+    /**
+     * Merge two hand built tiles and check that references point to the elements in storage
+     */
+    @Test
+    public void resolveReferences() {
+        Storage tileA = new Storage();
+        Node a1 = OsmElementFactory.createNode(1, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        Node a2 = OsmElementFactory.createNode(2, 1, 0, OsmElement.STATE_UNCHANGED, 0, 10);
+        Way wayA = OsmElementFactory.createWay(1, 1, 0, OsmElement.STATE_UNCHANGED);
+        wayA.addNode(a1);
+        wayA.addNode(a2);
+        Relation relationA = OsmElementFactory.createRelation(1, 1, 0, OsmElement.STATE_UNCHANGED);
+        relationA.addMember(new RelationMember("", wayA));
+        wayA.addParentRelation(relationA);
+        relationA.addMember(new RelationMember(Node.NAME, 3, "")); // not in this tile
+        tileA.insertElementSafe(a1);
+        tileA.insertElementSafe(a2);
+        tileA.insertElementSafe(wayA);
+        tileA.insertElementSafe(relationA);
+
+        Storage tileB = new Storage();
+        Node b2 = OsmElementFactory.createNode(2, 1, 0, OsmElement.STATE_UNCHANGED, 0, 10);
+        Node b3 = OsmElementFactory.createNode(3, 1, 0, OsmElement.STATE_UNCHANGED, 0, 20);
+        Way wayB = OsmElementFactory.createWay(2, 1, 0, OsmElement.STATE_UNCHANGED);
+        wayB.addNode(b2);
+        wayB.addNode(b3);
+        Relation relationB = OsmElementFactory.createRelation(1, 1, 0, OsmElement.STATE_UNCHANGED);
+        relationB.addMember(new RelationMember(Way.NAME, 1, "")); // not in this tile
+        relationB.addMember(new RelationMember("", b3));
+        b3.addParentRelation(relationB);
+        tileB.insertElementSafe(b2);
+        tileB.insertElementSafe(b3);
+        tileB.insertElementSafe(wayB);
+        tileB.insertElementSafe(relationB);
+
+        Storage storage = MapSplitSource.merge(MapSplitSource.merge(null, tileA), tileB);
+        MapSplitSource.resolveReferences(storage);
+        assertEquals(3, storage.getNodeCount());
+        assertEquals(2, storage.getWayCount());
+        assertEquals(1, storage.getRelationCount());
+        assertSame(a2, storage.getNode(2));
+        assertSame(relationA, storage.getRelation(1));
+
+        Way way = storage.getWay(2);
+        assertSame(a2, way.getNodes().get(0));
+        assertSame(b3, way.getNodes().get(1));
+
+        assertSame(b3, relationA.getMembers().get(1).getElement());
+        assertTrue(b3.hasParentRelation(relationA));
+        assertFalse(b3.hasParentRelation(relationB));
+        assertEquals(1, b3.getParentRelations().size());
+        assertEquals(1, wayA.getParentRelations().size());
+    }
+}
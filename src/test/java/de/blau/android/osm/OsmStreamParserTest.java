@@ -0,0 +1,148 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class OsmStreamParserTest {
+
+    private static final String DEBUG_TAG = "OsmStreamParserTest";
+
+    /**
+     * Parse a resource with a parser
+     *
+     * @param parser the parser
+     * @param resource the resource name
+     * @return true if parsing didn't throw an exception
+     */
+    private boolean parse(OsmParser parser, String resource) {
+        try (InputStream input = getClass().getResourceAsStream(resource)) {
+            assertNotNull(resource, input);
+            parser.start(input);
+            return true;
+        } catch (SAXException e) {
+            return false;
+        } catch (IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Check that OsmParser and OsmStreamParser produce the same results
+     */
+    @Test
+    public void sameAsOsmParser() {
+        for (String resource : new String[] { "/test1.osm", "/test2.osm", "/test3.osm", "/london.osm", "/rings.osm", "/ways.osm", "/closedways.osm",
+                "/overpass.osm", "/relationloop.osm", "/incomplete-restriction.osm", "/unknown_elements.osm", "/internal_api_error.osm" }) {
+            OsmParser expected = new OsmParser();
+            OsmStreamParser actual = new OsmStreamParser();
+            assertEquals(resource, parse(expected, resource), parse(actual, resource));
+            assertEquals(resource, expected.getExceptions().size(), actual.getExceptions().size());
+            StorageUtil.assertSameData(expected.getStorage(), actual.getStorage());
+        }
+    }
+
+    /**
+     * Check some XML details that don't appear in the test files
+     */
+    @Test
+    public void xmlDetails() {
+        String xml = "\uFEFF<?xml version='1.0' encoding='UTF-8'?>\n<!-- comment --->\n<osm version=\"0.6\">\r\n"
+                + "<node id=\"1\" version=\"2\" timestamp=\"2020-02-29T23:59:59Z\" lat=\"47.12345678\" lon=\"-9.5\">"
+                + "<tag k=\"name\" v=\"a&amp;b&#x263A;&#10;\"/><tag k='a' v='x\ty'/><tag k=\"name\" v=\"last\"/></node>\n"
+                + "<node id=\"2\" lat=\"1e-3\" lon=\".5\"/></osm>";
+        OsmStreamParser parser = new OsmStreamParser();
+        try {
+            parser.start(new ByteArrayInputStream(xml.getBytes(OsmXml.UTF_8)));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+        Node n1 = parser.getStorage().getNode(1);
+        assertEquals(471234567, n1.getLat());
+        assertEquals(-95000000, n1.getLon());
+        assertEquals(1583020799L, n1.getTimestamp());
+        assertEquals("last", n1.getTagWithKey("name"));
+        assertEquals("x y", n1.getTagWithKey("a"));
+        Node n2 = parser.getStorage().getNode(2);
+        assertEquals(10000, n2.getLat());
+        assertEquals(5000000, n2.getLon());
+
+        OsmParser saxParser = new OsmParser();
+        try {
+            saxParser.start(new ByteArrayInputStream(xml.getBytes(OsmXml.UTF_8)));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+        StorageUtil.assertSameData(saxParser.getStorage(), parser.getStorage());
+
+        // malformed
+        try {
+            new OsmStreamParser().start(new ByteArrayInputStream("<osm><node id=\"1\" lat=\"1\" lon=\"1\"></way></osm>".getBytes(OsmXml.UTF_8)));
+            fail("should have thrown an exception");
+        } catch (SAXException e) {
+            // expected
+        } catch (IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that OsmParser and OsmStreamParser produce the same results on a larger data set
+     */
+    @Test
+    public void largeFile() {
+        try {
+            File file = File.createTempFile("large", ".osm");
+            file.deleteOnExit();
+            Storage storage = PbfTest.read();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                OsmXml.write(storage, null, out, "Vespucci Unit Tests");
+            }
+            OsmParser saxParser = new OsmParser();
+            long start = System.currentTimeMillis();
+            try (InputStream in = new FileInputStream(file)) {
+                saxParser.start(in);
+            }
+            long execution = System.currentTimeMillis() - start;
+            Log.d(DEBUG_TAG, "OsmParser for " + file.length() + " bytes took " + execution + " ms");
+            OsmParser streamParser = new OsmStreamParser();
+            start = System.currentTimeMillis();
+            try (InputStream in = new FileInputStream(file)) {
+                streamParser.start(in);
+            }
+            execution = System.currentTimeMillis() - start;
+            Log.d(DEBUG_TAG, "OsmStreamParser for " + file.length() + " bytes took " + execution + " ms");
+            assertEquals(storage.getNodeCount(), streamParser.getStorage().getNodeCount());
+            assertEquals(storage.getWayCount(), streamParser.getStorage().getWayCount());
+            assertEquals(storage.getRelationCount(), streamParser.getStorage().getRelationCount());
+            StorageUtil.assertSameData(saxParser.getStorage(), streamParser.getStorage());
+            assertTrue(streamParser.getExceptions().isEmpty());
+        } catch (SAXException | IOException | ParserConfigurationException | IllegalArgumentException | IllegalStateException | XmlPullParserException e) {
+            fail(e.getMessage());
+        }
+    }
+}
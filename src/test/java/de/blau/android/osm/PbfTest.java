@@ -1,6 +1,7 @@
 package de.blau.android.osm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -17,6 +18,7 @@ import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 import org.openstreetmap.osmosis.osmbinary.file.BlockReaderAdapter;
 import org.xmlpull.v1.XmlPullParserException;
 
+import androidx.annotation.Nullable;
 import de.blau.android.util.Hash;
 
 public class PbfTest {
@@ -53,14 +55,54 @@ public class PbfTest {
      * @return a Storage instance containing the data
      */
     public static Storage read() {
-        InputStream input = PbfTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf");
         Storage storage = new Storage();
-        BlockReaderAdapter brad = new OsmPbfParser(storage);
-        try {
+        try (InputStream input = PbfTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf")) {
+            new OsmPbfParser(storage).process(input);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        return storage;
+    }
+
+    /**
+     * Read a pbf from resources with BlockInputStream and sequential decoding
+     * 
+     * @param box optional BoundingBox to trim to
+     * @return a Storage instance containing the data
+     */
+    private static Storage readSequential(@Nullable BoundingBox box) {
+        Storage storage = new Storage();
+        try (InputStream input = PbfTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf")) {
+            BlockReaderAdapter brad = new OsmPbfParser(null, storage, box, false);
             new BlockInputStream(input, brad).process();
         } catch (IOException e) {
             fail(e.getMessage());
         }
         return storage;
     }
+
+    /**
+     * Check that parallel decoding produces the same results as sequential decoding
+     */
+    @Test
+    public void parallelDecoding() {
+        Storage sequential = readSequential(null);
+        Storage parallel = read();
+        assertEquals(258905, parallel.getNodeCount());
+        assertEquals(26454, parallel.getWayCount());
+        assertEquals(751, parallel.getRelationCount());
+        StorageUtil.assertSameData(sequential, parallel);
+
+        // trimmed to a bounding box, as done for MapSplit sources
+        BoundingBox box = new BoundingBox(9.51, 47.13, 9.53, 47.15);
+        sequential = readSequential(box);
+        parallel = new Storage();
+        try (InputStream input = PbfTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf")) {
+            new OsmPbfParser(null, parallel, box).process(input);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertTrue(parallel.getWayCount() < 26454);
+        StorageUtil.assertSameData(sequential, parallel);
+    }
 }
\ No newline at end of file
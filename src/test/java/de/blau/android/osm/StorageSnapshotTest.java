@@ -0,0 +1,296 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.util.SavingHelper;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class StorageSnapshotTest {
+
+    private File dir;
+
+    /**
+     * Pre-test setup
+     *
+     * @throws IOException if the temporary directory can't be created
+     */
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        dir.deleteOnExit();
+    }
+
+    /**
+     * Save a large data set, change a few elements and check that only the changes are written and that the result can
+     * be read back
+     *
+     * @throws IOException if saving or loading fails
+     */
+    @Test
+    public void incrementalSave() throws IOException {
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(PbfTest.read());
+        File file = new File(dir, "incremental.res");
+        StorageSnapshot snapshot = new StorageSnapshot(file, new File(dir, "incremental.res.backup"));
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), null);
+        assertEquals(0, snapshot.getBatchCount());
+        assertEquals(0, snapshot.getJournalLength());
+
+        modify(d);
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), null);
+        assertEquals(1, snapshot.getBatchCount());
+        assertTrue(snapshot.getJournalLength() < file.length() / 100);
+
+        // nothing changed, nothing written
+        long journalLength = snapshot.getJournalLength();
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), null);
+        assertEquals(1, snapshot.getBatchCount());
+        assertEquals(journalLength, snapshot.getJournalLength());
+
+        StorageSnapshot loaded = new StorageSnapshot(file, null);
+        Storage current = new Storage();
+        Storage api = new Storage();
+        assertNull(loaded.load(current, api));
+        assertEquals(1, loaded.getBatchCount());
+        StorageUtil.assertSameData(d.getCurrentStorage(), current);
+        StorageUtil.assertSameData(d.getApiStorage(), api);
+    }
+
+    /**
+     * Save only the elements reported as changed and check that the state is only written if it has changed
+     *
+     * @throws IOException if saving or loading fails
+     */
+    @Test
+    public void trackedSave() throws IOException {
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(PbfTest.read());
+        File file = new File(dir, "tracked.res");
+        StorageSnapshot snapshot = new StorageSnapshot(file, null);
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), "initial");
+        d.getUndo().clearChangedElements();
+
+        modify(d);
+        d.getUndo().createCheckpoint("remove way");
+        d.removeWay((Way) d.getOsmElement(Way.NAME, 571067343L));
+        Set<OsmElement> changed = d.getUndo().getChangedElements();
+        assertFalse(changed.isEmpty());
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), changed, "not written", false);
+        assertEquals(1, snapshot.getBatchCount());
+        assertTrue(snapshot.getJournalLength() < file.length() / 100);
+
+        Storage current = new Storage();
+        Storage api = new Storage();
+        assertEquals("initial", new StorageSnapshot(file, null).load(current, api));
+        StorageUtil.assertSameData(d.getCurrentStorage(), current);
+        StorageUtil.assertSameData(d.getApiStorage(), api);
+
+        // nothing changed
+        long journalLength = snapshot.getJournalLength();
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), new HashSet<>(), "changed", true);
+        assertEquals(journalLength, snapshot.getJournalLength());
+        assertEquals("changed", new StorageSnapshot(file, null).load(new Storage(), new Storage()));
+    }
+
+    /**
+     * Check that a damaged last batch in the journal is ignored
+     *
+     * @throws IOException if saving or loading fails
+     */
+    @Test
+    public void damagedJournal() throws IOException {
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(PbfTest.read());
+        File file = new File(dir, "damaged.res");
+        StorageSnapshot snapshot = new StorageSnapshot(file, null);
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), null);
+        modify(d);
+        snapshot.save(d.getCurrentStorage(), d.getApiStorage(), null);
+        Storage expectedCurrent = new Storage(d.getCurrentStorage());
+        Storage expectedApi = new Storage(d.getApiStorage());
+        long journalLength = snapshot.getJournalLength();
+        // simulate a write that was interrupted
+        try (RandomAccessFile journal = new RandomAccessFile(new File(file.getPath() + StorageSnapshot.JOURNAL_SUFFIX), "rw")) {
+            journal.seek(journal.length());
+            journal.writeInt(1000);
+            journal.writeInt(0);
+            journal.write(new byte[100]);
+        }
+        StorageSnapshot loaded = new StorageSnapshot(file, null);
+        Storage current = new Storage();
+        Storage api = new Storage();
+        loaded.load(current, api);
+        assertEquals(1, loaded.getBatchCount());
+        assertEquals(journalLength, loaded.getJournalLength());
+        StorageUtil.assertSameData(expectedCurrent, current);
+        StorageUtil.assertSameData(expectedApi, api);
+
+        // the damaged part should be overwritten by the next batch
+        Node n = current.getNode(761534749L);
+        api.insertElementSafe(n);
+        n.setState(OsmElement.STATE_MODIFIED);
+        n.setLat(n.getLat() + 1000);
+        loaded.save(current, api, null);
+        assertEquals(2, loaded.getBatchCount());
+        assertEquals(loaded.getJournalLength(), new File(file.getPath() + StorageSnapshot.JOURNAL_SUFFIX).length());
+        Storage current2 = new Storage();
+        Storage api2 = new Storage();
+        new StorageSnapshot(file, null).load(current2, api2);
+        StorageUtil.assertSameData(current, current2);
+        StorageUtil.assertSameData(api, api2);
+    }
+
+    /**
+     * Check that a new snapshot is written if a large part of the data has changed
+     *
+     * @throws IOException if saving or loading fails
+     */
+    @Test
+    public void compaction() throws IOException {
+        Storage storage = PbfTest.read();
+        Storage api = new Storage();
+        File file = new File(dir, "compaction.res");
+        File backup = new File(dir, "compaction.res.backup");
+        StorageSnapshot snapshot = new StorageSnapshot(file, backup);
+        snapshot.save(storage, api, null);
+        assertFalse(backup.exists());
+        int count = 0;
+        for (Node n : storage.getNodes()) {
+            if (count++ % 2 == 0) {
+                n.setLat(n.getLat() + 10);
+            }
+        }
+        snapshot.save(storage, api, null);
+        assertEquals(0, snapshot.getBatchCount());
+        assertTrue(backup.exists());
+        Storage loaded = new Storage();
+        new StorageSnapshot(file, null).load(loaded, new Storage());
+        StorageUtil.assertSameData(storage, loaded);
+    }
+
+    /**
+     * Save and load via StorageDelegator and check that undo still works
+     */
+    @Test
+    public void delegatorWithUndo() {
+        Context context = ApplicationProvider.getApplicationContext();
+        StorageDelegator.deleteState(context);
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(PbfTest.read());
+        d.getUndo().createCheckpoint("test");
+        Way w = (Way) d.getOsmElement(Way.NAME, 571067343L);
+        SortedMap<String, String> tags = new TreeMap<>(w.getTags());
+        tags.put("test", "delegatorWithUndo");
+        d.setTags(w, tags);
+        try {
+            d.writeToFile(context);
+        } catch (IOException e) {
+            throw new AssertionError(e.getMessage());
+        }
+        assertTrue(StorageDelegator.isStateAvailable(context));
+        assertTrue(StorageSnapshot.isSnapshot(context.getFileStreamPath(StorageDelegator.FILENAME)));
+
+        StorageDelegator d2 = new StorageDelegator();
+        assertTrue(d2.readFromFile(context));
+        Way w2 = (Way) d2.getOsmElement(Way.NAME, 571067343L);
+        assertEquals("delegatorWithUndo", w2.getTags().get("test"));
+        assertEquals(1, d2.getApiElementCount());
+        assertSame(w2, d2.getApiStorage().getWay(571067343L));
+        assertEquals(w.getParentRelations().size(), w2.getParentRelations().size());
+        assertTrue(d2.getUndo().canUndo());
+        assertNotNull(d2.getUndo().undo());
+        assertNull(w2.getTags().get("test"));
+        assertEquals(0, d2.getApiElementCount());
+
+        // saving again should only append to the journal
+        d2.dirty();
+        try {
+            d2.writeToFile(context);
+        } catch (IOException e) {
+            throw new AssertionError(e.getMessage());
+        }
+        assertTrue(context.getFileStreamPath(StorageDelegator.JOURNAL_FILENAME).exists());
+        StorageDelegator d3 = new StorageDelegator();
+        assertTrue(d3.readFromFile(context));
+        assertNull(d3.getOsmElement(Way.NAME, 571067343L).getTags().get("test"));
+        assertTrue(d3.getUndo().canRedo());
+    }
+
+    /**
+     * Check that state saved by previous versions can still be read
+     */
+    @Test
+    public void legacyState() {
+        Context context = ApplicationProvider.getApplicationContext();
+        StorageDelegator.deleteState(context);
+        StorageDelegator d = new StorageDelegator();
+        DelegatorUtil.addWayToStorage(d, false);
+        assertTrue(new SavingHelper<StorageDelegator>().save(context, StorageDelegator.FILENAME, d, true));
+        assertFalse(StorageSnapshot.isSnapshot(context.getFileStreamPath(StorageDelegator.FILENAME)));
+
+        StorageDelegator d2 = new StorageDelegator();
+        assertTrue(d2.readFromFile(context));
+        assertEquals(1, d2.getCurrentStorage().getWayCount());
+        d2.dirty();
+        try {
+            d2.writeToFile(context);
+        } catch (IOException e) {
+            throw new AssertionError(e.getMessage());
+        }
+        assertTrue(StorageSnapshot.isSnapshot(context.getFileStreamPath(StorageDelegator.FILENAME)));
+        StorageDelegator d3 = new StorageDelegator();
+        assertTrue(d3.readFromFile(context));
+        StorageUtil.assertSameData(d2.getCurrentStorage(), d3.getCurrentStorage());
+        StorageUtil.assertSameData(d2.getApiStorage(), d3.getApiStorage());
+        assertTrue(d3.getUndo().canUndo());
+    }
+
+    /**
+     * Modify some elements
+     *
+     * @param d the StorageDelegator
+     */
+    private void modify(StorageDelegator d) {
+        d.getUndo().createCheckpoint("modify");
+        Way w = (Way) d.getOsmElement(Way.NAME, 571067343L);
+        assertNotNull(w);
+        SortedMap<String, String> tags = new TreeMap<>(w.getTags());
+        tags.put("test", "modify");
+        d.setTags(w, tags);
+        Node n = (Node) d.getOsmElement(Node.NAME, 761534749L);
+        assertNotNull(n);
+        d.moveNode(n, n.getLat() + 100, n.getLon() - 100);
+        Node newNode = d.getFactory().createNodeWithNewId(n.getLat() + 200, n.getLon());
+        d.insertElementSafe(newNode);
+        d.addNodeToWay(newNode, w);
+        for (Node toDelete : d.getCurrentStorage().getNodes()) {
+            if (d.getCurrentStorage().getWays(toDelete).isEmpty() && !toDelete.hasParentRelations()) {
+                d.removeNode(toDelete);
+                break;
+            }
+        }
+    }
+}
@@ -65,6 +65,39 @@ public class StorageTest {
         assertEquals(2, ways.size());
     }
 
+    /**
+     * Ways for node, repeated queries and changes to Way Nodes
+     */
+    @Test
+    public void waysForNode3() {
+        Node node = (Node) storage.getOsmElement(Node.NAME, 300852915L);
+        assertNotNull(node);
+        assertEquals(2, storage.getWays(node).size()); // builds the index
+        long start = System.currentTimeMillis();
+        for (Node n : storage.getNodes()) {
+            storage.getWays(n);
+        }
+        long execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "getWays(Node) for " + storage.getNodeCount() + " Nodes took " + execution + " ms");
+
+        Way way = storage.getWays(node).get(0);
+        Node other = OsmElementFactory.createNode(-1L, 1L, 0, OsmElement.STATE_CREATED, node.getLat(), node.getLon());
+        storage.insertNodeUnsafe(other);
+        assertTrue(storage.getWays(other).isEmpty());
+        storage.invalidateWayNodes(way);
+        way.addNode(other);
+        assertEquals(1, storage.getWays(other).size());
+        storage.syncWayNodes();
+        assertEquals(1, storage.getWays(other).size());
+        way.removeNode(other);
+        assertTrue(storage.getWays(other).isEmpty());
+
+        assertTrue(storage.removeWay(way));
+        assertEquals(1, storage.getWays(node).size());
+        storage.insertWayUnsafe(way);
+        assertEquals(2, storage.getWays(node).size());
+    }
+
     /**
      * Check if a Node is an end node of any way in storage
      */
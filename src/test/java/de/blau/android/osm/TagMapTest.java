@@ -0,0 +1,122 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class TagMapTest {
+
+    private static final String DEBUG_TAG = "TagMapTest";
+
+    /**
+     * Check that a TagMap behaves like a TreeMap with the same contents
+     */
+    @Test
+    public void sameAsTreeMap() {
+        Map<String, String> input = new HashMap<>();
+        input.put("name", "Test");
+        input.put("highway", "residential");
+        input.put("surface", "asphalt");
+        input.put("lanes", "2");
+        input.put("maxspeed", "50");
+        TreeMap<String, String> treeMap = new TreeMap<>(input);
+        TagMap tagMap = TagDictionary.tags(input);
+
+        assertEquals(treeMap, tagMap);
+        assertEquals(tagMap, treeMap);
+        assertEquals(treeMap.hashCode(), tagMap.hashCode());
+        assertEquals(treeMap.toString(), tagMap.toString());
+        assertEquals(new ArrayList<>(treeMap.keySet()), new ArrayList<>(tagMap.keySet()));
+        assertEquals(new ArrayList<>(treeMap.values()), new ArrayList<>(tagMap.values()));
+        assertEquals(treeMap.firstKey(), tagMap.firstKey());
+        assertEquals(treeMap.lastKey(), tagMap.lastKey());
+        for (String key : new String[] { "highway", "name", "a", "z", "m" }) {
+            assertEquals(treeMap.get(key), tagMap.get(key));
+            assertEquals(treeMap.containsKey(key), tagMap.containsKey(key));
+            assertEquals(treeMap.headMap(key), tagMap.headMap(key));
+            assertEquals(treeMap.tailMap(key), tagMap.tailMap(key));
+        }
+        assertEquals(treeMap.subMap("l", "n"), tagMap.subMap("l", "n"));
+        assertTrue(tagMap.subMap("x", "y").isEmpty());
+        assertNull(tagMap.get(1));
+        try {
+            tagMap.put("test", "test");
+            fail("TagMap should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Check that strings and small tag sets are shared
+     */
+    @Test
+    public void sharing() {
+        Map<String, String> tags1 = new HashMap<>();
+        tags1.put(new String("building"), new String("yes")); // NOSONAR
+        Map<String, String> tags2 = new HashMap<>();
+        tags2.put(new String("building"), new String("yes")); // NOSONAR
+        assertSame(TagDictionary.tags(tags1), TagDictionary.tags(tags2));
+
+        Node n1 = OsmElementFactory.createNode(1, 1, 0, OsmElement.STATE_CREATED, 0, 0);
+        Node n2 = OsmElementFactory.createNode(2, 1, 0, OsmElement.STATE_CREATED, 0, 0);
+        n1.setTags(tags1);
+        n2.setTags(tags2);
+        assertSame(n1.getTags(), n2.getTags());
+        tags2.put("name", "Test");
+        assertTrue(n2.setTags(tags2));
+        assertFalse(n2.setTags(tags2));
+        assertEquals(1, n1.getTags().size()); // not affected
+        assertSame(n1.getTags().firstKey(), n2.getTags().firstKey());
+        assertSame(n1.getTags().get("building"), n2.getTags().get("building"));
+
+        n2.setTags(null);
+        assertFalse(n2.hasTags());
+        assertTrue(n2.getTags().isEmpty());
+        n2.addTags(tags1);
+        n2.addTags(tags2);
+        assertEquals(2, n2.getTags().size());
+    }
+
+    /**
+     * Check that the tags of the elements in a large PBF file are immutable and shared
+     */
+    @Test
+    public void pooling() {
+        TagDictionary.clear();
+        long start = System.currentTimeMillis();
+        Storage storage = PbfTest.read();
+        long execution = System.currentTimeMillis() - start;
+        int tagged = 0;
+        Map<Map<String, String>, Boolean> instances = new IdentityHashMap<>();
+        for (OsmElement e : storage.getElements()) {
+            if (e.hasTags()) {
+                tagged++;
+                assertTrue(e.tags instanceof TagMap);
+                instances.put(e.tags, Boolean.TRUE);
+            }
+        }
+        Log.d(DEBUG_TAG, "Loading " + tagged + " tagged elements took " + execution + " ms, " + instances.size() + " tag instances, "
+                + TagDictionary.stringCount() + " pooled Strings, " + TagDictionary.tagSetCount() + " pooled tag sets");
+        assertTrue(TagDictionary.tagSetCount() > 0);
+        assertTrue(instances.size() < tagged);
+    }
+}
@@ -1,18 +1,24 @@
 package de.blau.android.osm;
 
 import static de.blau.android.osm.DelegatorUtil.addWayToStorage;
+import static de.blau.android.osm.DelegatorUtil.toE7;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import androidx.annotation.NonNull;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.App;
@@ -123,4 +129,122 @@ public class UndoStorageTest {
         assertEquals(2, w.getParentRelations().size());
         assertTrue(w.getParentRelations().contains(r));
     }
+
+    /**
+     * Check that unchanged fields are shared with the previous state
+     */
+    @Test
+    public void delta() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Way w = addWayToStorage(d, false);
+        long size = undo.getMemoryUsage();
+        setName(d, w, "first");
+        long firstSize = undo.getMemoryUsage() - size;
+        size = undo.getMemoryUsage();
+        setName(d, w, "second");
+        long secondSize = undo.getMemoryUsage() - size;
+        // the way nodes are only stored once
+        assertTrue(secondSize < firstSize);
+        List<UndoElement> undoElements = undo.getUndoElements(w);
+        assertEquals(3, undoElements.size());
+        assertEquals("first", undoElements.get(2).getTags().get(Tags.KEY_NAME));
+        assertEquals(4, ((UndoWay) undoElements.get(2)).nodeCount());
+        assertEquals(4, ((UndoWay) undoElements.get(1)).nodeCount());
+    }
+
+    /**
+     * Write checkpoints to disk, then undo and redo everything
+     */
+    @Test
+    public void pageOut() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        File directory = new File(ApplicationProvider.getApplicationContext().getCacheDir(), "undotest");
+        UndoStorage.setSpillDirectory(directory);
+        UndoStorage.setMemoryBudget(1);
+        try {
+            Way w = addWayToStorage(d, false);
+            final int changes = 30;
+            for (int i = 0; i < changes; i++) {
+                setName(d, w, Integer.toString(i));
+                Node n = w.getNodes().get(i % w.nodeCount());
+                d.moveNode(n, n.getLat() + 1000, n.getLon());
+            }
+            assertEquals(changes + 1 - UndoStorage.MIN_IN_MEMORY, undo.getPagedOutCount());
+            assertTrue(directory.list().length > 0);
+            assertEquals(changes + 1, undo.getUndoActions(ApplicationProvider.getApplicationContext()).length);
+            for (int i = changes - 1; i >= 0; i--) {
+                assertEquals(Integer.toString(i), w.getTagWithKey(Tags.KEY_NAME));
+                assertNotNull(undo.undo());
+            }
+            assertFalse(w.hasTagKey(Tags.KEY_NAME));
+            assertEquals(toE7(51.478), w.getNodes().get(0).getLat());
+            assertNotNull(undo.undo());
+            assertEquals(0, d.getCurrentStorage().getWayCount());
+            assertFalse(undo.canUndo());
+            assertEquals(0, directory.list().length);
+            while (undo.canRedo()) {
+                undo.redo();
+            }
+            w = (Way) d.getOsmElement(Way.NAME, w.getOsmId());
+            assertNotNull(w);
+            assertEquals(Integer.toString(changes - 1), w.getTagWithKey(Tags.KEY_NAME));
+            assertEquals(toE7(51.478) + 8000, w.getNodes().get(0).getLat());
+        } finally {
+            UndoStorage.setMemoryBudget(UndoStorage.DEFAULT_MEMORY_BUDGET);
+        }
+    }
+
+    /**
+     * Look up the saved states of an element that was in storage when its checkpoint was written to disk and has been
+     * deleted since
+     */
+    @Test
+    public void pageOutDeleted() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        File directory = new File(ApplicationProvider.getApplicationContext().getCacheDir(), "undotest");
+        UndoStorage.setSpillDirectory(directory);
+        UndoStorage.setMemoryBudget(1);
+        try {
+            undo.createCheckpoint("add node");
+            Node n = d.getFactory().createNodeWithNewId(toE7(51.477), toE7(0.001));
+            d.insertElementSafe(n);
+            Way w = addWayToStorage(d, false);
+            for (int i = 0; i < UndoStorage.MIN_IN_MEMORY; i++) {
+                setName(d, w, Integer.toString(i));
+            }
+            assertTrue(undo.getPagedOutCount() > 0);
+            undo.createCheckpoint("delete node");
+            d.removeNode(n);
+            assertNull(d.getCurrentStorage().getNode(n.getOsmId()));
+            final int checkpoints = undo.getUndoActions(ApplicationProvider.getApplicationContext()).length;
+            List<UndoElement> undoElements = undo.getUndoElements(n);
+            assertEquals(2, undoElements.size());
+            assertEquals(checkpoints, undo.getUndoActions(ApplicationProvider.getApplicationContext()).length);
+            // undo everything
+            while (undo.canUndo()) {
+                assertNotNull(undo.undo());
+            }
+            assertEquals(checkpoints, undo.getRedoActions(ApplicationProvider.getApplicationContext()).length);
+            assertEquals(0, d.getCurrentStorage().getNodeCount());
+        } finally {
+            UndoStorage.setMemoryBudget(UndoStorage.DEFAULT_MEMORY_BUDGET);
+        }
+    }
+
+    /**
+     * Set the name tag on an element in a new checkpoint
+     * 
+     * @param d the StorageDelegator
+     * @param e the element
+     * @param name the new name
+     */
+    private void setName(@NonNull StorageDelegator d, @NonNull OsmElement e, @NonNull String name) {
+        d.getUndo().createCheckpoint("set name");
+        Map<String, String> tags = new TreeMap<>(e.getTags());
+        tags.put(Tags.KEY_NAME, name);
+        d.setTags(e, tags);
+    }
 }
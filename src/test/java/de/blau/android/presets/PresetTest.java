@@ -166,6 +166,39 @@ public class PresetTest {
         assertNull(Preset.findBestMatch(presets, tags, null, null));
     }
 
+    /**
+     * Check that repeated matching uses the cache and returns the same results as an uncached match
+     */
+    @Test
+    public void matchCache() {
+        Map<String, String> tags = new HashMap<>();
+        tags.put("amenity", "restaurant");
+        tags.put("cuisine", "pizza");
+        PresetItem restaurant = Preset.findBestMatch(presets, tags, null, null);
+        assertEquals(Preset.findBestMatchUncached(presets, tags, null, null, false, null), restaurant);
+        long hits = Preset.getMatchCacheHits();
+        long misses = Preset.getMatchCacheMisses();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(restaurant, Preset.findBestMatch(presets, new HashMap<>(tags), null, null));
+        }
+        assertEquals(hits + 1000, Preset.getMatchCacheHits());
+        assertEquals(misses, Preset.getMatchCacheMisses());
+        // changing the input map must not change the cached entry
+        tags.put("amenity", "cafe");
+        assertEquals("Cafe", Preset.findBestMatch(presets, tags, null, null).getName());
+        tags.put("amenity", "restaurant");
+        assertEquals(restaurant, Preset.findBestMatch(presets, tags, null, null));
+        // other parameters are part of the key
+        Map<String, String> building = new HashMap<>();
+        building.put(Tags.KEY_BUILDING, "yes");
+        assertNotNull(Preset.findBestMatch(presets, building, null, null));
+        assertNull(Preset.findBestMatch(presets, building, null, Tags.IGNORE_FOR_MAP_ICONS));
+        Preset.invalidateMatchCache();
+        misses = Preset.getMatchCacheMisses();
+        assertEquals(restaurant, Preset.findBestMatch(presets, tags, null, null));
+        assertEquals(misses + 1, Preset.getMatchCacheMisses());
+    }
+
     /**
      * Load a preset with an SVG icon
      */
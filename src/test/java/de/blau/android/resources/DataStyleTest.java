@@ -3,12 +3,16 @@ package de.blau.android.resources;
 import static de.blau.android.osm.DelegatorUtil.addWayToStorage;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.junit.Before;
@@ -103,4 +107,82 @@ public class DataStyleTest {
         style = DataStyle.matchStyle(tree);
         assertTrue(style.getIconPath().endsWith("tree_all.png"));
     }
+
+    /**
+     * Check that matching with the index returns the same results as checking the styles in order
+     */
+    @Test
+    public void indexedMatching() {
+        DataStyle.getStylesFromFiles(ApplicationProvider.getApplicationContext());
+        DataStyle current = DataStyle.getCurrent();
+        final String[] keys = { "a", "b", "c", "d", "e" };
+        final String[] values = { "1", "2", "3", DataStyle.WILDCARD };
+        Random random = new Random(4711);
+        for (int round = 0; round < 20; round++) {
+            FeatureStyle parent = current.new FeatureStyle("parent");
+            int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                StringBuilder tagString = new StringBuilder();
+                int tagCount = random.nextInt(3);
+                for (int j = 0; j < tagCount; j++) {
+                    if (j > 0) {
+                        tagString.append('|');
+                    }
+                    tagString.append(keys[random.nextInt(keys.length)]).append('=').append(values[random.nextInt(values.length)]);
+                }
+                FeatureStyle child = current.new FeatureStyle(tagString.toString());
+                if (tagCount == 0) {
+                    child.tags.clear();
+                }
+                if (random.nextInt(4) == 0) {
+                    child.setClosed(random.nextBoolean());
+                }
+                parent.addStyle(child);
+            }
+            for (int i = 0; i < 200; i++) {
+                SortedMap<String, String> tags = new TreeMap<>();
+                for (String key : keys) {
+                    if (random.nextBoolean()) {
+                        tags.put(key, values[random.nextInt(values.length - 1)]);
+                    }
+                }
+                boolean closed = random.nextBoolean();
+                FeatureStyle expected = parent;
+                for (FeatureStyle child : parent.cascadedStyles) {
+                    if (child.matches(tags, closed)) {
+                        expected = child;
+                        break;
+                    }
+                }
+                assertSame(expected, DataStyle.matchCascaded(parent, tags, closed));
+            }
+        }
+    }
+
+    /**
+     * Check that cached styles are invalidated when the style changes
+     */
+    @Test
+    public void styleEpoch() {
+        DataStyle.getStylesFromFiles(ApplicationProvider.getApplicationContext());
+        final StorageDelegator delegator = App.getDelegator();
+        Way w = addWayToStorage(delegator, true);
+        Map<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_BUILDING, Tags.VALUE_YES);
+        delegator.setTags(w, tags);
+        DataStyle.switchTo("Color Round Nodes");
+        FeatureStyle style = DataStyle.matchStyle(w);
+        assertSame(style, w.getStyle());
+        int epoch = DataStyle.getStyleEpoch();
+        DataStyle.switchTo("Color Round Nodes");
+        assertEquals(epoch, DataStyle.getStyleEpoch());
+        assertSame(style, w.getStyle());
+        DataStyle.switchTo(DataStyle.getBuiltinStyleName());
+        assertNull(w.getStyle());
+        FeatureStyle builtinStyle = DataStyle.matchStyle(w);
+        assertNotSame(style, builtinStyle);
+        assertSame(builtinStyle, w.getStyle());
+        DataStyle.invalidateStyles();
+        assertNull(w.getStyle());
+    }
 }
@@ -1,6 +1,7 @@
 package de.blau.android.resources;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -9,6 +10,8 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
@@ -29,6 +32,7 @@ import de.blau.android.Main;
 import de.blau.android.ShadowWorkManager;
 import de.blau.android.contract.Files;
 import de.blau.android.net.UserAgentInterceptor;
+import de.blau.android.osm.BoundingBox;
 import de.blau.android.resources.TileLayerSource.Header;
 import de.blau.android.resources.TileLayerSource.Provider.CoverageArea;
 import de.blau.android.services.util.MapTile;
@@ -107,6 +111,41 @@ public class TileLayerSourceTest {
         }
     }
 
+    /**
+     * Check that filtering by coverage returns the same layers, in the same order, as testing each layer
+     */
+    @Test
+    public void coverageFilter() {
+        try {
+            TileLayerDatabase.addSource(db.getWritableDatabase(), TileLayerDatabase.SOURCE_ELI);
+            TileLayerSource.parseImageryFile(ApplicationProvider.getApplicationContext(), db.getWritableDatabase(), TileLayerDatabase.SOURCE_ELI,
+                    getClass().getResourceAsStream("/imagery_test_with_meta.geojson"), true);
+            TileLayerSource.getListsLocked(ApplicationProvider.getApplicationContext(), db.getReadableDatabase(), true);
+            String[] all = TileLayerSource.getIds(null, false, null, null);
+            BoundingBox[] boxes = new BoundingBox[] { new BoundingBox(8.0, 47.3, 8.1, 47.4), new BoundingBox(25.0, 32.0, 26.0, 33.0),
+                    new BoundingBox(0.0, 0.0, 1.0, 1.0), new BoundingBox(8.5, 47.63, 9.0, 48.0), new BoundingBox(-180.0, -85.0, 180.0, 85.0) };
+            for (BoundingBox box : boxes) {
+                List<String> expected = new ArrayList<>();
+                for (String id : all) {
+                    if (TileLayerSource.get(ApplicationProvider.getApplicationContext(), id, false).covers(box)) {
+                        expected.add(id);
+                    }
+                }
+                String[] ids = TileLayerSource.getIds(box, true, null, null);
+                assertEquals(expected, Arrays.asList(ids));
+                if (ids.length > 0) {
+                    ids[0] = "modified";
+                }
+                // cached result, must not be changed by the above
+                assertEquals(expected, Arrays.asList(TileLayerSource.getIds(new BoundingBox(box), true, null, null)));
+            }
+            assertTrue(Arrays.asList(TileLayerSource.getIds(boxes[0], true, null, null)).contains("A"));
+            assertFalse(Arrays.asList(TileLayerSource.getIds(boxes[2], true, null, null)).contains("A"));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Custom header
      */
@@ -0,0 +1,176 @@
+package de.blau.android.services.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.filters.LargeTest;
+import de.blau.android.views.util.MapTileProviderCallback;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class MapAsyncTileProviderTest {
+
+    private static final String RENDERER = "test";
+
+    private TestProvider   provider;
+    private List<String>   loaded;
+    private List<String>   cancelled;
+    private CountDownLatch blocker;
+
+    private final MapTileProviderCallback callback = new MapTileProviderCallback() {
+
+        @Override
+        public void mapTileLoaded(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, @NonNull byte[] data) {
+            loaded.add(new MapTile(rendererID, zoomLevel, tileX, tileY).toString());
+        }
+
+        @Override
+        public void mapTileFailed(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, int reason, @Nullable String message) {
+            assertEquals(MapAsyncTileProvider.CANCELLED, reason);
+            cancelled.add(new MapTile(rendererID, zoomLevel, tileX, tileY).toString());
+        }
+    };
+
+    /**
+     * Provider with a single thread that blocks until released
+     */
+    class TestProvider extends MapAsyncTileProvider {
+
+        /**
+         * Construct a new instance
+         */
+        TestProvider() {
+            mThreadPool = createThreadPool(1);
+        }
+
+        @Override
+        protected TileLoader getTileLoader(@NonNull MapTile aTile, @NonNull MapTileProviderCallback aCallback) {
+            return new TileLoader(aTile, aCallback) {
+                @Override
+                public void run() {
+                    try {
+                        blocker.await(10, TimeUnit.SECONDS);
+                        mCallback.mapTileLoaded(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, new byte[0]);
+                    } catch (Exception e) { // NOSONAR
+                        fail(e.getMessage());
+                    } finally {
+                        finished();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        loaded = Collections.synchronizedList(new ArrayList<>());
+        cancelled = Collections.synchronizedList(new ArrayList<>());
+        blocker = new CountDownLatch(1);
+        provider = new TestProvider();
+        // occupy the only thread so that everything after this is queued
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 0, 0), callback);
+    }
+
+    /**
+     * Post-test teardown
+     */
+    @After
+    public void teardown() {
+        blocker.countDown();
+        provider.mThreadPool.shutdown();
+    }
+
+    /**
+     * Release the worker and wait for the queue to drain
+     */
+    private void drain() {
+        blocker.countDown();
+        provider.mThreadPool.shutdown();
+        try {
+            assertTrue(provider.mThreadPool.awaitTermination(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that tiles near the center at the viewport zoom are loaded first
+     */
+    @Test
+    public void priorityOrder() {
+        provider.setViewport(RENDERER, 10, 100, 100, 104, 104);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 100, 100), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 9, 51, 51), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 11, 204, 204), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 102, 103), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 102, 102), callback);
+        assertEquals(5, provider.getQueueDepth());
+        drain();
+        assertEquals(6, loaded.size());
+        assertEquals(RENDERER + "/10/102/102", loaded.get(1));
+        assertEquals(RENDERER + "/10/102/103", loaded.get(2));
+        assertEquals(RENDERER + "/10/100/100", loaded.get(3));
+        assertEquals(RENDERER + "/9/51/51", loaded.get(4));
+        assertEquals(RENDERER + "/11/204/204", loaded.get(5));
+        assertEquals(0, provider.getCancelledCount());
+        assertTrue(cancelled.isEmpty());
+    }
+
+    /**
+     * Check that queued requests are re-prioritized when the viewport changes
+     */
+    @Test
+    public void reprioritize() {
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 1, 1), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 10, 10), callback);
+        provider.setViewport(RENDERER, 10, 0, 0, 20, 20);
+        drain();
+        assertEquals(RENDERER + "/10/10/10", loaded.get(1));
+        assertEquals(RENDERER + "/10/1/1", loaded.get(2));
+    }
+
+    /**
+     * Check that requests outside of the viewport are cancelled
+     */
+    @Test
+    public void cancel() {
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 100, 100), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 101, 101), callback);
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 500, 500), callback);
+        provider.loadMapTileAsync(new MapTile("other", 10, 100, 100), callback);
+        provider.setViewport(RENDERER, 10, 498, 498, 502, 502);
+        assertEquals(2, provider.getCancelledCount());
+        assertEquals(2, cancelled.size());
+        assertTrue(cancelled.contains(RENDERER + "/10/100/100"));
+        assertTrue(cancelled.contains(RENDERER + "/10/101/101"));
+        assertEquals(2, provider.getQueueDepth());
+        // cancelled tiles can be requested again
+        provider.loadMapTileAsync(new MapTile(RENDERER, 10, 100, 100), callback);
+        assertEquals(3, provider.getQueueDepth());
+        // flushing a zoom level
+        provider.flushQueue(RENDERER, 10);
+        assertEquals(4, provider.getCancelledCount());
+        drain();
+        assertEquals(2, loaded.size());
+        assertEquals("other/10/100/100", loaded.get(1));
+        assertTrue(provider.getAverageWaitTime() >= 0);
+    }
+}
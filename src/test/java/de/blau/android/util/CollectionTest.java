@@ -3,12 +3,15 @@ package de.blau.android.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Test;
@@ -17,11 +20,14 @@ import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.osm.Way;
 import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.util.collections.LongOsmElementMap;
+import de.blau.android.util.collections.LongOsmElementMultiMap;
 import de.blau.android.util.collections.MRUList;
 import de.blau.android.util.collections.MultiHashMap;
 import de.blau.android.util.collections.UnsignedSparseBitSet;
+import de.blau.android.util.rtree.PackedRTree;
 import de.blau.android.util.rtree.RTree;
 
 public class CollectionTest {
@@ -65,6 +71,44 @@ public class CollectionTest {
         }
     }
 
+    /**
+     * Test our long to multiple OsmElements hash map implementation
+     */
+    @Test
+    public void multimap() {
+        LongOsmElementMultiMap<Way> map = new LongOsmElementMultiMap<>(100);
+
+        ArrayList<Way> ways = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            ways.add(OsmElementFactory.createWay(i + 1L, 1L, System.currentTimeMillis() / 1000, OsmElement.STATE_CREATED));
+        }
+        // every key gets between 1 and 3 values
+        for (int i = 0; i < 10000; i++) {
+            for (int j = 0; j <= i % 3; j++) {
+                map.put(i, ways.get((i + j) % 1000));
+            }
+            map.put(i, ways.get(i % 1000)); // duplicate, should be ignored
+        }
+        assertEquals(10000, map.size());
+        List<Way> result = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            result.clear();
+            map.get(i, result);
+            assertEquals(i % 3 + 1, result.size());
+            assertTrue(result.contains(ways.get(i % 1000)));
+        }
+        assertFalse(map.remove(1, ways.get(999)));
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(map.remove(i, ways.get(i % 1000)));
+            assertEquals(i % 3 > 0, map.containsKey(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            map.removeKey(i);
+            assertFalse(map.containsKey(i));
+        }
+        assertTrue(map.isEmpty());
+    }
+
     /**
      * Test our OsmElement hash set implementation
      */
@@ -134,6 +178,50 @@ public class CollectionTest {
         assertEquals(0, tree.count());
     }
 
+    /**
+     * Check that the packed RTree returns exactly the items intersecting the query box
+     */
+    @Test
+    public void packedRTree() {
+        final int ITEMS = 10000;
+        final int MAX = 10000000;
+        Random random = new Random(1234);
+        int[] boxes = new int[4 * ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            int left = random.nextInt(MAX);
+            int bottom = random.nextInt(MAX);
+            boxes[4 * i] = left;
+            boxes[4 * i + 1] = bottom;
+            boxes[4 * i + 2] = left + random.nextInt(MAX / 100);
+            boxes[4 * i + 3] = bottom + random.nextInt(MAX / 100);
+        }
+        PackedRTree tree = new PackedRTree(boxes, ITEMS);
+        assertEquals(ITEMS, tree.size());
+        BoundingBox bounds = tree.getBounds();
+        assertNotNull(bounds);
+        for (int q = 0; q < 100; q++) {
+            int left = random.nextInt(MAX);
+            int bottom = random.nextInt(MAX);
+            BoundingBox b = new BoundingBox(left, bottom, left + random.nextInt(MAX / 10), bottom + random.nextInt(MAX / 10));
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < ITEMS; i++) {
+                if (b.intersects(new BoundingBox(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3]))) {
+                    expected.add(i);
+                }
+            }
+            Set<Integer> result = new HashSet<>();
+            tree.query(b, item -> assertTrue(result.add(item)));
+            assertEquals(expected, result);
+        }
+        // degenerate trees
+        List<Integer> result = new ArrayList<>();
+        new PackedRTree(new int[0], 0).query(bounds, result::add);
+        assertTrue(result.isEmpty());
+        assertNull(new PackedRTree(new int[0], 0).getBounds());
+        new PackedRTree(new int[] { 1, 1, 2, 2 }, 1).query(new BoundingBox(0, 0, 1, 1), result::add);
+        assertEquals(Arrays.asList(0), result);
+    }
+
     /**
      * Test our MultiHashMap
      */
@@ -0,0 +1,182 @@
+package de.blau.android.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import de.blau.android.util.collections.MultiHashMap;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class FuzzyIndexTest {
+
+    private static final String DEBUG_TAG = "FuzzyIndexTest";
+
+    private static final String[] SYLLABLES = { "su", "per", "mar", "ket", "sto", "re", "bak", "ery", "ca", "fe", "res", "tau", "rant", "park", "ing",
+            "bus", "stop", "sta", "tion", "ho", "tel", "bar", "pub", "fuel", "sch", "ool", "kin", "der", "gar", "ten", "pha", "rma", "cy" };
+
+    /**
+     * Generate a reproducible set of word like keys
+     *
+     * @param count the number of keys
+     * @return a List of keys
+     */
+    private static List<String> keys(int count) {
+        Random random = new Random(4711);
+        Set<String> keys = new HashSet<>();
+        while (keys.size() < count) {
+            StringBuilder builder = new StringBuilder();
+            int words = 1 + random.nextInt(3);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    builder.append(' ');
+                }
+                int syllables = 1 + random.nextInt(4);
+                for (int s = 0; s < syllables; s++) {
+                    builder.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+            }
+            keys.add(builder.toString());
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Search by checking every key, the same as SearchIndexUtils did previously
+     *
+     * @param keys the keys
+     * @param substrings Strings to check for containment
+     * @param term the term for the edit distance
+     * @param maxDistance the maximum edit distance
+     * @return a Map from matching keys to their distance
+     */
+    private static Map<String, Integer> scan(List<String> keys, List<String> substrings, String term, int maxDistance) {
+        Map<String, Integer> result = new HashMap<>();
+        for (String key : keys) {
+            for (String s : substrings) {
+                if (key.indexOf(s) >= 0) {
+                    result.put(key, 0);
+                    break;
+                }
+            }
+            if (!result.containsKey(key)) {
+                int distance = OptimalStringAlignment.editDistance(key, term, maxDistance);
+                if (distance >= 0) {
+                    result.put(key, distance);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Search with the index
+     *
+     * @param index the FuzzyIndex
+     * @param substrings Strings to check for containment
+     * @param term the term for the edit distance
+     * @param maxDistance the maximum edit distance
+     * @return a Map from matching keys to their distance
+     */
+    private static Map<String, Integer> search(FuzzyIndex index, List<String> substrings, String term, int maxDistance) {
+        Map<String, Integer> result = new HashMap<>();
+        index.search(substrings, term, maxDistance, (String key, int distance) -> assertEquals(null, result.put(key, distance)));
+        return result;
+    }
+
+    /**
+     * Check that the index returns exactly the same results as checking every key
+     */
+    @Test
+    public void sameAsScan() {
+        List<String> keys = keys(5000);
+        FuzzyIndex index = new FuzzyIndex(keys);
+        assertEquals(keys.size(), index.size());
+        Random random = new Random(1234);
+        for (int i = 0; i < 500; i++) {
+            String term = keys.get(random.nextInt(keys.size()));
+            // introduce some typos
+            char[] chars = term.toCharArray();
+            for (int j = random.nextInt(3); j > 0; j--) {
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+            }
+            term = new String(chars).substring(0, 1 + random.nextInt(chars.length));
+            List<String> substrings = Arrays.asList(term.split(" "));
+            for (int maxDistance = 0; maxDistance <= 3; maxDistance++) {
+                assertEquals(term + " " + maxDistance, scan(keys, substrings, term, maxDistance), search(index, substrings, term, maxDistance));
+            }
+        }
+        assertTrue(search(new FuzzyIndex(Collections.emptyList()), Arrays.asList("a"), "a", 2).isEmpty());
+    }
+
+    /**
+     * Check that search as you type returns the same results as a scan over all keys for every keystroke
+     */
+    @Test
+    public void searchAsYouType() {
+        List<String> keys = keys(20000);
+        long start = System.currentTimeMillis();
+        FuzzyIndex index = new FuzzyIndex(keys);
+        long execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "Building index for " + keys.size() + " keys took " + execution + " ms");
+        final String input = "supermarket";
+        long scanTime = 0;
+        long indexTime = 0;
+        for (int length = 1; length <= input.length(); length++) {
+            String term = input.substring(0, length);
+            List<String> substrings = Collections.singletonList(term);
+            int maxDistance = Math.min(2, term.length() / 3);
+            start = System.currentTimeMillis();
+            Map<String, Integer> expected = scan(keys, substrings, term, maxDistance);
+            scanTime += System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            Map<String, Integer> result = search(index, substrings, term, maxDistance);
+            indexTime += System.currentTimeMillis() - start;
+            assertEquals(expected, result);
+        }
+        Log.d(DEBUG_TAG, "Search as you type for " + input.length() + " keystrokes took " + scanTime + " ms scanning, " + indexTime
+                + " ms with index");
+    }
+
+    /**
+     * Check that a cached index is rebuilt when the keys of the search index change, even if the number of keys stays
+     * the same
+     */
+    @Test
+    public void cacheInvalidation() {
+        MultiHashMap<String, String> searchIndex = new MultiHashMap<>();
+        searchIndex.add("supermarket", "a");
+        searchIndex.add("bakery", "b");
+        FuzzyIndex index = SearchIndexUtils.getFuzzyIndex(searchIndex);
+        assertSame(index, SearchIndexUtils.getFuzzyIndex(searchIndex));
+        searchIndex.add("bakery", "c");
+        assertSame(index, SearchIndexUtils.getFuzzyIndex(searchIndex));
+
+        searchIndex.removeKey("bakery");
+        searchIndex.add("cafe", "b");
+        FuzzyIndex rebuilt = SearchIndexUtils.getFuzzyIndex(searchIndex);
+        assertNotSame(index, rebuilt);
+        assertEquals(2, rebuilt.size());
+        assertEquals(Collections.singleton("cafe"), search(rebuilt, Arrays.asList("cafe"), "cafe", 0).keySet());
+
+        SearchIndexUtils.clearFuzzyIndices();
+        assertNotSame(rebuilt, SearchIndexUtils.getFuzzyIndex(searchIndex));
+    }
+}
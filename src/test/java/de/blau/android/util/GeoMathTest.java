@@ -1,10 +1,13 @@
 package de.blau.android.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -225,6 +228,63 @@ public class GeoMathTest {
         assertEquals(7, points.get(15), 0.01);
     }
 
+    /**
+     * Test Douglas-Peucker simplification
+     */
+    @Test
+    public void simplify() {
+        FloatPrimitiveList points = new FloatPrimitiveList();
+        assertEquals(0, GeoMath.simplify(points, 1f).length);
+        points.add(0);
+        points.add(0);
+        points.add(10);
+        points.add(0);
+        assertArrayEquals(new int[] { 0, 1 }, GeoMath.simplify(points, 1f));
+
+        // a nearly straight line collapses to its end points
+        points.clear();
+        for (int i = 0; i < 100; i++) {
+            points.add(i);
+            points.add((i % 2) * 0.5f);
+        }
+        assertArrayEquals(new int[] { 0, 99 }, GeoMath.simplify(points, 1f));
+        assertEquals(100, GeoMath.simplify(points, 0.1f).length);
+
+        // a square with additional nodes on the sides
+        points.clear();
+        float[] square = { 0, 0, 5, 0, 10, 0, 10, 5, 10, 10, 5, 10, 0, 10, 0, 5, 0, 0 };
+        for (float f : square) {
+            points.add(f);
+        }
+        assertArrayEquals(new int[] { 0, 2, 4, 6, 8 }, GeoMath.simplify(points, 1f));
+
+        // random walk, removed vertices must be within the tolerance of the simplified line
+        Random random = new Random(4711);
+        points.clear();
+        float x = 0;
+        float y = 0;
+        for (int i = 0; i < 10000; i++) {
+            x += random.nextFloat() * 2 - 0.5f;
+            y += random.nextFloat() * 2 - 1f;
+            points.add(x);
+            points.add(y);
+        }
+        final float tolerance = 3f;
+        int[] kept = GeoMath.simplify(points, tolerance);
+        assertTrue(kept.length < 10000);
+        assertEquals(0, kept[0]);
+        assertEquals(9999, kept[kept.length - 1]);
+        for (int k = 1; k < kept.length; k++) {
+            int first = kept[k - 1];
+            int last = kept[k];
+            assertTrue(last > first);
+            for (int i = first + 1; i < last; i++) {
+                assertTrue(GeoMath.getLineDistance(points.get(2 * i), points.get(2 * i + 1), points.get(2 * first), points.get(2 * first + 1),
+                        points.get(2 * last), points.get(2 * last + 1)) <= tolerance);
+            }
+        }
+    }
+
     /**
      * Silly test
      */
@@ -0,0 +1,120 @@
+package de.blau.android.util.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.filters.LargeTest;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.osm.OsmElementUtil;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class OsmElementValueMapTest {
+
+    /**
+     * Compare against a HashMap with random puts and removes
+     */
+    @Test
+    public void randomOperations() {
+        OsmElementValueMap<Node, Integer> map = new OsmElementValueMap<>();
+        Map<Long, Node> nodes = new HashMap<>();
+        Map<Node, Integer> reference = new HashMap<>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 100000; i++) {
+            long id = random.nextInt(2000) - 1000L;
+            Node node = nodes.get(id);
+            if (node == null) {
+                node = OsmElementFactory.createNode(id, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+                nodes.put(id, node);
+            }
+            switch (random.nextInt(3)) {
+            case 0:
+                Integer value = random.nextInt(10) == 0 ? null : i;
+                map.put(node, value);
+                reference.put(node, value);
+                break;
+            case 1:
+                assertEquals(reference.containsKey(node), map.remove(id));
+                reference.remove(node);
+                break;
+            default:
+                assertEquals(reference.get(node), map.get(node));
+                assertEquals(reference.containsKey(node), map.containsKey(node));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (Entry<Node, Integer> e : reference.entrySet()) {
+            assertTrue(map.containsKey(e.getKey()));
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        List<Node> selected = map.keys(new ArrayList<>(), v -> v != null && v % 2 == 0);
+        HashSet<Node> expected = new HashSet<>();
+        for (Entry<Node, Integer> e : reference.entrySet()) {
+            if (e.getValue() != null && e.getValue() % 2 == 0) {
+                expected.add(e.getKey());
+            }
+        }
+        assertEquals(expected, new HashSet<>(selected));
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * Check that a different element with the same id is not matched and replaces the existing entry
+     */
+    @Test
+    public void sameId() {
+        OsmElementValueMap<Node, String> map = new OsmElementValueMap<>();
+        Node node1 = OsmElementFactory.createNode(1, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        Node node2 = OsmElementFactory.createNode(1, 2, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        map.put(node1, "1");
+        assertNull(map.get(node2));
+        assertFalse(map.containsKey(node2));
+        map.put(node2, "2");
+        assertEquals(1, map.size());
+        assertNull(map.get(node1));
+        assertEquals("2", map.get(node2));
+    }
+
+    /**
+     * Check that changing the id of a key doesn't break lookups and removal of the other keys
+     */
+    @Test
+    public void idChange() {
+        OsmElementValueMap<Node, Integer> map = new OsmElementValueMap<>();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Node node = OsmElementFactory.createNode(-i - 1L, 1, 0, OsmElement.STATE_CREATED, 0, 0);
+            nodes.add(node);
+            map.put(node, i);
+        }
+        Node changed = nodes.get(500);
+        OsmElementUtil.setOsmId(changed, 4711L);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != 500) {
+                assertTrue(map.remove(-i - 1L));
+            }
+        }
+        assertEquals(1, map.size());
+        assertTrue(map.remove(-501L));
+        assertTrue(map.isEmpty());
+        map.put(changed, 1);
+        assertEquals(Integer.valueOf(1), map.get(changed));
+    }
+}
@@ -1,6 +1,7 @@
 package de.blau.android.util.mvt;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
@@ -72,6 +73,31 @@ public class DecodeTest {
         }
     }
 
+    /**
+     * Decode only a single layer and check that the lazily determined geometry types match the decoded geometries
+     */
+    @Test
+    public void prunedDecodingTest() {
+        try {
+            VectorTileDecoder.FeatureIterable decodedTile = new VectorTileDecoder().decode(readTile("/tilemaker_tile.pbf"));
+            Map<String, List<VectorTileDecoder.Feature>> all = decodedTile.asMap();
+            assertEquals(decodedTile.getLayerNames().size(), all.size());
+            for (String layerName : decodedTile.getLayerNames()) {
+                Map<String, List<VectorTileDecoder.Feature>> pruned = decodedTile.filter(new Filter.Single(layerName)).asMap();
+                assertEquals(1, pruned.size());
+                List<VectorTileDecoder.Feature> features = pruned.get(layerName);
+                assertEquals(all.get(layerName).size(), features.size());
+                for (VectorTileDecoder.Feature f : features) {
+                    assertTrue(decodedTile.getAttributeKeys(layerName).containsAll(f.getAttributes().keySet()));
+                    String type = f.getGeometryType();
+                    assertEquals(type, f.getGeometry().type());
+                }
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Read a sample tile in to a byte array
      * 
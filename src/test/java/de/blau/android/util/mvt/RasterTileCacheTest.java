@@ -0,0 +1,74 @@
+package de.blau.android.util.mvt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class RasterTileCacheTest {
+
+    private static final int SIZE = 256;
+
+    /**
+     * Check that entries are only found for the same tile, zoom, size and style revision
+     */
+    @Test
+    public void keys() {
+        RasterTileCache cache = new RasterTileCache(10L * SIZE * SIZE * 4);
+        Map<String, List<VectorTileDecoder.Feature>> tile = new HashMap<>();
+        Map<String, List<VectorTileDecoder.Feature>> other = new HashMap<>(); // equal but not the same
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        cache.put(tile, 14, 1, bitmap);
+        assertSame(bitmap, cache.get(tile, 14, SIZE, SIZE, 1));
+        assertNull(cache.get(other, 14, SIZE, SIZE, 1));
+        assertNull(cache.get(tile, 15, SIZE, SIZE, 1));
+        assertNull(cache.get(tile, 14, SIZE + 1, SIZE, 1));
+        assertNull(cache.get(tile, 14, SIZE, SIZE, 2));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * Check that the least recently used entries are evicted when the size limit is exceeded
+     */
+    @Test
+    public void eviction() {
+        RasterTileCache cache = new RasterTileCache(3L * SIZE * SIZE * 4);
+        List<Map<String, List<VectorTileDecoder.Feature>>> tiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, List<VectorTileDecoder.Feature>> tile = new HashMap<>();
+            tiles.add(tile);
+            cache.put(tile, 14, 0, Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        }
+        assertEquals(3, cache.size());
+        assertEquals(cache.getMaxBytes(), cache.getBytes());
+        assertNotNull(cache.get(tiles.get(0), 14, SIZE, SIZE, 0)); // now most recently used
+        Map<String, List<VectorTileDecoder.Feature>> tile = new HashMap<>();
+        cache.put(tile, 14, 0, Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get(tiles.get(0), 14, SIZE, SIZE, 0));
+        assertNull(cache.get(tiles.get(1), 14, SIZE, SIZE, 0));
+        assertNotNull(cache.get(tiles.get(2), 14, SIZE, SIZE, 0));
+        assertNotNull(cache.get(tile, 14, SIZE, SIZE, 0));
+        // a Bitmap larger than the cache is retained on its own
+        Bitmap large = Bitmap.createBitmap(SIZE * 2, SIZE * 2, Bitmap.Config.ARGB_8888);
+        cache.put(tile, 15, 0, large);
+        assertEquals(1, cache.size());
+        assertSame(large, cache.get(tile, 15, SIZE * 2, SIZE * 2, 0));
+    }
+}
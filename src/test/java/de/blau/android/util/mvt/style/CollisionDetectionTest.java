@@ -1,5 +1,6 @@
 package de.blau.android.util.mvt.style;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -34,4 +35,57 @@ public class CollisionDetectionTest {
         assertFalse(detector.collides(new Rect(120, 120, 180, 180)));
         assertFalse(detector.collides(new Rect(250, 150, 280, 180)));
     }
+
+    /**
+     * Same as above with the grid based detector, plus rotated boxes and more boxes than the simple detector handles
+     */
+    @Test
+    public void gridCollisionTest() {
+        GridCollisionDetector detector = new GridCollisionDetector();
+        assertTrue(new Style().getCollisionDetector() instanceof GridCollisionDetector);
+
+        assertFalse(detector.collides(new Rect(100, 100, 200, 200)));
+        assertFalse(detector.collides(new float[] { 220, 100 }, new float[] { 270, 200 }, 10));
+
+        // inside
+        assertTrue(detector.collides(new Rect(120, 120, 180, 180)));
+        // intersection
+        assertTrue(detector.collides(new Rect(250, 150, 280, 180)));
+        // inside the bounding box of the rotated box but not inside the box itself
+        assertFalse(detector.collides(new Rect(215, 170, 225, 180)));
+        // crossing the rotated box
+        assertTrue(detector.collides(new float[] { 220, 200 }, new float[] { 270, 100 }, 2));
+
+        detector.reset();
+        // these shoudn't collide now
+        assertFalse(detector.collides(new Rect(120, 120, 180, 180)));
+        assertFalse(detector.collides(new Rect(250, 150, 280, 180)));
+
+        detector.reset();
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 50; j++) {
+                assertFalse(detector.collides(new Rect(i * 20, j * 20, i * 20 + 10, j * 20 + 10)));
+            }
+        }
+        assertEquals(2500, detector.size());
+        assertTrue(detector.collides(new Rect(985, 985, 995, 995)));
+        assertFalse(detector.collides(new Rect(1011, 1011, 1019, 1019)));
+        // large box covering everything
+        assertTrue(detector.collides(new Rect(-100, -100, 2000, 2000)));
+    }
+
+    /**
+     * Check that a diagonal label covers the area on both sides of the line
+     */
+    @Test
+    public void diagonalLabelTest() {
+        GridCollisionDetector detector = new GridCollisionDetector();
+        assertFalse(detector.collides(new float[] { 100, 100 }, new float[] { 200, 200 }, 10));
+        // inside the bounding box but further away from the line than the height
+        assertFalse(detector.collides(new Rect(160, 140, 164, 144)));
+        // overlapping the label to one side of the line
+        assertTrue(detector.collides(new Rect(143, 153, 147, 157)));
+        // and to the other side
+        assertTrue(detector.collides(new Rect(153, 143, 157, 147)));
+    }
 }
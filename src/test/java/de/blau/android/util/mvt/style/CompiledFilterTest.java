@@ -0,0 +1,217 @@
+package de.blau.android.util.mvt.style;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.mapbox.geojson.Point;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.resources.DataStyle;
+import de.blau.android.util.mvt.VectorTileDecoder;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class CompiledFilterTest {
+
+    private static final String   DEBUG_TAG = "CompiledFilterTest";
+    private static final String[] TILES     = { "/tilemaker_tile.pbf", "/openinframap_tile.pbf" };
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        // default values are currently taken from the data style
+        DataStyle.getStylesFromFiles(ApplicationProvider.getApplicationContext());
+    }
+
+    /**
+     * Check that constant sub-filters are folded
+     */
+    @Test
+    public void constantFolding() {
+        assertSame(CompiledFilter.TRUE, compile("[\"all\"]"));
+        assertSame(CompiledFilter.FALSE, compile("[\"any\"]"));
+        assertSame(CompiledFilter.TRUE, compile("[\"any\", [\"==\", \"s1\", \"string\"], [\"to-boolean\", 1]]"));
+        assertSame(CompiledFilter.FALSE, compile("[\"all\", [\"==\", \"s1\", \"string\"], [\"to-boolean\", \"\"]]"));
+        assertSame(CompiledFilter.FALSE, compile("[\"unknown\", \"s1\"]"));
+        assertSame(CompiledFilter.FALSE, compile("[\"all\", \"s1\"]")); // invalid
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("s1", "string");
+        attributes.put("i1", 111);
+        VectorTileDecoder.Feature feature = new VectorTileDecoder.Feature("test", 256, Point.fromLngLat(0, 0), attributes, -1);
+        CompiledFilter filter = compile("[\"all\", [\"to-boolean\", true], [\"all\", [\"==\", \"s1\", \"string\"], [\"has\", \"i1\"]]]");
+        assertTrue(filter.accept(feature));
+        filter = compile("[\"all\", [\"to-boolean\", true], [\"all\", [\"==\", \"s1\", \"string\"], [\"!has\", \"i1\"]]]");
+        assertFalse(filter.accept(feature));
+        assertTrue(compile("[\"in\", \"i1\", 110, 111]").accept(feature));
+        assertFalse(compile("[\"!in\", \"i1\", 110, 111]").accept(feature));
+        assertTrue(compile("[\"!in\", \"s1\", \"a\", \"b\"]").accept(feature));
+        assertTrue(compile("[\"==\", \"$type\", \"Point\"]").accept(feature));
+    }
+
+    /**
+     * Check that operands that only convert to some numeric types still compare correctly
+     */
+    @Test
+    public void mixedNumericTypes() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("i1", 4);
+        attributes.put("l1", 10000000000L);
+        attributes.put("f1", 3.5f);
+        attributes.put("d1", 10000000000d);
+        VectorTileDecoder.Feature feature = new VectorTileDecoder.Feature("test", 256, Point.fromLngLat(0, 0), attributes, -1);
+        // 3.5 isn't integral
+        assertTrue(compile("[\">\", \"i1\", 3.5]").accept(feature));
+        assertFalse(compile("[\"<\", \"i1\", 3.5]").accept(feature));
+        assertFalse(compile("[\"==\", \"i1\", 3.5]").accept(feature));
+        assertTrue(compile("[\"==\", \"f1\", 3.5]").accept(feature));
+        assertTrue(compile("[\"==\", \"i1\", 4.0]").accept(feature));
+        // 10000000000 doesn't fit in an int
+        assertTrue(compile("[\"<\", \"i1\", 10000000000]").accept(feature));
+        assertTrue(compile("[\"==\", \"l1\", 10000000000]").accept(feature));
+        assertTrue(compile("[\"==\", \"d1\", 10000000000]").accept(feature));
+        assertTrue(compile("[\"in\", \"l1\", 1, 10000000000]").accept(feature));
+        // not a number at all
+        assertFalse(compile("[\"==\", \"i1\", \"four\"]").accept(feature));
+        assertTrue(compile("[\"==\", \"i1\", \"4\"]").accept(feature));
+    }
+
+    /**
+     * Check that the compiled filter is updated if it is changed
+     */
+    @Test
+    public void setFilter() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("id", 1L);
+        VectorTileDecoder.Feature feature = new VectorTileDecoder.Feature("test", 256, Point.fromLngLat(0, 0), attributes, -1);
+        Symbol symbol = new Symbol("test");
+        assertTrue(symbol.evaluateFilter(feature));
+        JsonArray filter = (JsonArray) JsonParser.parseString("[\"==\", \"id\", 0]");
+        symbol.setFilter(filter);
+        assertFalse(symbol.evaluateFilter(feature));
+        filter.set(2, new JsonPrimitive(1L));
+        symbol.setFilter(filter);
+        assertTrue(symbol.evaluateFilter(feature));
+    }
+
+    /**
+     * Evaluate the filters of a real world style against captured tiles with both the interpreter and the compiled
+     * filters and check that the results are the same
+     */
+    @Test
+    public void sameAsInterpreter() {
+        List<Layer> layers = loadLayers();
+        for (String tile : TILES) {
+            List<VectorTileDecoder.Feature> features = decode(tile);
+            List<Boolean> interpreted = new ArrayList<>();
+            long start = System.currentTimeMillis();
+            for (Layer layer : layers) {
+                JsonArray filter = layer.getFilter();
+                for (VectorTileDecoder.Feature feature : features) {
+                    interpreted.add(filter == null || layer.evaluateFilter(filter, feature));
+                }
+            }
+            long execution = System.currentTimeMillis() - start;
+            Log.d(DEBUG_TAG, "Interpreting filters for " + tile + " took " + execution + " ms");
+            List<Boolean> compiled = new ArrayList<>();
+            start = System.currentTimeMillis();
+            for (Layer layer : layers) {
+                for (VectorTileDecoder.Feature feature : features) {
+                    compiled.add(layer.evaluateFilter(feature));
+                }
+            }
+            execution = System.currentTimeMillis() - start;
+            Log.d(DEBUG_TAG, "Compiled filters for " + tile + " took " + execution + " ms");
+            int i = 0;
+            for (Layer layer : layers) {
+                for (VectorTileDecoder.Feature feature : features) {
+                    assertEquals(layer.getId() + " " + feature.getAttributes(), interpreted.get(i), compiled.get(i));
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the layers of the osm-liberty style
+     * 
+     * @return a List of Layer
+     */
+    @NonNull
+    private static List<Layer> loadLayers() {
+        Style style = new Style();
+        final Context ctx = ApplicationProvider.getApplicationContext();
+        style.loadStyle(ctx, CompiledFilterTest.class.getResourceAsStream("/osm-liberty.json"));
+        return style.getLayers();
+    }
+
+    /**
+     * Decode a sample tile
+     * 
+     * @param filename the tile to decode
+     * @return a List of the features in the tile
+     */
+    @NonNull
+    private static List<VectorTileDecoder.Feature> decode(@NonNull String filename) {
+        try {
+            return new VectorTileDecoder().decode(readTile(filename)).asList();
+        } catch (IOException e) {
+            fail(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Compile a filter
+     * 
+     * @param json the JSON representation of the filter
+     * @return a CompiledFilter
+     */
+    private static CompiledFilter compile(@NonNull String json) {
+        return CompiledFilter.compile((JsonArray) JsonParser.parseString(json));
+    }
+
+    /**
+     * Read a sample tile in to a byte array
+     * 
+     * @param filename the tile to read
+     * 
+     * @return a byte array containing the data
+     * @throws IOException if reading fails
+     */
+    private static byte[] readTile(@NonNull String filename) throws IOException {
+        try (InputStream input = CompiledFilterTest.class.getResourceAsStream(filename); ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+            int nRead;
+            byte[] data = new byte[1024];
+            while ((nRead = input.read(data, 0, data.length)) != -1) {
+                buffer.write(data, 0, nRead);
+            }
+            return buffer.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package de.blau.android.views.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import de.blau.android.exception.StorageException;
+import de.blau.android.services.util.MapTile;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class TileCacheTest {
+
+    private static final String DEBUG_TAG = "TileCacheTest";
+
+    /**
+     * Check that packing and unpacking keys works
+     */
+    @Test
+    public void keys() {
+        MapTile tile = new MapTile("A", TileKey.MAX_ZOOM, (1 << TileKey.MAX_ZOOM) - 1, 12345);
+        long key = tile.toKey();
+        assertNotEquals(0, key);
+        assertEquals(TileKey.rendererIndex("A"), TileKey.rendererIndex(key));
+        assertEquals(TileKey.MAX_ZOOM, TileKey.zoom(key));
+        assertEquals((1 << TileKey.MAX_ZOOM) - 1, TileKey.x(key));
+        assertEquals(12345, TileKey.y(key));
+        assertEquals(tile.toString(), TileKey.toString(key));
+        assertEquals(key, new MapTile(tile).toKey());
+        // different renderer
+        assertNotEquals(key, new MapTile("B", TileKey.MAX_ZOOM, (1 << TileKey.MAX_ZOOM) - 1, 12345).toKey());
+        assertEquals(TileKey.rendererIndex("A"), TileKey.rendererIndex("A"));
+        // neighbours and tiles at other zoom levels
+        assertNotEquals(new MapTile("A", 1, 0, 1).toKey(), new MapTile("A", 1, 1, 0).toKey());
+        assertNotEquals(new MapTile("A", 1, 0, 0).toKey(), new MapTile("A", 0, 0, 0).toKey());
+        try {
+            new MapTile("A", TileKey.MAX_ZOOM + 1, 0, 0).toKey();
+            fail("should have thrown an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Check the limits of the key layout
+     */
+    @Test
+    public void keyBoundaries() {
+        final int max = (1 << TileKey.MAX_ZOOM) - 1;
+        long key = TileKey.pack(TileKey.MAX_RENDERERS, TileKey.MAX_ZOOM, max, max);
+        assertEquals(TileKey.MAX_RENDERERS, TileKey.rendererIndex(key));
+        assertEquals(TileKey.MAX_ZOOM, TileKey.zoom(key));
+        assertEquals(max, TileKey.x(key));
+        assertEquals(max, TileKey.y(key));
+        key = TileKey.pack(1, 0, 0, 0);
+        assertNotEquals(0, key);
+        assertEquals(1, TileKey.rendererIndex(key));
+        assertEquals(0, TileKey.zoom(key));
+        assertEquals(0, TileKey.x(key));
+        assertEquals(0, TileKey.y(key));
+        // the neighbouring zoom levels at the top of the range don't collide
+        assertNotEquals(TileKey.pack(1, TileKey.MAX_ZOOM, 0, 0), TileKey.pack(1, TileKey.MAX_ZOOM - 1, 0, 0));
+        for (int zoom : new int[] { -1, TileKey.MAX_ZOOM + 1 }) {
+            try {
+                TileKey.pack(1, zoom, 0, 0);
+                fail("should have thrown an exception for zoom " + zoom);
+            } catch (IllegalArgumentException e) {
+                // expected, callers need to clamp to MAX_ZOOM
+            }
+        }
+    }
+
+    /**
+     * Compare the LRU cache against a LinkedHashMap with access order
+     */
+    @Test
+    public void lru() {
+        final int maxSize = 200;
+        LRUMapTileCache<String> cache = new LRUMapTileCache<>(maxSize);
+        LinkedHashMap<Long, String> reference = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(4711);
+        try {
+            for (int i = 0; i < 100000; i++) {
+                MapTile tile = new MapTile("lru", 18, random.nextInt(64), random.nextInt(64));
+                long key = tile.toKey();
+                if (random.nextBoolean()) {
+                    assertEquals(reference.get(key), cache.get(key));
+                } else {
+                    String value = tile.toString();
+                    if (!reference.containsKey(key)) {
+                        // non-Bitmap elements count 1 and the cache leaves room for 2 before adding
+                        Iterator<Entry<Long, String>> it = reference.entrySet().iterator();
+                        while (reference.size() > maxSize - 2) {
+                            it.next();
+                            it.remove();
+                        }
+                        reference.put(key, value);
+                    } else {
+                        reference.get(key);
+                    }
+                    cache.put(key, value, false, 0);
+                }
+                assertEquals(reference.size(), cache.size());
+            }
+        } catch (StorageException e) {
+            fail(e.getMessage());
+        }
+        for (Entry<Long, String> e : reference.entrySet()) {
+            assertTrue(cache.containsKey(e.getKey()));
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.containsKey(reference.keySet().iterator().next()));
+        assertNull(cache.get(reference.keySet().iterator().next()));
+    }
+
+    /**
+     * Check that tiles are found with packed keys as with String ids
+     */
+    @Test
+    public void lookup() {
+        final int size = 64;
+        Map<String, String> stringMap = new HashMap<>();
+        LRUMapTileCache<String> cache = new LRUMapTileCache<>(Long.MAX_VALUE);
+        try {
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    MapTile tile = new MapTile("lookup", 18, x, y);
+                    stringMap.put(tile.toId(), tile.toString());
+                    cache.put(tile.toKey(), tile.toString(), false, 0);
+                }
+            }
+        } catch (StorageException e) {
+            fail(e.getMessage());
+        }
+        MapTile tile = new MapTile("lookup", 18, 0, 0);
+        long start = System.currentTimeMillis();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                tile.reinit();
+                tile.x = x;
+                tile.y = y;
+                assertEquals(tile.toString(), stringMap.get(tile.toId()));
+            }
+        }
+        long execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "Lookup of " + size * size + " tiles by String id took " + execution + " ms");
+        start = System.currentTimeMillis();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                tile.x = x;
+                tile.y = y;
+                assertEquals(tile.toString(), cache.get(tile.toKey()));
+            }
+        }
+        execution = System.currentTimeMillis() - start;
+        Log.d(DEBUG_TAG, "Lookup of " + size * size + " tiles by key took " + execution + " ms");
+    }
+}
@@ -0,0 +1,23 @@
+package de.blau.android.osm;
+
+import androidx.annotation.NonNull;
+
+public class OsmElementUtil {
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private OsmElementUtil() {
+        // private
+    }
+
+    /**
+     * Set the id of an element like an upload would
+     * 
+     * @param e the OsmElement
+     * @param id the new id
+     */
+    public static void setOsmId(@NonNull OsmElement e, long id) {
+        e.setOsmId(id);
+    }
+}
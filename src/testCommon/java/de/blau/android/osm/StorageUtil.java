@@ -0,0 +1,82 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+public class StorageUtil {
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private StorageUtil() {
+        // private
+    }
+
+    /**
+     * Check that two Storage instances contain the same data
+     * 
+     * @param expected the expected data
+     * @param actual the actual data
+     */
+    public static void assertSameData(@NonNull Storage expected, @NonNull Storage actual) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getWayCount(), actual.getWayCount());
+        assertEquals(expected.getRelationCount(), actual.getRelationCount());
+        assertEquals(expected.getBoundingBoxes(), actual.getBoundingBoxes());
+        for (Node n : expected.getNodeIndex()) {
+            Node other = actual.getNode(n.getOsmId());
+            assertSameElement(n, other);
+            assertEquals(n.getLat(), other.getLat());
+            assertEquals(n.getLon(), other.getLon());
+        }
+        for (Way w : expected.getWayIndex()) {
+            Way other = actual.getWay(w.getOsmId());
+            assertSameElement(w, other);
+            List<Node> nodes = w.getNodes();
+            List<Node> otherNodes = other.getNodes();
+            assertEquals(nodes.size(), otherNodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                assertEquals(nodes.get(i).getOsmId(), otherNodes.get(i).getOsmId());
+                Node inStorage = actual.getNode(otherNodes.get(i).getOsmId());
+                if (inStorage != null) {
+                    assertSame(inStorage, otherNodes.get(i));
+                }
+            }
+        }
+        for (Relation r : expected.getRelationIndex()) {
+            Relation other = actual.getRelation(r.getOsmId());
+            assertSameElement(r, other);
+            List<RelationMember> members = r.getMembers();
+            List<RelationMember> otherMembers = other.getMembers();
+            assertEquals(members.size(), otherMembers.size());
+            for (int i = 0; i < members.size(); i++) {
+                RelationMember member = members.get(i);
+                RelationMember otherMember = otherMembers.get(i);
+                assertEquals(member.getType(), otherMember.getType());
+                assertEquals(member.getRef(), otherMember.getRef());
+                assertEquals(member.getRole(), otherMember.getRole());
+                assertEquals(member.getElement() == null, otherMember.getElement() == null);
+            }
+        }
+    }
+
+    /**
+     * Check the attributes common to all elements
+     * 
+     * @param expected the expected element
+     * @param actual the actual element
+     */
+    private static void assertSameElement(@NonNull OsmElement expected, @Nullable OsmElement actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getOsmVersion(), actual.getOsmVersion());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getTags(), actual.getTags());
+    }
+}